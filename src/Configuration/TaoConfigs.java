@@ -1,6 +1,9 @@
 package Configuration;
 
+import TaoProxy.CryptoUtil;
+import TaoProxy.ServerInitializer;
 import TaoProxy.TaoLogger;
+import TaoProxy.TaoStreamCryptoUtil;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -28,9 +31,75 @@ public class TaoConfigs {
     // Amount of threads to be used for asynchronous I/O
     public static int PROXY_THREAD_COUNT;
 
+    // How the proxy, servers and clients run the tasks that serve requests, either "platform" or "virtual" threads
+    public static String THREAD_MODE;
+
+    // Amount of threads the proxy uses to handle paths returned by the servers, 0 to use one per core
+    public static int RESPONSE_THREADS;
+
+    // The most tasks that can wait for a thread in each bounded executor before tasks are run by their submitter
+    public static int EXECUTOR_QUEUE_SIZE;
+
+    // The amount of seconds between logs of the stats of each executor, 0 to not log them
+    public static long EXECUTOR_STATS_INTERVAL;
+
+    // Whether the proxy replies to a client on the channel the request was sent on, instead of connecting to the client
+    public static boolean REPLY_ON_REQUEST_CHANNEL;
+
     // The writeback threshold for the proxy
     public static int WRITE_BACK_THRESHOLD;
 
+    // The most path reads the proxy will send to a server in a single batch, 1 to disable batching
+    public static int READ_BATCH_SIZE;
+
+    // The amount of microseconds the proxy will wait for more path reads before sending a batch
+    public static long READ_BATCH_WINDOW;
+
+    // The amount of connections the proxy keeps open to each storage server for path reads that are not batched
+    public static int SERVER_CONNECTIONS;
+
+    // The amount of connections the proxy keeps open to each storage server for writebacks
+    public static int WRITE_BACK_CONNECTIONS;
+
+    // The amount of milliseconds the proxy waits for a storage server to answer a request before trying again
+    public static long SERVER_REQUEST_TIMEOUT;
+
+    // The amount of times the proxy tries a path read again before failing the requests waiting on it
+    public static int SERVER_REQUEST_RETRIES;
+
+    // The amount of times the proxy tries a writeback again before giving up on it
+    public static int WRITE_BACK_RETRIES;
+
+    // The most blocks the stash may hold before new requests wait for it to shrink, 0 for no limit
+    public static int STASH_CAPACITY;
+
+    // How the proxy stores block positions, either "hash", "primitive" or "dense"
+    public static String POSITION_MAP_TYPE;
+
+    // Whether the primitive and dense position maps are kept off heap
+    public static boolean POSITION_MAP_OFF_HEAP;
+
+    // The amount of blocks the position map is sized for, 0 for the amount of blocks that fit in the tree
+    public static long POSITION_MAP_CAPACITY;
+
+    // Directory where the proxy keeps its checkpoint, empty if checkpoints are disabled
+    public static String CHECKPOINT_DIRECTORY;
+
+    // The size in bytes the position map log can reach before it is compacted
+    public static long CHECKPOINT_COMPACT_SIZE;
+
+    // How the proxy initializes the servers, either by formatting the whole tree or by writing each path
+    public static String INITIALIZE_MODE;
+
+    // The amount of paths sent in each request when the proxy initializes the servers by path
+    public static int INITIALIZE_BATCH_SIZE;
+
+    // The size in bytes of each request when the proxy formats the servers
+    public static int INITIALIZE_FORMAT_SIZE;
+
+    // The amount of initialize requests the proxy keeps outstanding to each server
+    public static int INITIALIZE_PIPELINE_DEPTH;
+
     // Port to be used by client
     public static int CLIENT_PORT;
 
@@ -54,6 +123,9 @@ public class TaoConfigs {
     // The size of the initialization vector for encryption
     public static int IV_SIZE;
 
+    // The mode used to encrypt buckets, either cbc, ctr or gcm
+    public static String ENCRYPTION_MODE;
+
     // The size of the bucket in bytes, to be determined when initConfiguration is called
     public static int BUCKET_SIZE;
 
@@ -78,6 +150,24 @@ public class TaoConfigs {
     // Port used by servers
     public static int SERVER_PORT;
 
+    // Amount of threads each server uses to serve read requests, 0 to use one per core
+    public static int SERVER_READ_THREADS;
+
+    // Amount of threads each server uses to serve write and initialize requests, 0 to use one per core
+    public static int SERVER_WRITE_THREADS;
+
+    // The storage engine used by servers, either "file" or "mapped"
+    public static String STORAGE_ENGINE;
+
+    // The size in bytes of each segment of the ORAM file that is mapped into memory by the mapped storage engine
+    public static long STORAGE_SEGMENT_SIZE;
+
+    // When the mapped storage engine forces writes to disk, either "none", "always", "group", or "periodic"
+    public static String STORAGE_SYNC_POLICY;
+
+    // The amount of milliseconds between forces for the "periodic" sync policy
+    public static long STORAGE_SYNC_INTERVAL;
+
     // The list of storage servers to be used by proxy
     public static List<InetSocketAddress> PARTITION_SERVERS = new ArrayList<>();
 
@@ -117,10 +207,66 @@ public class TaoConfigs {
                 String proxy_thread_count = properties.getProperty("proxy_thread_count");
                 PROXY_THREAD_COUNT = Integer.parseInt(proxy_thread_count);
 
+                // Assign how the executors that run tasks for requests are sized
+                THREAD_MODE = properties.getProperty("thread_mode");
+                String response_threads = properties.getProperty("response_threads");
+                RESPONSE_THREADS = Integer.parseInt(response_threads);
+                String executor_queue_size = properties.getProperty("executor_queue_size");
+                EXECUTOR_QUEUE_SIZE = Integer.parseInt(executor_queue_size);
+                String executor_stats_interval = properties.getProperty("executor_stats_interval");
+                EXECUTOR_STATS_INTERVAL = Long.parseLong(executor_stats_interval);
+
+                // Assign how the proxy replies to clients
+                String reply_on_request_channel = properties.getProperty("reply_on_request_channel");
+                REPLY_ON_REQUEST_CHANNEL = Boolean.parseBoolean(reply_on_request_channel);
+
                 // Assign write back threshold
                 String write_back_threshold = properties.getProperty("write_back_threshold");
                 WRITE_BACK_THRESHOLD = Integer.parseInt(write_back_threshold);
 
+                // Assign how path reads are batched
+                String read_batch_size = properties.getProperty("read_batch_size");
+                READ_BATCH_SIZE = Integer.parseInt(read_batch_size);
+                String read_batch_window = properties.getProperty("read_batch_window");
+                READ_BATCH_WINDOW = Long.parseLong(read_batch_window);
+                String server_connections = properties.getProperty("server_connections");
+                SERVER_CONNECTIONS = Integer.parseInt(server_connections);
+                String write_back_connections = properties.getProperty("write_back_connections");
+                WRITE_BACK_CONNECTIONS = Integer.parseInt(write_back_connections);
+
+                // Assign how long the proxy waits for storage servers
+                String server_request_timeout = properties.getProperty("server_request_timeout");
+                SERVER_REQUEST_TIMEOUT = Long.parseLong(server_request_timeout);
+                String server_request_retries = properties.getProperty("server_request_retries");
+                SERVER_REQUEST_RETRIES = Integer.parseInt(server_request_retries);
+                String write_back_retries = properties.getProperty("write_back_retries");
+                WRITE_BACK_RETRIES = Integer.parseInt(write_back_retries);
+
+                // Assign the most blocks the stash may hold
+                String stash_capacity = properties.getProperty("stash_capacity");
+                STASH_CAPACITY = Integer.parseInt(stash_capacity);
+
+                // Assign how block positions are stored
+                POSITION_MAP_TYPE = properties.getProperty("position_map_type");
+                String position_map_off_heap = properties.getProperty("position_map_off_heap");
+                POSITION_MAP_OFF_HEAP = Boolean.parseBoolean(position_map_off_heap);
+                String position_map_capacity = properties.getProperty("position_map_capacity");
+                POSITION_MAP_CAPACITY = Long.parseLong(position_map_capacity);
+
+                // Assign where and how the proxy keeps its checkpoint
+                CHECKPOINT_DIRECTORY = properties.getProperty("checkpoint_directory");
+                String checkpoint_compact_size = properties.getProperty("checkpoint_compact_size");
+                CHECKPOINT_COMPACT_SIZE = Long.parseLong(checkpoint_compact_size) * 1024 * 1024;
+
+                // Assign how the proxy initializes the servers
+                INITIALIZE_MODE = properties.getProperty("initialize_mode");
+                String initialize_batch_size = properties.getProperty("initialize_batch_size");
+                INITIALIZE_BATCH_SIZE = Integer.parseInt(initialize_batch_size);
+                String initialize_format_size = properties.getProperty("initialize_format_size");
+                INITIALIZE_FORMAT_SIZE = Integer.parseInt(initialize_format_size) * 1024 * 1024;
+                String initialize_pipeline_depth = properties.getProperty("initialize_pipeline_depth");
+                INITIALIZE_PIPELINE_DEPTH = Integer.parseInt(initialize_pipeline_depth);
+
                 // Assign client port_name
                 String client_port = properties.getProperty("client_port");
                 CLIENT_PORT = Integer.parseInt(client_port);
@@ -148,10 +294,33 @@ public class TaoConfigs {
                 String iv_size = properties.getProperty("iv_size");
                 IV_SIZE = Integer.parseInt(iv_size);
 
+                // Assign the mode used to encrypt buckets
+                ENCRYPTION_MODE = properties.getProperty("encryption_mode");
+
                 // Assign server port number
                 String server_port = properties.getProperty("server_port");
                 SERVER_PORT = Integer.parseInt(server_port);
 
+                // Assign how many threads will be used on the servers
+                String server_read_threads = properties.getProperty("server_read_threads");
+                SERVER_READ_THREADS = Integer.parseInt(server_read_threads);
+                String server_write_threads = properties.getProperty("server_write_threads");
+                SERVER_WRITE_THREADS = Integer.parseInt(server_write_threads);
+
+                // Assign the storage engine used by servers
+                STORAGE_ENGINE = properties.getProperty("storage_engine");
+
+                // Assign the size of each mapped segment of the ORAM file
+                String storage_segment_size = properties.getProperty("storage_segment_size");
+                STORAGE_SEGMENT_SIZE = Long.parseLong(storage_segment_size) * 1024 * 1024;
+
+                // Assign the sync policy for the storage engine
+                STORAGE_SYNC_POLICY = properties.getProperty("storage_sync_policy");
+
+                // Assign the interval for the periodic sync policy
+                String storage_sync_interval = properties.getProperty("storage_sync_interval");
+                STORAGE_SYNC_INTERVAL = Long.parseLong(storage_sync_interval);
+
                 // Make list of all the storage servers
                 String num_storage_servers = properties.getProperty("num_storage_servers");
                 int num_servers = Integer.parseInt(num_storage_servers);
@@ -184,6 +353,13 @@ public class TaoConfigs {
             System.exit(1);
         }
 
+        // Make sure the servers are initialized in a known way
+        if (!ServerInitializer.MODE_FORMAT.equals(INITIALIZE_MODE) && !ServerInitializer.MODE_PATHS.equals(INITIALIZE_MODE)) {
+            TaoLogger.logError("initialize_mode must be " + ServerInitializer.MODE_FORMAT + " or " +
+                    ServerInitializer.MODE_PATHS + ", not " + INITIALIZE_MODE);
+            System.exit(1);
+        }
+
         // Determine the total size of a block based on user configs
         TOTAL_BLOCK_SIZE = BLOCK_META_DATA_SIZE + BLOCK_SIZE;
 
@@ -238,16 +414,16 @@ public class TaoConfigs {
      * @return the size of an encrypted bucket in bytes
      */
     private static long calculateEncryptedBucketSize() {
-        if (TaoConfigs.BUCKET_SIZE % IV_SIZE == 0) {
-            // If we don't need padding to get to a multiple of IV_SIZE, we just need to add IV_SIZE to BUCKET_SIZE
-            return BUCKET_SIZE + IV_SIZE;
-        } else {
-            // We need to account for some padding in the encrypted bucket
-            long padAmount = IV_SIZE - (TaoConfigs.BUCKET_SIZE % IV_SIZE);
-
-            // Return the BUCKET_SIZE with the IV_SIZE and padding
-            return BUCKET_SIZE + padAmount + IV_SIZE;
+        // Counter based modes do not pad, and only add a nonce and possibly a tag
+        if (CryptoUtil.MODE_CTR.equals(ENCRYPTION_MODE) || CryptoUtil.MODE_GCM.equals(ENCRYPTION_MODE)) {
+            return TaoStreamCryptoUtil.getEncryptedSize(ENCRYPTION_MODE, BUCKET_SIZE);
         }
+
+        // PKCS5 padding always adds between 1 and IV_SIZE bytes to get to a multiple of IV_SIZE
+        long padAmount = IV_SIZE - (TaoConfigs.BUCKET_SIZE % IV_SIZE);
+
+        // Return the BUCKET_SIZE with the IV_SIZE and padding
+        return BUCKET_SIZE + padAmount + IV_SIZE;
     }
 
     /**
@@ -38,6 +38,23 @@ public class Utility {
         return ret;
     }
 
+    /**
+     * @brief Return the first level of a path that is not shared with any path with a lower ID. When every path is
+     *        written in order of ID, each bucket only needs to be written by the first path that contains it
+     * @param pathID
+     * @param height
+     * @return the level of the first unshared bucket, where the root is level 0
+     */
+    public static int getFirstUnsharedLevel(long pathID, int height) {
+        // Path 0 is the first path to contain every bucket on it
+        if (pathID == 0) {
+            return 0;
+        }
+
+        // The path shares every bucket above the lowest set bit of its ID with the path before it
+        return height - Long.numberOfTrailingZeros(pathID);
+    }
+
     /**
      * @brief Get the greatest level of intersection between two paths
      * @param pathOne
@@ -1,6 +1,7 @@
 package Messages;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 /**
  * @brief Interface the represents a request from the client to the proxy
@@ -12,6 +13,12 @@ public interface ClientRequest {
      */
     void initFromSerialized(byte[] serialized);
 
+    /**
+     * @brief Initialize ClientRequest based on a serialized version, reading the remaining bytes of the buffer in place
+     * @param serialized
+     */
+    void initFromSerialized(ByteBuffer serialized);
+
     /**
      * @brief Get the block ID for the request block
      * @return the block ID for the requested block
@@ -77,4 +84,16 @@ public interface ClientRequest {
      * @return byte representation of ClientRequest
      */
     byte[] serialize();
+
+    /**
+     * @brief Get the size in bytes of the serialized version of ClientRequest
+     * @return the size of the serialized ClientRequest
+     */
+    int getSerializedSize();
+
+    /**
+     * @brief Method to serialize ClientRequest into the given buffer, starting at the buffer's current position
+     * @param buffer
+     */
+    void serialize(ByteBuffer buffer);
 }
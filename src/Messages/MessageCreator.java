@@ -1,5 +1,7 @@
 package Messages;
 
+import java.nio.ByteBuffer;
+
 /**
  * @brief Interface for class that can create different message types
  */
@@ -11,6 +13,13 @@ public interface MessageCreator {
      */
     ClientRequest parseClientRequestBytes(byte[] data);
 
+    /**
+     * @brief Create a ClientRequest from a serialized version held in the remaining bytes of a buffer
+     * @param data
+     * @return an initialized ClientRequest
+     */
+    ClientRequest parseClientRequestBytes(ByteBuffer data);
+
     /**
      * @brief Create a ProxyRequest from a serialized version
      * @param data
@@ -18,6 +27,13 @@ public interface MessageCreator {
      */
     ProxyRequest parseProxyRequestBytes(byte[] data);
 
+    /**
+     * @brief Create a ProxyRequest from a serialized version held in the remaining bytes of a buffer
+     * @param data
+     * @return an initialized ProxyRequest
+     */
+    ProxyRequest parseProxyRequestBytes(ByteBuffer data);
+
     /**
      * @brief Create a ProxyResponse from a serialized version
      * @param data
@@ -25,6 +41,13 @@ public interface MessageCreator {
      */
     ProxyResponse parseProxyResponseBytes(byte[] data);
 
+    /**
+     * @brief Create a ProxyResponse from a serialized version held in the remaining bytes of a buffer
+     * @param data
+     * @return an initialized ProxyResponse
+     */
+    ProxyResponse parseProxyResponseBytes(ByteBuffer data);
+
     /**
      * @brief Create a ServerResponse from a serialized version
      * @param data
@@ -32,6 +55,13 @@ public interface MessageCreator {
      */
     ServerResponse parseServerResponseBytes(byte[] data);
 
+    /**
+     * @brief Create a ServerResponse from a serialized version held in the remaining bytes of a buffer
+     * @param data
+     * @return an initialized ServerResponse
+     */
+    ServerResponse parseServerResponseBytes(ByteBuffer data);
+
     /**
      * @brief Create an empty ClientRequest
      * @return an empty ClientRequest
@@ -13,6 +13,12 @@ public class MessageTypes {
     public static final int SERVER_RESPONSE = 3;
     public static final int PROXY_RESPONSE = 4;
     public static final int PROXY_INITIALIZE_REQUEST = 5;
+    public static final int PROXY_BATCH_READ_REQUEST = 6;
+    public static final int SERVER_BATCH_RESPONSE = 7;
+    public static final int PROXY_FORMAT_REQUEST = 8;
+    public static final int PROXY_TAGGED_READ_REQUEST = 9;
+    public static final int SERVER_TAGGED_RESPONSE = 10;
+    public static final int PROXY_TAGGED_WRITE_REQUEST = 13;
 
     // For testing
     public static final int PRINT_SUBTREE = 11;
@@ -1,5 +1,7 @@
 package Messages;
 
+import java.nio.ByteBuffer;
+
 /**
  * @brief Interface that represents a request from a proxy to the server
  */
@@ -10,6 +12,12 @@ public interface ProxyRequest {
      */
     void initFromSerialized(byte[] serialized);
 
+    /**
+     * @brief Initialize ProxyRequest based on a serialized version, reading the remaining bytes of the buffer in place
+     * @param serialized
+     */
+    void initFromSerialized(ByteBuffer serialized);
+
     /**
      * @brief Get the data the proxy wants to write to server
      * @return the data that proxy wants to write to server
@@ -34,6 +42,42 @@ public interface ProxyRequest {
      */
     void setPathID(long pathID);
 
+    /**
+     * @brief Get the ID the proxy uses to match the response to this request, if it is a tagged read request
+     * @return the request ID
+     */
+    long getRequestID();
+
+    /**
+     * @brief Set the request ID
+     * @param requestID
+     */
+    void setRequestID(long requestID);
+
+    /**
+     * @brief Get the path IDs for this proxy request, if it is a batch read request
+     * @return the path IDs to be read, in order
+     */
+    long[] getPathIDs();
+
+    /**
+     * @brief Set the path IDs
+     * @param pathIDs
+     */
+    void setPathIDs(long[] pathIDs);
+
+    /**
+     * @brief Get the index of the first bucket written by this proxy request, if it is a format request
+     * @return the index of the first bucket in the tree stored on the server
+     */
+    long getFirstBucket();
+
+    /**
+     * @brief Set the index of the first bucket
+     * @param firstBucket
+     */
+    void setFirstBucket(long firstBucket);
+
     /**
      * @brief Get the size of a path for thie proxy request
      * @return path size
@@ -74,4 +118,16 @@ public interface ProxyRequest {
      * @return byte representation of ProxyRequest
      */
     byte[] serialize();
+
+    /**
+     * @brief Get the size in bytes of the serialized version of ProxyRequest
+     * @return the size of the serialized ProxyRequest
+     */
+    int getSerializedSize();
+
+    /**
+     * @brief Method to serialize ProxyRequest into the given buffer, starting at the buffer's current position
+     * @param buffer
+     */
+    void serialize(ByteBuffer buffer);
 }
@@ -1,5 +1,7 @@
 package Messages;
 
+import java.nio.ByteBuffer;
+
 /**
  * @brief Interface the represents the response of a proxy to the client
  */
@@ -10,6 +12,12 @@ public interface ProxyResponse {
      */
     void initFromSerialized(byte[] serialized);
 
+    /**
+     * @brief Initialize ProxyResponse based on a serialized version, reading the remaining bytes of the buffer in place
+     * @param serialized
+     */
+    void initFromSerialized(ByteBuffer serialized);
+
     /**
      * @brief Get the client request ID this response is responding to
      * @return client request ID
@@ -52,4 +60,16 @@ public interface ProxyResponse {
      * @return byte representation of ProxyResponse
      */
     byte[] serialize();
+
+    /**
+     * @brief Get the size in bytes of the serialized version of ProxyResponse
+     * @return the size of the serialized ProxyResponse
+     */
+    int getSerializedSize();
+
+    /**
+     * @brief Method to serialize ProxyResponse into the given buffer, starting at the buffer's current position
+     * @param buffer
+     */
+    void serialize(ByteBuffer buffer);
 }
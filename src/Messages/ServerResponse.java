@@ -1,5 +1,7 @@
 package Messages;
 
+import java.nio.ByteBuffer;
+
 /**
  * @brief Interface to represent a response for server or proxy
  */
@@ -10,6 +12,12 @@ public interface ServerResponse {
      */
     void initFromSerialized(byte[] serialized);
 
+    /**
+     * @brief Initialize ServerResponse based on a serialized version, reading the remaining bytes of the buffer in place
+     * @param serialized
+     */
+    void initFromSerialized(ByteBuffer serialized);
+
     /**
      * @brief Get the path ID this server response is answering for (if responding to a read)
      * @return path ID
@@ -63,4 +71,16 @@ public interface ServerResponse {
      * @return byte representation of ServerResponse
      */
     byte[] serialize();
+
+    /**
+     * @brief Get the size in bytes of the serialized version of ServerResponse
+     * @return the size of the serialized ServerResponse
+     */
+    int getSerializedSize();
+
+    /**
+     * @brief Method to serialize ServerResponse into the given buffer, starting at the buffer's current position
+     * @param buffer
+     */
+    void serialize(ByteBuffer buffer);
 }
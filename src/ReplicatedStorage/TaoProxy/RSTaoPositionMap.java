@@ -8,11 +8,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 public class RSTaoPositionMap extends TaoPositionMap {
-    // Map that maps each leafID to the address of a partition
-    public ConcurrentMap<Long, List<InetSocketAddress>> mRSPartitionAddressMap;
+    // The addresses of each partition in every replica, in the order of the leaves the partitions hold
+    public List<List<InetSocketAddress>> mRSPartitionServers;
+
+    // The amount of bits of a leaf ID that give the relative leaf ID within a partition
+    protected int mRelativeBits;
 
 
     /**
@@ -31,8 +33,7 @@ public class RSTaoPositionMap extends TaoPositionMap {
         }
 
         mPositions = new ConcurrentHashMap<>();
-        mPartitionAddressMap = new ConcurrentHashMap<>();
-        mRSPartitionAddressMap = new ConcurrentHashMap<>();
+        mRSPartitionServers = new ArrayList<>();
 
         // Save number of servers
         int numServers = 1; // TODO: fix (get number of patitions in each replica)
@@ -40,30 +41,20 @@ public class RSTaoPositionMap extends TaoPositionMap {
         // Get the number of leaves each server will contain
         int numLeaves = 1 << TaoConfigs.TREE_HEIGHT;
         int leavesPerServer = numLeaves / numServers;
+        mRelativeBits = Integer.numberOfTrailingZeros(leavesPerServer);
 
-        // Assign each leaf to a server
-        int currentServer = 0;
-        for (int i = 0; i < numLeaves; i += leavesPerServer) {
-            long currentServerLeaves = i;
-
-            // Add to the mRSPartitionAddressMap
-            while (currentServerLeaves < i + leavesPerServer) {
-
-                ArrayList<InetSocketAddress> servers = new ArrayList<>();
-                for (List<InetSocketAddress> replica : storageServerAddresses.values()) {
-                    servers.add(replica.get(currentServer));
-                }
-
-                mRSPartitionAddressMap.put(currentServerLeaves, servers);
-                currentServerLeaves++;
+        // Get the servers in each replica that hold each partition
+        for (int currentServer = 0; currentServer < numServers; currentServer++) {
+            ArrayList<InetSocketAddress> servers = new ArrayList<>();
+            for (List<InetSocketAddress> replica : storageServerAddresses.values()) {
+                servers.add(replica.get(currentServer));
             }
 
-            // Increment the current server
-            currentServer++;
+            mRSPartitionServers.add(servers);
         }
     }
 
     public List<InetSocketAddress> getServersForPosition(long leafID) {
-        return mRSPartitionAddressMap.getOrDefault(leafID, null);
+        return mRSPartitionServers.get((int) (leafID >>> mRelativeBits));
     }
 }
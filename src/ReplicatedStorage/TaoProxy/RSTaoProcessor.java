@@ -5,22 +5,15 @@ import Configuration.TaoConfigs;
 import Messages.*;
 import ReplicatedStorage.Configuration.RSTaoConfigs;
 import TaoProxy.*;
-import com.google.common.primitives.Bytes;
 
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousChannelGroup;
-import java.nio.channels.AsynchronousSocketChannel;
-import java.nio.channels.CompletionHandler;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import Heartbeats.Coordinator.*;
 
@@ -45,9 +38,9 @@ public class RSTaoProcessor extends TaoProcessor {
                           CryptoUtil cryptoUtil,
                           Subtree subtree,
                           PositionMap positionMap,
-                          Map<Long, Long> relativeMapper,
+                          LeafRouter leafRouter,
                           Profiler profiler) {
-        super(proxy, sequencer, threadGroup, messageCreator, pathCreator, cryptoUtil, subtree, positionMap, relativeMapper, profiler);
+        super(proxy, sequencer, threadGroup, messageCreator, pathCreator, cryptoUtil, subtree, positionMap, leafRouter, null, profiler);
         mReadPathResponses = new HashMap<>();
         mRSPositionMap = new RSTaoPositionMap(RSTaoConfigs.ALL_SERVERS);
 
@@ -64,57 +57,6 @@ public class RSTaoProcessor extends TaoProcessor {
     }
 
 
-    /**
-     * @param addr
-     * @brief Private helper method to make a map of server addresses to channels for addr
-     */
-    @Override
-    protected void makeInitialConnections(InetSocketAddress addr) {
-
-
-
-        try {
-            // Get the number of storage servers
-            int numServers = TaoConfigs.PARTITION_SERVERS.size();
-
-            // Create a new map
-            Map<InetSocketAddress, AsynchronousSocketChannel> newMap = new HashMap<>();
-
-            // Atomically add channel map if not present
-            mProxyToServerChannelMap.putIfAbsent(addr, newMap);
-
-            // Get map in case two threads attempted to add the map at the same time
-            newMap = mProxyToServerChannelMap.get(addr);
-
-            // Claim map
-            synchronized (newMap) {
-                // Check if another thread has already added channels
-                if (newMap.size() != numServers) {
-                    // Create the taken semaphore for this addr
-                    Map<InetSocketAddress, Semaphore> newSemaphoreMap = new ConcurrentHashMap<>();
-                    mAsyncProxyToServerSemaphoreMap.put(addr, newSemaphoreMap);
-
-                    // Create the channels to the storage servers
-                    for (List<InetSocketAddress> replicaServers : RSTaoConfigs.ALL_SERVERS.values()) {
-                        for (InetSocketAddress address : replicaServers) {
-                            AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(mThreadGroup);
-                            Future connection = channel.connect(address);
-                            connection.get();
-
-                            // Add the channel to the map
-                            newMap.put(address, channel);
-
-                            // Add a new semaphore for this channel to the map
-                            newSemaphoreMap.put(address, new Semaphore(1));
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     protected void onReceiveReadPathResponse(ClientRequest req,
                                              ServerResponse resp,
                                              boolean fakeRead) {
@@ -159,7 +101,7 @@ public class RSTaoProcessor extends TaoProcessor {
 
                 // Send response to proxy
                 Runnable serializeProcedure = () -> mProxy.onReceiveResponse(req, resp, fakeRead);
-                new Thread(serializeProcedure).start();
+                mResponseExecutor.execute(serializeProcedure);
 
                 synchronized (mReadPathResponses) {
                     mReadPathResponses.remove(req);
@@ -176,6 +118,9 @@ public class RSTaoProcessor extends TaoProcessor {
 
     @Override
     public void readPath(ClientRequest req) {
+        // Wait if the stash is full
+        awaitStashCapacity();
+
         mProfiler.readPathStart(req);
 
         try {
@@ -188,19 +133,8 @@ public class RSTaoProcessor extends TaoProcessor {
             boolean fakeRead;
             long pathID;
 
-            // We make sure the request list and read/write lock for maps are not null
-            List<ClientRequest> requestList = new ArrayList<>();
-            ReentrantReadWriteLock requestListLock = new ReentrantReadWriteLock();
-            mRequestMap.putIfAbsent(req.getBlockID(), requestList);
-            mRequestLockMap.putIfAbsent(req.getBlockID(), requestListLock);
-            requestList = mRequestMap.get(req.getBlockID());
-            requestListLock = mRequestLockMap.get(req.getBlockID());
-
-            // Acquire a read lock to ensure we do not assign a fake read that will not be answered to
-            requestListLock.readLock().lock();
-
-            // Check if there is any current request for this block ID
-            if (requestList.isEmpty()) {
+            // Add request to the pending requests, and check if there is any current request for this block ID
+            if (mPendingRequests.add(req)) {
                 // If no other requests for this block ID have been made, it is not a fake read
                 fakeRead = false;
 
@@ -220,12 +154,6 @@ public class RSTaoProcessor extends TaoProcessor {
                 pathID = mCryptoUtil.getRandomPathID();
             }
 
-            // Add request to request map list
-            requestList.add(req);
-
-            // Unlock
-            requestListLock.readLock().unlock();
-
             TaoLogger.logDebug("Doing a read for pathID " + pathID);
 
             // Insert request into mPathReqMultiSet to make sure that this path is not deleted before this response
@@ -233,275 +161,52 @@ public class RSTaoProcessor extends TaoProcessor {
             mPathReqMultiSet.add(pathID);
 
             // Create effectively final variables to use for inner classes
-            long relativeFinalPathID = mRelativeLeafMapper.get(pathID);
+            long relativeFinalPathID = mLeafRouter.getRelativeLeaf(pathID);
             long absoluteFinalPathID = pathID;
 
-            // Get the map for particular client that maps the client to the channels connected to the server
-            Map<InetSocketAddress, AsynchronousSocketChannel> mChannelMap = mProxyToServerChannelMap.get(req.getClientAddress());
-
-            // If this is there first time the client has connected, the map may not have been made yet
-            if (mChannelMap == null) {
-                TaoLogger.logInfo("Going to make the initial connections for " + req.getClientAddress().getHostName());
-                makeInitialConnections(req.getClientAddress());
-            }
-
-            // Get it once more in case it was null the first time
-            mChannelMap = mProxyToServerChannelMap.get(req.getClientAddress());
-
-            // Do this to make sure we wait until connections are made if this is one of the first requests made by this
-            // particular client
-            if (mChannelMap.size() < TaoConfigs.PARTITION_SERVERS.size()) {
-                makeInitialConnections(req.getClientAddress());
-            }
-
             // Get a quorum of server InetSocketAddress that we want to connect to
             List<InetSocketAddress> targetServers =
                     chooseQuorum(mRSPositionMap.getServersForPosition(pathID), RSTaoConfigs.READ_PATH_QUORUM_SIZE);
 
             TaoLogger.logInfo("[Req: " + req + "] Selected quorum: " + targetServers);
 
-            for (InetSocketAddress targetServer : targetServers) {
-
-                // Get the channel to that server
-                AsynchronousSocketChannel channelToServer = mChannelMap.get(targetServer);
-
-                // Get the serverSemaphoreMap for this client, which will be used to control access to the dedicated channel
-                // when requests from the same client arrive for the same server
-                Map<InetSocketAddress, Semaphore> serverSemaphoreMap = mAsyncProxyToServerSemaphoreMap.get(req.getClientAddress());
-
-                // Create a read request to send to server
-                ProxyRequest proxyRequest = mMessageCreator.createProxyRequest();
-                proxyRequest.setPathID(relativeFinalPathID);
-                proxyRequest.setType(MessageTypes.PROXY_READ_REQUEST);
-
-                // Serialize request
-                byte[] requestData = proxyRequest.serialize();
+            // Set once any server in the quorum fails to answer, as the quorum can then not be completed
+            AtomicBoolean quorumFailed = new AtomicBoolean();
 
+            for (InetSocketAddress targetServer : targetServers) {
                 mProfiler.readPathPreSend(targetServer, req);
 
-                // Claim either the dedicated channel or create a new one if the dedicated channel is already being used
-                if (serverSemaphoreMap.get(targetServer).tryAcquire()) {
-                    // First we send the message type to the server along with the size of the message
-                    byte[] messageType = MessageUtility.createMessageHeaderBytes(MessageTypes.PROXY_READ_REQUEST, requestData.length);
-                    ByteBuffer entireMessage = ByteBuffer.wrap(Bytes.concat(messageType, requestData));
-
-                    // Asynchronously send message type and length to server
-                    channelToServer.write(entireMessage, null, new CompletionHandler<Integer, Void>() {
-                        @Override
-                        public void completed(Integer result,
-                                              Void attachment) {
-                            // Make sure we write the whole message
-                            while (entireMessage.remaining() > 0) {
-                                channelToServer.write(entireMessage, null, this);
-                                return;
-                            }
-
-                            // Asynchronously read response type and size from server
-                            ByteBuffer messageTypeAndSize = MessageUtility.createTypeReceiveBuffer();
-
-                            channelToServer.read(messageTypeAndSize, null, new CompletionHandler<Integer, Void>() {
-                                @Override
-                                public void completed(Integer result,
-                                                      Void attachment) {
-                                    // profiling
-                                    mProfiler.readPathPostRecv(targetServer, req);
-
-                                    // Make sure we read the entire message
-                                    while (messageTypeAndSize.remaining() > 0) {
-                                        channelToServer.read(messageTypeAndSize, null, this);
-                                        return;
-                                    }
-
-                                    // Flip the byte buffer for reading
-                                    messageTypeAndSize.flip();
-
-                                    // Parse the message type and size from server
-                                    int[] typeAndLength = MessageUtility.parseTypeAndLength(messageTypeAndSize);
-                                    int messageType = typeAndLength[0];
-                                    int messageLength = typeAndLength[1];
-
-                                    // Asynchronously read response from server
-                                    ByteBuffer pathInBytes = ByteBuffer.allocate(messageLength);
-                                    channelToServer.read(pathInBytes, null, new CompletionHandler<Integer, Void>() {
-                                        @Override
-                                        public void completed(Integer result,
-                                                              Void attachment) {
-                                            // Make sure we read all the bytes for the path
-                                            while (pathInBytes.remaining() > 0) {
-                                                channelToServer.read(pathInBytes, null, this);
-                                                return;
-                                            }
-
-                                            // Release the semaphore for this server's dedicated channel
-                                            serverSemaphoreMap.get(targetServer).release();
-
-                                            // Flip the byte buffer for reading
-                                            pathInBytes.flip();
-
-                                            // Serve message based on type
-                                            if (messageType == MessageTypes.SERVER_RESPONSE) {
-                                                // Get message bytes
-                                                byte[] serialized = new byte[messageLength];
-                                                pathInBytes.get(serialized);
-
-                                                // Create ServerResponse object based on data
-                                                ServerResponse response = mMessageCreator.createServerResponse();
-                                                response.initFromSerialized(serialized);
-
-                                                // Set absolute path ID
-                                                response.setPathID(absoluteFinalPathID);
-
-                                                long serverProcessingTime = response.getProcessingTime();
-                                                mProfiler.readPathServerProcessingTime(targetServer, req, serverProcessingTime);
-
-                                                // Send response to proxy
-                                                Runnable serializeProcedure = () -> onReceiveReadPathResponse(req, response, fakeRead);
-                                                new Thread(serializeProcedure).start();
-                                            }
-                                        }
-
-                                        @Override
-                                        public void failed(Throwable exc,
-                                                           Void attachment) {
-                                        }
-                                    });
-                                }
-
-                                @Override
-                                public void failed(Throwable exc,
-                                                   Void attachment) {
-                                }
-                            });
-                        }
-
-                        @Override
-                        public void failed(Throwable exc,
-                                           Void attachment) {
+                // What to do if this server never sends the path back
+                Consumer<Throwable> onFailure = exc -> {
+                    if (quorumFailed.compareAndSet(false, true)) {
+                        synchronized (mReadPathResponses) {
+                            mReadPathResponses.remove(req);
                         }
-                    });
-                } else {
-                    // We could not claim the dedicated channel for this server, we will instead create a new channel
-
-                    // Get the channel to that server
-                    AsynchronousSocketChannel newChannelToServer = AsynchronousSocketChannel.open(mThreadGroup);
-
-                    // Connect to server
-                    newChannelToServer.connect(targetServer, null, new CompletionHandler<Void, Object>() {
-                        @Override
-                        public void completed(Void result,
-                                              Object attachment) {
-                            // First we send the message type to the server along with the size of the message
-                            byte[] messageType = MessageUtility.createMessageHeaderBytes(MessageTypes.PROXY_READ_REQUEST, requestData.length);
-                            ByteBuffer entireMessage = ByteBuffer.wrap(Bytes.concat(messageType, requestData));
-
-                            // Asynchronously send message type and length to server
-                            newChannelToServer.write(entireMessage, null, new CompletionHandler<Integer, Void>() {
-                                @Override
-                                public void completed(Integer result,
-                                                      Void attachment) {
-                                    // Make sure we write the whole message
-                                    while (entireMessage.remaining() > 0) {
-                                        newChannelToServer.write(entireMessage, null, this);
-                                        return;
-                                    }
+                        Runnable failProcedure = () -> onReadPathFailed(req, targetServer, absoluteFinalPathID, fakeRead);
+                        mResponseExecutor.execute(failProcedure);
+                    }
+                };
 
-                                    // Asynchronously read response type and size from server
-                                    ByteBuffer messageTypeAndSize = MessageUtility.createTypeReceiveBuffer();
-
-                                    newChannelToServer.read(messageTypeAndSize, null, new CompletionHandler<Integer, Void>() {
-                                        @Override
-                                        public void completed(Integer result,
-                                                              Void attachment) {
-                                            // profiling
-                                            mProfiler.readPathPostRecv(targetServer, req);
-
-                                            // Make sure we read the entire message
-                                            while (messageTypeAndSize.remaining() > 0) {
-                                                newChannelToServer.read(messageTypeAndSize, null, this);
-                                                return;
-                                            }
-
-                                            // Flip the byte buffer for reading
-                                            messageTypeAndSize.flip();
-
-                                            // Parse the message type and size from server
-                                            int[] typeAndLength = MessageUtility.parseTypeAndLength(messageTypeAndSize);
-                                            int messageType = typeAndLength[0];
-                                            int messageLength = typeAndLength[1];
-
-                                            // Asynchronously read response from server
-                                            ByteBuffer pathInBytes = ByteBuffer.allocate(messageLength);
-                                            newChannelToServer.read(pathInBytes, null, new CompletionHandler<Integer, Void>() {
-                                                @Override
-                                                public void completed(Integer result,
-                                                                      Void attachment) {
-                                                    // Make sure we read all the bytes for the path
-                                                    while (pathInBytes.remaining() > 0) {
-                                                        newChannelToServer.read(pathInBytes, null, this);
-                                                        return;
-                                                    }
-
-                                                    // Close channel
-                                                    try {
-                                                        newChannelToServer.close();
-                                                    } catch (IOException e) {
-                                                        e.printStackTrace();
-                                                    }
-
-                                                    // Flip the byte buffer for reading
-                                                    pathInBytes.flip();
-
-                                                    // Serve message based on type
-                                                    if (messageType == MessageTypes.SERVER_RESPONSE) {
-                                                        // Get message bytes
-                                                        byte[] serialized = new byte[messageLength];
-                                                        pathInBytes.get(serialized);
-
-                                                        // Create ServerResponse object based on data
-                                                        ServerResponse response = mMessageCreator.createServerResponse();
-                                                        response.initFromSerialized(serialized);
-
-                                                        // Set absolute path ID
-                                                        response.setPathID(absoluteFinalPathID);
-
-                                                        long serverProcessingTime = response.getProcessingTime();
-                                                        mProfiler.readPathServerProcessingTime(targetServer, req, serverProcessingTime);
-
-                                                        // Send response to proxy
-                                                        Runnable serializeProcedure = () -> onReceiveReadPathResponse(req, response, fakeRead);
-                                                        new Thread(serializeProcedure).start();
-                                                    }
-                                                }
-
-                                                @Override
-                                                public void failed(Throwable exc,
-                                                                   Void attachment) {
-                                                }
-                                            });
-                                        }
-
-                                        @Override
-                                        public void failed(Throwable exc,
-                                                           Void attachment) {
-                                        }
-                                    });
-                                }
+                // Send the read over one of the shared connections to the server
+                mConnectionPool.readPath(targetServer, relativeFinalPathID, response -> {
+                    // Ignore the rest of the quorum once a server has failed
+                    if (quorumFailed.get()) {
+                        return;
+                    }
 
-                                @Override
-                                public void failed(Throwable exc,
-                                                   Void attachment) {
-                                }
-                            });
-                        }
+                    // profiling
+                    mProfiler.readPathPostRecv(targetServer, req);
 
-                        @Override
-                        public void failed(Throwable exc,
-                                           Object attachment) {
+                    // Set absolute path ID
+                    response.setPathID(absoluteFinalPathID);
 
-                        }
-                    });
-                }
+                    long serverProcessingTime = response.getProcessingTime();
+                    mProfiler.readPathServerProcessingTime(targetServer, req, serverProcessingTime);
 
+                    // Send response to proxy
+                    Runnable serializeProcedure = () -> onReceiveReadPathResponse(req, response, fakeRead);
+                    mResponseExecutor.execute(serializeProcedure);
+                }, onFailure);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -611,7 +316,7 @@ public class RSTaoProcessor extends TaoProcessor {
                     Path p = mSubtree.getPath(writebackPaths.get(i));
                     if (p != null) {
                         // Set the path to correspond to the relative leaf ID as present on the server to be written to
-                        p.setPathID(mRelativeLeafMapper.get(p.getPathID()));
+                        p.setPathID(mLeafRouter.getRelativeLeaf(p.getPathID()));
                         TaoPath pathCopy = new TaoPath();
                         pathCopy.initFromPath(p);
 
@@ -642,185 +347,73 @@ public class RSTaoProcessor extends TaoProcessor {
                 // Get the list of paths to be written for the current server
                 List<Path> paths = wbPaths.get(serverAddr);
 
-                // Get all the encrypted path data
-                byte[] dataToWrite = null;
-                int pathSize = 0;
-
-                for (int i = 0; i < paths.size(); i++) {
-                    // Get path
-                    Path p = paths.get(i);
-                    // If this is the first path, don't need to concat the data
-                    if (dataToWrite == null) {
-                        dataToWrite = mCryptoUtil.encryptPath(p);
-                        pathSize = dataToWrite.length;
-                    } else {
-                        dataToWrite = Bytes.concat(dataToWrite, mCryptoUtil.encryptPath(p));
-                    }
-                }
-
-                if (dataToWrite == null) {
+                // Nothing to write to this server
+                if (paths.isEmpty()) {
                     serverDidReturn[serverIndexFinal] = true;
                     continue;
                 }
 
+                // Encrypt all the paths into a single array
+                byte[] dataToWrite = mCryptoUtil.encryptPaths(paths);
+                int pathSize = mCryptoUtil.getEncryptedPathSize();
+
                 TaoLogger.logInfo("Going to do writeback");
 
-                // Create the proxy write request
-                ProxyRequest writebackRequest = mMessageCreator.createProxyRequest();
-                writebackRequest.setType(MessageTypes.PROXY_WRITE_REQUEST);
-                writebackRequest.setPathSize(pathSize);
-                writebackRequest.setDataToWrite(dataToWrite);
-                writebackRequest.setTimestamp(finalWriteBackTime);
-
-                // Serialize the request
-                byte[] encryptedWriteBackPaths = writebackRequest.serialize();
-
-                // Create and run server
-                Runnable writebackRunnable = () -> {
-                    try {
-                        TaoLogger.logDebug("Going to do writeback for server " + serverIndexFinal);
-
-                        mProfiler.writeBackPreSend(serverAddr, finalWriteBackTime);
-
-                        // Create channel and connect to server
-                        AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(mThreadGroup);
-                        Future connection = channel.connect(serverAddr);
-                        connection.get();
-
-                        // First we send the message type to the server along with the size of the message
-                        ByteBuffer messageType = MessageUtility.createMessageHeaderBuffer(MessageTypes.PROXY_WRITE_REQUEST, encryptedWriteBackPaths.length);
-                        Future sendHeader;
-                        while (messageType.remaining() > 0) {
-                            sendHeader = channel.write(messageType);
-                            sendHeader.get();
-                        }
-                        messageType = null;
-
-                        // Send writeback paths
-                        ByteBuffer message = ByteBuffer.wrap(encryptedWriteBackPaths);
-                        Future sendMessage;
-                        while (message.remaining() > 0) {
-                            sendMessage = channel.write(message);
-                            sendMessage.get();
-                        }
-                        message = null;
-                        TaoLogger.logDebug("Sent info, now waiting to listen for server " + serverIndexFinal);
-
-                        // Listen for server response
-                        ByteBuffer messageTypeAndSize = MessageUtility.createTypeReceiveBuffer();
-                        channel.read(messageTypeAndSize, null, new CompletionHandler<Integer, Void>() {
-                            @Override
-                            public void completed(Integer result,
-                                                  Void attachment) {
-                                // profiling
-                                mProfiler.writeBackPostRecv(serverAddr, finalWriteBackTime);
-
-                                // Flip the byte buffer for reading
-                                messageTypeAndSize.flip();
-
-                                // Parse the message type and size from server
-                                int[] typeAndLength = MessageUtility.parseTypeAndLength(messageTypeAndSize);
-                                int messageType = typeAndLength[0];
-                                int messageLength = typeAndLength[1];
-
-                                // Determine behavior based on response
-                                if (messageType == MessageTypes.SERVER_RESPONSE) {
-                                    // Read the response
-                                    ByteBuffer messageResponse = ByteBuffer.allocate(messageLength);
-                                    channel.read(messageResponse, null, new CompletionHandler<Integer, Void>() {
-
-                                        @Override
-                                        public void completed(Integer result,
-                                                              Void attachment) {
-                                            // Make sure we read the entire message
-                                            while (messageResponse.remaining() > 0) {
-                                                channel.read(messageResponse);
-                                            }
-
-                                            try {
-                                                channel.close();
-                                            } catch (IOException e) {
-                                                e.printStackTrace();
-                                            }
-
-                                            // Flip byte buffer for reading
-                                            messageResponse.flip();
-
-                                            // Get data from response
-                                            byte[] serialized = new byte[messageLength];
-                                            messageResponse.get(serialized);
-
-                                            // Create ServerResponse based on data
-                                            ServerResponse response = mMessageCreator.createServerResponse();
-                                            response.initFromSerialized(serialized);
-
-                                            long serverProcessingTime = response.getProcessingTime();
-                                            mProfiler.writeBackServerProcessingTime(serverAddr, finalWriteBackTime, serverProcessingTime);
-
-                                            // Check to see if the write succeeded or not
-                                            if (response.getWriteStatus()) {
-                                                // Acquire return lock
-                                                synchronized (returnLock) {
-                                                    // Set that this server did return
-                                                    serverDidReturn[serverIndexFinal] = true;
-
-                                                    // Check if all the servers have returned
-                                                    boolean allReturn = true;
-                                                    for (int n = 0; n < serverDidReturn.length; n++) {
-                                                        if (!serverDidReturn[n]) {
-                                                            allReturn = false;
-                                                            break;
-                                                        }
-                                                    }
-
-                                                    // If all the servers have successfully responded, we can delete nodes from subtree
-                                                    if (allReturn) {
-
-                                                        TaoLogger.logDebug("All servers returned for writeBack #: " + finalWriteBackTime);
-
-                                                        mProfiler.writeBackComplete(finalWriteBackTime);
-
-                                                        TaoLogger.logWarning("Write Back Operation Successful");
-
-                                                        //TaoProxy.mSubtreeLock.lock();
-                                                        // Iterate through every path that was written, check if there are any nodes
-                                                        // we can delete
-                                                        for (Long pathID : allWriteBackIDs) {
-                                                            // Upon response, delete all nodes in subtree whose timestamp
-                                                            // is <= timeStamp, and are not in mPathReqMultiSet
-                                                            // TODO: should pass in entire mPathReqMultiSet instead
-                                                            Set<Long> set = new HashSet<>();
-                                                            for (Long l : mPathReqMultiSet.elementSet()) {
-                                                                set.add(l);
-                                                            }
-                                                            mSubtree.deleteNodes(pathID, finalWriteBackTime, set);
-                                                        }
-
-                                                        //TaoProxy.mSubtreeLock.unlock();
-                                                    }
-                                                }
-                                            } else {
-                                            }
-                                        }
-
-                                        @Override
-                                        public void failed(Throwable exc,
-                                                           Void attachment) {
-                                        }
-                                    });
+                // Send the writeback over the long lived connections to the server, without waiting for earlier
+                // writebacks to be answered
+                TaoLogger.logDebug("Going to do writeback for server " + serverIndexFinal);
+                mProfiler.writeBackPreSend(serverAddr, finalWriteBackTime);
+                mWriteBackPool.writePaths(serverAddr, pathSize, finalWriteBackTime, dataToWrite, response -> {
+                    // profiling
+                    mProfiler.writeBackPostRecv(serverAddr, finalWriteBackTime);
+
+                    long serverProcessingTime = response.getProcessingTime();
+                    mProfiler.writeBackServerProcessingTime(serverAddr, finalWriteBackTime, serverProcessingTime);
+
+                    // Check to see if the write succeeded or not
+                    if (response.getWriteStatus()) {
+                        // Acquire return lock
+                        synchronized (returnLock) {
+                            // Set that this server did return
+                            serverDidReturn[serverIndexFinal] = true;
+
+                            // Check if all the servers have returned
+                            boolean allReturn = true;
+                            for (int n = 0; n < serverDidReturn.length; n++) {
+                                if (!serverDidReturn[n]) {
+                                    allReturn = false;
+                                    break;
                                 }
                             }
 
-                            @Override
-                            public void failed(Throwable exc,
-                                               Void attachment) {
+                            // If all the servers have successfully responded, we can delete nodes from subtree
+                            if (allReturn) {
+
+                                TaoLogger.logDebug("All servers returned for writeBack #: " + finalWriteBackTime);
+
+                                mProfiler.writeBackComplete(finalWriteBackTime);
+
+                                TaoLogger.logWarning("Write Back Operation Successful");
+
+                                //TaoProxy.mSubtreeLock.lock();
+                                // Iterate through every path that was written, check if there are any nodes
+                                // we can delete
+                                for (Long pathID : allWriteBackIDs) {
+                                    // Upon response, delete all nodes in subtree whose timestamp
+                                    // is <= timeStamp, and are not in mPathReqMultiSet
+                                    // TODO: should pass in entire mPathReqMultiSet instead
+                                    Set<Long> set = new HashSet<>();
+                                    for (Long l : mPathReqMultiSet.elementSet()) {
+                                        set.add(l);
+                                    }
+                                    mSubtree.deleteNodes(pathID, finalWriteBackTime, set);
+                                }
+
+                                //TaoProxy.mSubtreeLock.unlock();
                             }
-                        });
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                        }
                     }
-                };
-                new Thread(writebackRunnable).start();
+                }, exc -> onWriteBackFailed(serverAddr, finalWriteBackTime));
             }
         } catch (Exception e) {
             e.printStackTrace();
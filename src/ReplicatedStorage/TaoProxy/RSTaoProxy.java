@@ -3,21 +3,10 @@ package ReplicatedStorage.TaoProxy;
 import Configuration.ArgumentParser;
 import Configuration.TaoConfigs;
 import Messages.MessageCreator;
-import Messages.MessageTypes;
-import Messages.ProxyRequest;
 import ReplicatedStorage.Configuration.RSTaoConfigs;
 import TaoProxy.*;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
 
-import java.io.DataOutputStream;
-import java.io.InputStream;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.channels.AsynchronousChannelGroup;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 
@@ -45,13 +34,16 @@ public class RSTaoProxy extends TaoProxy {
             RSTaoConfigs.initConfiguration();
 
             // Create a CryptoUtil
-            mCryptoUtil = new TaoCryptoUtil();
+            mCryptoUtil = createCryptoUtil();
 
             // Assign subtree
             mSubtree = subtree;
 
+            // Decide which server holds each leaf
+            mLeafRouter = createLeafRouter();
+
             // Create a position map
-            mPositionMap = new TaoPositionMap(TaoConfigs.PARTITION_SERVERS);
+            mPositionMap = createPositionMap();
             mRSPositionMap = new RSTaoPositionMap(RSTaoConfigs.ALL_SERVERS);
 
             // Assign the message and path creators
@@ -61,24 +53,9 @@ public class RSTaoProxy extends TaoProxy {
             // Create a thread pool for asynchronous sockets
             mThreadGroup = AsynchronousChannelGroup.withFixedThreadPool(TaoConfigs.PROXY_THREAD_COUNT, Executors.defaultThreadFactory());
 
-            // Map each leaf to a relative leaf for the servers
-            mRelativeLeafMapper = new HashMap<>();
-            int numServers = TaoConfigs.PARTITION_SERVERS.size();
-            int numLeaves = 1 << TaoConfigs.TREE_HEIGHT;
-            int leavesPerPartition = numLeaves / numServers;
-            for (int i = 0; i < numLeaves; i += numLeaves/numServers) {
-                long j = i;
-                long relativeLeaf = 0;
-                while (j < i + leavesPerPartition) {
-                    mRelativeLeafMapper.put(j, relativeLeaf);
-                    j++;
-                    relativeLeaf++;
-                }
-            }
-
             // Initialize the sequencer and proxy
             mSequencer = new TaoSequencer(mMessageCreator, mPathCreator);
-            mProcessor = new RSTaoProcessor(this, mSequencer, mThreadGroup, mMessageCreator, mPathCreator, mCryptoUtil, mSubtree, mPositionMap, mRelativeLeafMapper, mProfiler);
+            mProcessor = new RSTaoProcessor(this, mSequencer, mThreadGroup, mMessageCreator, mPathCreator, mCryptoUtil, mSubtree, mPositionMap, mLeafRouter, mProfiler);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -92,80 +69,13 @@ public class RSTaoProxy extends TaoProxy {
             // Initialize the top of the subtree
             mSubtree.initRoot();
 
-            // Get the total number of paths
-            int totalPaths = 1 << TaoConfigs.TREE_HEIGHT;
-
             TaoLogger.logInfo("Tree height is " + TaoConfigs.TREE_HEIGHT);
-            TaoLogger.logInfo("Total paths " + totalPaths);
-
-            // Variables to both hold the data of a path as well as how big the path is
-            byte[] dataToWrite;
-
-            // Create map that will map the addresses of the storage servers to sockets connected to that server
-            Map<InetSocketAddress, Socket> mSocketMap = new HashMap<>();
-
-            // Create each connection
-            for (List<InetSocketAddress> replica : RSTaoConfigs.ALL_SERVERS.values()) {
-                for (InetSocketAddress sa : replica) {
-                    System.out.println("Connecting to " + sa);
-                    Socket socket = new Socket(sa.getHostName(), sa.getPort());
-                    mSocketMap.put(sa, socket);
-                }
-            }
-
-            // Loop to write each path to server
-            for (int i = 0; i < totalPaths; i++) {
-                TaoLogger.logForce("Creating path " + i);
-
-                List<InetSocketAddress> sas = mRSPositionMap.getServersForPosition(i);
-
-                for (InetSocketAddress sa : sas) {
-
-                    // Get connection to server, then get input and output streams
-                    DataOutputStream output = new DataOutputStream(mSocketMap.get(sa).getOutputStream());
-                    InputStream input = mSocketMap.get(sa).getInputStream();
-
-                    // Create empty paths and serialize
-                    Path defaultPath = mPathCreator.createPath();
-                    defaultPath.setPathID(mRelativeLeafMapper.get(((long) i)));
-
-                    // Encrypt path
-                    dataToWrite = mCryptoUtil.encryptPath(defaultPath);
-
-                    // Create a proxy write request
-                    ProxyRequest writebackRequest = mMessageCreator.createProxyRequest();
-                    writebackRequest.setType(MessageTypes.PROXY_INITIALIZE_REQUEST);
-                    writebackRequest.setPathSize(dataToWrite.length);
-                    writebackRequest.setDataToWrite(dataToWrite);
-
-                    // Serialize the proxy request
-                    byte[] proxyRequest = writebackRequest.serialize();
-
-                    // Send the type and size of message to server
-                    byte[] messageTypeBytes = Ints.toByteArray(MessageTypes.PROXY_INITIALIZE_REQUEST);
-                    byte[] messageLengthBytes = Ints.toByteArray(proxyRequest.length);
-                    output.write(Bytes.concat(messageTypeBytes, messageLengthBytes));
-
-                    // Send actual message to server
-                    output.write(proxyRequest);
-
-                    // Read in the response
-                    // TODO: Currently not doing anything with response, possibly do something
-                    byte[] typeAndSize = new byte[8];
-                    input.read(typeAndSize);
-                    int type = Ints.fromByteArray(Arrays.copyOfRange(typeAndSize, 0, 4));
-                    int length = Ints.fromByteArray(Arrays.copyOfRange(typeAndSize, 4, 8));
-                    byte[] message = new byte[length];
-                    input.read(message);
-                }
-            }
-
-            // Close each connection
-            for (List<InetSocketAddress> replica : RSTaoConfigs.ALL_SERVERS.values()) {
-                for (InetSocketAddress sa : replica) {
-                    mSocketMap.get(sa).close();
-                }
-            }
+            TaoLogger.logInfo("Total paths " + (1 << TaoConfigs.TREE_HEIGHT));
+
+            // Write an empty tree to every replica of each partition
+            new ServerInitializer(mMessageCreator, mPathCreator, mCryptoUtil, mRSPositionMap.mRSPartitionServers,
+                    TaoConfigs.INITIALIZE_MODE, TaoConfigs.INITIALIZE_BATCH_SIZE, TaoConfigs.INITIALIZE_FORMAT_SIZE,
+                    TaoConfigs.INITIALIZE_PIPELINE_DEPTH).initialize();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -4,7 +4,6 @@ import Configuration.ArgumentParser;
 import Configuration.TaoConfigs;
 import Messages.*;
 import TaoProxy.*;
-import com.google.common.primitives.Bytes;
 
 import java.io.*;
 import java.net.InetAddress;
@@ -116,17 +115,26 @@ public class TaoClient implements Client {
                 }
             }
 
-            // Create executor
-            mExecutor = Executors.newFixedThreadPool(TaoConfigs.PROXY_THREAD_COUNT, Executors.defaultThreadFactory());
+            // Create executor, which gives every operation a virtual thread of its own if virtual threads are used
+            if (TaskExecutor.useVirtualThreads()) {
+                mExecutor = Executors.newCachedThreadPool(TaskExecutor.createThreadFactory("client"));
+            } else {
+                mExecutor = Executors.newFixedThreadPool(TaoConfigs.PROXY_THREAD_COUNT, Executors.defaultThreadFactory());
+            }
 
             // Request ID counter
             mRequestID = new AtomicLong();
 
-            // Create listener for proxy responses, wait until it is finished initializing
-            Object listenerWait = new Object();
-            synchronized (listenerWait) {
-                listenForResponse(listenerWait);
-                listenerWait.wait();
+            // Listen for proxy responses on the channel requests are sent on, or create a listener that the proxy
+            // connects back to and wait until it is finished initializing
+            if (TaoConfigs.REPLY_ON_REQUEST_CHANNEL) {
+                serveProxy(mChannel);
+            } else {
+                Object listenerWait = new Object();
+                synchronized (listenerWait) {
+                    listenForResponse(listenerWait);
+                    listenerWait.wait();
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -178,17 +186,26 @@ public class TaoClient implements Client {
                 }
             }
 
-            // Create executor
-            mExecutor = Executors.newFixedThreadPool(TaoConfigs.PROXY_THREAD_COUNT, Executors.defaultThreadFactory());
+            // Create executor, which gives every operation a virtual thread of its own if virtual threads are used
+            if (TaskExecutor.useVirtualThreads()) {
+                mExecutor = Executors.newCachedThreadPool(TaskExecutor.createThreadFactory("client"));
+            } else {
+                mExecutor = Executors.newFixedThreadPool(TaoConfigs.PROXY_THREAD_COUNT, Executors.defaultThreadFactory());
+            }
 
             // Request ID counter
             mRequestID = new AtomicLong();
 
-            // Create listener for proxy responses, wait until it is finished initializing
-            Object listenerWait = new Object();
-            synchronized (listenerWait) {
-                listenForResponse(listenerWait);
-                listenerWait.wait();
+            // Listen for proxy responses on the channel requests are sent on, or create a listener that the proxy
+            // connects back to and wait until it is finished initializing
+            if (TaoConfigs.REPLY_ON_REQUEST_CHANNEL) {
+                serveProxy(mChannel);
+            } else {
+                Object listenerWait = new Object();
+                synchronized (listenerWait) {
+                    listenForResponse(listenerWait);
+                    listenerWait.wait();
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -204,7 +221,11 @@ public class TaoClient implements Client {
             // Send read request
             ProxyResponse response = sendRequestWait(request);
 
-            // Return read data
+            // Return read data, unless the proxy could not read the block
+            if (!response.getWriteStatus()) {
+                TaoLogger.logError("Read request #" + request.getRequestID() + " for block " + blockID + " failed");
+                return null;
+            }
             return response.getReturnData();
         } catch (Exception e) {
             e.printStackTrace();
@@ -299,9 +320,9 @@ public class TaoClient implements Client {
     protected void sendRequestToProxy(ClientRequest request) {
         try {
             // Send request to proxy
-            byte[] serializedRequest = request.serialize();
-            byte[] requestHeader = MessageUtility.createMessageHeaderBytes(request.getType(), serializedRequest.length);
-            ByteBuffer requestMessage = ByteBuffer.wrap(Bytes.concat(requestHeader, serializedRequest));
+            ByteBuffer requestMessage = MessageUtility.createMessageBuffer(request.getType(), request.getSerializedSize());
+            request.serialize(requestMessage);
+            requestMessage.flip();
 
             // Send message to proxy
             synchronized (mChannel) {
@@ -334,9 +355,8 @@ public class TaoClient implements Client {
                         // Start listening for other connections
                         channel.accept(null, this);
 
-                        // Start up a new thread to serve this connection
-                        Runnable serializeProcedure = () -> serveProxy(proxyChannel);
-                        new Thread(serializeProcedure).start();
+                        // Start serving this connection, which only waits for its first response asynchronously
+                        serveProxy(proxyChannel);
                     }
 
                     @Override
@@ -370,6 +390,17 @@ public class TaoClient implements Client {
             channel.read(typeByteBuffer, null, new CompletionHandler<Integer, Void>() {
                 @Override
                 public void completed(Integer result, Void attachment) {
+                    // Stop if the proxy closed the connection
+                    if (result < 0) {
+                        return;
+                    }
+
+                    // Make sure we read the whole header, as replies may arrive back to back
+                    if (typeByteBuffer.remaining() > 0) {
+                        channel.read(typeByteBuffer, null, this);
+                        return;
+                    }
+
                     // Flip the byte buffer for reading
                     typeByteBuffer.flip();
 
@@ -395,17 +426,13 @@ public class TaoClient implements Client {
                                 // Flip the byte buffer for reading
                                 messageByteBuffer.flip();
 
-                                // Get the rest of the bytes for the message
-                                byte[] requestBytes = new byte[messageLength];
-                                messageByteBuffer.get(requestBytes);
-
                                 // Initialize ProxyResponse object based on read bytes
-                                ProxyResponse proxyResponse = mMessageCreator.createProxyResponse();
-                                proxyResponse.initFromSerialized(requestBytes);
+                                ProxyResponse proxyResponse = mMessageCreator.parseProxyResponseBytes(messageByteBuffer);
 
-                                // Get the ProxyResponse from map and initialize it
+                                // Get the ProxyResponse from map and initialize it from the same bytes
                                 ProxyResponse clientAnswer = mResponseWaitMap.get(proxyResponse.getClientRequestID());
-                                clientAnswer.initFromSerialized(requestBytes);
+                                messageByteBuffer.rewind();
+                                clientAnswer.initFromSerialized(messageByteBuffer);
 
                                 // Notify thread waiting for this response id
                                 synchronized (clientAnswer) {
@@ -465,6 +492,12 @@ public class TaoClient implements Client {
 
             // Send read request
             ProxyResponse response = sendRequestWait(request);
+
+            // Return read data, unless the proxy could not read the block
+            if (!response.getWriteStatus()) {
+                TaoLogger.logError("Read request #" + request.getRequestID() + " for block " + blockID + " failed");
+                return null;
+            }
             return response.getReturnData();
         };
 
@@ -40,6 +40,13 @@ public interface Block {
      */
     byte[] serialize();
 
+    /**
+     * @brief Method to write this block in bytes into a given array
+     * @param dest
+     * @param offset
+     */
+    void serialize(byte[] dest, int offset);
+
     /**
      * @brief Initialize a block with the same data from a given block b
      * @param b
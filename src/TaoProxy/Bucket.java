@@ -82,6 +82,13 @@ public interface Bucket {
      */
     byte[] serialize();
 
+    /**
+     * @brief Method to write this bucket in bytes into a given array
+     * @param dest
+     * @param offset
+     */
+    void serialize(byte[] dest, int offset);
+
     /**
      * @brief Initialize a bucket with the same data from a given bucket
      * @param bucket
@@ -93,4 +100,12 @@ public interface Bucket {
      * @param serialized
      */
     void initFromSerialized(byte[] serialized);
+
+    /**
+     * @brief Method to initialize a bucket given the serialization of a bucket (of the same class) that starts at offset
+     * within a larger array
+     * @param serialized
+     * @param offset
+     */
+    void initFromSerialized(byte[] serialized, int offset);
 }
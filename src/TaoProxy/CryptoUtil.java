@@ -1,9 +1,16 @@
 package TaoProxy;
 
+import java.util.List;
+
 /**
  * Interface for a class to do cryto related tasks
  */
 public interface CryptoUtil {
+    // The modes that can be used to encrypt buckets
+    String MODE_CBC = "cbc";
+    String MODE_CTR = "ctr";
+    String MODE_GCM = "gcm";
+
     /**
      * @brief Encrypt data
      * @param data
@@ -25,6 +32,27 @@ public interface CryptoUtil {
      */
     byte[] encryptPath(Path p);
 
+    /**
+     * @brief Encrypt a path into the given array
+     * @param p
+     * @param dest
+     * @param destOffset
+     */
+    void encryptPath(Path p, byte[] dest, int destOffset);
+
+    /**
+     * @brief Encrypt a list of paths, one after the other, into a single array
+     * @param paths
+     * @return the encryption of each path, each taking up getEncryptedPathSize() bytes
+     */
+    byte[] encryptPaths(List<Path> paths);
+
+    /**
+     * @brief Get the size of an encrypted path
+     * @return the amount of bytes returned by encryptPath
+     */
+    int getEncryptedPathSize();
+
     /**
      * @brief Create a path from the encrypted data
      * @param data
@@ -32,6 +60,15 @@ public interface CryptoUtil {
      */
     Path decryptPath(byte[] data);
 
+    /**
+     * @brief Create a path from encrypted data that is part of a larger array
+     * @param data
+     * @param offset
+     * @param length
+     * @return the decryption of the data as a path
+     */
+    Path decryptPath(byte[] data, int offset, int length);
+
     /**
      * @brief Get a random path id
      * @return a random path id from ORAM tree
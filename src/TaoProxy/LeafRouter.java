@@ -0,0 +1,29 @@
+package TaoProxy;
+
+import java.net.InetSocketAddress;
+
+/**
+ * @brief Interface for deciding which storage server holds each leaf of the tree, and which leaf it is on that server
+ */
+public interface LeafRouter {
+    /**
+     * @brief Method to get the index of the server that holds the path for the given leaf
+     * @param leafID
+     * @return the index of the server
+     */
+    int getServerIndex(long leafID);
+
+    /**
+     * @brief Method to get the address of the server that holds the path for the given leaf
+     * @param leafID
+     * @return an InetSocketAddress
+     */
+    InetSocketAddress getServerForLeaf(long leafID);
+
+    /**
+     * @brief Method to get the leaf ID that the given leaf has within the tree of its server
+     * @param leafID
+     * @return the relative leaf ID
+     */
+    long getRelativeLeaf(long leafID);
+}
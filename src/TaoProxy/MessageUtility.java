@@ -1,8 +1,5 @@
 package TaoProxy;
 
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
-
 import java.nio.ByteBuffer;
 
 /**
@@ -16,10 +13,12 @@ public class MessageUtility {
      * @return a ByteBuffer that contains the header of a message
      */
     public static ByteBuffer createMessageHeaderBuffer(int messageType, int messageSize) {
-        byte[] messageTypeBytes = Ints.toByteArray(messageType);
-        byte[] messageLengthBytes = Ints.toByteArray(messageSize);
+        ByteBuffer header = ByteBuffer.allocate(4 + 4);
+        header.putInt(messageType);
+        header.putInt(messageSize);
+        header.flip();
 
-        return ByteBuffer.wrap(Bytes.concat(messageTypeBytes, messageLengthBytes));
+        return header;
     }
 
     /**
@@ -29,10 +28,22 @@ public class MessageUtility {
      * @return a byte array that contains the header of a message
      */
     public static byte[] createMessageHeaderBytes(int messageType, int messageSize) {
-        byte[] messageTypeBytes = Ints.toByteArray(messageType);
-        byte[] messageLengthBytes = Ints.toByteArray(messageSize);
+        return createMessageHeaderBuffer(messageType, messageSize).array();
+    }
+
+    /**
+     * @brief Create a ByteBuffer that will hold an entire message. The header is written to the buffer, and the body
+     * of the message should then be serialized directly into the buffer after it
+     * @param messageType
+     * @param messageSize
+     * @return a ByteBuffer containing the header of a message, positioned where the body of the message begins
+     */
+    public static ByteBuffer createMessageBuffer(int messageType, int messageSize) {
+        ByteBuffer message = ByteBuffer.allocate(4 + 4 + messageSize);
+        message.putInt(messageType);
+        message.putInt(messageSize);
 
-        return Bytes.concat(messageTypeBytes, messageLengthBytes);
+        return message;
     }
 
     /**
@@ -53,17 +64,8 @@ public class MessageUtility {
     public static int[] parseTypeAndLength(ByteBuffer b) {
         int[] typeAndLength = new int[2];
 
-        byte[] messageTypeBytes = new byte[4];
-        byte[] messageLengthBytes = new byte[4];
-
-        b.get(messageTypeBytes);
-        int messageType = Ints.fromByteArray(messageTypeBytes);
-
-        b.get(messageLengthBytes);
-        int messageLength = Ints.fromByteArray(messageLengthBytes);
-
-        typeAndLength[0] = messageType;
-        typeAndLength[1] = messageLength;
+        typeAndLength[0] = b.getInt();
+        typeAndLength[1] = b.getInt();
 
         return typeAndLength;
     }
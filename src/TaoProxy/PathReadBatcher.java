@@ -0,0 +1,274 @@
+package TaoProxy;
+
+import Messages.MessageCreator;
+import Messages.MessageTypes;
+import Messages.ProxyRequest;
+import Messages.ServerResponse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * @brief Class that coalesces concurrent path reads for the same storage server into a single batch read request. A
+ * batch is sent once it holds the maximum amount of paths, or once the batch window has passed since the first path
+ * was added to it. The server streams the paths back in order, and each one is handed to its callback as it arrives.
+ * If the server does not answer in time or the channel fails, the paths that have not arrived yet are read again on a
+ * new channel, a limited amount of times before their failure callbacks are run
+ */
+public class PathReadBatcher {
+    /**
+     * @brief A path read that is waiting to be sent to a server
+     */
+    private static class PendingRead {
+        // The path to be read, relative to the server
+        long mPathID;
+
+        // What to do with the response for this path
+        Consumer<ServerResponse> mCallback;
+
+        // What to do if this path can not be read
+        Consumer<Throwable> mOnFailure;
+
+        PendingRead(long pathID, Consumer<ServerResponse> callback, Consumer<Throwable> onFailure) {
+            mPathID = pathID;
+            mCallback = callback;
+            mOnFailure = onFailure;
+        }
+    }
+
+    // MessageCreator for creating different types of messages
+    protected MessageCreator mMessageCreator;
+
+    // The channel group used for asynchronous sockets
+    protected AsynchronousChannelGroup mThreadGroup;
+
+    // The most paths that will be put in a single batch
+    protected int mMaxBatchSize;
+
+    // The amount of microseconds a batch will wait for more paths before being sent
+    protected long mBatchWindow;
+
+    // Map that maps each storage server to the batch currently being filled for it
+    protected final Map<InetSocketAddress, List<PendingRead>> mPendingBatches;
+
+    // Map that maps each storage server to channels that are connected to it and not currently in use
+    protected Map<InetSocketAddress, ConcurrentLinkedQueue<AsynchronousSocketChannel>> mIdleChannels;
+
+    // Executor used to send batches once they are full or their window has passed
+    protected ScheduledExecutorService mBatchExecutor;
+
+    // The amount of milliseconds to wait for the server to send each part of a response, or 0 to wait forever
+    protected long mRequestTimeout;
+
+    // The amount of times the paths of a batch are read again before they are given up on
+    protected int mMaxRetries;
+
+    /**
+     * @brief Constructor
+     * @param messageCreator
+     * @param threadGroup
+     * @param maxBatchSize
+     * @param batchWindow
+     * @param numThreads
+     * @param requestTimeout
+     * @param maxRetries
+     */
+    public PathReadBatcher(MessageCreator messageCreator, AsynchronousChannelGroup threadGroup, int maxBatchSize,
+                           long batchWindow, int numThreads, long requestTimeout, int maxRetries) {
+        mMessageCreator = messageCreator;
+        mThreadGroup = threadGroup;
+        mMaxBatchSize = maxBatchSize;
+        mBatchWindow = batchWindow;
+        mPendingBatches = new HashMap<>();
+        mIdleChannels = new ConcurrentHashMap<>();
+        mBatchExecutor = Executors.newScheduledThreadPool(numThreads);
+        mRequestTimeout = requestTimeout;
+        mMaxRetries = maxRetries;
+    }
+
+    /**
+     * @brief Method to add a path read to the batch for the given server
+     * @param server
+     * @param pathID
+     * @param callback
+     * @param onFailure
+     */
+    public void readPath(InetSocketAddress server, long pathID, Consumer<ServerResponse> callback, Consumer<Throwable> onFailure) {
+        List<PendingRead> fullBatch = null;
+        List<PendingRead> newBatch = null;
+
+        synchronized (mPendingBatches) {
+            // Get the batch being filled for this server, or start a new one
+            List<PendingRead> batch = mPendingBatches.get(server);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                mPendingBatches.put(server, batch);
+                newBatch = batch;
+            }
+
+            batch.add(new PendingRead(pathID, callback, onFailure));
+
+            // If the batch is full we send it right away
+            if (batch.size() >= mMaxBatchSize) {
+                mPendingBatches.remove(server);
+                fullBatch = batch;
+            }
+        }
+
+        if (fullBatch != null) {
+            List<PendingRead> batchToSend = fullBatch;
+            mBatchExecutor.execute(() -> sendBatch(server, batchToSend));
+        } else if (newBatch != null) {
+            // Send this batch once the window has passed, unless it fills up first
+            List<PendingRead> batchToSend = newBatch;
+            mBatchExecutor.schedule(() -> sendBatch(server, takeBatch(server, batchToSend)), mBatchWindow, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * @brief Remove the given batch from the pending batches if it has not already been sent
+     * @param server
+     * @param batch
+     * @return the batch, or null if it was already sent
+     */
+    private List<PendingRead> takeBatch(InetSocketAddress server, List<PendingRead> batch) {
+        synchronized (mPendingBatches) {
+            if (mPendingBatches.get(server) == batch) {
+                mPendingBatches.remove(server);
+                return batch;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @brief Send a batch read request to a server and hand each path in the response to its callback, reading the
+     * paths that did not arrive again if the read fails
+     * @param server
+     * @param batch
+     */
+    private void sendBatch(InetSocketAddress server, List<PendingRead> batch) {
+        if (batch == null) {
+            return;
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                readBatch(server, batch);
+                return;
+            } catch (Exception e) {
+                TaoLogger.logError("Batch read of " + batch.size() + " paths from " + server + " failed: " + e);
+
+                // Give up on the paths that did not arrive once they have been retried enough
+                if (attempt >= mMaxRetries) {
+                    for (PendingRead read : batch) {
+                        read.mOnFailure.accept(e);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Read a batch of paths from a server, removing each path from the batch once it has been handed to its
+     * callback
+     * @param server
+     * @param batch
+     */
+    private void readBatch(InetSocketAddress server, List<PendingRead> batch) throws Exception {
+        AsynchronousSocketChannel channel = null;
+        try {
+            // Create the batch read request
+            long[] pathIDs = new long[batch.size()];
+            for (int i = 0; i < pathIDs.length; i++) {
+                pathIDs[i] = batch.get(i).mPathID;
+            }
+            ProxyRequest proxyRequest = mMessageCreator.createProxyRequest();
+            proxyRequest.setType(MessageTypes.PROXY_BATCH_READ_REQUEST);
+            proxyRequest.setPathIDs(pathIDs);
+
+            // Reuse an idle channel to the server, or make a new one
+            mIdleChannels.putIfAbsent(server, new ConcurrentLinkedQueue<>());
+            channel = mIdleChannels.get(server).poll();
+            if (channel == null) {
+                channel = AsynchronousSocketChannel.open(mThreadGroup);
+                channel.connect(server).get();
+            }
+
+            // Send the header and request together
+            ByteBuffer message = MessageUtility.createMessageBuffer(MessageTypes.PROXY_BATCH_READ_REQUEST, proxyRequest.getSerializedSize());
+            proxyRequest.serialize(message);
+            message.flip();
+            while (message.remaining() > 0) {
+                channel.write(message).get();
+            }
+
+            // Read the header and the amount of paths in the response
+            ByteBuffer header = ByteBuffer.allocate(4 + 4 + 4);
+            readFully(channel, header);
+            header.flip();
+            int messageType = header.getInt();
+            header.getInt();
+            int numPaths = header.getInt();
+            if (messageType != MessageTypes.SERVER_BATCH_RESPONSE || numPaths != batch.size()) {
+                throw new IOException("Unexpected batch response from " + server);
+            }
+
+            // Hand each path to its callback as soon as it arrives
+            ByteBuffer entryLength = ByteBuffer.allocate(4);
+            Iterator<PendingRead> reads = batch.iterator();
+            while (reads.hasNext()) {
+                PendingRead read = reads.next();
+                entryLength.clear();
+                readFully(channel, entryLength);
+                entryLength.flip();
+
+                ByteBuffer entry = ByteBuffer.allocate(entryLength.getInt());
+                readFully(channel, entry);
+
+                entry.flip();
+                ServerResponse response = mMessageCreator.parseServerResponseBytes(entry);
+                reads.remove();
+                read.mCallback.accept(response);
+            }
+
+            // The channel can now be used for another batch
+            mIdleChannels.get(server).add(channel);
+        } catch (Exception e) {
+            // Close the channel, as the rest of the response may still arrive on it
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e1) {
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @brief Read from a channel until the buffer is full
+     * @param channel
+     * @param buffer
+     */
+    private void readFully(AsynchronousSocketChannel channel, ByteBuffer buffer) throws Exception {
+        while (buffer.remaining() > 0) {
+            Future<Integer> result = channel.read(buffer);
+            int bytesRead = mRequestTimeout > 0 ? result.get(mRequestTimeout, TimeUnit.MILLISECONDS) : result.get();
+            if (bytesRead < 0) {
+                throw new IOException("Channel closed while reading");
+            }
+        }
+    }
+}
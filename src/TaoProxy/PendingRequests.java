@@ -0,0 +1,85 @@
+package TaoProxy;
+
+import Messages.ClientRequest;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @brief Table of the requests that are waiting for each block. A block with no entry is idle, a block whose entry
+ * holds a single request has a real read in flight, and a block whose entry holds more requests also has fake reads
+ * queued behind the real read. Requests are added and removed with atomic updates of the block's entry, so a request
+ * is either added to an entry that the real read will still answer, or finds the block idle and becomes the real read
+ * itself. The entry of a block is released as soon as the block goes idle, so the table only holds blocks with
+ * requests in flight
+ */
+public class PendingRequests {
+    // Map from block ID to the requests for that block, in the order they were received
+    protected Map<Long, Queue<ClientRequest>> mPending;
+
+    /**
+     * @brief Default constructor
+     */
+    public PendingRequests() {
+        mPending = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @brief Method to add a request to the requests for its block
+     * @param req
+     * @return true if the block was idle, in which case this request should do the real read for the block, or false
+     * if it should do a fake read and will be answered by the real read that is in flight
+     */
+    public boolean add(ClientRequest req) {
+        boolean[] realRead = new boolean[1];
+        mPending.compute(req.getBlockID(), (blockID, requests) -> {
+            // If the block is idle, this request does the real read
+            if (requests == null) {
+                requests = new ConcurrentLinkedQueue<>();
+                realRead[0] = true;
+            }
+            requests.add(req);
+            return requests;
+        });
+        return realRead[0];
+    }
+
+    /**
+     * @brief Method to get the oldest request for a block without removing it, so that the block does not go idle
+     * while the request is being answered
+     * @param blockID
+     * @return the oldest request for the block, or null if the block is idle
+     */
+    public ClientRequest peek(long blockID) {
+        Queue<ClientRequest> requests = mPending.get(blockID);
+        return requests == null ? null : requests.peek();
+    }
+
+    /**
+     * @brief Method to remove the oldest request for a block once it has been answered, releasing the block's entry if
+     * no requests are left
+     * @param blockID
+     * @return the next request for the block, or null if the block is now idle
+     */
+    public ClientRequest removeAndPeek(long blockID) {
+        ClientRequest[] next = new ClientRequest[1];
+        mPending.computeIfPresent(blockID, (id, requests) -> {
+            requests.poll();
+            next[0] = requests.peek();
+
+            // Release the entry once the block is idle, so that the next request does a real read
+            return next[0] == null ? null : requests;
+        });
+        return next[0];
+    }
+
+    /**
+     * @brief Method to get the amount of blocks that have requests in flight
+     * @return the amount of blocks that are not idle
+     */
+    public int size() {
+        return mPending.size();
+    }
+}
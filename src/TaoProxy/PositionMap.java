@@ -6,6 +6,13 @@ import java.net.InetSocketAddress;
  * Interface for position map
  */
 public interface PositionMap {
+    /**
+     * @brief Interface for a method that is given the position of a block
+     */
+    interface PositionConsumer {
+        void accept(long blockID, long leafID);
+    }
+
     /**
      * @brief Method to map a block ID to a leaf ID
      * @param blockID
@@ -26,4 +33,10 @@ public interface PositionMap {
      * @return an InetSocketAddress
      */
     InetSocketAddress getServerForPosition(long leafID);
+
+    /**
+     * @brief Method to give the block ID and leaf ID of every block in the position map to consumer
+     * @param consumer
+     */
+    void forEachPosition(PositionConsumer consumer);
 }
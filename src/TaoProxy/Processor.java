@@ -32,4 +32,10 @@ public interface Processor {
      * @param timeStamp
      */
     void writeBack(long timeStamp);
+
+    /**
+     * @brief Restore the state of the proxy from its last checkpoint
+     * @return true if a checkpoint was restored, false if there was none and the servers must be initialized
+     */
+    boolean restoreCheckpoint();
 }
@@ -11,10 +11,14 @@ public interface Profiler {
 
     void readPathComplete(ClientRequest req);
 
+    void readPathFailed(InetSocketAddress address, ClientRequest req);
+
     void writeBackStart(long writeBackTime);
 
     void writeBackComplete(long writeBackTime);
 
+    void writeBackFailed(InetSocketAddress address, long writeBackTime);
+
     void readPathServerProcessingTime(InetSocketAddress address, ClientRequest req, long processingTime);
 
     void writeBackServerProcessingTime(InetSocketAddress address, long writeBackTime, long processingTime);
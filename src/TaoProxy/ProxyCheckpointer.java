@@ -0,0 +1,385 @@
+package TaoProxy;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @brief Class that keeps an on disk checkpoint of the proxy, so that a restarted proxy can continue where it left off
+ * instead of initializing the servers again. The position map is checkpointed incrementally: every change is appended
+ * to a log, and once the log grows too large it is compacted into a snapshot of the whole position map. The rest of the
+ * state of the proxy, such as the stash and subtree, is small and is written in full at every checkpoint.
+ *
+ * Checkpoints are taken in two steps. mark() is called while no positions are changing and records how far into the
+ * log the checkpoint reaches, then commit() makes the log and the rest of the state durable. Positions logged after
+ * the mark are ignored when restoring, so the restored position map always matches the restored stash and subtree
+ */
+public class ProxyCheckpointer {
+    // Marks the start of the files written by this class
+    private static final int MAGIC = 0x54414f43;
+
+    // The size of a record in the position map log, a block ID followed by a leaf ID
+    private static final int RECORD_SIZE = 12;
+
+    // The size of the buffer that log records are gathered in before being written
+    private static final int LOG_BUFFER_SIZE = 1 << 16;
+
+    // Names of the files in the checkpoint directory
+    private static final String STATE_FILE = "state";
+    private static final String SNAPSHOT_PREFIX = "positions.";
+    private static final String LOG_PREFIX = "positions.log.";
+
+    /**
+     * @brief The point in the position map log that a checkpoint reaches
+     */
+    public static class Mark {
+        // Checkpoints are numbered in the order they were marked
+        long mSequence;
+
+        // The generation of the position map snapshot and log
+        long mGeneration;
+
+        // The amount of bytes of the log that belong to the checkpoint
+        long mLogLength;
+
+        Mark(long sequence, long generation, long logLength) {
+            mSequence = sequence;
+            mGeneration = generation;
+            mLogLength = logLength;
+        }
+    }
+
+    // The directory the checkpoint is kept in
+    protected File mDirectory;
+
+    // The size in bytes the log can reach before it is compacted into a snapshot
+    protected long mCompactSize;
+
+    // The position map that is being logged
+    protected PositionMap mPositionMap;
+
+    // The current generation. Each compaction writes a new snapshot and starts a new log, both named by generation
+    protected long mGeneration;
+
+    // The log of position changes for the current generation
+    protected FileChannel mLog;
+
+    // Log records that have not yet been written to mLog
+    protected ByteBuffer mLogBuffer;
+
+    // The length of the log, including records that are still in mLogBuffer
+    protected long mLogLength;
+
+    // The size of the snapshot for the current generation
+    protected long mSnapshotLength;
+
+    // The sequence number for the next mark
+    protected long mNextSequence;
+
+    // The sequence number of the newest committed checkpoint
+    protected long mCommittedSequence;
+
+    // Lock held while the state file is written
+    protected final Object mCommitLock = new Object();
+
+    /**
+     * @brief Constructor
+     * @param directory the directory the checkpoint is kept in
+     * @param compactSize the size in bytes the log can reach before it is compacted
+     */
+    public ProxyCheckpointer(String directory, long compactSize) {
+        mDirectory = new File(directory);
+        mDirectory.mkdirs();
+        mCompactSize = compactSize;
+        mLogBuffer = ByteBuffer.allocate(LOG_BUFFER_SIZE);
+        mCommittedSequence = -1;
+    }
+
+    /**
+     * @brief Method to wrap a position map so that every change to it is logged
+     * @param positionMap
+     * @return a position map that logs changes and otherwise uses positionMap
+     */
+    public PositionMap logPositions(PositionMap positionMap) {
+        mPositionMap = positionMap;
+
+        return new PositionMap() {
+            @Override
+            public void setBlockPosition(long blockID, long leafID) {
+                positionMap.setBlockPosition(blockID, leafID);
+                logPosition(blockID, leafID);
+            }
+
+            @Override
+            public long getBlockPosition(long blockID) {
+                return positionMap.getBlockPosition(blockID);
+            }
+
+            @Override
+            public InetSocketAddress getServerForPosition(long leafID) {
+                return positionMap.getServerForPosition(leafID);
+            }
+
+            @Override
+            public void forEachPosition(PositionConsumer consumer) {
+                positionMap.forEachPosition(consumer);
+            }
+        };
+    }
+
+    /**
+     * @brief Method to check if there is a committed checkpoint to restore from
+     * @return true if there is a checkpoint
+     */
+    public boolean hasCheckpoint() {
+        return new File(mDirectory, STATE_FILE).exists();
+    }
+
+    /**
+     * @brief Method to discard any checkpoint and start logging from an empty position map
+     */
+    public synchronized void reset() {
+        try {
+            closeLog();
+
+            // Delete the files of every generation
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.getName().equals(STATE_FILE) || f.getName().startsWith(SNAPSHOT_PREFIX)) {
+                        f.delete();
+                    }
+                }
+            }
+
+            mGeneration = 0;
+            mSnapshotLength = 0;
+            openLog(0);
+            mNextSequence = 0;
+            mCommittedSequence = -1;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @brief Private helper method to add a position change to the log
+     * @param blockID
+     * @param leafID
+     */
+    private synchronized void logPosition(long blockID, long leafID) {
+        // Nothing is logged until the checkpoint has been either reset or restored
+        if (mLog == null) {
+            return;
+        }
+
+        try {
+            mLogBuffer.putLong(blockID);
+            mLogBuffer.putInt((int) leafID);
+            mLogLength += RECORD_SIZE;
+
+            if (mLogBuffer.remaining() < RECORD_SIZE) {
+                writeLogBuffer();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @brief Private helper method to write the buffered log records to the log
+     */
+    private void writeLogBuffer() throws IOException {
+        mLogBuffer.flip();
+        while (mLogBuffer.hasRemaining()) {
+            mLog.write(mLogBuffer);
+        }
+        mLogBuffer.clear();
+    }
+
+    /**
+     * @brief Private helper method to open the log for a generation, keeping only the records up to mLogLength
+     * @param generation
+     */
+    private void openLog(long generation) throws IOException {
+        File logFile = new File(mDirectory, LOG_PREFIX + generation);
+        mLog = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        mLog.truncate(mLogLength);
+        mLog.position(mLogLength);
+        mLogBuffer.clear();
+    }
+
+    /**
+     * @brief Private helper method to write out and close the current log
+     */
+    private void closeLog() throws IOException {
+        if (mLog != null) {
+            writeLogBuffer();
+            mLog.force(false);
+            mLog.close();
+            mLog = null;
+        }
+        mLogLength = 0;
+    }
+
+    /**
+     * @brief Method to mark how far into the log a checkpoint reaches. Must be called while no positions are changing.
+     * If the log has grown too large, the position map is first compacted into a new snapshot, which holds up position
+     * changes for as long as it takes to write the snapshot
+     * @return the mark to pass to commit
+     */
+    public synchronized Mark mark() {
+        try {
+            if (mLogLength > mCompactSize && mLogLength > mSnapshotLength) {
+                compact();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return new Mark(mNextSequence++, mGeneration, mLogLength);
+    }
+
+    /**
+     * @brief Private helper method to write a snapshot of the position map and start a new generation
+     */
+    private void compact() throws IOException {
+        long generation = mGeneration + 1;
+        File snapshotFile = new File(mDirectory, SNAPSHOT_PREFIX + generation);
+
+        try (FileOutputStream fileStream = new FileOutputStream(snapshotFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, LOG_BUFFER_SIZE));
+            out.writeInt(MAGIC);
+
+            // Write every position in the map
+            mPositionMap.forEachPosition((blockID, leafID) -> {
+                try {
+                    out.writeLong(blockID);
+                    out.writeInt((int) leafID);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            out.flush();
+            fileStream.getChannel().force(false);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // Changes from now on go in the log for the new generation
+        closeLog();
+        mGeneration = generation;
+        mSnapshotLength = snapshotFile.length();
+        openLog(generation);
+    }
+
+    /**
+     * @brief Method to make a checkpoint durable. Commits may happen out of order, in which case a checkpoint that is
+     * older than the last committed one is skipped
+     * @param mark the mark returned by mark
+     * @param state the rest of the state of the proxy
+     */
+    public void commit(Mark mark, byte[] state) {
+        try {
+            // Make sure the log reaches at least as far as the mark
+            synchronized (this) {
+                if (mLog != null) {
+                    writeLogBuffer();
+                    mLog.force(false);
+                }
+            }
+
+            synchronized (mCommitLock) {
+                if (mark.mSequence < mCommittedSequence) {
+                    return;
+                }
+
+                // Write the new state next to the old one, then replace it
+                File tempFile = new File(mDirectory, STATE_FILE + ".tmp");
+                try (FileOutputStream fileStream = new FileOutputStream(tempFile)) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, LOG_BUFFER_SIZE));
+                    out.writeInt(MAGIC);
+                    out.writeLong(mark.mGeneration);
+                    out.writeLong(mark.mLogLength);
+                    out.writeInt(state.length);
+                    out.write(state);
+                    out.flush();
+                    fileStream.getChannel().force(false);
+                }
+                Files.move(tempFile.toPath(), new File(mDirectory, STATE_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                mCommittedSequence = mark.mSequence;
+
+                // Files of older generations are no longer needed
+                for (long generation = mark.mGeneration - 1; generation >= 0; generation--) {
+                    File oldLog = new File(mDirectory, LOG_PREFIX + generation);
+                    if (!oldLog.exists()) {
+                        break;
+                    }
+                    oldLog.delete();
+                    new File(mDirectory, SNAPSHOT_PREFIX + generation).delete();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @brief Method to restore the position map from the last committed checkpoint, then continue logging from there
+     * @return the rest of the state of the proxy that was passed to commit
+     */
+    public synchronized byte[] restore() throws IOException {
+        byte[] state;
+        long generation;
+        long logLength;
+
+        // Read the state file
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(mDirectory, STATE_FILE)), LOG_BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Checkpoint state file is corrupt");
+            }
+            generation = in.readLong();
+            logLength = in.readLong();
+            state = new byte[in.readInt()];
+            in.readFully(state);
+        }
+
+        // Load the snapshot of the position map, if this generation has one
+        File snapshotFile = new File(mDirectory, SNAPSHOT_PREFIX + generation);
+        mSnapshotLength = 0;
+        if (snapshotFile.exists()) {
+            mSnapshotLength = snapshotFile.length();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), LOG_BUFFER_SIZE))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Position map snapshot is corrupt");
+                }
+                for (long i = 4; i < mSnapshotLength; i += RECORD_SIZE) {
+                    mPositionMap.setBlockPosition(in.readLong(), in.readInt());
+                }
+            }
+        }
+
+        // Replay the log up to where the checkpoint was marked
+        File logFile = new File(mDirectory, LOG_PREFIX + generation);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), LOG_BUFFER_SIZE))) {
+            for (long i = 0; i < logLength; i += RECORD_SIZE) {
+                mPositionMap.setBlockPosition(in.readLong(), in.readInt());
+            }
+        }
+
+        // Drop anything logged after the mark and continue logging
+        closeLog();
+        mGeneration = generation;
+        mLogLength = logLength;
+        openLog(generation);
+        mNextSequence = 0;
+        mCommittedSequence = -1;
+
+        return state;
+    }
+}
@@ -10,12 +10,16 @@ public class ResponseMapEntry {
     // The data returned from the server corresponding to this request
     private byte[] mData;
 
+    // Whether the real read for the block of this request failed, in which case the request is answered with a failure
+    private boolean mFailed;
+
     /**
      * @brief Default constructor
      */
     public ResponseMapEntry() {
         mReturned = false;
         mData = null;
+        mFailed = false;
     }
 
     /**
@@ -50,4 +54,20 @@ public class ResponseMapEntry {
     public void setData(byte[] data) {
         mData = data.clone();
     }
+
+    /**
+     * @brief Accessor for mFailed
+     * @return whether or not the request corresponding to this entry failed
+     */
+    public boolean getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * @brief Mutator for mFailed
+     * @param failed
+     */
+    public void setFailed(boolean failed) {
+        mFailed = failed;
+    }
 }
@@ -3,6 +3,8 @@ package TaoProxy;
 import Messages.ClientRequest;
 import Messages.ServerResponse;
 
+import java.nio.channels.AsynchronousSocketChannel;
+
 /**
  * @brief Interface for Sequencer
  */
@@ -13,12 +15,32 @@ public interface Sequencer {
      */
     void onReceiveRequest(ClientRequest req);
 
+    /**
+     * @brief Handle the receiving of a client request whose reply is sent back on the channel it arrived on
+     * @param req
+     * @param channel
+     */
+    void onReceiveRequest(ClientRequest req, AsynchronousSocketChannel channel);
+
+    /**
+     * @brief Handle a client channel that requests arrived on being closed by the client or failing. The channel is
+     * closed once every reply that is still to be sent on it has been sent
+     * @param channel
+     */
+    void onClientDisconnected(AsynchronousSocketChannel channel);
+
     /**
      * @brief Handle the receiving of a server response
      * @param resp
      */
     void onReceiveResponse(ClientRequest req, ServerResponse resp , byte[] data);
 
+    /**
+     * @brief Handle a client request that could not be answered, replying to the client with a failure
+     * @param req
+     */
+    void onFailedRequest(ClientRequest req);
+
     /**
      * @brief Method to ensure that each reply from server is returned to client in correct order
      */
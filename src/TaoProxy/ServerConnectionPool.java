@@ -0,0 +1,637 @@
+package TaoProxy;
+
+import Messages.MessageCreator;
+import Messages.MessageTypes;
+import Messages.ProxyRequest;
+import Messages.ServerResponse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * @brief Class that keeps a fixed amount of connections open to each storage server and sends path reads or writebacks
+ * over them. Every request is tagged with a request ID that the server sends back with the response, so any amount of
+ * requests can be outstanding on a connection at once and the responses can arrive in any order. If a connection fails,
+ * it is replaced and the requests that were outstanding on it are sent again. Sending a writeback again is safe, as the
+ * server ignores paths that are older than what it already holds. Connections are opened in the background, and
+ * requests sent to a connection that is not open yet wait on it, with their deadlines already running, until it opens.
+ *
+ * A request that is not answered before its deadline is sent again on its own, and each time it is sent again it is
+ * given twice as long to be answered, up to a limit, so a server that is only slow is not sent more and more
+ * duplicates. A request is only retried a limited amount of times, after which it is removed and its failure callback
+ * is run, so a server that stops answering does not hold on to requests forever. A connection is only treated as
+ * stalled and replaced if a request on it passes its deadline and nothing at all has been received on it within the
+ * timeout. The amount of requests outstanding, timed out and failed are kept as stats
+ */
+public class ServerConnectionPool {
+    // The amount of milliseconds to wait between attempts to reconnect to a server
+    private static final long RECONNECT_DELAY = 1000;
+
+    // The most times the timeout of a request is doubled when it is sent again
+    private static final int MAX_BACKOFF_DOUBLINGS = 3;
+
+    /**
+     * @brief A request that has been sent and is waiting for its response
+     */
+    private static class PendingRequest {
+        // The ID the response will carry
+        long mRequestID;
+
+        // The serialized request, kept so it can be sent again
+        byte[] mMessage;
+
+        // What to do with the response
+        Consumer<ServerResponse> mCallback;
+
+        // What to do if the request is given up on
+        Consumer<Throwable> mOnFailure;
+
+        // The time the request was last sent
+        volatile long mSentTime;
+
+        // The amount of times the request has timed out
+        int mTimeouts;
+
+        PendingRequest(long requestID, byte[] message, Consumer<ServerResponse> callback, Consumer<Throwable> onFailure) {
+            mRequestID = requestID;
+            mMessage = message;
+            mCallback = callback;
+            mOnFailure = onFailure;
+        }
+    }
+
+    /**
+     * @brief A single connection to a server
+     */
+    private class Connection {
+        // The server this connection is to
+        InetSocketAddress mServer;
+
+        // The index of this connection in the pool for its server
+        int mIndex;
+
+        // The channel to the server, which is set once the connection is open
+        volatile AsynchronousSocketChannel mChannel;
+
+        // Whether the connection is open, before which requests wait in mPending and are written once it opens
+        volatile boolean mConnected;
+
+        // The requests that have been sent on this connection and not yet answered, by request ID
+        Map<Long, PendingRequest> mPending = new ConcurrentHashMap<>();
+
+        // Messages waiting to be written, as only one write may be in progress on a channel at a time
+        Queue<ByteBuffer> mWriteQueue = new ConcurrentLinkedQueue<>();
+
+        // Whether a write is currently in progress
+        AtomicBoolean mWriting = new AtomicBoolean();
+
+        // Whether the connection has failed and is no longer used
+        AtomicBoolean mClosed = new AtomicBoolean();
+
+        // The last time anything was received on this connection, or the time it was opened
+        volatile long mLastReceiveTime;
+
+        Connection(InetSocketAddress server, int index) {
+            mServer = server;
+            mIndex = index;
+            mLastReceiveTime = System.currentTimeMillis();
+        }
+
+        /**
+         * @brief Open the channel to the server, trying until it succeeds, the connection is closed or the thread is
+         * interrupted. Once open, the requests that were sent to the connection while it was opening are written
+         */
+        void open() {
+            while (!mClosed.get() && !mThreadGroup.isShutdown()) {
+                AsynchronousSocketChannel channel = null;
+                try {
+                    channel = AsynchronousSocketChannel.open(mThreadGroup);
+                    channel.connect(mServer).get();
+                } catch (InterruptedException e) {
+                    closeChannel(channel);
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    closeChannel(channel);
+                    TaoLogger.logError("Could not connect to " + mServer + ", trying again");
+                    try {
+                        Thread.sleep(RECONNECT_DELAY);
+                    } catch (InterruptedException e1) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+
+                // The connection may have been closed while it was opening, in which case onFailure may not have seen
+                // the channel
+                mChannel = channel;
+                if (mClosed.get()) {
+                    closeChannel(channel);
+                    return;
+                }
+
+                mLastReceiveTime = System.currentTimeMillis();
+                mConnected = true;
+                readNext();
+
+                // Write the requests that were waiting for the connection to open
+                for (PendingRequest request : mPending.values()) {
+                    send(ByteBuffer.wrap(request.mMessage));
+                }
+                return;
+            }
+        }
+
+        /**
+         * @brief Queue a message to be written, and start writing if no other write is in progress. If the connection
+         * is not open yet, the message is written from mPending once it opens
+         * @param message
+         */
+        void send(ByteBuffer message) {
+            if (!mConnected) {
+                return;
+            }
+
+            mWriteQueue.add(message);
+            writeNext();
+        }
+
+        /**
+         * @brief Write the next queued message, unless a write is already in progress
+         */
+        void writeNext() {
+            while (mWriting.compareAndSet(false, true)) {
+                ByteBuffer message = mWriteQueue.poll();
+                if (message != null) {
+                    mChannel.write(message, null, new CompletionHandler<Integer, Void>() {
+                        @Override
+                        public void completed(Integer result, Void attachment) {
+                            // Make sure we write the whole message
+                            if (message.remaining() > 0) {
+                                mChannel.write(message, null, this);
+                                return;
+                            }
+
+                            mWriting.set(false);
+                            writeNext();
+                        }
+
+                        @Override
+                        public void failed(Throwable exc, Void attachment) {
+                            onFailure(Connection.this, exc);
+                        }
+                    });
+                    return;
+                }
+
+                // Nothing to write, but a message may have been queued after the poll and before the flag was cleared
+                mWriting.set(false);
+                if (mWriteQueue.isEmpty()) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @brief Read the next response from the server, then keep reading responses until the connection fails
+         */
+        void readNext() {
+            ByteBuffer messageTypeAndSize = MessageUtility.createTypeReceiveBuffer();
+            mChannel.read(messageTypeAndSize, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer result, Void attachment) {
+                    if (result < 0) {
+                        failed(new IOException("Server " + mServer + " closed the connection"), null);
+                        return;
+                    }
+                    mLastReceiveTime = System.currentTimeMillis();
+
+                    // Make sure we read the entire header
+                    if (messageTypeAndSize.remaining() > 0) {
+                        mChannel.read(messageTypeAndSize, null, this);
+                        return;
+                    }
+
+                    // Parse the message type and size from server
+                    messageTypeAndSize.flip();
+                    int[] typeAndLength = MessageUtility.parseTypeAndLength(messageTypeAndSize);
+                    int messageType = typeAndLength[0];
+                    ByteBuffer message = ByteBuffer.allocate(typeAndLength[1]);
+
+                    // Asynchronously read response from server
+                    mChannel.read(message, null, new CompletionHandler<Integer, Void>() {
+                        @Override
+                        public void completed(Integer result, Void attachment) {
+                            if (result < 0) {
+                                failed(new IOException("Server " + mServer + " closed the connection"), null);
+                                return;
+                            }
+                            mLastReceiveTime = System.currentTimeMillis();
+
+                            // Make sure we read all the bytes of the response
+                            if (message.remaining() > 0) {
+                                mChannel.read(message, null, this);
+                                return;
+                            }
+
+                            // Start reading the next response before handling this one
+                            readNext();
+
+                            message.flip();
+                            if (messageType == MessageTypes.SERVER_TAGGED_RESPONSE) {
+                                // Match the response to the request it answers
+                                PendingRequest request = mPending.remove(message.getLong());
+                                if (request != null) {
+                                    request.mCallback.accept(mMessageCreator.parseServerResponseBytes(message));
+                                }
+                            }
+                        }
+
+                        @Override
+                        public void failed(Throwable exc, Void attachment) {
+                            onFailure(Connection.this, exc);
+                        }
+                    });
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    onFailure(Connection.this, exc);
+                }
+            });
+        }
+    }
+
+    // MessageCreator for creating different types of messages
+    protected MessageCreator mMessageCreator;
+
+    // The channel group used for asynchronous sockets
+    protected AsynchronousChannelGroup mThreadGroup;
+
+    // The amount of connections kept open to each server
+    protected int mConnectionsPerServer;
+
+    // Map that maps each storage server to its connections
+    protected Map<InetSocketAddress, AtomicReferenceArray<Connection>> mConnections;
+
+    // The ID for the next request
+    protected AtomicLong mNextRequestID;
+
+    // Used to spread requests over connections that are equally busy
+    protected AtomicInteger mNextConnection;
+
+    // The name of this pool, used in its stats
+    protected String mName;
+
+    // The amount of milliseconds a request may first go unanswered before it is sent again, or 0 to wait forever
+    protected long mRequestTimeout;
+
+    // The amount of times a request is sent again after timing out before it is given up on
+    protected int mMaxRetries;
+
+    // Periodically checks for requests that have passed their deadline
+    protected ScheduledExecutorService mDeadlineChecker;
+
+    // Opens the connections to servers, which wait until the server can be reached
+    protected TaskExecutor mReconnectExecutor;
+
+    // Stats of the requests that timed out, the connections replaced because of them, and the requests given up on
+    protected AtomicLong mTimeoutCount;
+    protected AtomicLong mReconnectCount;
+    protected AtomicLong mFailureCount;
+
+    /**
+     * @brief Constructor
+     * @param name
+     * @param messageCreator
+     * @param threadGroup
+     * @param connectionsPerServer
+     * @param requestTimeout the amount of milliseconds to first wait for a response before sending a request again, or
+     * 0 to wait forever
+     * @param maxRetries the amount of times a request is sent again before it is given up on
+     */
+    public ServerConnectionPool(String name, MessageCreator messageCreator, AsynchronousChannelGroup threadGroup,
+                                int connectionsPerServer, long requestTimeout, int maxRetries) {
+        mName = name;
+        mMessageCreator = messageCreator;
+        mThreadGroup = threadGroup;
+        mConnectionsPerServer = Math.max(1, connectionsPerServer);
+        mConnections = new ConcurrentHashMap<>();
+        mNextRequestID = new AtomicLong();
+        mNextConnection = new AtomicInteger();
+        mRequestTimeout = requestTimeout;
+        mMaxRetries = maxRetries;
+        mTimeoutCount = new AtomicLong();
+        mReconnectCount = new AtomicLong();
+        mFailureCount = new AtomicLong();
+        mReconnectExecutor = new TaskExecutor(name + "-reconnect", 0, 0);
+
+        // Check deadlines several times per timeout, so a request is noticed soon after it passes its deadline
+        if (mRequestTimeout > 0) {
+            mDeadlineChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name + "-deadlines");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long checkInterval = Math.max(1, mRequestTimeout / 4);
+            mDeadlineChecker.scheduleAtFixedRate(this::checkDeadlines, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        }
+
+        TaskExecutor.addStatsSource(this);
+    }
+
+    /**
+     * @brief Method to read a path from a server
+     * @param server
+     * @param pathID the path to be read, relative to the server
+     * @param callback what to do with the response once it arrives
+     * @param onFailure what to do if the read times out more times than it is retried
+     */
+    public void readPath(InetSocketAddress server, long pathID, Consumer<ServerResponse> callback, Consumer<Throwable> onFailure) {
+        long requestID = mNextRequestID.getAndIncrement();
+
+        // Create a tagged read request to send to server
+        ProxyRequest proxyRequest = mMessageCreator.createProxyRequest();
+        proxyRequest.setType(MessageTypes.PROXY_TAGGED_READ_REQUEST);
+        proxyRequest.setRequestID(requestID);
+        proxyRequest.setPathID(pathID);
+
+        // Create the message type and size header, followed by the request itself
+        ByteBuffer entireMessage = MessageUtility.createMessageBuffer(MessageTypes.PROXY_TAGGED_READ_REQUEST, proxyRequest.getSerializedSize());
+        proxyRequest.serialize(entireMessage);
+
+        send(server, new PendingRequest(requestID, entireMessage.array(), callback, onFailure));
+    }
+
+    /**
+     * @brief Method to write paths to a server
+     * @param server
+     * @param pathSize the size of each encrypted path, including its path ID
+     * @param timestamp the timestamp of the writeback
+     * @param dataToWrite the encrypted paths, each preceded by its path ID relative to the server
+     * @param callback what to do with the response once it arrives
+     * @param onFailure what to do if the write times out more times than it is retried
+     */
+    public void writePaths(InetSocketAddress server, int pathSize, long timestamp, byte[] dataToWrite, Consumer<ServerResponse> callback,
+                           Consumer<Throwable> onFailure) {
+        long requestID = mNextRequestID.getAndIncrement();
+
+        // Create a tagged write request to send to server
+        ProxyRequest proxyRequest = mMessageCreator.createProxyRequest();
+        proxyRequest.setType(MessageTypes.PROXY_TAGGED_WRITE_REQUEST);
+        proxyRequest.setRequestID(requestID);
+        proxyRequest.setPathSize(pathSize);
+        proxyRequest.setTimestamp(timestamp);
+        proxyRequest.setDataToWrite(dataToWrite);
+
+        // Create the message type and size header, followed by the request itself
+        ByteBuffer entireMessage = MessageUtility.createMessageBuffer(MessageTypes.PROXY_TAGGED_WRITE_REQUEST, proxyRequest.getSerializedSize());
+        proxyRequest.serialize(entireMessage);
+
+        send(server, new PendingRequest(requestID, entireMessage.array(), callback, onFailure));
+    }
+
+    /**
+     * @brief Method to get the amount of requests that are waiting for a response
+     * @return the amount of outstanding requests
+     */
+    public int getPending() {
+        int pending = 0;
+        for (AtomicReferenceArray<Connection> connections : mConnections.values()) {
+            for (int i = 0; i < connections.length(); i++) {
+                pending += connections.get(i).mPending.size();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @brief Method to get the amount of times a request has passed its deadline
+     * @return the amount of timeouts
+     */
+    public long getTimeouts() {
+        return mTimeoutCount.get();
+    }
+
+    /**
+     * @brief Method to get the amount of connections that were replaced because they stalled
+     * @return the amount of replaced connections
+     */
+    public long getReconnects() {
+        return mReconnectCount.get();
+    }
+
+    /**
+     * @brief Method to get the amount of requests that were given up on
+     * @return the amount of failed requests
+     */
+    public long getFailures() {
+        return mFailureCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": pending=" + getPending() + " timeouts=" + getTimeouts() + " reconnects="
+                + getReconnects() + " failures=" + getFailures();
+    }
+
+    /**
+     * @brief Private helper method to send a request on the least busy connection to the server
+     * @param server
+     * @param request
+     */
+    private void send(InetSocketAddress server, PendingRequest request) {
+        AtomicReferenceArray<Connection> connections = getConnections(server);
+
+        // Pick the open connection with the fewest outstanding requests, starting from a different one each time so that
+        // ties are spread out
+        int start = Math.floorMod(mNextConnection.getAndIncrement(), mConnectionsPerServer);
+        Connection connection = null;
+        for (int i = 0; i < mConnectionsPerServer; i++) {
+            Connection candidate = connections.get((start + i) % mConnectionsPerServer);
+            if (candidate.mClosed.get()) {
+                continue;
+            }
+            if (connection == null || candidate.mPending.size() < connection.mPending.size()) {
+                connection = candidate;
+            }
+        }
+
+        // If every connection has failed, the request waits on one of them until it is replaced
+        if (connection == null) {
+            connection = connections.get(start);
+        }
+
+        request.mSentTime = System.currentTimeMillis();
+        connection.mPending.put(request.mRequestID, request);
+
+        // If the connection failed after it was picked, the request is moved to the replacement along with the other
+        // outstanding requests. Once the replacement is in place the requests may have already been moved, so move it
+        // here
+        if (connection.mClosed.get()) {
+            if (connections.get(connection.mIndex) != connection && connection.mPending.remove(request.mRequestID) != null) {
+                send(server, request);
+            }
+            return;
+        }
+
+        connection.send(ByteBuffer.wrap(request.mMessage));
+    }
+
+    /**
+     * @brief Private helper method to get the connections to a server. The first time a server is used its connections
+     * are created and start opening in the background, so the caller never waits for the server to be reached
+     * @param server
+     * @return the connections
+     */
+    private AtomicReferenceArray<Connection> getConnections(InetSocketAddress server) {
+        AtomicReferenceArray<Connection> connections = mConnections.get(server);
+        if (connections != null) {
+            return connections;
+        }
+
+        AtomicReferenceArray<Connection> created = new AtomicReferenceArray<>(mConnectionsPerServer);
+        for (int i = 0; i < mConnectionsPerServer; i++) {
+            created.set(i, new Connection(server, i));
+        }
+
+        // Only the thread whose connections were put in the map opens them
+        connections = mConnections.putIfAbsent(server, created);
+        if (connections != null) {
+            return connections;
+        }
+        for (int i = 0; i < mConnectionsPerServer; i++) {
+            Connection connection = created.get(i);
+            mReconnectExecutor.execute(connection::open);
+        }
+        return created;
+    }
+
+    /**
+     * @brief Private helper method to close a channel, if there is one
+     * @param channel
+     */
+    private void closeChannel(AsynchronousSocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @brief Private helper method to replace a failed connection and send its outstanding requests again
+     * @param connection
+     * @param exc
+     */
+    private void onFailure(Connection connection, Throwable exc) {
+        // Only handle each failure once
+        if (!connection.mClosed.compareAndSet(false, true)) {
+            return;
+        }
+
+        TaoLogger.logError("Connection to " + connection.mServer + " failed: " + exc);
+        closeChannel(connection.mChannel);
+
+        // Put the replacement in place before moving the requests, so that a request sent to the failed connection
+        // after this point moves itself to the replacement. The replacement opens on another thread, as this may be
+        // running on a thread of the channel group
+        Connection replacement = new Connection(connection.mServer, connection.mIndex);
+        mConnections.get(connection.mServer).set(connection.mIndex, replacement);
+        mReconnectExecutor.execute(replacement::open);
+
+        // Send the requests that were not answered again
+        for (Long requestID : connection.mPending.keySet()) {
+            PendingRequest request = connection.mPending.remove(requestID);
+            if (request != null) {
+                send(connection.mServer, request);
+            }
+        }
+    }
+
+    /**
+     * @brief Private helper method to get how long a request may go unanswered before it is sent again, which doubles
+     * each time it is sent again
+     * @param request
+     * @return the timeout in milliseconds
+     */
+    private long getTimeout(PendingRequest request) {
+        return mRequestTimeout << Math.min(request.mTimeouts, MAX_BACKOFF_DOUBLINGS);
+    }
+
+    /**
+     * @brief Private helper method to find requests that have passed their deadline. Each such request is sent again,
+     * or given up on if it has timed out too many times, and a connection that nothing has been received on within the
+     * timeout is replaced
+     */
+    private void checkDeadlines() {
+        try {
+            long now = System.currentTimeMillis();
+            for (AtomicReferenceArray<Connection> connections : mConnections.values()) {
+                for (int i = 0; i < connections.length(); i++) {
+                    Connection connection = connections.get(i);
+                    List<PendingRequest> retries = new ArrayList<>();
+                    boolean expired = false;
+
+                    for (PendingRequest request : connection.mPending.values()) {
+                        if (now - request.mSentTime < getTimeout(request)) {
+                            continue;
+                        }
+
+                        // Take the request off the connection, unless it was answered or moved in the meantime
+                        if (connection.mPending.remove(request.mRequestID) == null) {
+                            continue;
+                        }
+                        mTimeoutCount.incrementAndGet();
+                        expired = true;
+
+                        if (request.mTimeouts >= mMaxRetries) {
+                            // Give up on the request
+                            mFailureCount.incrementAndGet();
+                            TaoLogger.logError("Request " + request.mRequestID + " to " + connection.mServer + " failed after " + (request.mTimeouts + 1) + " timeouts");
+                            request.mOnFailure.accept(new TimeoutException("No response from " + connection.mServer));
+                        } else {
+                            request.mTimeouts++;
+                            retries.add(request);
+                        }
+                    }
+
+                    // Replace the connection if nothing at all has come back on it within the timeout, which sends the
+                    // requests that are still outstanding on it again. A connection that is still opening is already
+                    // trying to reach the server, so it is left alone
+                    if (expired && connection.mConnected && now - connection.mLastReceiveTime >= mRequestTimeout
+                            && !connection.mClosed.get()) {
+                        mReconnectCount.incrementAndGet();
+                        onFailure(connection, new TimeoutException("Nothing received from " + connection.mServer + " within " + mRequestTimeout + " ms"));
+                    }
+
+                    // Send the requests that timed out again, on whichever connection is least busy
+                    for (PendingRequest request : retries) {
+                        send(connection.mServer, request);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
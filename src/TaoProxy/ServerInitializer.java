@@ -0,0 +1,266 @@
+package TaoProxy;
+
+import Configuration.TaoConfigs;
+import Configuration.Utility;
+import Messages.MessageCreator;
+import Messages.MessageTypes;
+import Messages.ProxyRequest;
+import Messages.ServerResponse;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * @brief Class that writes an empty tree to the storage servers. The tree of each server is split into batches, and
+ * each batch is sent as a single request. Every server has several connections, each with one request outstanding, so
+ * batches are encrypted and sent to a server while earlier batches are still being written.
+ *
+ * A server can either be formatted, where each batch is a run of buckets in the order they are laid out on disk and is
+ * written in a single sequential write, or be initialized by path, where each batch is a range of paths. When
+ * initializing by path, a bucket is only sent with the first path that contains it, so the buckets shared at the top of
+ * the tree are written once
+ */
+public class ServerInitializer {
+    // The ways a server can be initialized
+    public static final String MODE_FORMAT = "format";
+    public static final String MODE_PATHS = "paths";
+
+    // The amount of milliseconds between progress reports
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    // MessageCreator for creating different types of messages
+    protected MessageCreator mMessageCreator;
+
+    // CryptoUtil used to encrypt the empty buckets
+    protected CryptoUtil mCryptoUtil;
+
+    // The servers of each partition of the tree, all of which are sent the same paths
+    protected List<List<InetSocketAddress>> mPartitions;
+
+    // Whether servers are formatted instead of initialized by path
+    protected boolean mFormat;
+
+    // The amount of paths or buckets in each request
+    protected int mBatchSize;
+
+    // The amount of requests outstanding to each server
+    protected int mPipelineDepth;
+
+    // An empty bucket, serialized
+    protected byte[] mEmptyBucket;
+
+    // The height of the tree on each server
+    protected int mServerTreeHeight;
+
+    // The amount of paths or buckets that have been written to a server
+    protected AtomicLong mUnitsDone;
+
+    /**
+     * @brief Constructor
+     * @param messageCreator
+     * @param pathCreator
+     * @param cryptoUtil
+     * @param partitions the servers of each partition of the tree, in the order of the leaves they hold
+     * @param mode either MODE_FORMAT or MODE_PATHS
+     * @param batchSize the amount of paths in each request when initializing by path
+     * @param formatSize the size in bytes of each request when formatting
+     * @param pipelineDepth the amount of requests outstanding to each server
+     */
+    public ServerInitializer(MessageCreator messageCreator, PathCreator pathCreator, CryptoUtil cryptoUtil,
+                             List<List<InetSocketAddress>> partitions, String mode, int batchSize, int formatSize,
+                             int pipelineDepth) {
+        mMessageCreator = messageCreator;
+        mCryptoUtil = cryptoUtil;
+        mPartitions = partitions;
+        if (!MODE_FORMAT.equals(mode) && !MODE_PATHS.equals(mode)) {
+            throw new IllegalArgumentException("Unknown initialize mode " + mode + ", must be " + MODE_FORMAT + " or " + MODE_PATHS);
+        }
+        mFormat = MODE_FORMAT.equals(mode);
+        mBatchSize = Math.max(1, mFormat ? formatSize / (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE : batchSize);
+        mPipelineDepth = Math.max(1, pipelineDepth);
+        mEmptyBucket = pathCreator.createBucket().serialize();
+
+        // Each partition holds an equal, power of two share of the leaves
+        int leavesPerPartition = (1 << TaoConfigs.TREE_HEIGHT) / partitions.size();
+        mServerTreeHeight = Integer.numberOfTrailingZeros(leavesPerPartition);
+        mUnitsDone = new AtomicLong();
+    }
+
+    /**
+     * @brief Method to write an empty tree to every server, returning once every server has acknowledged every path
+     */
+    public void initialize() throws Exception {
+        // Each server is sent either every bucket or every path of its tree
+        long unitsPerServer = mFormat ? (2L << mServerTreeHeight) - 1 : 1L << mServerTreeHeight;
+        long numBatches = (unitsPerServer + mBatchSize - 1) / mBatchSize;
+        String unit = mFormat ? "buckets" : "paths";
+
+        // Count every server of every partition
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (List<InetSocketAddress> partition : mPartitions) {
+            servers.addAll(partition);
+        }
+        long totalUnits = unitsPerServer * servers.size();
+
+        TaoLogger.logForce((mFormat ? "Formatting " : "Initializing ") + servers.size() + " servers with "
+                + unitsPerServer + " " + unit + " each, " + mBatchSize + " " + unit + " per request and "
+                + mPipelineDepth + " requests outstanding per server");
+
+        // Each connection takes the next batch that has not yet been sent to its server
+        ExecutorService executor = Executors.newFixedThreadPool(servers.size() * mPipelineDepth);
+        List<Future<?>> futures = new ArrayList<>();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (InetSocketAddress server : servers) {
+                AtomicLong nextBatch = new AtomicLong();
+                for (int i = 0; i < mPipelineDepth; i++) {
+                    futures.add(executor.submit(() -> {
+                        sendBatches(server, nextBatch, numBatches, unitsPerServer);
+                        return null;
+                    }));
+                }
+            }
+
+            // Wait for every connection to finish, reporting progress in the meantime
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        logProgress(startTime, totalUnits, unit);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        logProgress(startTime, totalUnits, unit);
+    }
+
+    /**
+     * @brief Private helper method to log how much of the tree has been written and how fast
+     * @param startTime
+     * @param totalUnits
+     * @param unit
+     */
+    private void logProgress(long startTime, long totalUnits, String unit) {
+        long unitsDone = mUnitsDone.get();
+        double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        TaoLogger.logForce(String.format("Initialized %d of %d %s (%.1f%%) in %.1f seconds, %.0f %s/sec",
+                unitsDone, totalUnits, unit, 100.0 * unitsDone / totalUnits, seconds, unitsDone / seconds, unit));
+    }
+
+    /**
+     * @brief Private helper method to send batches to a server over a single connection until every batch is sent
+     * @param server
+     * @param nextBatch the index of the next batch to be sent to this server
+     * @param numBatches
+     * @param unitsPerServer the amount of paths or buckets to send to the server
+     */
+    private void sendBatches(InetSocketAddress server, AtomicLong nextBatch, long numBatches, long unitsPerServer) throws IOException {
+        try (Socket socket = new Socket(server.getHostName(), server.getPort())) {
+            OutputStream output = socket.getOutputStream();
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+
+            long batch;
+            while ((batch = nextBatch.getAndIncrement()) < numBatches) {
+                long first = batch * mBatchSize;
+                int count = (int) Math.min(mBatchSize, unitsPerServer - first);
+
+                // Send the batch
+                ProxyRequest initializeRequest = mFormat ? createFormatBatch(first, count) : createBatch(first, count);
+                ByteBuffer request = MessageUtility.createMessageBuffer(initializeRequest.getType(), initializeRequest.getSerializedSize());
+                initializeRequest.serialize(request);
+                output.write(request.array());
+
+                // Wait for the server to write it
+                int type = input.readInt();
+                byte[] message = new byte[input.readInt()];
+                input.readFully(message);
+                if (type != MessageTypes.SERVER_RESPONSE) {
+                    throw new IOException("Server " + server + " sent unexpected reply type " + type + " while initializing " + first + " to " + (first + count - 1));
+                }
+
+                ServerResponse response = mMessageCreator.createServerResponse();
+                response.initFromSerialized(message);
+                if (!response.getWriteStatus()) {
+                    throw new IOException("Server " + server + " failed to initialize " + first + " to " + (first + count - 1));
+                }
+
+                mUnitsDone.addAndGet(count);
+            }
+        }
+    }
+
+    /**
+     * @brief Private helper method to create the format request for a run of buckets
+     * @param firstBucket
+     * @param numBuckets
+     * @return the format request
+     */
+    private ProxyRequest createFormatBatch(long firstBucket, int numBuckets) {
+        int encryptedBucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+
+        // Encrypt the buckets in parallel, each into its own slice
+        byte[] dataToWrite = new byte[encryptedBucketSize * numBuckets];
+        IntStream.range(0, numBuckets).parallel().forEach(i -> {
+            byte[] encryptedBucket = mCryptoUtil.encrypt(mEmptyBucket);
+            System.arraycopy(encryptedBucket, 0, dataToWrite, encryptedBucketSize * i, encryptedBucketSize);
+        });
+
+        // Create a proxy format request
+        ProxyRequest formatRequest = mMessageCreator.createProxyRequest();
+        formatRequest.setType(MessageTypes.PROXY_FORMAT_REQUEST);
+        formatRequest.setFirstBucket(firstBucket);
+        formatRequest.setDataToWrite(dataToWrite);
+
+        return formatRequest;
+    }
+
+    /**
+     * @brief Private helper method to create the initialize request for a batch of paths. Each path is its ID followed
+     * by its encrypted buckets, starting from the first bucket it does not share with a path of a lower ID
+     * @param firstPath
+     * @param numPaths
+     * @return the initialize request
+     */
+    private ProxyRequest createBatch(long firstPath, int numPaths) {
+        int encryptedBucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+
+        // Find where each path starts in the request
+        int[] offsets = new int[numPaths + 1];
+        for (int i = 0; i < numPaths; i++) {
+            int firstLevel = Utility.getFirstUnsharedLevel(firstPath + i, mServerTreeHeight);
+            offsets[i + 1] = offsets[i] + 8 + encryptedBucketSize * (mServerTreeHeight + 1 - firstLevel);
+        }
+
+        // Encrypt the paths in parallel, each into its own slice
+        byte[] dataToWrite = new byte[offsets[numPaths]];
+        IntStream.range(0, numPaths).parallel().forEach(i -> {
+            ByteBuffer.wrap(dataToWrite, offsets[i], 8).putLong(firstPath + i);
+            for (int offset = offsets[i] + 8; offset < offsets[i + 1]; offset += encryptedBucketSize) {
+                byte[] encryptedBucket = mCryptoUtil.encrypt(mEmptyBucket);
+                System.arraycopy(encryptedBucket, 0, dataToWrite, offset, encryptedBucketSize);
+            }
+        });
+
+        // Create a proxy initialize request
+        ProxyRequest initializeRequest = mMessageCreator.createProxyRequest();
+        initializeRequest.setType(MessageTypes.PROXY_INITIALIZE_REQUEST);
+        initializeRequest.setPathSize(mCryptoUtil.getEncryptedPathSize());
+        initializeRequest.setDataToWrite(dataToWrite);
+
+        return initializeRequest;
+    }
+}
@@ -1,6 +1,7 @@
 package TaoProxy;
 
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
 /**
  * Interface for Stash
@@ -18,6 +19,20 @@ public interface Stash {
      */
     void addBlock(Block b);
 
+    /**
+     * @brief Method to add a block of a path that is being flushed to stash. The block can be found and placed like any
+     * other, but is not counted in the size of the stash unless keepFlushedBlocks is called for it
+     * @param b
+     */
+    void addFlushedBlock(Block b);
+
+    /**
+     * @brief Method to count the blocks of a flushed path that were not placed back on the path in the size of the
+     * stash, as they now stay in it
+     * @param blocks the blocks that were added with addFlushedBlock, whether or not they have been placed since
+     */
+    void keepFlushedBlocks(List<Block> blocks);
+
     /**
      * @brief Get the block with the corresponding block ID
      * @param blockID
@@ -30,4 +45,51 @@ public interface Stash {
      * @param b
      */
     void removeBlock(Block b);
+
+    /**
+     * @brief Method to get blocks from stash that can be placed in the bucket at the given level of a path, which are
+     * the blocks whose path shares at least that many levels with it
+     * @param pathID
+     * @param level
+     * @param max the most blocks to return
+     * @return list of at most max blocks that can be placed at level
+     */
+    List<Block> getBlocksForLevel(long pathID, int level, int max);
+
+    /**
+     * @brief Method to let the stash know that the path of a block has changed, in case the block is in the stash
+     * @param blockID
+     */
+    void updateBlockPosition(long blockID);
+
+    /**
+     * @brief Method to get the amount of blocks in the stash, not counting blocks of a path that is being flushed
+     * @return the amount of blocks in stash
+     */
+    int getSize();
+
+    /**
+     * @brief Method to get the most blocks the stash has held at once
+     * @return the high water mark of the stash
+     */
+    int getHighWaterMark();
+
+    /**
+     * @brief Method to record the current amount of blocks in the stash in its size histogram
+     */
+    void sampleSize();
+
+    /**
+     * @brief Method to get how often the stash has been seen holding each range of sizes. Entry 0 counts the times
+     * the stash was empty, and entry i after that counts the sizes from 2^(i-1) up to 2^i - 1
+     * @return the size histogram
+     */
+    long[] getSizeHistogram();
+
+    /**
+     * @brief Method to wait until the stash holds fewer blocks than its capacity. Returns right away if the stash has
+     * no capacity, and stops waiting once mayProceed returns true
+     * @param mayProceed checked while waiting, for when the stash can not shrink without letting more requests in
+     */
+    void awaitCapacity(BooleanSupplier mayProceed);
 }
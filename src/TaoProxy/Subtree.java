@@ -1,5 +1,9 @@
 package TaoProxy;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 
 public interface Subtree {
@@ -52,6 +56,19 @@ public interface Subtree {
      */
     void clearPath(long pathID);
 
+    /**
+     * @brief Method to write every bucket in the subtree, along with where it is in the tree, to a checkpoint
+     * @param out
+     */
+    void writeCheckpoint(DataOutput out) throws IOException;
+
+    /**
+     * @brief Method to replace the contents of the subtree with the buckets in a checkpoint made by writeCheckpoint
+     * @param in
+     * @return the IDs of the paths that are complete in the restored subtree
+     */
+    List<Long> readCheckpoint(DataInput in) throws IOException;
+
     /**
      * @brief Used for debugging, prints subtree contents
      */
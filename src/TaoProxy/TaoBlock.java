@@ -4,6 +4,7 @@ import Configuration.TaoConfigs;
 import com.google.common.primitives.Bytes;
 import com.google.common.primitives.Longs;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -95,6 +96,12 @@ public class TaoBlock implements Block {
         return Bytes.concat(idBytes, mData);
     }
 
+    @Override
+    public void serialize(byte[] dest, int offset) {
+        ByteBuffer.wrap(dest, offset, 8).putLong(mID);
+        System.arraycopy(mData, 0, dest, offset + TaoConfigs.BLOCK_META_DATA_SIZE, TaoConfigs.BLOCK_SIZE);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if ( ! (obj instanceof Block) ) {
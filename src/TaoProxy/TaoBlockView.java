@@ -0,0 +1,100 @@
+package TaoProxy;
+
+import Configuration.TaoConfigs;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * @brief Implementation of the Block interface that is a view of one slot of a serialized bucket. The block ID and data
+ * are read from and written to the bucket's bytes in place, so a bucket can hand out its blocks without copying them
+ */
+public class TaoBlockView implements Block {
+    // The bytes of the bucket this block is stored in
+    private ByteBuffer mBuffer;
+
+    // The offset of this block's slot within the bucket
+    private int mOffset;
+
+    /**
+     * @brief Constructor that takes in the bytes of a bucket and the offset of a slot within it
+     * @param buffer
+     * @param offset
+     */
+    public TaoBlockView(ByteBuffer buffer, int offset) {
+        mBuffer = buffer;
+        mOffset = offset;
+    }
+
+    @Override
+    public void initFromBlock(Block b) {
+        setBlockID(b.getBlockID());
+        setData(b.getData());
+    }
+
+    @Override
+    public void initFromSerialized(byte[] serialized) {
+        System.arraycopy(serialized, 0, mBuffer.array(), mOffset, TaoConfigs.TOTAL_BLOCK_SIZE);
+    }
+
+    @Override
+    public byte[] getData() {
+        int dataOffset = mOffset + TaoConfigs.BLOCK_META_DATA_SIZE;
+        return Arrays.copyOfRange(mBuffer.array(), dataOffset, dataOffset + TaoConfigs.BLOCK_SIZE);
+    }
+
+    @Override
+    public void setData(byte[] data) {
+        if (data != null) {
+            System.arraycopy(data, 0, mBuffer.array(), mOffset + TaoConfigs.BLOCK_META_DATA_SIZE, TaoConfigs.BLOCK_SIZE);
+        }
+    }
+
+    @Override
+    public long getBlockID() {
+        return mBuffer.getLong(mOffset);
+    }
+
+    @Override
+    public void setBlockID(long blockID) {
+        mBuffer.putLong(mOffset, blockID);
+    }
+
+    @Override
+    public Block getCopy() {
+        Block b = new TaoBlock();
+        b.initFromBlock(this);
+        return b;
+    }
+
+    @Override
+    public byte[] serialize() {
+        return Arrays.copyOfRange(mBuffer.array(), mOffset, mOffset + TaoConfigs.TOTAL_BLOCK_SIZE);
+    }
+
+    @Override
+    public void serialize(byte[] dest, int offset) {
+        System.arraycopy(mBuffer.array(), mOffset, dest, offset, TaoConfigs.TOTAL_BLOCK_SIZE);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if ( ! (obj instanceof Block) ) {
+            return false;
+        }
+
+        if (obj == this) {
+            return true;
+        }
+
+        // Two blocks are equal if they have the same blockID
+        Block rhs = (Block) obj;
+        return getBlockID() == rhs.getBlockID();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getBlockID());
+    }
+}
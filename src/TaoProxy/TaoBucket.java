@@ -1,26 +1,34 @@
 package TaoProxy;
 
 import Configuration.TaoConfigs;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * @brief Implementation of a bucket for TaoStore implementing the Bucket interface
+ * @brief Implementation of a bucket for TaoStore implementing the Bucket interface. The bucket is stored as its
+ * serialization: the time stamp of the last time this bucket was updated, a bitmap of which slots are occupied by a
+ * block, then a slot for each block. Initializing a bucket from its serialization is a single copy, and blocks are read
+ * and modified in place in their slots
  */
 public class TaoBucket implements Bucket {
-    // The blocks in this bucket
-    protected Block[] mBlocks;
+    // Offsets of the update time, the bitmap and the first slot within the serialization of a bucket
+    private static final int UPDATE_TIME_OFFSET = 0;
+    private static final int BITMAP_OFFSET = 8;
+    private static final int SLOTS_OFFSET = 12;
+
+    // The serialization of this bucket
+    private byte[] mData;
 
-    // Time stamp for the last time this bucket was updated. Time kept in relation to how many flushes have been done
-    private long mUpdateTime;
+    // Buffer over mData, used to read and write the header and block IDs in place
+    private ByteBuffer mBuffer;
 
-    // A bitmap to keep track of which slots in this bucket are occupied by a block
-    private int mBucketBitmap;
+    // Blocks added to this bucket, which are kept as they are rather than copied into their slot since a thread that
+    // found the block in the stash may still write to it. A null entry means the block is stored in its slot of mData
+    protected Block[] mBlocks;
 
     // Read-write lock for bucket
     private final ReentrantReadWriteLock mRWL = new ReentrantReadWriteLock();
@@ -29,84 +37,83 @@ public class TaoBucket implements Bucket {
      * @brief Default constructor
      */
     public TaoBucket() {
-        // Initialize blocks to be empty
+        // Allocate the serialization of the bucket, with no blocks added
+        mData = new byte[TaoConfigs.BUCKET_SIZE];
+        mBuffer = ByteBuffer.wrap(mData);
         mBlocks = new Block[TaoConfigs.BLOCKS_IN_BUCKET];
+
+        // Initialize blocks to be empty
         for (int i = 0; i < TaoConfigs.BLOCKS_IN_BUCKET; i++) {
-            mBlocks[i] = new TaoBlock();
+            mBuffer.putLong(getSlotOffset(i), -1);
         }
 
         // Set update time
-        mUpdateTime = -1;
+        setUpdateTime(-1);
 
-        // Set bitmap to be 0, indicating that not blocks are currently set for this bucket
-        mBucketBitmap = 0;
+        // The bitmap is left as 0, indicating that not blocks are currently set for this bucket
     }
 
     @Override
     public void initFromBucket(Bucket bucket) {
-        // Initialize the list of blocks
-        mBlocks = new Block[TaoConfigs.BLOCKS_IN_BUCKET];
-
-        // Get the blocks from the bucket to be copied
-        Block[] temp = bucket.getBlocks();
-
-        // Add the copied blocks to this bucket
-        for (int i = 0; i < mBlocks.length; i++) {
-            // Copy a block from bucket only if bucket has marked that block as occupied in the bitmap
-            if (bucket.checkBlockFilled(i) && temp[i] != null) {
-                mBlocks[i] = temp[i].getCopy();
-                markBlockFilled(i);
-            } else {
-                // If the block is not filled in the bucket to be copied, add an empty block to the bucket
-                mBlocks[i] = new TaoBlock();
-            }
-        }
-
-        // Copy the update time of the copied bucket
-        mUpdateTime = bucket.getUpdateTime();
+        // Copy the serialization of the bucket, which holds a copy of each of its blocks
+        bucket.serialize(mData, 0);
+        Arrays.fill(mBlocks, null);
     }
 
     @Override
     public void initFromSerialized(byte[] serialized) {
-        // Get the last time this bucket was updated
-        mUpdateTime = Longs.fromByteArray(Arrays.copyOfRange(serialized, 0, 8));
+        initFromSerialized(serialized, 0);
+    }
 
-        // Get the bitmap for this bucket
-        mBucketBitmap = Ints.fromByteArray(Arrays.copyOfRange(serialized, 8, 12));
+    @Override
+    public void initFromSerialized(byte[] serialized, int offset) {
+        // The serialization is copied as a whole, and each block is then read from its slot
+        System.arraycopy(serialized, offset, mData, 0, TaoConfigs.BUCKET_SIZE);
+        Arrays.fill(mBlocks, null);
+    }
 
-        // Initialize the list of blocks
-        mBlocks = new Block[TaoConfigs.BLOCKS_IN_BUCKET];
+    /**
+     * @brief Private helper method to get the offset of the slot of one of the blocks within the serialization
+     * @param index
+     * @return the offset of the slot
+     */
+    private int getSlotOffset(int index) {
+        return SLOTS_OFFSET + TaoConfigs.TOTAL_BLOCK_SIZE * index;
+    }
 
-        // Get the actual blocks
-        int entireBlockSize = TaoConfigs.TOTAL_BLOCK_SIZE;
-        for (int i = 0; i < mBlocks.length; i++) {
-            mBlocks[i] = new TaoBlock();
-            mBlocks[i].initFromSerialized(Arrays.copyOfRange(serialized, 12 + entireBlockSize * i, 12 + entireBlockSize + entireBlockSize * i));
-        }
+    /**
+     * @brief Private helper method to get the block at one of the slots of this bucket, either the block that was
+     * added there or a view of the slot
+     * @param index
+     * @return the block
+     */
+    private Block getBlock(int index) {
+        return mBlocks[index] != null ? mBlocks[index] : new TaoBlockView(mBuffer, getSlotOffset(index));
     }
 
     /**
-     * @brief Private helper method to mark one of the blocks for this bucket as filled in the bitmap
+     * @brief Private helper method to get the ID of the block at one of the slots of this bucket without creating a
+     * view of the slot
      * @param index
+     * @return the block ID
      */
-    private void markBlockFilled(int index) {
-        int mask = 1 << index;
-        mBucketBitmap = mBucketBitmap | mask;
+    private long getBlockID(int index) {
+        return mBlocks[index] != null ? mBlocks[index].getBlockID() : mBuffer.getLong(getSlotOffset(index));
     }
 
     /**
-     * @brief Private helper method to mark one of the blocks for this bucket as unfilled in the bitmap
+     * @brief Private helper method to mark one of the blocks for this bucket as filled in the bitmap
      * @param index
      */
-    private void markBlockUnfilled(int index) {
-        int mask = ~(1 << index);
-        mBucketBitmap = mBucketBitmap & mask;
+    private void markBlockFilled(int index) {
+        int mask = 1 << index;
+        mBuffer.putInt(BITMAP_OFFSET, mBuffer.getInt(BITMAP_OFFSET) | mask);
     }
 
     @Override
     public boolean checkBlockFilled(int index) {
         int mask = 1 << index;
-        return (mBucketBitmap & mask) == mask;
+        return (mBuffer.getInt(BITMAP_OFFSET) & mask) == mask;
     }
 
     @Override
@@ -124,7 +131,7 @@ public class TaoBucket implements Bucket {
             // Update the timestamp of add was successful
             if (success) {
                 TaoLogger.logBlock(block.getBlockID(), "subtree add");
-                mUpdateTime = time;
+                setUpdateTime(time);
             }
         } finally {
             // Release the write lock
@@ -157,9 +164,12 @@ public class TaoBucket implements Bucket {
     @Override
     public Block[] getBlocks() {
         // TODO: need lock?
-        // TODO: Copy of blocks?
         // TODO: Replace this and make it getFilledBlocks?
-        return mBlocks;
+        Block[] blocks = new Block[TaoConfigs.BLOCKS_IN_BUCKET];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = getBlock(i);
+        }
+        return blocks;
     }
 
     @Override
@@ -174,8 +184,8 @@ public class TaoBucket implements Bucket {
             for (int i = 0; i < mBlocks.length; i++) {
                 // Check to see if the block has been properly added
                 if (checkBlockFilled(i)) {
-                    // TODO: Add a copy? currently a reference
-                    returnList.add(mBlocks[i]);
+                    // TODO: Add a copy? currently a reference or a view of the slot
+                    returnList.add(getBlock(i));
                 }
             }
         } finally {
@@ -194,7 +204,12 @@ public class TaoBucket implements Bucket {
         try {
             for (int i = 0; i < mBlocks.length; i++) {
                 // Check to see if the block is filled, and then check to see if the blockID matches the target blockID
-                if (checkBlockFilled(i) && mBlocks[i].getBlockID() == blockID) {
+                if (checkBlockFilled(i) && getBlockID(i) == blockID) {
+                    // Copy the data straight out of the slot if the block is stored there
+                    if (mBlocks[i] == null) {
+                        int dataOffset = getSlotOffset(i) + TaoConfigs.BLOCK_META_DATA_SIZE;
+                        return Arrays.copyOfRange(mData, dataOffset, dataOffset + TaoConfigs.BLOCK_SIZE);
+                    }
                     return mBlocks[i].getData();
                 }
             }
@@ -213,9 +228,7 @@ public class TaoBucket implements Bucket {
 
         try {
             // Mark all blocks unfilled
-            for (int i = 0; i < TaoConfigs.BLOCKS_IN_BUCKET; i++) {
-                markBlockUnfilled(i);
-            }
+            mBuffer.putInt(BITMAP_OFFSET, 0);
         } finally {
             // Release the read lock
             mRWL.writeLock().unlock();
@@ -225,12 +238,12 @@ public class TaoBucket implements Bucket {
 
     @Override
     public long getUpdateTime() {
-        return mUpdateTime;
+        return mBuffer.getLong(UPDATE_TIME_OFFSET);
     }
 
     @Override
     public void setUpdateTime(long timestamp) {
-        mUpdateTime = timestamp;
+        mBuffer.putLong(UPDATE_TIME_OFFSET, timestamp);
     }
 
     @Override
@@ -243,9 +256,13 @@ public class TaoBucket implements Bucket {
 
             // Search for the correct block
             for (int i = 0; i < TaoConfigs.BLOCKS_IN_BUCKET; i++) {
-                if (checkBlockFilled(i) && mBlocks[i].getBlockID() == blockID) {
-                    // Modify data for the block
-                    mBlocks[i].setData(data);
+                if (checkBlockFilled(i) && getBlockID(i) == blockID) {
+                    // Modify data for the block, in its slot if it is stored there
+                    if (mBlocks[i] == null) {
+                        System.arraycopy(data, 0, mData, getSlotOffset(i) + TaoConfigs.BLOCK_META_DATA_SIZE, TaoConfigs.BLOCK_SIZE);
+                    } else {
+                        mBlocks[i].setData(data);
+                    }
                     writeStatus = true;
                 }
             }
@@ -262,25 +279,21 @@ public class TaoBucket implements Bucket {
     public byte[] serialize() {
         // The data to be returned
         byte[] returnData = new byte[TaoConfigs.BUCKET_SIZE];
+        serialize(returnData, 0);
+        return returnData;
+    }
 
-        // Get the bytes for the update time
-        byte[] timeBytes = Longs.toByteArray(mUpdateTime);
-        System.arraycopy(timeBytes, 0, returnData, 0, timeBytes.length);
-
-        // Get the bytes for the bitmap
-        byte[] bitmapBytes = Ints.toByteArray(mBucketBitmap);
-        System.arraycopy(bitmapBytes, 0, returnData, timeBytes.length, bitmapBytes.length);
-
-        // Keep track of the size of the update time and bitmap
-        int metaDataSize = timeBytes.length + bitmapBytes.length;
+    @Override
+    public void serialize(byte[] dest, int offset) {
+        // Copy the update time, the bitmap and the blocks stored in their slots
+        System.arraycopy(mData, 0, dest, offset, TaoConfigs.BUCKET_SIZE);
 
-        // Add all the blocks to the return data
-        int entireBlockSize = TaoConfigs.TOTAL_BLOCK_SIZE;
-        for(int i = 0; i < TaoConfigs.BLOCKS_IN_BUCKET; i++) {
-            System.arraycopy(mBlocks[i].serialize(), 0, returnData, metaDataSize + entireBlockSize * i, entireBlockSize);
+        // Then write the blocks that were added to this bucket into their slots
+        for (int i = 0; i < TaoConfigs.BLOCKS_IN_BUCKET; i++) {
+            if (mBlocks[i] != null) {
+                mBlocks[i].serialize(dest, offset + getSlotOffset(i));
+            }
         }
-
-        return returnData;
     }
 
     @Override
@@ -2,13 +2,10 @@ package TaoProxy;
 
 import Configuration.TaoConfigs;
 import Messages.ClientRequest;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -43,22 +40,25 @@ public class TaoClientRequest implements ClientRequest {
 
     @Override
     public void initFromSerialized(byte[] serialized) {
-        int startIndex = 0;
-        mBlockID = Longs.fromByteArray(Arrays.copyOfRange(serialized, startIndex, startIndex + 8));
-        startIndex += 8;
-        mType = Ints.fromByteArray(Arrays.copyOfRange(serialized, startIndex, startIndex + 4));
-        startIndex += 4;
-        mRequestID = Longs.fromByteArray(Arrays.copyOfRange(serialized, startIndex, startIndex + 8));
-        startIndex += 8;
-        mData = Arrays.copyOfRange(serialized, startIndex, startIndex + TaoConfigs.BLOCK_SIZE);
-        startIndex += TaoConfigs.BLOCK_SIZE;
-        int hostnameSize = Ints.fromByteArray(Arrays.copyOfRange(serialized, startIndex, startIndex + 4));
-        startIndex += 4;
-        byte[] hostnameBytes = Arrays.copyOfRange(serialized, startIndex, startIndex + hostnameSize);
-        startIndex += hostnameSize;
+        initFromSerialized(ByteBuffer.wrap(serialized));
+    }
+
+    @Override
+    public void initFromSerialized(ByteBuffer serialized) {
+        mBlockID = serialized.getLong();
+        mType = serialized.getInt();
+        mRequestID = serialized.getLong();
+
+        mData = new byte[TaoConfigs.BLOCK_SIZE];
+        serialized.get(mData);
+
+        int hostnameSize = serialized.getInt();
+        byte[] hostnameBytes = new byte[hostnameSize];
+        serialized.get(hostnameBytes);
         String hostname = new String(hostnameBytes, StandardCharsets.UTF_8);
-        int port = Ints.fromByteArray(Arrays.copyOfRange(serialized, startIndex, startIndex + 4));
-        startIndex += 4;
+
+        int port = serialized.getInt();
+
         // Cache to avoid having to recreate InetSocketAddress object
         mClientAddress = ClientAddressCache.getFromCache(hostname, Integer.toString(port));
     }
@@ -115,14 +115,29 @@ public class TaoClientRequest implements ClientRequest {
 
     @Override
     public byte[] serialize() {
-        byte[] blockIDBytes = Longs.toByteArray(mBlockID);
-        byte[] typeBytes = Ints.toByteArray(mType);
-        byte[] idBytes = Longs.toByteArray(mRequestID);
-        byte[] hostnameLengthBytes = Ints.toByteArray(mClientAddress.getHostName().length());
+        byte[] returnData = new byte[getSerializedSize()];
+        serialize(ByteBuffer.wrap(returnData));
+        return returnData;
+    }
+
+    @Override
+    public int getSerializedSize() {
+        // Block ID, type, request ID, data, hostname length, hostname, and port
+        int hostnameSize = mClientAddress.getHostName().getBytes(StandardCharsets.UTF_8).length;
+        return 8 + 4 + 8 + mData.length + 4 + hostnameSize + 4;
+    }
+
+    @Override
+    public void serialize(ByteBuffer buffer) {
         byte[] hostnameBytes = mClientAddress.getHostName().getBytes(StandardCharsets.UTF_8);
-        byte[] portBytes = Ints.toByteArray(mClientAddress.getPort());
 
-        return Bytes.concat(blockIDBytes, typeBytes, idBytes, mData, hostnameLengthBytes, hostnameBytes, portBytes);
+        buffer.putLong(mBlockID);
+        buffer.putInt(mType);
+        buffer.putLong(mRequestID);
+        buffer.put(mData);
+        buffer.putInt(hostnameBytes.length);
+        buffer.put(hostnameBytes);
+        buffer.putInt(mClientAddress.getPort());
     }
 
     @Override
@@ -142,8 +157,9 @@ public class TaoClientRequest implements ClientRequest {
             return false;
         }
 
-        // If two requests have the same request ID, check to make sure they are not from different hosts
-        if (! mClientAddress.getHostName().equals(rhs.getClientAddress().getHostName())) {
+        // If two requests have the same request ID, check to make sure they are not from different clients
+        if (! mClientAddress.getHostName().equals(rhs.getClientAddress().getHostName())
+                || mClientAddress.getPort() != rhs.getClientAddress().getPort()) {
             return false;
         }
 
@@ -152,7 +168,7 @@ public class TaoClientRequest implements ClientRequest {
 
     @Override
     public int hashCode() {
-        return Objects.hash(mRequestID, mClientAddress.getHostName());
+        return Objects.hash(mRequestID, mClientAddress.getHostName(), mClientAddress.getPort());
     }
 
 }
@@ -1,23 +1,42 @@
 package TaoProxy;
 
 import Configuration.TaoConfigs;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Longs;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 
 /**
  * @brief Class to handle crypto related activities
  */
 public class TaoCryptoUtil implements CryptoUtil {
     // Secret key for this class to use for encryption/decryption
-    private SecretKey mSecretKey;
+    protected SecretKey mSecretKey;
+
+    // Key spec made from the secret key, shared by every cipher
+    protected SecretKeySpec mKeySpec;
+
+    // Each thread keeps its own cipher, so that a cipher does not need to be looked up and set up for every bucket
+    protected ThreadLocal<Cipher> mCipher;
+
+    // Each thread keeps its own random number generator, which is only seeded once
+    protected ThreadLocal<SecureRandom> mRandom = ThreadLocal.withInitial(TaoCryptoUtil::createRandom);
+
+    // When tasks run on virtual threads, which are not reused, a per thread cipher and random number generator would be
+    // set up again for every task. Ciphers are then instead taken from this pool of idle ciphers, and every thread
+    // shares one random number generator. Both are null when tasks run on platform threads
+    protected Queue<Cipher> mCipherPool;
+    protected SecureRandom mSharedRandom;
 
     /**
      * @brief Default constructor
@@ -31,6 +50,7 @@ public class TaoCryptoUtil implements CryptoUtil {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        initCipher();
     }
 
     /**
@@ -39,16 +59,95 @@ public class TaoCryptoUtil implements CryptoUtil {
      */
     public TaoCryptoUtil(SecretKey key) {
         mSecretKey = key;
+        initCipher();
+    }
+
+    /**
+     * @brief Private helper method to set up the key spec and the per thread ciphers
+     */
+    private void initCipher() {
+        mKeySpec = new SecretKeySpec(mSecretKey.getEncoded(), "AES");
+        if (TaskExecutor.useVirtualThreads()) {
+            mCipherPool = new ConcurrentLinkedQueue<>();
+            mSharedRandom = createRandom();
+        }
+        mCipher = ThreadLocal.withInitial(() -> {
+            try {
+                return Cipher.getInstance(getTransformation());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @brief Private helper method to create a random number generator for a thread. The DRBG generator is used when
+     * it is available, as it is seeded once and does not block on entropy afterwards
+     * @return a new random number generator
+     */
+    private static SecureRandom createRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * @brief Get a cipher that no other thread is using, which must be given back with releaseCipher once it is done
+     * @return the cipher
+     */
+    protected Cipher acquireCipher() throws Exception {
+        if (mCipherPool == null) {
+            return mCipher.get();
+        }
+
+        Cipher c = mCipherPool.poll();
+        return c != null ? c : Cipher.getInstance(getTransformation());
+    }
+
+    /**
+     * @brief Give back a cipher from acquireCipher so that it can be used again
+     * @param c
+     */
+    protected void releaseCipher(Cipher c) {
+        if (mCipherPool != null) {
+            mCipherPool.offer(c);
+        }
+    }
+
+    /**
+     * @brief Get the random number generator for the current thread
+     * @return the random number generator
+     */
+    protected SecureRandom getRandom() {
+        return mSharedRandom != null ? mSharedRandom : mRandom.get();
+    }
+
+    /**
+     * @brief Get the transformation used to create ciphers
+     * @return the name of the transformation
+     */
+    protected String getTransformation() {
+        return "AES/CBC/PKCS5PADDING";
+    }
+
+    /**
+     * @brief Get the size data will be once it is encrypted
+     * @param length
+     * @return the size of the IV followed by the padded encrypted data
+     */
+    protected int getEncryptedSize(int length) {
+        return TaoConfigs.IV_SIZE + (length / TaoConfigs.IV_SIZE + 1) * TaoConfigs.IV_SIZE;
     }
 
     @Override
     public byte[] encrypt(byte[] data) {
         try {
-            Cipher c = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            SecretKeySpec k = new SecretKeySpec(mSecretKey.getEncoded(), "AES");
-            c.init(Cipher.ENCRYPT_MODE, k);
-            byte[] encryptedData = c.doFinal(data);
-            return Bytes.concat(c.getIV(), encryptedData);
+            byte[] encryptedData = new byte[getEncryptedSize(data.length)];
+            encrypt(data, 0, data.length, encryptedData, 0);
+            return encryptedData;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -58,66 +157,131 @@ public class TaoCryptoUtil implements CryptoUtil {
     @Override
     public byte[] decrypt(byte[] encryptedData) {
         try {
-            byte[] iv = Arrays.copyOfRange(encryptedData, 0, TaoConfigs.IV_SIZE);
-            SecretKeySpec k = new SecretKeySpec(mSecretKey.getEncoded(), "AES");
-            Cipher c = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            c.init(Cipher.DECRYPT_MODE, k, new IvParameterSpec(iv));
-            return c.doFinal(Arrays.copyOfRange(encryptedData, TaoConfigs.IV_SIZE, encryptedData.length));
+            byte[] decryptedData = new byte[encryptedData.length];
+            int length = decrypt(encryptedData, 0, encryptedData.length, decryptedData, 0);
+            return Arrays.copyOf(decryptedData, length);
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * @brief Encrypt data into the given array, with the IV written first
+     * @param data
+     * @param offset
+     * @param length
+     * @param dest
+     * @param destOffset
+     * @return the amount of bytes written to dest
+     */
+    protected int encrypt(byte[] data, int offset, int length, byte[] dest, int destOffset) throws Exception {
+        Cipher c = acquireCipher();
+        try {
+            c.init(Cipher.ENCRYPT_MODE, mKeySpec);
+
+            // Copy the IV in front of the encrypted data
+            byte[] iv = c.getIV();
+            System.arraycopy(iv, 0, dest, destOffset, iv.length);
+            return iv.length + c.doFinal(data, offset, length, dest, destOffset + iv.length);
+        } finally {
+            releaseCipher(c);
+        }
+    }
+
+    /**
+     * @brief Decrypt data that was encrypted with its IV written first into the given array
+     * @param data
+     * @param offset
+     * @param length
+     * @param dest
+     * @param destOffset
+     * @return the amount of bytes written to dest
+     */
+    protected int decrypt(byte[] data, int offset, int length, byte[] dest, int destOffset) throws Exception {
+        Cipher c = acquireCipher();
+        try {
+            c.init(Cipher.DECRYPT_MODE, mKeySpec, new IvParameterSpec(data, offset, TaoConfigs.IV_SIZE));
+            return c.doFinal(data, offset + TaoConfigs.IV_SIZE, length - TaoConfigs.IV_SIZE, dest, destOffset);
+        } finally {
+            releaseCipher(c);
+        }
+    }
+
+    /**
+     * @brief Get the index of the first bucket of a path that is stored on the servers. When there is more than one
+     * server, the top of the tree is kept by the proxy and those buckets are not sent
+     * @return the index of the first stored bucket
+     */
+    private int getFirstStoredBucket() {
+        int numServers = TaoConfigs.PARTITION_SERVERS.size();
+        if (numServers > 1) {
+            return (int) (Math.log(numServers) / Math.log(2));
+        }
+        return 0;
+    }
+
     @Override
     public byte[] encryptPath(Path p) {
+        byte[] encryptedPath = new byte[getEncryptedPathSize()];
+        encryptPath(p, encryptedPath, 0);
+        return encryptedPath;
+    }
+
+    @Override
+    public void encryptPath(Path p, byte[] dest, int destOffset) {
         try {
-            // Create the two pieces of unencrypted data, the path ID and the buckets in path
-            byte[] idBytes = Longs.toByteArray(p.getPathID());
+            // Write the path ID
+            ByteBuffer.wrap(dest, destOffset, 8).putLong(p.getPathID());
+
+            // Get the unencrypted buckets in path
             byte[] bucketBytes = p.serializeBuckets();
 
             // Keep track of bucket size
             int bucketSize = TaoConfigs.BUCKET_SIZE;
 
-            // Encrypt the first bucket
-            byte[] unencryptedBucket = Arrays.copyOfRange(bucketBytes, 0, bucketSize);
-            byte[] encryptedBuckets = encrypt(unencryptedBucket);
-
-            // Encrypt the rest of the buckets
-            for (int i = 1; i < p.getPathHeight() + 1; i++) {
-                unencryptedBucket = Arrays.copyOfRange(bucketBytes, bucketSize * i , bucketSize + bucketSize * i);
-                byte[] temp = encrypt(unencryptedBucket);
-                encryptedBuckets = Bytes.concat(encryptedBuckets, temp);
+            // Encrypt each bucket that is stored on the servers directly after the previous one
+            int offset = destOffset + 8;
+            for (int i = getFirstStoredBucket(); i < p.getPathHeight() + 1; i++) {
+                offset += encrypt(bucketBytes, bucketSize * i, bucketSize, dest, offset);
             }
-
-            // Check if we have more than one server, in which case we must remove some of the bytes for the path
-            int numServers = TaoConfigs.PARTITION_SERVERS.size();
-            if (numServers > 1) {
-                // Calculate which is the first bucket in the path that we need to keep in the encryption
-                int firstNeededEncryptedBucketStart = (int) (Math.log(numServers) / Math.log(2));
-
-                // Keep only the encrypted buckets starting from the first one needed
-                encryptedBuckets = Arrays.copyOfRange(encryptedBuckets,
-                        (int) (firstNeededEncryptedBucketStart * TaoConfigs.ENCRYPTED_BUCKET_SIZE), encryptedBuckets.length);
-            }
-
-            // Return encrypted path
-            return Bytes.concat(idBytes, encryptedBuckets);
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return null;
+    }
+
+    @Override
+    public byte[] encryptPaths(List<Path> paths) {
+        // Allocate space for every path up front
+        int pathSize = getEncryptedPathSize();
+        byte[] encryptedPaths = new byte[pathSize * paths.size()];
+
+        // Encrypt the paths in parallel, each into its own slice
+        IntStream.range(0, paths.size()).parallel().forEach(i -> encryptPath(paths.get(i), encryptedPaths, pathSize * i));
+
+        return encryptedPaths;
+    }
+
+    @Override
+    public int getEncryptedPathSize() {
+        // The path ID followed by each bucket stored on the servers
+        return 8 + (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE * (TaoConfigs.TREE_HEIGHT + 1 - getFirstStoredBucket());
     }
 
     @Override
     public Path decryptPath(byte[] data) {
+        return decryptPath(data, 0, data.length);
+    }
+
+    @Override
+    public Path decryptPath(byte[] data, int offset, int length) {
         try {
             // Create a path
-            long id = Longs.fromByteArray(Arrays.copyOfRange(data, 0, 8));
+            long id = ByteBuffer.wrap(data, offset, 8).getLong();
             Path p = new TaoPath(id);
 
-            // Keep track of the size of an unencrypted bucket and the header that comes with the encrypted path
-            int bucketSize = TaoConfigs.BUCKET_SIZE;
+            // Keep track of the size of an encrypted bucket and the header that comes with the encrypted path
+            int encryptedBucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
             int pathHeader = 8;
 
             // Calculate the size of a full length encrypted path
@@ -127,10 +291,10 @@ public class TaoCryptoUtil implements CryptoUtil {
             int numPadBuckets = 0;
 
             // Pad the front of the path
-            if (data.length - 8 < fullPathSize) {
+            if (length - pathHeader < fullPathSize) {
                 // The length of data is not as large as would be required for a full path, so we must pad the front
                 // of the path with empty buckets
-                long difference = fullPathSize - (data.length - 8);
+                long difference = fullPathSize - (length - pathHeader);
                 numPadBuckets = (int) (difference / TaoConfigs.ENCRYPTED_BUCKET_SIZE);
 
                 // Pad the path
@@ -139,21 +303,15 @@ public class TaoCryptoUtil implements CryptoUtil {
                 }
             }
 
-            byte[] serializedBucket;
-            byte[] decryptedBucket;
+            // Each bucket is decrypted straight from data into the same buffer, which has room for the padding
+            byte[] decryptedBucket = new byte[encryptedBucketSize];
             Bucket b;
             for (int i = numPadBuckets; i < TaoConfigs.TREE_HEIGHT + 1; i++) {
                 // Get offset into data
-                int offset = pathHeader + (i - numPadBuckets) * (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
-
-                // Get serialized bucket from data
-                serializedBucket = Arrays.copyOfRange(data, offset, (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE + offset);
+                int bucketOffset = offset + pathHeader + (i - numPadBuckets) * encryptedBucketSize;
 
                 // Decrypt the serialization of the bucket
-                decryptedBucket = decrypt(serializedBucket);
-
-                // Cut off padding
-                decryptedBucket = Arrays.copyOf(decryptedBucket, bucketSize);
+                decrypt(data, bucketOffset, encryptedBucketSize, decryptedBucket, 0);
 
                 // Add bucket to path
                 b = new TaoBucket();
@@ -170,7 +328,6 @@ public class TaoCryptoUtil implements CryptoUtil {
 
     @Override
     public int getRandomPathID() {
-        SecureRandom r = new SecureRandom();
-        return r.nextInt(1 << TaoConfigs.TREE_HEIGHT);
+        return getRandom().nextInt(1 << TaoConfigs.TREE_HEIGHT);
     }
 }
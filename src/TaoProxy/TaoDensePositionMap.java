@@ -0,0 +1,116 @@
+package TaoProxy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * @brief Implementation of the PositionMap interface for block IDs that are contiguous from 0. The position of each
+ * block is kept in an array indexed by block ID, so each position takes 4 bytes. The array is split into chunks that
+ * can be kept off heap. Block IDs outside of the range of the array are kept in the map of TaoPositionMap
+ */
+public class TaoDensePositionMap extends TaoPositionMap {
+    // Amount of positions in each chunk, must be a power of two
+    private static final int CHUNK_SIZE = 1 << 24;
+
+    // Amount of locks, must be a power of two
+    private static final int NUM_LOCKS = 64;
+
+    // Chunks of leaf IDs plus one, so that a zero marks a block that has no position
+    private IntBuffer[] mChunks;
+
+    // The amount of block IDs held in the chunks
+    private long mNumBlocks;
+
+    // Locks that guard the positions, with block IDs spread over them
+    private Object[] mLocks;
+
+    /**
+     * @brief Constructor
+     * @param numBlocks the amount of block IDs, starting from 0, that are kept in the array
+     * @param offHeap whether the array is kept off heap
+     */
+    public TaoDensePositionMap(long numBlocks, boolean offHeap) {
+        super();
+        initChunks(numBlocks, offHeap);
+    }
+
+    /**
+     * @brief A constructor that will assign each leaf to a server using the given router
+     * @param leafRouter
+     * @param numBlocks the amount of block IDs, starting from 0, that are kept in the array
+     * @param offHeap whether the array is kept off heap
+     */
+    public TaoDensePositionMap(LeafRouter leafRouter, long numBlocks, boolean offHeap) {
+        super(leafRouter);
+        initChunks(numBlocks, offHeap);
+    }
+
+    /**
+     * @brief Private helper method to allocate the chunks
+     * @param numBlocks
+     * @param offHeap
+     */
+    private void initChunks(long numBlocks, boolean offHeap) {
+        mNumBlocks = numBlocks;
+
+        // Allocate each chunk, the last of which may be smaller
+        int numChunks = (int) ((numBlocks + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        mChunks = new IntBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int size = (int) Math.min(CHUNK_SIZE, numBlocks - (long) i * CHUNK_SIZE);
+            if (offHeap) {
+                mChunks[i] = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            } else {
+                mChunks[i] = IntBuffer.allocate(size);
+            }
+        }
+
+        mLocks = new Object[NUM_LOCKS];
+        for (int i = 0; i < NUM_LOCKS; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public void setBlockPosition(long blockID, long leafID) {
+        if (blockID < 0 || blockID >= mNumBlocks) {
+            super.setBlockPosition(blockID, leafID);
+            return;
+        }
+
+        synchronized (mLocks[(int) blockID & (NUM_LOCKS - 1)]) {
+            mChunks[(int) (blockID / CHUNK_SIZE)].put((int) blockID & (CHUNK_SIZE - 1), (int) leafID + 1);
+        }
+    }
+
+    @Override
+    public long getBlockPosition(long blockID) {
+        if (blockID < 0 || blockID >= mNumBlocks) {
+            return super.getBlockPosition(blockID);
+        }
+
+        synchronized (mLocks[(int) blockID & (NUM_LOCKS - 1)]) {
+            return mChunks[(int) (blockID / CHUNK_SIZE)].get((int) blockID & (CHUNK_SIZE - 1)) - 1;
+        }
+    }
+
+    @Override
+    public void forEachPosition(PositionConsumer consumer) {
+        for (int i = 0; i < mChunks.length; i++) {
+            for (int j = 0; j < mChunks[i].capacity(); j++) {
+                long blockID = (long) i * CHUNK_SIZE + j;
+                int leafID;
+                synchronized (mLocks[(int) blockID & (NUM_LOCKS - 1)]) {
+                    leafID = mChunks[i].get(j) - 1;
+                }
+                if (leafID != -1) {
+                    consumer.accept(blockID, leafID);
+                }
+            }
+        }
+
+        // Blocks outside of the range of the array
+        super.forEachPosition(consumer);
+    }
+}
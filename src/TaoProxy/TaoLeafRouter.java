@@ -0,0 +1,46 @@
+package TaoProxy;
+
+import Configuration.TaoConfigs;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * @brief Implementation of a class that implements the LeafRouter interface. The leaves are split into contiguous
+ * ranges of equal size, one for each server, so the server and relative leaf are computed from the leaf ID directly
+ */
+public class TaoLeafRouter implements LeafRouter {
+    // The addresses of the servers, in the order of the leaves they hold
+    protected List<InetSocketAddress> mServers;
+
+    // The amount of bits of a leaf ID that give the relative leaf ID within a server
+    protected int mRelativeBits;
+
+    /**
+     * @brief Constructor
+     * @param storageServerAddresses
+     */
+    public TaoLeafRouter(List<InetSocketAddress> storageServerAddresses) {
+        mServers = storageServerAddresses;
+
+        // Both the amount of leaves and the amount of servers are powers of two, so each server gets a power of two
+        int numLeaves = 1 << TaoConfigs.TREE_HEIGHT;
+        int leavesPerServer = numLeaves / storageServerAddresses.size();
+        mRelativeBits = Integer.numberOfTrailingZeros(leavesPerServer);
+    }
+
+    @Override
+    public int getServerIndex(long leafID) {
+        return (int) (leafID >>> mRelativeBits);
+    }
+
+    @Override
+    public InetSocketAddress getServerForLeaf(long leafID) {
+        return mServers.get(getServerIndex(leafID));
+    }
+
+    @Override
+    public long getRelativeLeaf(long leafID) {
+        return leafID & ((1L << mRelativeBits) - 1);
+    }
+}
@@ -2,6 +2,8 @@ package TaoProxy;
 
 import Messages.*;
 
+import java.nio.ByteBuffer;
+
 /**
  * @brief Implementation of a class that implements the MessageCreator interface
  *        Used to create different message types, possibly from a given serialization of a message
@@ -17,6 +19,13 @@ public class TaoMessageCreator implements MessageCreator {
         return r;
     }
 
+    @Override
+    public ClientRequest parseClientRequestBytes(ByteBuffer data) {
+        TaoClientRequest r = new TaoClientRequest();
+        r.initFromSerialized(data);
+        return r;
+    }
+
     @Override
     public ProxyRequest parseProxyRequestBytes(byte[] data) {
         TaoProxyRequest r = new TaoProxyRequest();
@@ -24,6 +33,13 @@ public class TaoMessageCreator implements MessageCreator {
         return r;
     }
 
+    @Override
+    public ProxyRequest parseProxyRequestBytes(ByteBuffer data) {
+        TaoProxyRequest r = new TaoProxyRequest();
+        r.initFromSerialized(data);
+        return r;
+    }
+
     @Override
     public ProxyResponse parseProxyResponseBytes(byte[] data) {
         TaoProxyResponse r = new TaoProxyResponse();
@@ -31,6 +47,13 @@ public class TaoMessageCreator implements MessageCreator {
         return r;
     }
 
+    @Override
+    public ProxyResponse parseProxyResponseBytes(ByteBuffer data) {
+        TaoProxyResponse r = new TaoProxyResponse();
+        r.initFromSerialized(data);
+        return r;
+    }
+
     @Override
     public ServerResponse parseServerResponseBytes(byte[] data) {
         TaoServerResponse r = new TaoServerResponse();
@@ -38,6 +61,13 @@ public class TaoMessageCreator implements MessageCreator {
         return r;
     }
 
+    @Override
+    public ServerResponse parseServerResponseBytes(ByteBuffer data) {
+        TaoServerResponse r = new TaoServerResponse();
+        r.initFromSerialized(data);
+        return r;
+    }
+
     @Override
     public ClientRequest createClientRequest() {
         TaoClientRequest r = new TaoClientRequest();
@@ -1,10 +1,8 @@
 package TaoProxy;
 
 import Configuration.TaoConfigs;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Longs;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * @brief Implementation of a path for TaoStore implementing the Path interface
@@ -61,7 +59,7 @@ public class TaoPath implements Path {
 
     @Override
     public void initFromSerialized(byte[] serialized) {
-        mID = Longs.fromByteArray(Arrays.copyOfRange(serialized, 0, 8));
+        mID = ByteBuffer.wrap(serialized, 0, 8).getLong();
 
         fillBitmap();
 
@@ -71,7 +69,7 @@ public class TaoPath implements Path {
 
         for (int i = 0; i < mBuckets.length; i++) {
             mBuckets[i] = new TaoBucket();
-            mBuckets[i].initFromSerialized(Arrays.copyOfRange(serialized, 8 + entireBucketSize * i, 8 + entireBucketSize + entireBucketSize * i));
+            mBuckets[i].initFromSerialized(serialized, 8 + entireBucketSize * i);
         }
     }
 
@@ -166,15 +164,15 @@ public class TaoPath implements Path {
 
     @Override
     public byte[] serialize() {
-        byte[] idBytes = Longs.toByteArray(mID);
+        byte[] returnData = new byte[8 + TaoConfigs.BUCKET_SIZE * mBuckets.length];
+        ByteBuffer.wrap(returnData, 0, 8).putLong(mID);
 
-        byte[] serializedBuckets = mBuckets[0].serialize();
-
-        for(int i = 1; i < mBuckets.length; i++) {
-            serializedBuckets = Bytes.concat(serializedBuckets, mBuckets[i].serialize());
+        // Each bucket is written directly after the previous one
+        for(int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i].serialize(returnData, 8 + TaoConfigs.BUCKET_SIZE * i);
         }
 
-        return Bytes.concat(idBytes, serializedBuckets);
+        return returnData;
     }
 
     @Override
@@ -183,7 +181,7 @@ public class TaoPath implements Path {
         int entireBucketSize = TaoConfigs.BUCKET_SIZE;
 
         for(int i = 0; i < mBuckets.length; i++) {
-            System.arraycopy(mBuckets[i].serialize(), 0, returnData, entireBucketSize * i, entireBucketSize);
+            mBuckets[i].serialize(returnData, entireBucketSize * i);
         }
 
         return returnData;
@@ -1,9 +1,8 @@
 package TaoProxy;
 
-import Configuration.TaoConfigs;
-
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -14,8 +13,8 @@ public class TaoPositionMap implements PositionMap {
     // Map that maps each blockID to a leafID
     public ConcurrentMap<Long, Long> mPositions;
 
-    // Map that maps each leafID to the address of a partition
-    public ConcurrentMap<Long, InetSocketAddress> mPartitionAddressMap;
+    // Decides which server holds each leaf
+    protected LeafRouter mLeafRouter;
 
     /**
      * @brief Default constructor
@@ -29,30 +28,16 @@ public class TaoPositionMap implements PositionMap {
      * @param storageServerAddresses
      */
     public TaoPositionMap(List<InetSocketAddress> storageServerAddresses) {
-        mPositions = new ConcurrentHashMap<>();
-        mPartitionAddressMap = new ConcurrentHashMap<>();
-
-        // Save number of servers
-        int numServers = storageServerAddresses.size();
-
-        // Get the number of leaves each server will contain
-        int numLeaves = 1 << TaoConfigs.TREE_HEIGHT;
-        int leavesPerServer = numLeaves / numServers;
-
-        // Assign each leaf to a server
-        int currentServer = 0;
-        for (int i = 0; i < numLeaves; i += leavesPerServer) {
-            long currentServerLeaves = i;
-
-            // Add to the mPartitionAddressMap
-            while (currentServerLeaves < i + leavesPerServer) {
-                mPartitionAddressMap.put(currentServerLeaves, storageServerAddresses.get(currentServer));
-                currentServerLeaves++;
-            }
+        this(new TaoLeafRouter(storageServerAddresses));
+    }
 
-            // Increment the current server
-            currentServer++;
-        }
+    /**
+     * @brief A constructor that will assign each leaf to a server using the given router
+     * @param leafRouter
+     */
+    public TaoPositionMap(LeafRouter leafRouter) {
+        mPositions = new ConcurrentHashMap<>();
+        mLeafRouter = leafRouter;
     }
 
     @Override
@@ -67,6 +52,16 @@ public class TaoPositionMap implements PositionMap {
 
     @Override
     public InetSocketAddress getServerForPosition(long leafID) {
-        return mPartitionAddressMap.getOrDefault(leafID, null);
+        if (mLeafRouter == null) {
+            return null;
+        }
+        return mLeafRouter.getServerForLeaf(leafID);
+    }
+
+    @Override
+    public void forEachPosition(PositionConsumer consumer) {
+        for (Map.Entry<Long, Long> entry : mPositions.entrySet()) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
     }
 }
@@ -0,0 +1,215 @@
+package TaoProxy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * @brief Implementation of the PositionMap interface that stores positions in primitive open addressing tables instead
+ * of a map of boxed entries, so each position takes 12 bytes. The table is split into stripes that are locked
+ * separately, and can be kept off heap so that a large position map does not put pressure on the garbage collector
+ */
+public class TaoPrimitivePositionMap extends TaoPositionMap {
+    // Amount of stripes, must be a power of two
+    private static final int NUM_STRIPES = 64;
+
+    // The most slots a single stripe can have, so that the keys of a stripe fit in a single buffer
+    private static final int MAX_STRIPE_CAPACITY = 1 << 27;
+
+    // The least slots a single stripe will have
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    // How full a stripe can get before it doubles in size
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * @brief One stripe of the table
+     */
+    private static class Stripe {
+        // Block IDs plus one, so that a zero marks an empty slot
+        LongBuffer mKeys;
+
+        // Leaf IDs for the block ID in the same slot
+        IntBuffer mValues;
+
+        // Amount of slots in use
+        int mSize;
+    }
+
+    // The stripes of the table
+    private Stripe[] mStripes;
+
+    // Whether the stripes are allocated off heap
+    private boolean mOffHeap;
+
+    /**
+     * @brief Constructor
+     * @param expectedBlocks the amount of blocks the table is sized for up front
+     * @param offHeap whether the table is kept off heap
+     */
+    public TaoPrimitivePositionMap(long expectedBlocks, boolean offHeap) {
+        super();
+        initStripes(expectedBlocks, offHeap);
+    }
+
+    /**
+     * @brief A constructor that will assign each leaf to a server using the given router
+     * @param leafRouter
+     * @param expectedBlocks the amount of blocks the table is sized for up front
+     * @param offHeap whether the table is kept off heap
+     */
+    public TaoPrimitivePositionMap(LeafRouter leafRouter, long expectedBlocks, boolean offHeap) {
+        super(leafRouter);
+        initStripes(expectedBlocks, offHeap);
+    }
+
+    /**
+     * @brief Private helper method to allocate the stripes
+     * @param expectedBlocks
+     * @param offHeap
+     */
+    private void initStripes(long expectedBlocks, boolean offHeap) {
+        mOffHeap = offHeap;
+
+        // Size each stripe so that the expected blocks fit without the stripe growing
+        long slotsPerStripe = (long) Math.ceil(expectedBlocks / (double) NUM_STRIPES / LOAD_FACTOR);
+        int capacity = MIN_STRIPE_CAPACITY;
+        while (capacity < slotsPerStripe && capacity < MAX_STRIPE_CAPACITY) {
+            capacity <<= 1;
+        }
+
+        mStripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            mStripes[i] = new Stripe();
+            allocate(mStripes[i], capacity);
+        }
+    }
+
+    /**
+     * @brief Private helper method to give a stripe new, empty buffers
+     * @param stripe
+     * @param capacity
+     */
+    private void allocate(Stripe stripe, int capacity) {
+        if (mOffHeap) {
+            stripe.mKeys = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+            stripe.mValues = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        } else {
+            stripe.mKeys = LongBuffer.allocate(capacity);
+            stripe.mValues = IntBuffer.allocate(capacity);
+        }
+        stripe.mSize = 0;
+    }
+
+    /**
+     * @brief Private helper method to spread the bits of a block ID, so that sequential block IDs are spread over the
+     * stripes and slots
+     * @param blockID
+     * @return the hash of the block ID
+     */
+    private static long hash(long blockID) {
+        long h = blockID;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @brief Private helper method to find the slot of a key, or the empty slot where it would go
+     * @param stripe
+     * @param key
+     * @param hash
+     * @return the index of the slot
+     */
+    private static int findSlot(Stripe stripe, long key, long hash) {
+        int mask = stripe.mKeys.capacity() - 1;
+        int slot = (int) hash & mask;
+        long current;
+        while ((current = stripe.mKeys.get(slot)) != 0 && current != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @brief Private helper method to double the size of a stripe and move its entries over
+     * @param stripe
+     */
+    private void grow(Stripe stripe) {
+        LongBuffer oldKeys = stripe.mKeys;
+        IntBuffer oldValues = stripe.mValues;
+        allocate(stripe, oldKeys.capacity() * 2);
+
+        for (int i = 0; i < oldKeys.capacity(); i++) {
+            long key = oldKeys.get(i);
+            if (key != 0) {
+                int slot = findSlot(stripe, key, hash(key - 1));
+                stripe.mKeys.put(slot, key);
+                stripe.mValues.put(slot, oldValues.get(i));
+                stripe.mSize++;
+            }
+        }
+    }
+
+    @Override
+    public void setBlockPosition(long blockID, long leafID) {
+        long hash = hash(blockID);
+        Stripe stripe = mStripes[(int) (hash >>> (64 - Integer.numberOfTrailingZeros(NUM_STRIPES)))];
+        long key = blockID + 1;
+
+        synchronized (stripe) {
+            int slot = findSlot(stripe, key, hash);
+
+            // If this is a new block, make sure the stripe has room for it
+            if (stripe.mKeys.get(slot) == 0) {
+                if (stripe.mSize + 1 > stripe.mKeys.capacity() * LOAD_FACTOR) {
+                    if (stripe.mKeys.capacity() >= MAX_STRIPE_CAPACITY) {
+                        if (stripe.mSize + 1 >= stripe.mKeys.capacity()) {
+                            throw new IllegalStateException("Position map is full");
+                        }
+                    } else {
+                        grow(stripe);
+                        slot = findSlot(stripe, key, hash);
+                    }
+                }
+                stripe.mKeys.put(slot, key);
+                stripe.mSize++;
+            }
+
+            stripe.mValues.put(slot, (int) leafID);
+        }
+    }
+
+    @Override
+    public long getBlockPosition(long blockID) {
+        long hash = hash(blockID);
+        Stripe stripe = mStripes[(int) (hash >>> (64 - Integer.numberOfTrailingZeros(NUM_STRIPES)))];
+        long key = blockID + 1;
+
+        synchronized (stripe) {
+            int slot = findSlot(stripe, key, hash);
+            if (stripe.mKeys.get(slot) == 0) {
+                return -1;
+            }
+            return stripe.mValues.get(slot);
+        }
+    }
+
+    @Override
+    public void forEachPosition(PositionConsumer consumer) {
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                for (int i = 0; i < stripe.mKeys.capacity(); i++) {
+                    long key = stripe.mKeys.get(i);
+                    if (key != 0) {
+                        consumer.accept(key - 1, stripe.mValues.get(i));
+                    }
+                }
+            }
+        }
+    }
+}
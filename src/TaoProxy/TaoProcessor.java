@@ -4,19 +4,14 @@ import Configuration.TaoConfigs;
 import Configuration.Utility;
 import Messages.*;
 import com.google.common.collect.ConcurrentHashMultiset;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Multiset;
-import com.google.common.collect.Sets;
-import com.google.common.primitives.Bytes;
 
-import java.io.IOException;
+import java.io.*;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousChannelGroup;
-import java.nio.channels.AsynchronousSocketChannel;
-import java.nio.channels.CompletionHandler;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -24,19 +19,12 @@ public class TaoProcessor implements Processor {
     // Stash to hold blocks
     protected Stash mStash;
 
-    // Map that maps a block ID to a list of requests for that block ID
-    // Used so that we know when to issue fake reads (fake reads are issued if the list for a requestID is non empty)
-    protected Map<Long, List<ClientRequest>> mRequestMap;
-
-    // A map that maps each blockID to a read/write lock. These locks are used to provide read access to a
-    // list of requests for a blockID (obtained from mRequestMap) during a readPath call, and will be used to grant
-    // write access during an answerRequest call. This is needed because there is a race condition in the presence of
-    // multiple concurrent requests where answerRequest is going through the list of requests in a particular blockID
-    // list, and at the same time an invocation of readPath on the same blockID is occurring. In this scenario, the
-    // readPath method may assign that blockID to be a fake read, and before adding the request to the request list the
-    // answerRequest method will finish execution. Thus the fake read will not be responded to after is is inserted into
-    // the request list
-    protected Map<Long, ReentrantReadWriteLock> mRequestLockMap;
+    // The requests waiting for each block ID
+    // Used so that we know when to issue fake reads (fake reads are issued if a block already has a request in flight).
+    // A request stays pending until answerRequest has answered it, so a readPath on the same block ID while
+    // answerRequest is going through the requests for that block is always made a fake read that answerRequest will
+    // answer, and never a fake read that is missed
+    protected PendingRequests mPendingRequests;
 
     // Map that maps client requests to a ResponseMapEntry, signifying whether or not a request has been received or not
     protected Map<ClientRequest, ResponseMapEntry> mResponseMap;
@@ -61,6 +49,9 @@ public class TaoProcessor implements Processor {
     // Used to prevent flushing while a snapshot of the subtree is taken for writeback
     protected final transient ReentrantReadWriteLock mSubtreeRWL = new ReentrantReadWriteLock();
 
+    // Used to prevent requests from being answered while the state of the proxy is captured for a checkpoint
+    protected final transient ReentrantReadWriteLock mCheckpointRWL = new ReentrantReadWriteLock();
+
     // Write queue used to store which paths should be sent to server on next writeback
     protected Queue<Long> mWriteQueue;
 
@@ -85,22 +76,28 @@ public class TaoProcessor implements Processor {
     // PathCreator responsible for making empty blocks, buckets, and paths
     protected PathCreator mPathCreator;
 
-    // A map that maps each leafID to the relative leaf ID it would have within a server partition
-    protected Map<Long, Long> mRelativeLeafMapper;
+    // Decides which server holds each leaf, and the relative leaf ID it has within that server
+    protected LeafRouter mLeafRouter;
+
+    // Keeps an on disk checkpoint of the proxy, null if checkpoints are disabled
+    protected ProxyCheckpointer mCheckpointer;
 
-    // Map each client to a map that map's each storage server's InetSocketAddress to a channel to that storage server
-    // We use this in order to have at least one dedicated channel for each client to each storage server to increase throughput,
-    // as creating a new channel each time can result in a lot of overhead
-    // In the case the the dedicated channel is occupied, we will just create a new channel
-    protected Map<InetSocketAddress, Map<InetSocketAddress, AsynchronousSocketChannel>> mProxyToServerChannelMap;
+    // Connections to each storage server that path reads are sent over, shared by every client
+    protected ServerConnectionPool mConnectionPool;
 
-    // Each client will have a map that maps each storage server's InetSocketAddress to a semaphore
-    // This semaphore will control access to the dedicated channel so that two threads aren't using it at the same time
-    protected Map<InetSocketAddress, Map<InetSocketAddress, Semaphore>> mAsyncProxyToServerSemaphoreMap;
+    // Connections to each storage server that writebacks are sent over, kept apart from path reads so that a large
+    // writeback does not hold up the reads queued behind it
+    protected ServerConnectionPool mWriteBackPool;
+
+    // Executor that hands the paths returned by the servers to the proxy, off of the threads used for I/O
+    protected TaskExecutor mResponseExecutor;
 
     // The Profiler to store timing information
     protected Profiler mProfiler;
 
+    // Used to coalesce concurrent path reads to the same server into batches, null if batching is disabled
+    protected PathReadBatcher mReadBatcher;
+
     /**
      * @brief Constructor
      * @param proxy
@@ -111,9 +108,10 @@ public class TaoProcessor implements Processor {
      * @param cryptoUtil
      * @param subtree
      * @param positionMap
-     * @param relativeMapper
+     * @param leafRouter
+     * @param checkpointer
      */
-    public TaoProcessor(Proxy proxy, Sequencer sequencer, AsynchronousChannelGroup threadGroup, MessageCreator messageCreator, PathCreator pathCreator, CryptoUtil cryptoUtil, Subtree subtree, PositionMap positionMap, Map<Long, Long> relativeMapper, Profiler profiler) {
+    public TaoProcessor(Proxy proxy, Sequencer sequencer, AsynchronousChannelGroup threadGroup, MessageCreator messageCreator, PathCreator pathCreator, CryptoUtil cryptoUtil, Subtree subtree, PositionMap positionMap, LeafRouter leafRouter, ProxyCheckpointer checkpointer, Profiler profiler) {
         try {
             // The proxy that this processor belongs to
             mProxy = proxy;
@@ -135,11 +133,11 @@ public class TaoProcessor implements Processor {
 
             // Create stash
             // TODO: pass this in?
-            mStash = new TaoStash();
+            mStash = new TaoStash(positionMap, TaoConfigs.STASH_CAPACITY);
+            TaskExecutor.addStatsSource(mStash);
 
             // Create request map
-            mRequestMap = new ConcurrentHashMap<>();
-            mRequestLockMap = new ConcurrentHashMap<>();
+            mPendingRequests = new PendingRequests();
 
             // Create response map
             mResponseMap = new ConcurrentHashMap<>();
@@ -161,14 +159,32 @@ public class TaoProcessor implements Processor {
             // Create position map
             mPositionMap = positionMap;
 
-            // Map each leaf to a relative leaf for the servers
-            mRelativeLeafMapper = relativeMapper;
+            // Assign the router that maps each leaf to a relative leaf for the servers
+            mLeafRouter = leafRouter;
+
+            // Assign the checkpointer
+            mCheckpointer = checkpointer;
 
             mProfiler = profiler;
 
-            // Initialize maps
-            mProxyToServerChannelMap = new ConcurrentHashMap<>();
-            mAsyncProxyToServerSemaphoreMap = new ConcurrentHashMap<>();
+            // Create the connections that path reads are sent over
+            mConnectionPool = new ServerConnectionPool("proxy-read-pool", mMessageCreator, mThreadGroup, TaoConfigs.SERVER_CONNECTIONS,
+                    TaoConfigs.SERVER_REQUEST_TIMEOUT, TaoConfigs.SERVER_REQUEST_RETRIES);
+
+            // Create the connections that writebacks are sent over
+            mWriteBackPool = new ServerConnectionPool("proxy-write-pool", mMessageCreator, mThreadGroup, TaoConfigs.WRITE_BACK_CONNECTIONS,
+                    TaoConfigs.SERVER_REQUEST_TIMEOUT, TaoConfigs.WRITE_BACK_RETRIES);
+
+            // Create the executor for returned paths, using a thread per core if the amount of threads is not specified
+            int responseThreads = TaoConfigs.RESPONSE_THREADS > 0 ? TaoConfigs.RESPONSE_THREADS : Runtime.getRuntime().availableProcessors();
+            mResponseExecutor = new TaskExecutor("proxy-response", responseThreads, TaoConfigs.EXECUTOR_QUEUE_SIZE);
+            TaskExecutor.logStats(TaoConfigs.EXECUTOR_STATS_INTERVAL);
+
+            // Batch path reads if more than one path may be put in a batch
+            if (TaoConfigs.READ_BATCH_SIZE > 1) {
+                mReadBatcher = new PathReadBatcher(mMessageCreator, mThreadGroup, TaoConfigs.READ_BATCH_SIZE, TaoConfigs.READ_BATCH_WINDOW,
+                        TaoConfigs.PROXY_THREAD_COUNT, TaoConfigs.SERVER_REQUEST_TIMEOUT, TaoConfigs.SERVER_REQUEST_RETRIES);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -176,6 +192,9 @@ public class TaoProcessor implements Processor {
 
     @Override
     public void readPath(ClientRequest req) {
+        // Wait if the stash is full
+        awaitStashCapacity();
+
         mProfiler.readPathStart(req);
 
         try {
@@ -188,19 +207,8 @@ public class TaoProcessor implements Processor {
             boolean fakeRead;
             long pathID;
 
-            // We make sure the request list and read/write lock for maps are not null
-            List<ClientRequest> requestList = new ArrayList<>();
-            ReentrantReadWriteLock requestListLock = new ReentrantReadWriteLock();
-            mRequestMap.putIfAbsent(req.getBlockID(), requestList);
-            mRequestLockMap.putIfAbsent(req.getBlockID(), requestListLock);
-            requestList = mRequestMap.get(req.getBlockID());
-            requestListLock = mRequestLockMap.get(req.getBlockID());
-
-            // Acquire a read lock to ensure we do not assign a fake read that will not be answered to
-            requestListLock.readLock().lock();
-
-            // Check if there is any current request for this block ID
-            if (requestList.isEmpty()) {
+            // Add request to the pending requests, and check if there is any current request for this block ID
+            if (mPendingRequests.add(req)) {
                 // If no other requests for this block ID have been made, it is not a fake read
                 fakeRead = false;
 
@@ -220,12 +228,6 @@ public class TaoProcessor implements Processor {
                 pathID = mCryptoUtil.getRandomPathID();
             }
 
-            // Add request to request map list
-            requestList.add(req);
-
-            // Unlock
-            requestListLock.readLock().unlock();
-
             TaoLogger.logDebug("Doing a read for pathID " + pathID);
 
             // Insert request into mPathReqMultiSet to make sure that this path is not deleted before this response
@@ -233,309 +235,48 @@ public class TaoProcessor implements Processor {
             mPathReqMultiSet.add(pathID);
 
             // Create effectively final variables to use for inner classes
-            long relativeFinalPathID = mRelativeLeafMapper.get(pathID);
+            long relativeFinalPathID = mLeafRouter.getRelativeLeaf(pathID);
             long absoluteFinalPathID = pathID;
 
-            // Get the map for particular client that maps the client to the channels connected to the server
-            Map<InetSocketAddress, AsynchronousSocketChannel> mChannelMap = mProxyToServerChannelMap.get(req.getClientAddress());
-
-            // If this is there first time the client has connected, the map may not have been made yet
-            if (mChannelMap == null) {
-                TaoLogger.logInfo("Going to make the initial connections for " + req.getClientAddress().getHostName());
-                makeInitialConnections(req.getClientAddress());
-            }
-
-            // Get it once more in case it was null the first time
-            mChannelMap = mProxyToServerChannelMap.get(req.getClientAddress());
-
-            // Do this to make sure we wait until connections are made if this is one of the first requests made by this
-            // particular client
-            if (mChannelMap.size() < TaoConfigs.PARTITION_SERVERS.size()) {
-                makeInitialConnections(req.getClientAddress());
-            }
-
-            // Get the particular server InetSocketAddress that we want to connect to
+            // Get the particular server InetSocketAddress that we want to read from
             InetSocketAddress targetServer = mPositionMap.getServerForPosition(pathID);
-
-            // Get the channel to that server
-            AsynchronousSocketChannel channelToServer = mChannelMap.get(targetServer);
-
-            // Get the serverSemaphoreMap for this client, which will be used to control access to the dedicated channel
-            // when requests from the same client arrive for the same server
-            Map<InetSocketAddress, Semaphore> serverSemaphoreMap = mAsyncProxyToServerSemaphoreMap.get(req.getClientAddress());
-
-            // Create a read request to send to server
-            ProxyRequest proxyRequest = mMessageCreator.createProxyRequest();
-            proxyRequest.setPathID(relativeFinalPathID);
-            proxyRequest.setType(MessageTypes.PROXY_READ_REQUEST);
-
-            // Serialize request
-            byte[] requestData = proxyRequest.serialize();
-
             mProfiler.readPathPreSend(targetServer, req);
 
-            // Claim either the dedicated channel or create a new one if the dedicated channel is already being used
-            if (serverSemaphoreMap.get(targetServer).tryAcquire()) {
-                // First we send the message type to the server along with the size of the message
-                byte[] messageType = MessageUtility.createMessageHeaderBytes(MessageTypes.PROXY_READ_REQUEST, requestData.length);
-                ByteBuffer entireMessage = ByteBuffer.wrap(Bytes.concat(messageType, requestData));
-
-                // Asynchronously send message type and length to server
-                channelToServer.write(entireMessage, null, new CompletionHandler<Integer, Void>() {
-                    @Override
-                    public void completed(Integer result, Void attachment) {
-                        // Make sure we write the whole message
-                        while (entireMessage.remaining() > 0) {
-                            channelToServer.write(entireMessage, null, this);
-                            return;
-                        }
+            // What to do with the path once the server sends it back
+            Consumer<ServerResponse> onResponse = response -> {
+                mProfiler.readPathPostRecv(targetServer, req);
 
-                        // Asynchronously read response type and size from server
-                        ByteBuffer messageTypeAndSize = MessageUtility.createTypeReceiveBuffer();
+                // Set absolute path ID
+                response.setPathID(absoluteFinalPathID);
 
-                        channelToServer.read(messageTypeAndSize, null, new CompletionHandler<Integer, Void>() {
-                            @Override
-                            public void completed(Integer result, Void attachment) {
-                                // profiling
-                                mProfiler.readPathPostRecv(targetServer, req);
+                long serverProcessingTime = response.getProcessingTime();
+                mProfiler.readPathServerProcessingTime(targetServer, req, serverProcessingTime);
 
-                                // Make sure we read the entire message
-                                while (messageTypeAndSize.remaining() > 0) {
-                                    channelToServer.read(messageTypeAndSize, null, this);
-                                    return;
-                                }
+                mProfiler.readPathComplete(req);
 
-                                // Flip the byte buffer for reading
-                                messageTypeAndSize.flip();
-
-                                // Parse the message type and size from server
-                                int[] typeAndLength = MessageUtility.parseTypeAndLength(messageTypeAndSize);
-                                int messageType = typeAndLength[0];
-                                int messageLength = typeAndLength[1];
-
-                                // Asynchronously read response from server
-                                ByteBuffer pathInBytes = ByteBuffer.allocate(messageLength);
-                                channelToServer.read(pathInBytes, null, new CompletionHandler<Integer, Void>() {
-                                    @Override
-                                    public void completed(Integer result, Void attachment) {
-                                        // Make sure we read all the bytes for the path
-                                        while (pathInBytes.remaining() > 0) {
-                                            channelToServer.read(pathInBytes, null, this);
-                                            return;
-                                        }
-
-                                        // Release the semaphore for this server's dedicated channel
-                                        serverSemaphoreMap.get(targetServer).release();
-
-                                        // Flip the byte buffer for reading
-                                        pathInBytes.flip();
-
-                                        // Serve message based on type
-                                        if (messageType == MessageTypes.SERVER_RESPONSE) {
-                                            // Get message bytes
-                                            byte[] serialized = new byte[messageLength];
-                                            pathInBytes.get(serialized);
-
-                                            // Create ServerResponse object based on data
-                                            ServerResponse response = mMessageCreator.createServerResponse();
-                                            response.initFromSerialized(serialized);
-
-                                            // Set absolute path ID
-                                            response.setPathID(absoluteFinalPathID);
-
-                                            long serverProcessingTime = response.getProcessingTime();
-                                            mProfiler.readPathServerProcessingTime(targetServer, req, serverProcessingTime);
-
-                                            mProfiler.readPathComplete(req);
-
-                                            // Send response to proxy
-                                            Runnable serializeProcedure = () -> mProxy.onReceiveResponse(req, response, fakeRead);
-                                            new Thread(serializeProcedure).start();
-                                        }
-                                    }
+                // Send response to proxy
+                Runnable serializeProcedure = () -> mProxy.onReceiveResponse(req, response, fakeRead);
+                mResponseExecutor.execute(serializeProcedure);
+            };
 
-                                    @Override
-                                    public void failed(Throwable exc, Void attachment) {
-                                    }
-                                });
-                            }
-
-                            @Override
-                            public void failed(Throwable exc, Void attachment) {
-                            }
-                        });
-                    }
+            // What to do if the server never sends the path back
+            Consumer<Throwable> onFailure = exc -> {
+                Runnable failProcedure = () -> onReadPathFailed(req, targetServer, absoluteFinalPathID, fakeRead);
+                mResponseExecutor.execute(failProcedure);
+            };
 
-                    @Override
-                    public void failed(Throwable exc, Void attachment) {
-                    }
-                });
+            // If batching is enabled, this read will be sent along with other concurrent reads to the same server,
+            // otherwise it is sent on its own over one of the shared connections to the server
+            if (mReadBatcher != null) {
+                mReadBatcher.readPath(targetServer, relativeFinalPathID, onResponse, onFailure);
             } else {
-                // We could not claim the dedicated channel for this server, we will instead create a new channel
-
-                // Get the channel to that server
-                AsynchronousSocketChannel newChannelToServer = AsynchronousSocketChannel.open(mThreadGroup);
-
-                // Connect to server
-                newChannelToServer.connect(targetServer, null, new CompletionHandler<Void, Object>() {
-                    @Override
-                    public void completed(Void result, Object attachment) {
-                        // First we send the message type to the server along with the size of the message
-                        byte[] messageType = MessageUtility.createMessageHeaderBytes(MessageTypes.PROXY_READ_REQUEST, requestData.length);
-                        ByteBuffer entireMessage = ByteBuffer.wrap(Bytes.concat(messageType, requestData));
-
-                        // Asynchronously send message type and length to server
-                        newChannelToServer.write(entireMessage, null, new CompletionHandler<Integer, Void>() {
-                            @Override
-                            public void completed(Integer result, Void attachment) {
-                                // Make sure we write the whole message
-                                while (entireMessage.remaining() > 0) {
-                                    newChannelToServer.write(entireMessage, null, this);
-                                    return;
-                                }
-
-                                // Asynchronously read response type and size from server
-                                ByteBuffer messageTypeAndSize = MessageUtility.createTypeReceiveBuffer();
-
-                                newChannelToServer.read(messageTypeAndSize, null, new CompletionHandler<Integer, Void>() {
-                                    @Override
-                                    public void completed(Integer result, Void attachment) {
-                                        // profiling
-                                        mProfiler.readPathPostRecv(targetServer, req);
-
-                                        // Make sure we read the entire message
-                                        while (messageTypeAndSize.remaining() > 0) {
-                                            newChannelToServer.read(messageTypeAndSize, null, this);
-                                            return;
-                                        }
-
-                                        // Flip the byte buffer for reading
-                                        messageTypeAndSize.flip();
-
-                                        // Parse the message type and size from server
-                                        int[] typeAndLength = MessageUtility.parseTypeAndLength(messageTypeAndSize);
-                                        int messageType = typeAndLength[0];
-                                        int messageLength = typeAndLength[1];
-
-                                        // Asynchronously read response from server
-                                        ByteBuffer pathInBytes = ByteBuffer.allocate(messageLength);
-                                        newChannelToServer.read(pathInBytes, null, new CompletionHandler<Integer, Void>() {
-                                            @Override
-                                            public void completed(Integer result, Void attachment) {
-                                                // Make sure we read all the bytes for the path
-                                                while (pathInBytes.remaining() > 0) {
-                                                    newChannelToServer.read(pathInBytes, null, this);
-                                                    return;
-                                                }
-
-                                                // Close channel
-                                                try {
-                                                    newChannelToServer.close();
-                                                } catch (IOException e) {
-                                                    e.printStackTrace();
-                                                }
-
-                                                // Flip the byte buffer for reading
-                                                pathInBytes.flip();
-
-                                                // Serve message based on type
-                                                if (messageType == MessageTypes.SERVER_RESPONSE) {
-                                                    // Get message bytes
-                                                    byte[] serialized = new byte[messageLength];
-                                                    pathInBytes.get(serialized);
-
-                                                    // Create ServerResponse object based on data
-                                                    ServerResponse response = mMessageCreator.createServerResponse();
-                                                    response.initFromSerialized(serialized);
-
-                                                    // Set absolute path ID
-                                                    response.setPathID(absoluteFinalPathID);
-
-                                                    long serverProcessingTime = response.getProcessingTime();
-                                                    mProfiler.readPathServerProcessingTime(targetServer, req, serverProcessingTime);
-
-                                                    mProfiler.readPathComplete(req);
-
-                                                    // Send response to proxy
-                                                    Runnable serializeProcedure = () -> mProxy.onReceiveResponse(req, response, fakeRead);
-                                                    new Thread(serializeProcedure).start();
-                                                }
-                                            }
-
-                                            @Override
-                                            public void failed(Throwable exc, Void attachment) {
-                                            }
-                                        });
-                                    }
-
-                                    @Override
-                                    public void failed(Throwable exc, Void attachment) {
-                                    }
-                                });
-                            }
-
-                            @Override
-                            public void failed(Throwable exc, Void attachment) {
-                            }
-                        });
-                    }
-
-                    @Override
-                    public void failed(Throwable exc, Object attachment) {
-
-                    }
-                });
+                mConnectionPool.readPath(targetServer, relativeFinalPathID, onResponse, onFailure);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    /**
-     * @brief Private helper method to make a map of server addresses to channels for addr
-     * @param addr
-     */
-    protected void makeInitialConnections(InetSocketAddress addr) {
-        try {
-            // Get the number of storage servers
-            int numServers = TaoConfigs.PARTITION_SERVERS.size();
-
-            // Create a new map
-            Map<InetSocketAddress, AsynchronousSocketChannel> newMap = new HashMap<>();
-
-            // Atomically add channel map if not present
-            mProxyToServerChannelMap.putIfAbsent(addr, newMap);
-
-            // Get map in case two threads attempted to add the map at the same time
-            newMap = mProxyToServerChannelMap.get(addr);
-
-            // Claim map
-            synchronized (newMap) {
-                // Check if another thread has already added channels
-                if (newMap.size() != numServers) {
-                    // Create the taken semaphore for this addr
-                    Map<InetSocketAddress, Semaphore> newSemaphoreMap = new ConcurrentHashMap<>();
-                    mAsyncProxyToServerSemaphoreMap.put(addr, newSemaphoreMap);
-
-                    // Create the channels to the storage servers
-                    for (int i = 0; i < numServers; i++) {
-                        AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(mThreadGroup);
-                        Future connection = channel.connect(TaoConfigs.PARTITION_SERVERS.get(i));
-                        connection.get();
-
-                        // Add the channel to the map
-                        newMap.put(TaoConfigs.PARTITION_SERVERS.get(i), channel);
-
-                        // Add a new semaphore for this channel to the map
-                        newSemaphoreMap.put(TaoConfigs.PARTITION_SERVERS.get(i), new Semaphore(1));
-                    }
-                }
-            }
-        } catch (Exception e){
-            e.printStackTrace();
-        }
-    }
-
     @Override
     public void answerRequest(ClientRequest req, ServerResponse resp, boolean isFakeRead) {
         TaoLogger.logInfo("Going to answer request with requestID " + req.getRequestID() + " from host " + req.getClientAddress().getHostName());
@@ -565,6 +306,14 @@ public class TaoProcessor implements Processor {
         ResponseMapEntry responseMapEntry = mResponseMap.get(req);
         responseMapEntry.setReturned(true);
 
+        // Check if the real read for this block failed before this fake read returned
+        if (responseMapEntry.getFailed()) {
+            mSequencer.onFailedRequest(req);
+            mResponseMap.remove(req);
+            mPathReqMultiSet.remove(resp.getPathID());
+            return;
+        }
+
         // Check if the data for this response entry is not null, which would be the case if the real read returned
         // before this fake read
         if (responseMapEntry.getData() != null) {
@@ -577,96 +326,106 @@ public class TaoProcessor implements Processor {
             // Remove this request from the response map
             mResponseMap.remove(req);
 
+            // Release the path, as it is not needed to look for the block
+            mPathReqMultiSet.remove(resp.getPathID());
+
             // We are done
             return;
         }
 
         // If the data has not yet returned, we check to see if this is the request that caused the real read for this block
         if (! fakeRead) {
-            TaoLogger.logDebug("answerRequest requestID " + req.getRequestID() + " from host " + req.getClientAddress().getHostName() + " for blockID " + req.getBlockID() + " was a real read");
-            // Get a list of all the requests that have requested this block ID
-            List<ClientRequest> requestList = mRequestMap.get(req.getBlockID());
-            ReentrantReadWriteLock requestListLock = mRequestLockMap.get(req.getBlockID());
-
-            // Figure out if this is the first time the element has appeared
-            // We need to know this because we need to know if we will be able to find this element in the path or subtree
-            boolean elementDoesExist = mPositionMap.getBlockPosition(req.getBlockID()) != -1;
-            boolean canPutInPositionMap = true;
-
-            // Acquire write lock so we do not respond to all requests while accidentally missing a soon to be sent fake read
-            requestListLock.writeLock().lock();
-
-            // Loop through each request in list of requests for this block
-            while (!requestList.isEmpty()) {
-                // Get current request that will be processed
-                ClientRequest currentRequest = requestList.remove(0);
-                TaoLogger.logDebug("answerRequest serving current requestID " + currentRequest.getRequestID() + " from host " + currentRequest.getClientAddress().getHostName());
-                responseMapEntry = mResponseMap.get(currentRequest);
-
-                // Now we get the data from the desired block
-                byte[] foundData;
-                // First, from the subtree, find the bucket that has a block with blockID == req.getBlockID()
-                if (elementDoesExist) {
-                    TaoLogger.logDebug("BlockID " + req.getBlockID() + " should exist somewhere");
-                    // The element should exist somewhere
-                    foundData = getDataFromBlock(currentRequest.getBlockID());
-                } else {
-                    TaoLogger.logDebug("BlockID " + req.getBlockID() + " does not yet exist");
-                    // The element has never been created before
-                    foundData = new byte[TaoConfigs.BLOCK_SIZE];
-                }
+            // The stash, subtree and position map are about to change, so a checkpoint can not be taken until we are done
+            if (mCheckpointer != null) {
+                mCheckpointRWL.readLock().lock();
+            }
 
-                // Check if the request was a write
-                if (currentRequest.getType() == MessageTypes.CLIENT_WRITE_REQUEST) {
-                    TaoLogger.logDebug("Write request BlockID " + req.getBlockID());
+            try {
+                TaoLogger.logDebug("answerRequest requestID " + req.getRequestID() + " from host " + req.getClientAddress().getHostName() + " for blockID " + req.getBlockID() + " was a real read");
+                // Figure out if this is the first time the element has appeared
+                // We need to know this because we need to know if we will be able to find this element in the path or subtree
+                boolean elementDoesExist = mPositionMap.getBlockPosition(req.getBlockID()) != -1;
+                boolean canPutInPositionMap = true;
+
+                // Loop through each request for this block, leaving each one pending until it has been processed so we do
+                // not respond to all requests while accidentally missing a soon to be sent fake read
+                ClientRequest currentRequest = mPendingRequests.peek(req.getBlockID());
+                while (currentRequest != null) {
+                    TaoLogger.logDebug("answerRequest serving current requestID " + currentRequest.getRequestID() + " from host " + currentRequest.getClientAddress().getHostName());
+                    responseMapEntry = mResponseMap.get(currentRequest);
+
+                    // Now we get the data from the desired block
+                    byte[] foundData;
+                    // First, from the subtree, find the bucket that has a block with blockID == req.getBlockID()
                     if (elementDoesExist) {
+                        TaoLogger.logDebug("BlockID " + req.getBlockID() + " should exist somewhere");
                         // The element should exist somewhere
-                        writeDataToBlock(currentRequest.getBlockID(), currentRequest.getData());
+                        foundData = getDataFromBlock(currentRequest.getBlockID());
                     } else {
-                        Block newBlock = mPathCreator.createBlock();
-                        newBlock.setBlockID(currentRequest.getBlockID());
-                        newBlock.setData(currentRequest.getData());
+                        TaoLogger.logDebug("BlockID " + req.getBlockID() + " does not yet exist");
+                        // The element has never been created before
+                        foundData = new byte[TaoConfigs.BLOCK_SIZE];
+                    }
 
-                        // Add block to stash and assign random path position
-                        mStash.addBlock(newBlock);
+                    // Check if the request was a write
+                    if (currentRequest.getType() == MessageTypes.CLIENT_WRITE_REQUEST) {
+                        TaoLogger.logDebug("Write request BlockID " + req.getBlockID());
+                        if (elementDoesExist) {
+                            // The element should exist somewhere
+                            writeDataToBlock(currentRequest.getBlockID(), currentRequest.getData());
+                        } else {
+                            Block newBlock = mPathCreator.createBlock();
+                            newBlock.setBlockID(currentRequest.getBlockID());
+                            newBlock.setData(currentRequest.getData());
+
+                            // Add block to stash and assign random path position
+                            mStash.addBlock(newBlock);
+                        }
+                        canPutInPositionMap = true;
+                    } else {
+                        TaoLogger.logDebug("Read request BlockID " + req.getBlockID());
+                        // If elementDoesExist == false and the request is not a write, we will not put assign this block ID
+                        // a path in the position map
+                        if (! elementDoesExist) {
+                            TaoLogger.logDebug("Read request does not exist BlockID " + req.getBlockID());
+                            canPutInPositionMap = false;
+                        }
                     }
-                    canPutInPositionMap = true;
-                } else {
-                    TaoLogger.logDebug("Read request BlockID " + req.getBlockID());
-                    // If elementDoesExist == false and the request is not a write, we will not put assign this block ID
-                    // a path in the position map
-                    if (! elementDoesExist) {
-                        TaoLogger.logDebug("Read request does not exist BlockID " + req.getBlockID());
-                        canPutInPositionMap = false;
+
+                    // Check if the server has responded to this request yet
+                    // NOTE: This is the part that answers all fake reads
+                    responseMapEntry.setData(foundData);
+                    if (mResponseMap.get(currentRequest).getRetured()) {
+                        TaoLogger.logDebug("answerRequest requestID " + currentRequest.getRequestID() + " from host " + currentRequest.getClientAddress().getHostName() + " is going to be responded to");
+                        // Send the data to sequencer
+                        mSequencer.onReceiveResponse(currentRequest, resp, foundData);
+
+                        // Remove this request from the response map
+                        mResponseMap.remove(currentRequest);
                     }
-                }
 
-                // Check if the server has responded to this request yet
-                // NOTE: This is the part that answers all fake reads
-                responseMapEntry.setData(foundData);
-                if (mResponseMap.get(currentRequest).getRetured()) {
-                    TaoLogger.logDebug("answerRequest requestID " + currentRequest.getRequestID() + " from host " + currentRequest.getClientAddress().getHostName() + " is going to be responded to");
-                    // Send the data to sequencer
-                    mSequencer.onReceiveResponse(currentRequest, resp, foundData);
+                    // After the first pass through the loop, the element is guaranteed to exist
+                    if (canPutInPositionMap) {
+                        elementDoesExist = true;
+                    }
 
-                    // Remove this request from the response map
-                    mResponseMap.remove(currentRequest);
+                    // Move on to the next request, if any. Once there are none the block goes idle
+                    currentRequest = mPendingRequests.removeAndPeek(req.getBlockID());
                 }
 
-                // After the first pass through the loop, the element is guaranteed to exist
                 if (canPutInPositionMap) {
-                    elementDoesExist = true;
-                }
-            }
+                    // Assign block with blockID == req.getBlockID() to a new random path in position map
+                    int newPathID = mCryptoUtil.getRandomPathID();
+                    TaoLogger.logInfo("Assigning blockID " + req.getBlockID() + " to path " + newPathID);
+                    mPositionMap.setBlockPosition(req.getBlockID(), newPathID);
 
-            // Release lock
-            requestListLock.writeLock().unlock();
-
-            if (canPutInPositionMap) {
-                // Assign block with blockID == req.getBlockID() to a new random path in position map
-                int newPathID = mCryptoUtil.getRandomPathID();
-                TaoLogger.logInfo("Assigning blockID " + req.getBlockID() + " to path " + newPathID);
-                mPositionMap.setBlockPosition(req.getBlockID(), newPathID);
+                    // If the block is in the stash, it now needs to be found under its new path
+                    mStash.updateBlockPosition(req.getBlockID());
+                }
+            } finally {
+                if (mCheckpointer != null) {
+                    mCheckpointRWL.readLock().unlock();
+                }
             }
         } else {
             TaoLogger.logInfo("answerRequest requestID " + req.getRequestID() + " from host " + req.getClientAddress().getHostName() + " was a fake read, and real read has not responded yet");
@@ -677,6 +436,67 @@ public class TaoProcessor implements Processor {
         mPathReqMultiSet.remove(resp.getPathID());
     }
 
+    /**
+     * @brief Method to handle a writeback that the server never answered. Nodes of the subtree are only deleted once
+     * every server has answered a writeback, so the paths that were not written stay in the subtree until a later
+     * writeback of them succeeds
+     * @param targetServer
+     * @param writeBackTime
+     */
+    protected void onWriteBackFailed(InetSocketAddress targetServer, long writeBackTime) {
+        TaoLogger.logError("Writeback #" + writeBackTime + " to " + targetServer + " failed");
+        mProfiler.writeBackFailed(targetServer, writeBackTime);
+    }
+
+    /**
+     * @brief Method to handle a path read that the server never answered. A fake read is treated as returned, as its
+     * request is answered with the data found by the real read. If the real read failed, the block can not be read, so
+     * every request waiting for the block is answered with a failure, each once its own path read has returned
+     * @param req
+     * @param targetServer
+     * @param pathID
+     * @param fakeRead
+     */
+    protected void onReadPathFailed(ClientRequest req, InetSocketAddress targetServer, long pathID, boolean fakeRead) {
+        TaoLogger.logError("Path read for request #" + req.getRequestID() + " from host " + req.getClientAddress().getHostName() + " to " + targetServer + " failed");
+        mProfiler.readPathFailed(targetServer, req);
+
+        try {
+            if (fakeRead) {
+                // Answer the client if the real read has already finished, otherwise the real read will answer it
+                ResponseMapEntry responseMapEntry = mResponseMap.get(req);
+                responseMapEntry.setReturned(true);
+                if (responseMapEntry.getFailed()) {
+                    mSequencer.onFailedRequest(req);
+                    mResponseMap.remove(req);
+                } else if (responseMapEntry.getData() != null) {
+                    mSequencer.onReceiveResponse(req, null, responseMapEntry.getData());
+                    mResponseMap.remove(req);
+                }
+            } else {
+                // Fail every request for this block, leaving the block idle so the next request does a new real read
+                ClientRequest currentRequest = mPendingRequests.peek(req.getBlockID());
+                while (currentRequest != null) {
+                    ResponseMapEntry responseMapEntry = mResponseMap.get(currentRequest);
+                    responseMapEntry.setFailed(true);
+
+                    // Requests whose fake read has not returned yet are answered once it does
+                    if (currentRequest.equals(req) || responseMapEntry.getRetured()) {
+                        mSequencer.onFailedRequest(currentRequest);
+                        mResponseMap.remove(currentRequest);
+                    }
+
+                    currentRequest = mPendingRequests.removeAndPeek(req.getBlockID());
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // The path will not be looked at, so it may be deleted
+        mPathReqMultiSet.remove(pathID);
+    }
+
     /**
      * @brief Method to get data from a block with the given blockID
      * @param blockID
@@ -792,56 +612,41 @@ public class TaoProcessor implements Processor {
         // Lock every bucket on the path
         pathToFlush.lockPath();
 
-        // Get a heap based on the block's path ID when compared to the target path ID
-        PriorityQueue<Block> blockHeap = getHeap(pathID);
+        // Move the blocks on the path into the stash, so they can be placed along with the blocks already there. They
+        // stay findable in the stash until they are placed, but only count towards its size if they are not
+        List<Block> pathBlocks = new ArrayList<>();
+        for (Bucket bucket : pathToFlush.getBuckets()) {
+            for (Block block : bucket.getFilledBlocks()) {
+                mStash.addFlushedBlock(block);
+                pathBlocks.add(block);
+            }
+        }
 
         // Clear path
         mSubtree.clearPath(pathID);
 
-        // Variables to help with flushing path
-        Block currentBlock;
-        int level = TaoConfigs.TREE_HEIGHT;
-
-        // Flush path
-        while (! blockHeap.isEmpty() && level >= 0) {
-            // Get block at top of heap
-            currentBlock = blockHeap.peek();
-
-            // Find the path ID that this block maps to
-            long pid = mPositionMap.getBlockPosition(currentBlock.getBlockID());
-
-            // Check if this block can be inserted at this level
-            if (Utility.getGreatestCommonLevel(pathID, pid) == level) {
-
-                // If the block can be inserted at this level, get the bucket
-                Bucket pathBucket = pathToFlush.getBucket(level);
+        // Flush path, starting from the leaf. Every block that can be placed at a level can also be placed at every
+        // level above it, so filling each bucket with any of the blocks that can be placed there places as many blocks
+        // as possible
+        for (int level = TaoConfigs.TREE_HEIGHT; level >= 0; level--) {
+            Bucket pathBucket = pathToFlush.getBucket(level);
 
+            for (Block currentBlock : mStash.getBlocksForLevel(pathID, level, TaoConfigs.BLOCKS_IN_BUCKET)) {
                 // Try to add this block into the path and update the bucket's timestamp
-                if (pathBucket.addBlock(currentBlock, mWriteBackCounter)) {
-                    // If we have successfully added the block to the bucket, we remove the block from stash
-                    mStash.removeBlock(currentBlock);
-
-                    // Add new entry to subtree's map of block IDs to bucket
-                    mSubtree.mapBlockToBucket(currentBlock.getBlockID(), pathBucket);
-
-                    // If add was successful, remove block from heap and move on to next block without decrementing the
-                    // level we are adding to
-                    blockHeap.poll();
-                    continue;
+                if (!pathBucket.addBlock(currentBlock, mWriteBackCounter)) {
+                    break;
                 }
-            }
-
-            // If we are unable to add a block at this level, move on to next level
-            level--;
-        }
 
-        // Add remaining blocks in heap to stash
-        if (!blockHeap.isEmpty()) {
-            while (!blockHeap.isEmpty()) {
-                mStash.addBlock(blockHeap.poll());
+                // Add new entry to subtree's map of block IDs to bucket before removing the block from stash, so the
+                // block can always be found
+                mSubtree.mapBlockToBucket(currentBlock.getBlockID(), pathBucket);
+                mStash.removeBlock(currentBlock);
             }
         }
 
+        // The blocks of the path that could not be placed back on it now stay in the stash
+        mStash.keepFlushedBlocks(pathBlocks);
+
         // Unlock the path
         pathToFlush.unlockPath();
 
@@ -855,33 +660,95 @@ public class TaoProcessor implements Processor {
             // Increment the amount of times we have flushed
             mWriteBackCounter++;
         }
+
+        // Keep track of how full the stash is after each flush
+        mStash.sampleSize();
     }
 
     /**
-     * @brief Method to create a max heap where the top element is the current block best suited to be placed along the path
-     * @param pathID
-     * @return max heap based on each block's path id when compared to the passed in pathID
+     * @brief Method to hold back a new request while the stash is at its capacity. Every request in flight flushes a
+     * path, which moves blocks out of the stash, so the wait ends once there are no requests in flight
+     */
+    protected void awaitStashCapacity() {
+        mStash.awaitCapacity(() -> mPendingRequests.size() == 0);
+    }
+
+    /**
+     * @brief Method to capture the write back counters, stash and subtree for a checkpoint. Must be called while
+     * neither requests nor flushes can change them
+     * @return the serialized state
      */
-    public PriorityQueue<Block> getHeap(long pathID) {
-        // Get all the blocks from the stash and blocks from this path
-        ArrayList<Block> blocksToFlush = new ArrayList<>();
-        blocksToFlush.addAll(mStash.getAllBlocks());
-        Bucket[] buckets = mSubtree.getPath(pathID).getBuckets();
-        for (Bucket b : buckets) {
-            blocksToFlush.addAll(b.getFilledBlocks());
+    protected byte[] createCheckpointState() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            // Write where write back is at
+            out.writeLong(mNextWriteBack);
+
+            // Write the stash
+            List<Block> stashBlocks = mStash.getAllBlocks();
+            out.writeInt(stashBlocks.size());
+            for (Block b : stashBlocks) {
+                out.write(b.serialize());
+            }
+
+            // Write the subtree
+            mSubtree.writeCheckpoint(out);
+
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean restoreCheckpoint() {
+        if (mCheckpointer == null) {
+            return false;
         }
 
-        // Remove duplicates
-        Set<Block> hs = new HashSet<>();
-        hs.addAll(blocksToFlush);
-        blocksToFlush.clear();
-        blocksToFlush.addAll(hs);
-        blocksToFlush = Lists.newArrayList(Sets.newHashSet(blocksToFlush));
-
-        // Create heap based on the block's path ID when compared to the target path ID
-        PriorityQueue<Block> blockHeap = new PriorityQueue<>(TaoConfigs.BUCKET_SIZE, new BlockPathComparator(pathID, mPositionMap));
-        blockHeap.addAll(blocksToFlush);
-        return blockHeap;
+        // Without a checkpoint we start over
+        if (!mCheckpointer.hasCheckpoint()) {
+            mCheckpointer.reset();
+            return false;
+        }
+
+        try {
+            // Restore the position map and get the rest of the state
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(mCheckpointer.restore()));
+
+            // Continue write back from where it was, with an empty write queue
+            mNextWriteBack = in.readLong();
+            mWriteBackCounter = mNextWriteBack - TaoConfigs.WRITE_BACK_THRESHOLD;
+
+            // Restore the stash
+            int numBlocks = in.readInt();
+            for (int i = 0; i < numBlocks; i++) {
+                byte[] serialized = new byte[TaoConfigs.TOTAL_BLOCK_SIZE];
+                in.readFully(serialized);
+                Block b = mPathCreator.createBlock();
+                b.initFromSerialized(serialized);
+                mStash.addBlock(b);
+            }
+
+            // Restore the subtree
+            List<Long> pathIDs = mSubtree.readCheckpoint(in);
+
+            // Paths in the subtree may not have been written back yet, and a request may have moved a block before its
+            // path was flushed. Flushing each path puts every block where it belongs and queues the path for write back
+            for (long pathID : pathIDs) {
+                flush(pathID);
+            }
+
+            TaoLogger.logForce("Restored checkpoint with " + numBlocks + " blocks in stash and " + pathIDs.size() + " paths in subtree");
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
     }
 
     @Override
@@ -963,43 +830,73 @@ public class TaoProcessor implements Processor {
             // Deep copy of paths in subtree for writeback
             Map<InetSocketAddress, List<Path>> wbPaths = new HashMap<>();
 
-            // Take the subtree writer's lock
-            mSubtreeRWL.writeLock().lock();
+            // If checkpoints are enabled, stop requests from being answered while the checkpoint is captured
+            byte[] checkpointState = null;
+            ProxyCheckpointer.Mark mark = null;
+            if (mCheckpointer != null) {
+                mCheckpointRWL.writeLock().lock();
+            }
 
-            // Make a deep copy of the needed paths from the subtree
-            for (InetSocketAddress serverAddr : writebackMap.keySet()) {
+            try {
+                // Take the subtree writer's lock
+                mSubtreeRWL.writeLock().lock();
 
-                // Get the list of paths to be written for the current server
-                List<Long> writebackPaths = writebackMap.get(serverAddr);
-
-                List<Path> paths = new ArrayList<Path>();
-
-                for (int i = 0; i < writebackPaths.size(); i++) {
-                    // Get path
-                    Path p = mSubtree.getPath(writebackPaths.get(i));
-                    if (p != null) {
-                        // Set the path to correspond to the relative leaf ID as present on the server to be written to
-                        p.setPathID(mRelativeLeafMapper.get(p.getPathID()));
-                        TaoPath pathCopy = new TaoPath();
-                        pathCopy.initFromPath(p);
-
-                        /* Log which blocks are in the snapshot */
-                        for (Bucket bucket : pathCopy.getBuckets()) {
-                            for (Block b : bucket.getFilledBlocks()) {
-                                TaoLogger.logBlock(b.getBlockID(), "snapshot add");
+                try {
+                    // Make a deep copy of the needed paths from the subtree
+                    for (InetSocketAddress serverAddr : writebackMap.keySet()) {
+
+                        // Get the list of paths to be written for the current server
+                        List<Long> writebackPaths = writebackMap.get(serverAddr);
+
+                        List<Path> paths = new ArrayList<Path>();
+
+                        for (int i = 0; i < writebackPaths.size(); i++) {
+                            // Get path
+                            Path p = mSubtree.getPath(writebackPaths.get(i));
+                            if (p != null) {
+                                // Set the path to correspond to the relative leaf ID as present on the server to be written to
+                                p.setPathID(mLeafRouter.getRelativeLeaf(p.getPathID()));
+                                TaoPath pathCopy = new TaoPath();
+                                pathCopy.initFromPath(p);
+
+                                /* Log which blocks are in the snapshot */
+                                for (Bucket bucket : pathCopy.getBuckets()) {
+                                    for (Block b : bucket.getFilledBlocks()) {
+                                        TaoLogger.logBlock(b.getBlockID(), "snapshot add");
+                                    }
+                                }
+
+                                paths.add(pathCopy);
+                                allWriteBackIDs.add(writebackPaths.get(i));
                             }
                         }
 
-                        paths.add(pathCopy);
-                        allWriteBackIDs.add(writebackPaths.get(i));
+                        wbPaths.put(serverAddr, paths);
+                    }
+
+                    // Capture the state of the proxy for the checkpoint while nothing can change it
+                    if (mCheckpointer != null) {
+                        checkpointState = createCheckpointState();
                     }
+                } finally {
+                    // Release the subtree writer's lock
+                    mSubtreeRWL.writeLock().unlock();
                 }
 
-                wbPaths.put(serverAddr, paths);
+                // Make the checkpoint durable before any of its paths reach the servers, so that the servers never
+                // hold paths that are newer than the last checkpoint
+                if (mCheckpointer != null) {
+                    mark = mCheckpointer.mark();
+                }
+            } finally {
+                if (mCheckpointer != null) {
+                    mCheckpointRWL.writeLock().unlock();
+                }
             }
 
-            // Release the subtree writer's lock
-            mSubtreeRWL.writeLock().unlock();
+            if (mCheckpointer != null) {
+                mCheckpointer.commit(mark, checkpointState);
+            }
 
             // Now we will send the writeback request to each server
             for (InetSocketAddress serverAddr : wbPaths.keySet()) {
@@ -1010,173 +907,65 @@ public class TaoProcessor implements Processor {
                 // Get the list of paths to be written for the current server
                 List<Path> paths = wbPaths.get(serverAddr);
 
-                // Get all the encrypted path data
-                byte[] dataToWrite = null;
-                int pathSize = 0;
-
-                TaoLogger.logInfo("Going to do writeback");
-                for (int i = 0; i < paths.size(); i++) {
-                    // Get path
-                    Path p = paths.get(i);
-                    // If this is the first path, don't need to concat the data
-                    if (dataToWrite == null) {
-                        dataToWrite = mCryptoUtil.encryptPath(p);
-                        pathSize = dataToWrite.length;
-                    } else {
-                        dataToWrite = Bytes.concat(dataToWrite, mCryptoUtil.encryptPath(p));
-                    }
-                }
-
-                if (dataToWrite == null) {
+                // Nothing to write to this server
+                if (paths.isEmpty()) {
                     serverDidReturn[serverIndexFinal] = true;
                     continue;
                 }
 
-                // Create the proxy write request
-                ProxyRequest writebackRequest = mMessageCreator.createProxyRequest();
-                writebackRequest.setType(MessageTypes.PROXY_WRITE_REQUEST);
-                writebackRequest.setPathSize(pathSize);
-                writebackRequest.setDataToWrite(dataToWrite);
-                writebackRequest.setTimestamp(finalWriteBackTime);
-
-                // Serialize the request
-                byte[] encryptedWriteBackPaths = writebackRequest.serialize();
-
-                // Create and run server
-                Runnable writebackRunnable = () -> {
-                    try {
-                        TaoLogger.logDebug("Going to do writeback for server " + serverIndexFinal);
-
-                        mProfiler.writeBackPreSend(serverAddr, finalWriteBackTime);
-
-                        // Create channel and connect to server
-                        AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(mThreadGroup);
-                        Future connection = channel.connect(serverAddr);
-                        connection.get();
-
-                        // First we send the message type to the server along with the size of the message
-                        ByteBuffer messageType = MessageUtility.createMessageHeaderBuffer(MessageTypes.PROXY_WRITE_REQUEST, encryptedWriteBackPaths.length);
-                        Future sendHeader;
-                        while (messageType.remaining() > 0) {
-                            sendHeader = channel.write(messageType);
-                            sendHeader.get();
-                        }
-                        messageType = null;
-
-                        // Send writeback paths
-                        ByteBuffer message = ByteBuffer.wrap(encryptedWriteBackPaths);
-                        Future sendMessage;
-                        while (message.remaining() > 0) {
-                            sendMessage = channel.write(message);
-                            sendMessage.get();
-                        }
-                        message = null;
-                        TaoLogger.logDebug("Sent info, now waiting to listen for server " + serverIndexFinal);
-
-                        // Listen for server response
-                        ByteBuffer messageTypeAndSize = MessageUtility.createTypeReceiveBuffer();
-                        channel.read(messageTypeAndSize, null, new CompletionHandler<Integer, Void>() {
-                            @Override
-                            public void completed(Integer result, Void attachment) {
-                                // profiling
-                                mProfiler.writeBackPostRecv(serverAddr, finalWriteBackTime);
-
-                                // Flip the byte buffer for reading
-                                messageTypeAndSize.flip();
-
-                                // Parse the message type and size from server
-                                int[] typeAndLength = MessageUtility.parseTypeAndLength(messageTypeAndSize);
-                                int messageType = typeAndLength[0];
-                                int messageLength = typeAndLength[1];
-
-                                // Determine behavior based on response
-                                if (messageType == MessageTypes.SERVER_RESPONSE) {
-                                    // Read the response
-                                    ByteBuffer messageResponse = ByteBuffer.allocate(messageLength);
-                                    channel.read(messageResponse, null, new CompletionHandler<Integer, Void>() {
-
-                                        @Override
-                                        public void completed(Integer result, Void attachment) {
-                                            // Make sure we read the entire message
-                                            while (messageResponse.remaining() > 0) {
-                                                channel.read(messageResponse);
-                                            }
-
-                                            try {
-                                                channel.close();
-                                            } catch (IOException e) {
-                                                e.printStackTrace();
-                                            }
-
-                                            // Flip byte buffer for reading
-                                            messageResponse.flip();
-
-                                            // Get data from response
-                                            byte[] serialized = new byte[messageLength];
-                                            messageResponse.get(serialized);
-
-                                            // Create ServerResponse based on data
-                                            ServerResponse response = mMessageCreator.createServerResponse();
-                                            response.initFromSerialized(serialized);
-
-                                            long serverProcessingTime = response.getProcessingTime();
-                                            mProfiler.writeBackServerProcessingTime(serverAddr, finalWriteBackTime, serverProcessingTime);
-
-                                            // Check to see if the write succeeded or not
-                                            if (response.getWriteStatus()) {
-                                                // Acquire return lock
-                                                synchronized (returnLock) {
-                                                    // Set that this server did return
-                                                    serverDidReturn[serverIndexFinal] = true;
-
-                                                    // Check if all the servers have returned
-                                                    boolean allReturn = true;
-                                                    for (int n = 0; n < serverDidReturn.length; n++) {
-                                                        if (!serverDidReturn[n]) {
-                                                            allReturn = false;
-                                                            break;
-                                                        }
-                                                    }
-
-                                                    // If all the servers have successfully responded, we can delete nodes from subtree
-                                                    if (allReturn) {
-
-                                                        mProfiler.writeBackComplete(finalWriteBackTime);
-
-                                                        // Iterate through every path that was written, check if there are any nodes
-                                                        // we can delete
-                                                        for (Long pathID : allWriteBackIDs) {
-                                                            // Upon response, delete all nodes in subtree whose timestamp
-                                                            // is <= timeStamp, and are not in mPathReqMultiSet
-                                                            // TODO: should pass in entire mPathReqMultiSet instead
-                                                            Set<Long> set = new HashSet<>();
-                                                            for (Long l : mPathReqMultiSet.elementSet()) {
-                                                                set.add(l);
-                                                            }
-                                                            mSubtree.deleteNodes(pathID, finalWriteBackTime, set);
-                                                        }
-                                                    }
-                                                }
-                                            } else {
-                                            }
-                                        }
-
-                                        @Override
-                                        public void failed(Throwable exc, Void attachment) {
-                                        }
-                                    });
+                // Encrypt all the paths into a single array
+                TaoLogger.logInfo("Going to do writeback");
+                byte[] dataToWrite = mCryptoUtil.encryptPaths(paths);
+                int pathSize = mCryptoUtil.getEncryptedPathSize();
+
+                // Send the writeback over the long lived connections to the server, without waiting for earlier
+                // writebacks to be answered
+                TaoLogger.logDebug("Going to do writeback for server " + serverIndexFinal);
+                mProfiler.writeBackPreSend(serverAddr, finalWriteBackTime);
+                mWriteBackPool.writePaths(serverAddr, pathSize, finalWriteBackTime, dataToWrite, response -> {
+                    // profiling
+                    mProfiler.writeBackPostRecv(serverAddr, finalWriteBackTime);
+
+                    long serverProcessingTime = response.getProcessingTime();
+                    mProfiler.writeBackServerProcessingTime(serverAddr, finalWriteBackTime, serverProcessingTime);
+
+                    // Check to see if the write succeeded or not
+                    if (response.getWriteStatus()) {
+                        // Acquire return lock
+                        synchronized (returnLock) {
+                            // Set that this server did return
+                            serverDidReturn[serverIndexFinal] = true;
+
+                            // Check if all the servers have returned
+                            boolean allReturn = true;
+                            for (int n = 0; n < serverDidReturn.length; n++) {
+                                if (!serverDidReturn[n]) {
+                                    allReturn = false;
+                                    break;
                                 }
                             }
 
-                            @Override
-                            public void failed(Throwable exc, Void attachment) {
+                            // If all the servers have successfully responded, we can delete nodes from subtree
+                            if (allReturn) {
+
+                                mProfiler.writeBackComplete(finalWriteBackTime);
+
+                                // Iterate through every path that was written, check if there are any nodes
+                                // we can delete
+                                for (Long pathID : allWriteBackIDs) {
+                                    // Upon response, delete all nodes in subtree whose timestamp
+                                    // is <= timeStamp, and are not in mPathReqMultiSet
+                                    // TODO: should pass in entire mPathReqMultiSet instead
+                                    Set<Long> set = new HashSet<>();
+                                    for (Long l : mPathReqMultiSet.elementSet()) {
+                                        set.add(l);
+                                    }
+                                    mSubtree.deleteNodes(pathID, finalWriteBackTime, set);
+                                }
                             }
-                        });
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                        }
                     }
-                };
-                new Thread(writebackRunnable).start();
+                }, exc -> onWriteBackFailed(serverAddr, finalWriteBackTime));
             }
         } catch (Exception e) {
             e.printStackTrace();
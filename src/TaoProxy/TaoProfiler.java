@@ -208,6 +208,19 @@ public class TaoProfiler implements Profiler {
         //TaoLogger.logForce("read path time (ms): " + (totalTime));
     }
 
+    public void readPathFailed(InetSocketAddress address, ClientRequest req) {
+        // Forget the times recorded for this read, as it will never complete
+        mReadPathStartTimes.remove(req);
+        Map<ClientRequest, Long> serverReadPathPreSendTimes = mReadPathPreSendTimes.get(address);
+        if (serverReadPathPreSendTimes != null) {
+            serverReadPathPreSendTimes.remove(req);
+        }
+        Map<ClientRequest, Long> readPathSendToRecvTimesForServer = mReadPathSendToRecvTimes.get(address);
+        if (readPathSendToRecvTimesForServer != null) {
+            readPathSendToRecvTimesForServer.remove(req);
+        }
+    }
+
     public void writeBackStart(long writeBackTime) {
         //TaoLogger.logForce("writeBackStart");
         mWriteBackStartTimes.put(writeBackTime, System.currentTimeMillis());
@@ -229,9 +242,19 @@ public class TaoProfiler implements Profiler {
         //TaoLogger.logForce("write back time (ms): " + (totalTime));
     }
 
+    public void writeBackFailed(InetSocketAddress address, long writeBackTime) {
+        // Forget the times recorded for this writeback, as it will never complete
+        mWriteBackStartTimes.remove(writeBackTime);
+        Map<Long, Long> serverWriteBackPreSendTimes = mWriteBackPreSendTimes.get(address);
+        if (serverWriteBackPreSendTimes != null) {
+            serverWriteBackPreSendTimes.remove(writeBackTime);
+        }
+    }
+
     public void readPathServerProcessingTime(InetSocketAddress address, ClientRequest req, long processingTime) {
+        // Remove the time once it is used, so the map does not grow with every request
         Map<ClientRequest, Long> readPathSendToRecvTimesForServer = mReadPathSendToRecvTimes.get(address);
-        long t2 = readPathSendToRecvTimesForServer.get(req);
+        long t2 = readPathSendToRecvTimesForServer.remove(req);
         long netTimeApprox = t2 - processingTime;
 
         //TaoLogger.logForce("readPathNet time (" + address + ", " + req.getRequestID() + "): " + netTimeApprox);
@@ -247,7 +270,7 @@ public class TaoProfiler implements Profiler {
 
     public void writeBackServerProcessingTime(InetSocketAddress address, long writeBackTime, long processingTime) {
         Map<Long, Long> writeBackSendToRecvTimesForServer = mWriteBackSendToRecvTimes.get(address);
-        long t2 = writeBackSendToRecvTimesForServer.get(writeBackTime);
+        long t2 = writeBackSendToRecvTimesForServer.remove(writeBackTime);
         long netTimeApprox = t2 - processingTime;
 
         synchronized (mWriteBackServerStatistics) {
@@ -275,7 +298,7 @@ public class TaoProfiler implements Profiler {
         }
 
         Map<ClientRequest, Long> readPathSendToRecvTimesForServer = mReadPathSendToRecvTimes.get(address);
-        long t1 = mReadPathPreSendTimes.get(address).get(req);
+        long t1 = mReadPathPreSendTimes.get(address).remove(req);
 
         synchronized (mReadPathSendToRecvStatistics) {
             mReadPathSendToRecvStatistics.addValue(t2 - t1);
@@ -300,7 +323,7 @@ public class TaoProfiler implements Profiler {
         }
 
         Map<Long, Long> writeBackSendToRecvTimesForServer = mWriteBackSendToRecvTimes.get(address);
-        long t1 = mWriteBackPreSendTimes.get(address).get(writeBackTime);
+        long t1 = mWriteBackPreSendTimes.get(address).remove(writeBackTime);
 
         synchronized (mWriteBackSendToRecvStatistics) {
             mWriteBackSendToRecvStatistics.addValue(t2 - t1);
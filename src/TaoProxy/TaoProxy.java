@@ -4,20 +4,17 @@ import Configuration.ArgumentParser;
 import Configuration.TaoConfigs;
 
 import Messages.*;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
 
-import java.io.DataOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 
@@ -46,13 +43,15 @@ public class TaoProxy implements Proxy {
     // A Subtree
     protected Subtree mSubtree;
 
-    // A map that maps each leafID to the relative leaf ID it would have within a server partition
-    // TODO: Put this in position map?
-    protected Map<Long, Long> mRelativeLeafMapper;
+    // Decides which server holds each leaf, and the relative leaf ID it has within that server
+    protected LeafRouter mLeafRouter;
 
     // A position map
     protected PositionMap mPositionMap;
 
+    // Keeps an on disk checkpoint of the proxy, null if checkpoints are disabled
+    protected ProxyCheckpointer mCheckpointer;
+
     // A Profiler to store timing information
     public Profiler mProfiler;
 
@@ -82,13 +81,22 @@ public class TaoProxy implements Proxy {
             mProfiler = new TaoProfiler();
 
             // Create a CryptoUtil
-            mCryptoUtil = new TaoCryptoUtil();
+            mCryptoUtil = createCryptoUtil();
 
             // Assign subtree
             mSubtree = subtree;
 
+            // Decide which server holds each leaf
+            mLeafRouter = createLeafRouter();
+
             // Create a position map
-            mPositionMap = new TaoPositionMap(TaoConfigs.PARTITION_SERVERS);
+            mPositionMap = createPositionMap();
+
+            // Log changes to the position map if checkpoints are enabled
+            mCheckpointer = createCheckpointer();
+            if (mCheckpointer != null) {
+                mPositionMap = mCheckpointer.logPositions(mPositionMap);
+            }
 
             // Assign the message and path creators
             mMessageCreator = messageCreator;
@@ -97,24 +105,9 @@ public class TaoProxy implements Proxy {
             // Create a thread pool for asynchronous sockets
             mThreadGroup = AsynchronousChannelGroup.withFixedThreadPool(TaoConfigs.PROXY_THREAD_COUNT, Executors.defaultThreadFactory());
 
-            // Map each leaf to a relative leaf for the servers
-            mRelativeLeafMapper = new HashMap<>();
-            int numServers = TaoConfigs.PARTITION_SERVERS.size();
-            int numLeaves = 1 << TaoConfigs.TREE_HEIGHT;
-            int leavesPerPartition = numLeaves / numServers;
-            for (int i = 0; i < numLeaves; i += numLeaves/numServers) {
-                long j = i;
-                long relativeLeaf = 0;
-                while (j < i + leavesPerPartition) {
-                    mRelativeLeafMapper.put(j, relativeLeaf);
-                    j++;
-                    relativeLeaf++;
-                }
-            }
-
             // Initialize the sequencer and proxy
             mSequencer = new TaoSequencer(mMessageCreator, mPathCreator);
-            mProcessor = new TaoProcessor(this, mSequencer, mThreadGroup, mMessageCreator, mPathCreator, mCryptoUtil, mSubtree, mPositionMap, mRelativeLeafMapper, mProfiler);
+            mProcessor = new TaoProcessor(this, mSequencer, mThreadGroup, mMessageCreator, mPathCreator, mCryptoUtil, mSubtree, mPositionMap, mLeafRouter, mCheckpointer, mProfiler);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -139,13 +132,16 @@ public class TaoProxy implements Proxy {
            // TaoConfigs.initConfiguration(minServerSize);
 
             // Create a CryptoUtil
-            mCryptoUtil = new TaoCryptoUtil();
+            mCryptoUtil = createCryptoUtil();
 
             // Assign subtree
             mSubtree = subtree;
 
+            // Decide which server holds each leaf
+            mLeafRouter = createLeafRouter();
+
             // Create a position map
-            mPositionMap = new TaoPositionMap(TaoConfigs.PARTITION_SERVERS);
+            mPositionMap = createPositionMap();
 
             // Assign the message and path creators
             mMessageCreator = messageCreator;
@@ -157,21 +153,6 @@ public class TaoProxy implements Proxy {
             // Initialize the sequencer and proxy
             mSequencer = new TaoSequencer(mMessageCreator, mPathCreator);
             mProcessor = processor;
-
-            // Map each leaf to a relative leaf for the servers
-            mRelativeLeafMapper = new HashMap<>();
-            int numServers = TaoConfigs.PARTITION_SERVERS.size();
-            int numLeaves = 1 << TaoConfigs.TREE_HEIGHT;
-            int leavesPerPartition = numLeaves / numServers;
-            for (int i = 0; i < numLeaves; i += numLeaves/numServers) {
-                long j = i;
-                long relativeLeaf = 0;
-                while (j < i + leavesPerPartition) {
-                    mRelativeLeafMapper.put(j, relativeLeaf);
-                    j++;
-                    relativeLeaf++;
-                }
-            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -182,82 +163,92 @@ public class TaoProxy implements Proxy {
      */
     public void initializeServer() {
         try {
+            // The servers are about to be wiped, so any checkpoint no longer applies
+            if (mCheckpointer != null) {
+                mCheckpointer.reset();
+            }
+
             // Initialize the top of the subtree
             mSubtree.initRoot();
 
-            // Get the total number of paths
-            int totalPaths = 1 << TaoConfigs.TREE_HEIGHT;
-
             TaoLogger.logInfo("Tree height is " + TaoConfigs.TREE_HEIGHT);
-            TaoLogger.logInfo("Total paths " + totalPaths);
-
-            // Variables to both hold the data of a path as well as how big the path is
-            byte[] dataToWrite;
-
-            // Create map that will map the addresses of the storage servers to sockets connected to that server
-            Map<InetSocketAddress, Socket> mSocketMap = new HashMap<>();
-            int numServers = TaoConfigs.PARTITION_SERVERS.size();
-
-            // Create each connection
-            for (int i = 0; i < numServers; i++) {
-                InetSocketAddress sa = TaoConfigs.PARTITION_SERVERS.get(i);
-                Socket socket = new Socket(sa.getHostName(), sa.getPort());
-                mSocketMap.put(sa, socket);
-            }
+            TaoLogger.logInfo("Total paths " + (1 << TaoConfigs.TREE_HEIGHT));
 
-            // Loop to write each path to server
-            for (int i = 0; i < totalPaths; i++) {
-                TaoLogger.logForce("Creating path " + i);
-
-                // Get connection to server, then get input and output streams
-                InetSocketAddress sa = mPositionMap.getServerForPosition(i);
-                DataOutputStream output = new DataOutputStream(mSocketMap.get(sa).getOutputStream());
-                InputStream input = mSocketMap.get(sa).getInputStream();
-
-                // Create empty paths and serialize
-                Path defaultPath = mPathCreator.createPath();
-                defaultPath.setPathID(mRelativeLeafMapper.get(((long) i)));
-
-                // Encrypt path
-                dataToWrite = mCryptoUtil.encryptPath(defaultPath);
-
-                // Create a proxy write request
-                ProxyRequest writebackRequest = mMessageCreator.createProxyRequest();
-                writebackRequest.setType(MessageTypes.PROXY_INITIALIZE_REQUEST);
-                writebackRequest.setPathSize(dataToWrite.length);
-                writebackRequest.setDataToWrite(dataToWrite);
-
-                // Serialize the proxy request
-                byte[] proxyRequest = writebackRequest.serialize();
-
-                // Send the type and size of message to server
-                byte[] messageTypeBytes = Ints.toByteArray(MessageTypes.PROXY_INITIALIZE_REQUEST);
-                byte[] messageLengthBytes = Ints.toByteArray(proxyRequest.length);
-                output.write(Bytes.concat(messageTypeBytes, messageLengthBytes));
-
-                // Send actual message to server
-                output.write(proxyRequest);
-
-                // Read in the response
-                // TODO: Currently not doing anything with response, possibly do something
-                byte[] typeAndSize = new byte[8];
-                input.read(typeAndSize);
-                int type = Ints.fromByteArray(Arrays.copyOfRange(typeAndSize, 0, 4));
-                int length = Ints.fromByteArray(Arrays.copyOfRange(typeAndSize, 4, 8));
-                byte[] message = new byte[length];
-                input.read(message);
+            // Each partition is held by a single server
+            List<List<InetSocketAddress>> partitions = new ArrayList<>();
+            for (InetSocketAddress sa : TaoConfigs.PARTITION_SERVERS) {
+                partitions.add(Collections.singletonList(sa));
             }
 
-            // Close each connection
-            for (int i = 0; i < numServers; i++) {
-                InetSocketAddress sa = TaoConfigs.PARTITION_SERVERS.get(i);
-                mSocketMap.get(sa).close();
-            }
+            // Write an empty tree to the servers
+            new ServerInitializer(mMessageCreator, mPathCreator, mCryptoUtil, partitions,
+                    TaoConfigs.INITIALIZE_MODE, TaoConfigs.INITIALIZE_BATCH_SIZE, TaoConfigs.INITIALIZE_FORMAT_SIZE,
+                    TaoConfigs.INITIALIZE_PIPELINE_DEPTH).initialize();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @brief Method to create the CryptoUtil for the encryption mode specified by the configurations
+     * @return the CryptoUtil used to encrypt and decrypt paths
+     */
+    protected CryptoUtil createCryptoUtil() {
+        if (CryptoUtil.MODE_CTR.equals(TaoConfigs.ENCRYPTION_MODE) || CryptoUtil.MODE_GCM.equals(TaoConfigs.ENCRYPTION_MODE)) {
+            return new TaoStreamCryptoUtil(TaoConfigs.ENCRYPTION_MODE);
+        }
+
+        return new TaoCryptoUtil();
+    }
+
+    /**
+     * @brief Method to create the LeafRouter that decides which server holds each leaf
+     * @return the LeafRouter
+     */
+    protected LeafRouter createLeafRouter() {
+        return new TaoLeafRouter(TaoConfigs.PARTITION_SERVERS);
+    }
+
+    /**
+     * @brief Method to create the ProxyCheckpointer if checkpoints are enabled by the configurations
+     * @return the ProxyCheckpointer, or null if checkpoints are disabled
+     */
+    protected ProxyCheckpointer createCheckpointer() {
+        if (TaoConfigs.CHECKPOINT_DIRECTORY == null || TaoConfigs.CHECKPOINT_DIRECTORY.isEmpty()) {
+            return null;
+        }
+
+        return new ProxyCheckpointer(TaoConfigs.CHECKPOINT_DIRECTORY, TaoConfigs.CHECKPOINT_COMPACT_SIZE);
+    }
+
+    /**
+     * @brief Method to create the PositionMap for the type specified by the configurations
+     * @return the PositionMap used to keep track of where blocks are
+     */
+    protected PositionMap createPositionMap() {
+        // By default the position map is sized for every block that fits in the tree
+        long capacity = TaoConfigs.POSITION_MAP_CAPACITY;
+        if (capacity <= 0) {
+            capacity = ((2L << TaoConfigs.TREE_HEIGHT) - 1) * TaoConfigs.BLOCKS_IN_BUCKET;
+        }
+
+        if ("primitive".equals(TaoConfigs.POSITION_MAP_TYPE)) {
+            return new TaoPrimitivePositionMap(mLeafRouter, capacity, TaoConfigs.POSITION_MAP_OFF_HEAP);
+        } else if ("dense".equals(TaoConfigs.POSITION_MAP_TYPE)) {
+            return new TaoDensePositionMap(mLeafRouter, capacity, TaoConfigs.POSITION_MAP_OFF_HEAP);
+        }
+
+        return new TaoPositionMap(mLeafRouter);
+    }
+
+    /**
+     * @brief Function to restore the proxy from its last checkpoint instead of initializing the servers
+     * @return true if a checkpoint was restored, false if the servers still need to be initialized
+     */
+    public boolean restoreCheckpoint() {
+        return mProcessor.restoreCheckpoint();
+    }
+
     @Override
     public void onReceiveRequest(ClientRequest req) {
         // When we receive a request, we first send it to the sequencer
@@ -285,6 +276,9 @@ public class TaoProxy implements Proxy {
             AsynchronousServerSocketChannel channel =
                     AsynchronousServerSocketChannel.open(mThreadGroup).bind(new InetSocketAddress(TaoConfigs.PROXY_PORT));
 
+            // Clients get a virtual thread each if virtual threads are used
+            TaskExecutor clientExecutor = TaskExecutor.useVirtualThreads() ? new TaskExecutor("proxy-client", 0, 0) : null;
+
             // Asynchronously wait for incoming connections
             channel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
                 @Override
@@ -292,9 +286,13 @@ public class TaoProxy implements Proxy {
                     // Start listening for other connections
                     channel.accept(null, this);
 
-                    // Create new thread that will serve the client
-                    Runnable serializeProcedure = () -> serveClient(clientChannel);
-                    new Thread(serializeProcedure).start();
+                    // With virtual threads, each client is served by blocking code on a thread of its own, otherwise
+                    // start serving the client, which only waits for its first request asynchronously
+                    if (clientExecutor != null) {
+                        clientExecutor.execute(() -> serveClientBlocking(clientChannel));
+                    } else {
+                        serveClient(clientChannel);
+                    }
                 }
                 @Override
                 public void failed(Throwable exc, Void att) {
@@ -306,6 +304,86 @@ public class TaoProxy implements Proxy {
         }
     }
 
+    /**
+     * @brief Method to serve a client connection by blocking on each read, for when the connection has a virtual thread
+     * of its own
+     * @param channel
+     */
+    private void serveClientBlocking(AsynchronousSocketChannel channel) {
+        try {
+            while (true) {
+                // Read the message type and size
+                ByteBuffer typeByteBuffer = MessageUtility.createTypeReceiveBuffer();
+                while (typeByteBuffer.remaining() > 0) {
+                    if (channel.read(typeByteBuffer).get() < 0) {
+                        return;
+                    }
+                }
+                typeByteBuffer.flip();
+                int[] typeAndLength = MessageUtility.parseTypeAndLength(typeByteBuffer);
+                int messageType = typeAndLength[0];
+
+                // Read the rest of the message
+                ByteBuffer messageByteBuffer = ByteBuffer.allocate(typeAndLength[1]);
+                while (messageByteBuffer.remaining() > 0) {
+                    if (channel.read(messageByteBuffer).get() < 0) {
+                        return;
+                    }
+                }
+                messageByteBuffer.flip();
+
+                // Serve message based on type
+                if (messageType == MessageTypes.CLIENT_WRITE_REQUEST || messageType == MessageTypes.CLIENT_READ_REQUEST) {
+                    // Create ClientRequest object directly from the read bytes
+                    ClientRequest clientReq = mMessageCreator.parseClientRequestBytes(messageByteBuffer);
+
+                    TaoLogger.logDebug("Proxy will handle client request #" + clientReq.getRequestID());
+
+                    // When we receive a request, we first send it to the sequencer, which replies either on this
+                    // channel or on a channel of its own to the client, then handle it
+                    if (TaoConfigs.REPLY_ON_REQUEST_CHANNEL) {
+                        mSequencer.onReceiveRequest(clientReq, channel);
+                    } else {
+                        mSequencer.onReceiveRequest(clientReq);
+                    }
+                    onReceiveRequest(clientReq);
+                } else if (messageType == MessageTypes.PRINT_SUBTREE) {
+                    // Print the subtree, used for debugging
+                    mSubtree.printSubtree();
+                    return;
+                } else if (messageType == MessageTypes.WRITE_STATS) {
+                    mProfiler.writeStatistics();
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            // A channel that was closed because replies could not be written to it is expected to fail
+            if (channel.isOpen()) {
+                e.printStackTrace();
+            }
+        } finally {
+            closeClient(channel);
+        }
+    }
+
+    /**
+     * @brief Method to stop serving a client connection once the client has closed it or it has failed. If replies are
+     * sent back on the connection, the sequencer closes it once every reply to the client has been sent
+     * @param channel
+     */
+    private void closeClient(AsynchronousSocketChannel channel) {
+        if (TaoConfigs.REPLY_ON_REQUEST_CHANNEL) {
+            mSequencer.onClientDisconnected(channel);
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * @brief Method to serve a client connection
      * @param channel
@@ -321,6 +399,18 @@ public class TaoProxy implements Proxy {
             channel.read(typeByteBuffer, null, new CompletionHandler<Integer, Void>() {
                 @Override
                 public void completed(Integer result, Void attachment) {
+                    // Stop serving the client once it closes the connection
+                    if (result < 0) {
+                        closeClient(channel);
+                        return;
+                    }
+
+                    // Make sure we read the entire header
+                    if (typeByteBuffer.remaining() > 0) {
+                        channel.read(typeByteBuffer, null, this);
+                        return;
+                    }
+
                     // Flip the byte buffer for reading
                     typeByteBuffer.flip();
 
@@ -340,6 +430,12 @@ public class TaoProxy implements Proxy {
                         channel.read(messageByteBuffer, null, new CompletionHandler<Integer, Void>() {
                             @Override
                             public void completed(Integer result, Void attachment) {
+                                // Stop serving the client if it closes the connection partway through a message
+                                if (result < 0) {
+                                    closeClient(channel);
+                                    return;
+                                }
+
                                 // Make sure we read all the bytes
                                 while (messageByteBuffer.remaining() > 0) {
                                     channel.read(messageByteBuffer, null, this);
@@ -349,22 +445,22 @@ public class TaoProxy implements Proxy {
                                 // Flip the byte buffer for reading
                                 messageByteBuffer.flip();
 
-                                // Get the rest of the bytes for the message
-                                byte[] requestBytes = new byte[messageLength];
-                                messageByteBuffer.get(requestBytes);
-
-                                // Create ClientRequest object based on read bytes
-                                ClientRequest clientReq = mMessageCreator.createClientRequest();
-                                clientReq.initFromSerialized(requestBytes);
+                                // Create ClientRequest object directly from the read bytes
+                                ClientRequest clientReq = mMessageCreator.parseClientRequestBytes(messageByteBuffer);
 
                                 TaoLogger.logDebug("Proxy will handle client request #" + clientReq.getRequestID());
 
-                                // When we receive a request, we first send it to the sequencer
-                                mSequencer.onReceiveRequest(clientReq);
+                                // When we receive a request, we first send it to the sequencer, which replies either
+                                // on this channel or on a channel of its own to the client
+                                if (TaoConfigs.REPLY_ON_REQUEST_CHANNEL) {
+                                    mSequencer.onReceiveRequest(clientReq, channel);
+                                } else {
+                                    mSequencer.onReceiveRequest(clientReq);
+                                }
 
-                                // Serve the next client request
-                                Runnable serializeProcedure = () -> serveClient(channel);
-                                new Thread(serializeProcedure).start();
+                                // Serve the next client request, which is read asynchronously so no thread is
+                                // needed to wait for it
+                                serveClient(channel);
 
                                 // Handle request
                                 onReceiveRequest(clientReq);
@@ -372,20 +468,22 @@ public class TaoProxy implements Proxy {
 
                             @Override
                             public void failed(Throwable exc, Void attachment) {
-                                // TODO: implement?
+                                closeClient(channel);
                             }
                         });
 
                     } else if (messageType == MessageTypes.PRINT_SUBTREE) {
                         // Print the subtree, used for debugging
                         mSubtree.printSubtree();
+                        closeClient(channel);
                     } else if (messageType == MessageTypes.WRITE_STATS) {
                         mProfiler.writeStatistics();
+                        closeClient(channel);
                     }
                 }
                 @Override
                 public void failed(Throwable exc, Void attachment) {
-                    return;
+                    closeClient(channel);
                 }
             });
         } catch (Exception e) {
@@ -406,8 +504,10 @@ public class TaoProxy implements Proxy {
             // Create proxy
             TaoProxy proxy = new TaoProxy(new TaoMessageCreator(), new TaoBlockCreator(), new TaoSubtree());
 
-            // Initialize and run server
-            proxy.initializeServer();
+            // Restore from the last checkpoint if there is one, otherwise initialize the servers
+            if (!proxy.restoreCheckpoint()) {
+                proxy.initializeServer();
+            }
             TaoLogger.logForce("Finished init, running proxy");
             proxy.run();
         } catch (Exception e) {
@@ -3,11 +3,8 @@ package TaoProxy;
 import Messages.ClientRequest;
 import Messages.MessageTypes;
 import Messages.ProxyRequest;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
@@ -22,6 +19,15 @@ public class TaoProxyRequest implements ProxyRequest {
     // If mType == 0, this is the path that we are interested in reading
     protected long mReadPathID;
 
+    // If this is a tagged read, this is the ID the response will carry so the proxy can match it to this request
+    protected long mRequestID;
+
+    // If this is a batch read, these are the paths that we are interested in reading, in order
+    protected long[] mReadPathIDs;
+
+    // If this is a format request, this is the index of the first bucket written
+    protected long mFirstBucket;
+
     // Amount of bytes in a path
     protected int mPathSize;
     protected byte[] mDataToWrite;
@@ -33,6 +39,9 @@ public class TaoProxyRequest implements ProxyRequest {
     public TaoProxyRequest() {
         mType = -1;
         mReadPathID = -1;
+        mRequestID = -1;
+        mReadPathIDs = null;
+        mFirstBucket = -1;
         mPathSize = -1;
         mTimestamp = 0;
         mDataToWrite = null;
@@ -40,28 +49,55 @@ public class TaoProxyRequest implements ProxyRequest {
 
     @Override
     public void initFromSerialized(byte[] serialized) {
-        mType = Ints.fromByteArray(Arrays.copyOfRange(serialized, 0, 4));
+        initFromSerialized(ByteBuffer.wrap(serialized));
+    }
+
+    @Override
+    public void initFromSerialized(ByteBuffer serialized) {
+        mType = serialized.getInt();
 
         if (mType == MessageTypes.PROXY_READ_REQUEST) {
-            mReadPathID = Longs.fromByteArray(Arrays.copyOfRange(serialized, 4, 12));
+            mReadPathID = serialized.getLong();
+            mPathSize = -1;
+            mDataToWrite = null;
+        } else if (mType == MessageTypes.PROXY_TAGGED_READ_REQUEST) {
+            mRequestID = serialized.getLong();
+            mReadPathID = serialized.getLong();
+            mPathSize = -1;
+            mDataToWrite = null;
+        } else if (mType == MessageTypes.PROXY_BATCH_READ_REQUEST) {
+            int numPaths = serialized.getInt();
+            mReadPathIDs = new long[numPaths];
+            for (int i = 0; i < numPaths; i++) {
+                mReadPathIDs[i] = serialized.getLong();
+            }
             mPathSize = -1;
             mDataToWrite = null;
         } else if (mType == MessageTypes.PROXY_WRITE_REQUEST || mType == MessageTypes.PROXY_INITIALIZE_REQUEST) {
             // TODO: Change this to not need paths anymore
             mReadPathID = -1;
-            mPathSize = Ints.fromByteArray(Arrays.copyOfRange(serialized, 4, 8));
-            mTimestamp = Longs.fromByteArray(Arrays.copyOfRange(serialized, 8, 16));
-
+            mPathSize = serialized.getInt();
+            mTimestamp = serialized.getLong();
+
+            // The rest of the message is the paths to be written
+            mDataToWrite = new byte[serialized.remaining()];
+            serialized.get(mDataToWrite);
+        } else if (mType == MessageTypes.PROXY_TAGGED_WRITE_REQUEST) {
+            mRequestID = serialized.getLong();
+            mReadPathID = -1;
+            mPathSize = serialized.getInt();
+            mTimestamp = serialized.getLong();
 
-            int serializedIndex = 16;
-            int dataToWriteIndex = 0;
-            mDataToWrite = new byte[serialized.length - serializedIndex];
+            // The rest of the message is the paths to be written
+            mDataToWrite = new byte[serialized.remaining()];
+            serialized.get(mDataToWrite);
+        } else if (mType == MessageTypes.PROXY_FORMAT_REQUEST) {
+            mReadPathID = -1;
+            mFirstBucket = serialized.getLong();
 
-            while (serializedIndex < serialized.length) {
-                System.arraycopy(serialized, serializedIndex, mDataToWrite, dataToWriteIndex, mPathSize);
-                serializedIndex += mPathSize;
-                dataToWriteIndex += mPathSize;
-            }
+            // The rest of the message is the buckets to be written
+            mDataToWrite = new byte[serialized.remaining()];
+            serialized.get(mDataToWrite);
         }
     }
 
@@ -105,6 +141,36 @@ public class TaoProxyRequest implements ProxyRequest {
         mReadPathID = pathID;
     }
 
+    @Override
+    public long getRequestID() {
+        return mRequestID;
+    }
+
+    @Override
+    public void setRequestID(long requestID) {
+        mRequestID = requestID;
+    }
+
+    @Override
+    public long[] getPathIDs() {
+        return mReadPathIDs;
+    }
+
+    @Override
+    public void setPathIDs(long[] pathIDs) {
+        mReadPathIDs = pathIDs;
+    }
+
+    @Override
+    public long getFirstBucket() {
+        return mFirstBucket;
+    }
+
+    @Override
+    public void setFirstBucket(long firstBucket) {
+        mFirstBucket = firstBucket;
+    }
+
     @Override
     public byte[] getDataToWrite() {
         return mDataToWrite;
@@ -142,22 +208,67 @@ public class TaoProxyRequest implements ProxyRequest {
 
     @Override
     public byte[] serialize() {
-        byte[] returnData = null;
+        // Only requests of a known type can be serialized
+        if (getSerializedSize() == 0) {
+            return null;
+        }
 
-        // Serialize based on request type
-        if (mType == MessageTypes.PROXY_READ_REQUEST) {
-            byte[] typeBytes = Ints.toByteArray(mType);
-            byte[] pathBytes = Longs.toByteArray(mReadPathID);
+        byte[] returnData = new byte[getSerializedSize()];
+        serialize(ByteBuffer.wrap(returnData));
+        return returnData;
+    }
 
-            returnData = Bytes.concat(typeBytes, pathBytes);
+    @Override
+    public int getSerializedSize() {
+        // Size based on request type
+        if (mType == MessageTypes.PROXY_READ_REQUEST) {
+            return 4 + 8;
+        } else if (mType == MessageTypes.PROXY_TAGGED_READ_REQUEST) {
+            return 4 + 8 + 8;
+        } else if (mType == MessageTypes.PROXY_BATCH_READ_REQUEST) {
+            return 4 + 4 + 8 * mReadPathIDs.length;
         } else if (mType == MessageTypes.PROXY_WRITE_REQUEST || mType == MessageTypes.PROXY_INITIALIZE_REQUEST) {
-            byte[] typeBytes = Ints.toByteArray(mType);
-            byte[] pathSizeBytes = Ints.toByteArray(mPathSize);
-            byte[] timestampBytes = Longs.toByteArray(mTimestamp);
-
-            returnData = Bytes.concat(typeBytes, pathSizeBytes, timestampBytes, mDataToWrite);
+            return 4 + 4 + 8 + mDataToWrite.length;
+        } else if (mType == MessageTypes.PROXY_TAGGED_WRITE_REQUEST) {
+            return 4 + 8 + 4 + 8 + mDataToWrite.length;
+        } else if (mType == MessageTypes.PROXY_FORMAT_REQUEST) {
+            return 4 + 8 + mDataToWrite.length;
         }
 
-        return returnData;
+        return 0;
+    }
+
+    @Override
+    public void serialize(ByteBuffer buffer) {
+        // Serialize based on request type
+        if (mType == MessageTypes.PROXY_READ_REQUEST) {
+            buffer.putInt(mType);
+            buffer.putLong(mReadPathID);
+        } else if (mType == MessageTypes.PROXY_TAGGED_READ_REQUEST) {
+            buffer.putInt(mType);
+            buffer.putLong(mRequestID);
+            buffer.putLong(mReadPathID);
+        } else if (mType == MessageTypes.PROXY_BATCH_READ_REQUEST) {
+            buffer.putInt(mType);
+            buffer.putInt(mReadPathIDs.length);
+            for (long pathID : mReadPathIDs) {
+                buffer.putLong(pathID);
+            }
+        } else if (mType == MessageTypes.PROXY_WRITE_REQUEST || mType == MessageTypes.PROXY_INITIALIZE_REQUEST) {
+            buffer.putInt(mType);
+            buffer.putInt(mPathSize);
+            buffer.putLong(mTimestamp);
+            buffer.put(mDataToWrite);
+        } else if (mType == MessageTypes.PROXY_TAGGED_WRITE_REQUEST) {
+            buffer.putInt(mType);
+            buffer.putLong(mRequestID);
+            buffer.putInt(mPathSize);
+            buffer.putLong(mTimestamp);
+            buffer.put(mDataToWrite);
+        } else if (mType == MessageTypes.PROXY_FORMAT_REQUEST) {
+            buffer.putInt(mType);
+            buffer.putLong(mFirstBucket);
+            buffer.put(mDataToWrite);
+        }
     }
 }
@@ -3,11 +3,7 @@ package TaoProxy;
 import Configuration.TaoConfigs;
 import Messages.ProxyResponse;
 
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
-
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * @brief Implementation of a class that implements the ProxyResponse message type
@@ -33,14 +29,17 @@ public class TaoProxyResponse implements ProxyResponse {
 
     @Override
     public void initFromSerialized(byte[] serialized) {
-        int startIndex = 0;
-        mClientRequestID = Longs.fromByteArray(Arrays.copyOfRange(serialized, startIndex, startIndex + 8));
-        startIndex += 8;
+        initFromSerialized(ByteBuffer.wrap(serialized));
+    }
+
+    @Override
+    public void initFromSerialized(ByteBuffer serialized) {
+        mClientRequestID = serialized.getLong();
 
-        mReturnData = Arrays.copyOfRange(serialized, startIndex, startIndex + TaoConfigs.BLOCK_SIZE);
-        startIndex += TaoConfigs.BLOCK_SIZE;
+        mReturnData = new byte[TaoConfigs.BLOCK_SIZE];
+        serialized.get(mReturnData);
 
-        int writeStatus = Ints.fromByteArray(Arrays.copyOfRange(serialized, startIndex, startIndex + 4));
+        int writeStatus = serialized.getInt();
         mWriteStatus = writeStatus == 1 ? true : false;
     }
 
@@ -76,9 +75,23 @@ public class TaoProxyResponse implements ProxyResponse {
 
     @Override
     public byte[] serialize() {
-        byte[] clientIDBytes = Longs.toByteArray(mClientRequestID);
+        byte[] returnData = new byte[getSerializedSize()];
+        serialize(ByteBuffer.wrap(returnData));
+        return returnData;
+    }
+
+    @Override
+    public int getSerializedSize() {
+        // Client request ID, returned data, and write status
+        return 8 + mReturnData.length + 4;
+    }
+
+    @Override
+    public void serialize(ByteBuffer buffer) {
+        buffer.putLong(mClientRequestID);
+        buffer.put(mReturnData);
+
         int writeStatusInt = mWriteStatus ? 1 : 0;
-        byte[] writeStatusBytes = Ints.toByteArray(writeStatusInt);
-        return Bytes.concat(clientIDBytes, mReturnData, writeStatusBytes);
+        buffer.putInt(writeStatusInt);
     }
 }
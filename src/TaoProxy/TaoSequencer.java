@@ -2,30 +2,100 @@ package TaoProxy;
 
 import Configuration.TaoConfigs;
 import Messages.*;
-import com.google.common.primitives.Bytes;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * @brief The Sequencer makes sure that replies are sent to the client in the same order that requests were received
+ * @brief The Sequencer makes sure that replies are sent to each client in the same order that the client's requests
+ * were received. Each client has its own queue of requests, so a request that is slow to be answered only holds up the
+ * later requests of the same client. Whichever thread answers the request at the head of a client's queue queues every
+ * reply of that client that is ready to be sent, so the replies of different clients are sent in parallel.
+ *
+ * Replies are sent with asynchronous writes, and replies that are queued while a write is in progress are sent together
+ * in a single gathering write once it finishes. The channel to a client is connected asynchronously, and replies are
+ * queued until it is connected. Replies can also be sent back on the channel a request arrived on, in which case each
+ * channel is its own client, and the client is forgotten and its channel closed once the client disconnects and every
+ * reply to it has been sent.
+ *
+ * If a write to a client fails, its channel is closed. A client that is connected to is connected to again, and the
+ * replies that were not sent are sent on the new channel in the same order. A client that is replied to on the channel
+ * its requests arrived on can not be reached again, so it is forgotten
  */
 public class TaoSequencer implements Sequencer {
-    // Size of request queue
-    protected final static int QUEUE_SIZE = 100000;
+    // The most replies sent in a single write
+    protected final static int MAX_REPLIES_PER_WRITE = 64;
 
-    // Map that will map each request to the value of the requested block
-    // The value will be null if the reply to this request has not yet been received
-    protected Map<ClientRequest, Block> mRequestMap;
+    /**
+     * @brief A request that is waiting for its reply to be sent
+     */
+    protected static class Slot {
+        // The request
+        final ClientRequest mRequest;
+
+        // The data of the reply, set once the reply is ready. Left null if the request failed
+        volatile byte[] mData;
+
+        // Whether the reply is ready, set after mData
+        volatile boolean mReady;
+
+        Slot(ClientRequest request) {
+            mRequest = request;
+        }
+    }
+
+    /**
+     * @brief The requests of a single client
+     */
+    protected static class ClientQueue {
+        // The address of this client
+        final InetSocketAddress mAddress;
+
+        // Whether the sequencer connects to this client, rather than replying on the channel its requests arrive on
+        final boolean mConnectBack;
+
+        // The requests of this client that have not yet been replied to, in the order they were received
+        final Queue<Slot> mSlots = new ConcurrentLinkedQueue<>();
+
+        // Whether a thread is currently queueing replies to this client
+        final AtomicBoolean mSending = new AtomicBoolean();
+
+        // Serialized replies waiting to be written to this client
+        final Deque<ByteBuffer> mOutbound = new ConcurrentLinkedDeque<>();
+
+        // Whether a write to this client is in progress
+        final AtomicBoolean mWriting = new AtomicBoolean();
+
+        // The channel to this client
+        volatile AsynchronousSocketChannel mChannel;
 
-    // Queue of the received requests
-    protected BlockingQueue<ClientRequest> mRequestQueue;
+        // Whether mChannel has finished connecting
+        volatile boolean mConnected;
+
+        // Whether the client has disconnected, so it is forgotten once every reply to it has been sent
+        volatile boolean mDisconnected;
+
+        ClientQueue(InetSocketAddress address, boolean connectBack) {
+            mAddress = address;
+            mConnectBack = connectBack;
+        }
+    }
+
+    // Map that will map each request to the slot it waits in
+    protected Map<ClientRequest, Slot> mRequestMap;
+
+    // Map of each client to its requests and a channel to that client
+    protected Map<InetSocketAddress, ClientQueue> mClients;
 
     // Path and message creators
     protected PathCreator mBlockCreator;
@@ -34,9 +104,6 @@ public class TaoSequencer implements Sequencer {
     // The channel group used for asynchronous socket
     protected AsynchronousChannelGroup mThreadGroup;
 
-    // A map of each client to a channel to that client
-    protected Map<InetSocketAddress, AsynchronousSocketChannel> mChannelMap;
-
     /**
      * @brief Default constructor for the TaoStore Sequencer
      */
@@ -48,21 +115,12 @@ public class TaoSequencer implements Sequencer {
             // Assign path creator
             mBlockCreator = pathCreator;
 
-            // NOTE: ConcurrentHashMap is weakly consistent amongst different threads. Should be fine in this scenario
+            // Initialize the maps of requests and clients
             mRequestMap = new ConcurrentHashMap<>();
-
-            // Initialize the request queue with QUEUE_SIZE
-            mRequestQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
-
-            // Initialize channel map
-            mChannelMap = new HashMap<>();
+            mClients = new ConcurrentHashMap<>();
 
             // Thread group used for asynchronous I/O
             mThreadGroup = AsynchronousChannelGroup.withFixedThreadPool(TaoConfigs.PROXY_THREAD_COUNT, Executors.defaultThreadFactory());
-
-            // Run the serialize procedure in a different thread
-            Runnable serializeProcedure = this::serializationProcedure;
-            new Thread(serializeProcedure).start();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -71,109 +129,357 @@ public class TaoSequencer implements Sequencer {
     @Override
     public void onReceiveRequest(ClientRequest req) {
         try {
-            // Create an empty block with null data
-            Block empty = mBlockCreator.createBlock();
-            empty.setData(null);
+            ClientQueue client = mClients.computeIfAbsent(req.getClientAddress(), address -> new ClientQueue(address, true));
+
+            // If we do not have an existing channel for this client, or the client has restarted, we create a new one
+            if (client.mChannel == null || req.getRequestID() == 0) {
+                connect(client, req.getClientAddress());
+            }
 
-            // Put request and new empty block into request map
-            mRequestMap.put(req, empty);
+            // Add this request to the end of the client's queue
+            Slot slot = new Slot(req);
+            mRequestMap.put(req, slot);
+            client.mSlots.add(slot);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Add this request to the request queue
-            mRequestQueue.add(req);
+    @Override
+    public void onReceiveRequest(ClientRequest req, AsynchronousSocketChannel channel) {
+        try {
+            // Tell this client apart from others on the same host by the address of its end of the channel
+            InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+            req.setClientAddress(address);
+
+            // The channel is already connected, so replies can be written to it right away. If the address belonged to
+            // a client that has since disconnected, replies now go to the new channel
+            ClientQueue client = mClients.computeIfAbsent(address, a -> new ClientQueue(a, false));
+            if (client.mChannel != channel) {
+                client.mChannel = channel;
+                client.mConnected = true;
+                client.mDisconnected = false;
+            }
 
-            // If we do not have an existing channel for this client, we create a new one
-            if (mChannelMap.get(req.getClientAddress()) == null || req.getRequestID() == 0) {
-                // Create channel
-                AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(mThreadGroup);
+            // Add this request to the end of the client's queue
+            Slot slot = new Slot(req);
+            mRequestMap.put(req, slot);
+            client.mSlots.add(slot);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-                // Make and wait for connection
-                Future connection = channel.connect(req.getClientAddress());
-                connection.get();
+    @Override
+    public void onClientDisconnected(AsynchronousSocketChannel channel) {
+        try {
+            // The channel is already closed if writing to it failed, in which case the client was already forgotten
+            if (!channel.isOpen()) {
+                return;
+            }
 
-                // Put channel into map
-                mChannelMap.put(req.getClientAddress(), channel);
+            // Close the channel right away if no replies are to be sent on it
+            ClientQueue client = mClients.get((InetSocketAddress) channel.getRemoteAddress());
+            if (client == null || client.mChannel != channel) {
+                channel.close();
+                return;
             }
+
+            // Otherwise the client is forgotten once every reply has been sent
+            client.mDisconnected = true;
+            releaseIfDone(client);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @brief Method to get the amount of clients the sequencer is keeping requests and a channel for
+     * @return the amount of clients
+     */
+    public int getClientCount() {
+        return mClients.size();
+    }
+
     @Override
     public void onReceiveResponse(ClientRequest req, ServerResponse resp, byte[] data) {
         try {
-            // Create a new block and set the data
-            Block b = mBlockCreator.createBlock();
-            b.setData(data);
-
-            // Replace empty null block with new block and notify serializationProcedure
-            synchronized (mRequestMap) {
-                mRequestMap.replace(req, b);
-                mRequestMap.notify();
+            Slot slot = mRequestMap.remove(req);
+            if (slot == null) {
+                TaoLogger.logError("Sequencer received a response for unknown request " + req.getRequestID());
+                return;
             }
 
+            // Fill in the reply, then send it along with any replies that were waiting for it
+            slot.mData = data;
+            slot.mReady = true;
+            sendReady(req.getClientAddress());
+
             TaoLogger.logDebug("Sequencer finished onReceiveResponse for " + req.getRequestID());
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    @Override
+    public void onFailedRequest(ClientRequest req) {
+        try {
+            Slot slot = mRequestMap.remove(req);
+            if (slot == null) {
+                TaoLogger.logError("Sequencer was told of a failure for unknown request " + req.getRequestID());
+                return;
+            }
+
+            // Mark the reply as ready without any data, then send it along with any replies that were waiting for it
+            slot.mReady = true;
+            sendReady(req.getClientAddress());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void serializationProcedure() {
-        while (true) {
-            try {
-                // Retrieve request from request queue
-                // Blocks if there is no item in queue
-                ClientRequest req = mRequestQueue.take();
-
-                // Wait until the reply for req comes back
-                byte[] check;
-                synchronized (mRequestMap) {
-                    check = mRequestMap.get(req).getData();
-                    while (check == null) {
-                        mRequestMap.wait();
-                        check = mRequestMap.get(req).getData();
-                    }
+        // Send the replies of every client that are ready
+        for (ClientQueue client : mClients.values()) {
+            sendReady(client);
+        }
+    }
+
+    /**
+     * @brief Private helper method to start connecting to a client, without waiting for the connection to be made.
+     * Replies are queued until it is
+     * @param client
+     * @param address
+     */
+    private void connect(ClientQueue client, InetSocketAddress address) throws Exception {
+        // Create channel, and stop using the old channel, if any. The new channel is put in place before the old one
+        // is closed, so a write that fails because of the close puts its replies back for the new channel
+        client.mConnected = false;
+        AsynchronousSocketChannel oldChannel = client.mChannel;
+        AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(mThreadGroup);
+        client.mChannel = channel;
+        if (oldChannel != null) {
+            oldChannel.close();
+        }
+
+        // Connect asynchronously, then write any replies that were queued in the meantime
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void result, Void attachment) {
+                if (client.mChannel == channel) {
+                    client.mConnected = true;
+                    writeNext(client);
                 }
+            }
 
-                TaoLogger.logDebug("1 Sequencer going to send response for " + req.getRequestID() + " that was for blockid " + req.getBlockID() + " hostname " + req.getClientAddress().getHostName());
-
-                // Create a ProxyResponse based on type of request
-                ProxyResponse response = null;
-                if (req.getType() == MessageTypes.CLIENT_READ_REQUEST) {
-                    response = mMessageCreator.createProxyResponse();
-                    response.setClientRequestID(req.getRequestID());
-                    response.setReturnData(mRequestMap.get(req).getData());
-                } else if (req.getType() == MessageTypes.CLIENT_WRITE_REQUEST) {
-                    response = mMessageCreator.createProxyResponse();
-                    response.setClientRequestID(req.getRequestID());
-                    response.setWriteStatus(true);
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                TaoLogger.logError("Sequencer could not connect to client " + address + ": " + exc);
+
+                // The next request from this client will try to connect again
+                if (client.mChannel == channel) {
+                    client.mChannel = null;
                 }
+            }
+        });
+    }
+
+    /**
+     * @brief Private helper method to close the channel of a client that has disconnected and forget the client, once
+     * no replies to it are waiting or being sent
+     * @param client
+     */
+    private void releaseIfDone(ClientQueue client) {
+        // A reply is only moved between the queues or written while one of the flags is set, so the queues are checked
+        // before the flags to not miss a reply that is on its way out
+        if (!client.mDisconnected || !client.mSlots.isEmpty() || !client.mOutbound.isEmpty() || client.mSending.get()
+                || client.mWriting.get()) {
+            return;
+        }
+
+        // Only one thread removes the client, and it closes the channel
+        if (mClients.remove(client.mAddress, client)) {
+            try {
+                client.mChannel.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                // Get channel
-                AsynchronousSocketChannel clientChannel = mChannelMap.get(req.getClientAddress());
+    /**
+     * @brief Private helper method to queue the replies that are ready for a client, if the client is still known. A
+     * client that has been forgotten no longer has a channel to send replies on, so they are dropped
+     * @param address
+     */
+    private void sendReady(InetSocketAddress address) {
+        ClientQueue client = mClients.get(address);
+        if (client != null) {
+            sendReady(client);
+        }
+    }
 
-                // Create a response to send to client
-                byte[] serializedResponse = response.serialize();
-                byte[] header = MessageUtility.createMessageHeaderBytes(MessageTypes.PROXY_RESPONSE, serializedResponse.length);
-                ByteBuffer fullMessage = ByteBuffer.wrap(Bytes.concat(header, serializedResponse));
+    /**
+     * @brief Private helper method to queue the replies at the head of a client's queue that are ready, unless another
+     * thread is already queueing replies to the client
+     * @param client
+     */
+    private void sendReady(ClientQueue client) {
+        while (client.mSending.compareAndSet(false, true)) {
+            Slot head;
+            while ((head = client.mSlots.peek()) != null && head.mReady) {
+                client.mSlots.poll();
+                client.mOutbound.add(createReply(head));
+            }
+            client.mSending.set(false);
 
-                // Make sure only one response is sent at a time
-                synchronized (clientChannel) {
-                    // Send message
-                    while (fullMessage.remaining() > 0) {
-                        Future<Integer> writeResult = clientChannel.write(fullMessage);
-                        writeResult.get();
-                    }
+            // Write the replies that were just queued
+            writeNext(client);
 
-                    // Clear buffer
-                    fullMessage = null;
+            // The head may have become ready after it was checked and before the flag was cleared, in which case the
+            // thread that made it ready may have seen the flag still set and left it to this thread
+            head = client.mSlots.peek();
+            if (head == null || !head.mReady) {
+                return;
+            }
+        }
+    }
 
-                    // Remove request from request map
-                    mRequestMap.remove(req);
-                }
+    /**
+     * @brief Private helper method to create the reply to a request
+     * @param slot
+     * @return the serialized reply, ready to be written
+     */
+    private ByteBuffer createReply(Slot slot) {
+        ClientRequest req = slot.mRequest;
+        TaoLogger.logDebug("Sequencer going to send response for " + req.getRequestID() + " that was for blockid " + req.getBlockID() + " hostname " + req.getClientAddress().getHostName());
+
+        // Create a ProxyResponse based on type of request. The status tells the client whether the request succeeded,
+        // and a failed read is sent without data
+        ProxyResponse response = mMessageCreator.createProxyResponse();
+        response.setClientRequestID(req.getRequestID());
+        if (slot.mData == null) {
+            response.setWriteStatus(false);
+        } else if (req.getType() == MessageTypes.CLIENT_READ_REQUEST) {
+            response.setReturnData(slot.mData);
+            response.setWriteStatus(true);
+        } else if (req.getType() == MessageTypes.CLIENT_WRITE_REQUEST) {
+            response.setWriteStatus(true);
+        }
+
+        // Create a response to send to client
+        ByteBuffer fullMessage = MessageUtility.createMessageBuffer(MessageTypes.PROXY_RESPONSE, response.getSerializedSize());
+        response.serialize(fullMessage);
+        fullMessage.flip();
+        return fullMessage;
+    }
+
+    /**
+     * @brief Private helper method to stop using a channel that a write failed on. A client that is connected to is
+     * connected to again, with the replies that were not completely written put back at the front of its queue in the
+     * same order, while a client that is replied to on the channel its requests arrived on is forgotten
+     * @param client
+     * @param channel
+     * @param buffers the replies of the write that failed
+     */
+    private void onWriteFailed(ClientQueue client, AsynchronousSocketChannel channel, ByteBuffer[] buffers) {
+        client.mConnected = false;
+        try {
+            channel.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        if (client.mConnectBack) {
+            requeue(client, buffers);
+            client.mWriting.set(false);
+
+            // The queued replies are written once the new channel is connected
+            try {
+                connect(client, client.mAddress);
             } catch (Exception e) {
                 e.printStackTrace();
             }
+        } else {
+            // The replies that were not sent, and those still to come, are dropped along with the client
+            mClients.remove(client.mAddress, client);
+            client.mWriting.set(false);
+        }
+    }
+
+    /**
+     * @brief Private helper method to put the replies of a failed write back in front of the client's queue, so they are
+     * sent again on the client's next channel. Only the thread holding the write flag takes replies off the queue, so
+     * the replies go back in front of any that were queued in the meantime. A reply that was partly written is sent
+     * again whole
+     * @param client
+     * @param buffers
+     */
+    private void requeue(ClientQueue client, ByteBuffer[] buffers) {
+        for (int i = buffers.length - 1; i >= 0; i--) {
+            if (buffers[i].remaining() > 0) {
+                buffers[i].rewind();
+                client.mOutbound.addFirst(buffers[i]);
+            }
+        }
+    }
+
+    /**
+     * @brief Private helper method to write every queued reply to a client in a single write, unless a write is already
+     * in progress or the client is not yet connected. Once the write finishes, replies queued in the meantime are written
+     * @param client
+     */
+    private void writeNext(ClientQueue client) {
+        while (client.mConnected && client.mWriting.compareAndSet(false, true)) {
+            // Gather the queued replies
+            List<ByteBuffer> replies = new ArrayList<>();
+            ByteBuffer reply;
+            while (replies.size() < MAX_REPLIES_PER_WRITE && (reply = client.mOutbound.poll()) != null) {
+                replies.add(reply);
+            }
+
+            if (!replies.isEmpty()) {
+                ByteBuffer[] buffers = replies.toArray(new ByteBuffer[0]);
+                AsynchronousSocketChannel channel = client.mChannel;
+                channel.write(buffers, 0, buffers.length, 0, TimeUnit.MILLISECONDS, null, new CompletionHandler<Long, Void>() {
+                    @Override
+                    public void completed(Long result, Void attachment) {
+                        // Make sure we write every reply
+                        for (int i = 0; i < buffers.length; i++) {
+                            if (buffers[i].remaining() > 0) {
+                                channel.write(buffers, i, buffers.length - i, 0, TimeUnit.MILLISECONDS, null, this);
+                                return;
+                            }
+                        }
+
+                        client.mWriting.set(false);
+                        writeNext(client);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        // If the client has since reconnected, write the replies that were not sent on the new channel
+                        if (client.mChannel != channel) {
+                            requeue(client, buffers);
+                            client.mWriting.set(false);
+                            writeNext(client);
+                            return;
+                        }
+
+                        TaoLogger.logError("Sequencer could not write to client " + client.mAddress + ": " + exc);
+                        onWriteFailed(client, channel, buffers);
+                    }
+                });
+                return;
+            }
+
+            // Nothing to write, but a reply may have been queued after the poll and before the flag was cleared
+            client.mWriting.set(false);
+            if (client.mOutbound.isEmpty()) {
+                releaseIfDone(client);
+                return;
+            }
         }
     }
 }
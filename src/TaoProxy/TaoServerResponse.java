@@ -1,11 +1,8 @@
 package TaoProxy;
 
 import Messages.ServerResponse;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * @brief Implementation of a class that implements the ServerResponse message type
@@ -36,16 +33,23 @@ public class TaoServerResponse implements ServerResponse {
 
     @Override
     public void initFromSerialized(byte[] serialized) {
-        int type = Ints.fromByteArray(Arrays.copyOfRange(serialized, 0, 4));
-        mWriteStatus = type == 1 ? true : false;
+        initFromSerialized(ByteBuffer.wrap(serialized));
+    }
 
+    @Override
+    public void initFromSerialized(ByteBuffer serialized) {
         // If the the length of the serialization is greater than 12, this was a read request
-        if (serialized.length > 12) {
-            mProcessingTime = Longs.fromByteArray(Arrays.copyOfRange(serialized, 4, 12));
-            mPathID = Longs.fromByteArray(Arrays.copyOfRange(serialized, 12, 20));
-            mEncryptedPath = Arrays.copyOfRange(serialized, 20, serialized.length);
+        boolean isRead = serialized.remaining() > 12;
+
+        int type = serialized.getInt();
+        mWriteStatus = type == 1 ? true : false;
+        mProcessingTime = serialized.getLong();
+
+        if (isRead) {
+            mPathID = serialized.getLong();
+            mEncryptedPath = new byte[serialized.remaining()];
+            serialized.get(mEncryptedPath);
         } else {
-            mProcessingTime = Longs.fromByteArray(Arrays.copyOfRange(serialized, 4, 12));
             mEncryptedPath = null;
         }
     }
@@ -92,15 +96,30 @@ public class TaoServerResponse implements ServerResponse {
 
     @Override
     public byte[] serialize() {
+        byte[] returnData = new byte[getSerializedSize()];
+        serialize(ByteBuffer.wrap(returnData));
+        return returnData;
+    }
+
+    @Override
+    public int getSerializedSize() {
+        // Write status and processing time, followed by the path ID and path if this is a response to a read
+        int size = 4 + 8;
+        if (mEncryptedPath != null) {
+            size += 8 + mEncryptedPath.length;
+        }
+        return size;
+    }
+
+    @Override
+    public void serialize(ByteBuffer buffer) {
         int writeInt = mWriteStatus ? 1 : 0;
-        byte[] writeBytes = Ints.toByteArray(writeInt);
-        byte[] processingTimeBytes = Longs.toByteArray(mProcessingTime);
+        buffer.putInt(writeInt);
+        buffer.putLong(mProcessingTime);
 
         if (mEncryptedPath != null) {
-            byte[] pathIDBytes = Longs.toByteArray(mPathID);
-            return Bytes.concat(writeBytes, processingTimeBytes, pathIDBytes, mEncryptedPath);
-        } else {
-            return Bytes.concat(writeBytes, processingTimeBytes);
+            buffer.putLong(mPathID);
+            buffer.put(mEncryptedPath);
         }
     }
 }
@@ -1,39 +1,123 @@
 package TaoProxy;
 
-import java.util.ArrayList;
-import java.util.List;
+import Configuration.TaoConfigs;
+
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
 
 /**
- * @brief Implementation of a class that implements the Stash interface, which holds blocks for proxy
+ * @brief Implementation of a class that implements the Stash interface, which holds blocks for proxy. Besides the map
+ * of blocks, the stash keeps an index of the blocks by the path they are assigned to, ordered by path ID. The paths
+ * that share at least a given amount of levels with a path all share the same leading bits, so the blocks that can be
+ * placed at some level of a path are found in a single range of the index instead of by looking at every block.
+ *
+ * As a stash that keeps growing is the first sign that the ORAM is close to overflowing, the stash keeps track of the
+ * most blocks it has held and a histogram of its size, and can be given a capacity that new requests wait for it to be
+ * under. The blocks of a path being flushed only pass through the stash on their way back to the path, so they are left
+ * out of its size until the flush is done and leaves them in the stash
  */
 public class TaoStash implements Stash {
+    // The amount of milliseconds between checks of whether a request waiting for the stash to shrink may proceed
+    private static final long CAPACITY_CHECK_INTERVAL = 10;
+
     public ConcurrentMap<Long, Block> mStash;
 
+    // Map from each path ID to the IDs of the blocks in the stash that are assigned to it. Blocks that are not yet
+    // assigned a path are kept under -1
+    protected TreeMap<Long, Set<Long>> mLeafIndex;
+
+    // Map from the ID of each block in the stash to the path ID it is kept under in mLeafIndex
+    protected Map<Long, Long> mIndexedLeaves;
+
+    // The position map, used to find the path of each block
+    protected PositionMap mPositionMap;
+
+    // The IDs of the blocks of paths being flushed that have not been placed or kept yet, and how many there are, so the
+    // size can be read without the lock
+    protected Set<Long> mFlushedBlocks;
+    protected AtomicInteger mFlushedCount;
+
+    // The most blocks new requests let the stash hold, or 0 for no limit
+    protected int mCapacity;
+
+    // The most blocks the stash has held at once
+    protected int mHighWaterMark;
+
+    // The amount of times the stash was seen holding each range of sizes, by powers of two
+    protected AtomicLongArray mSizeHistogram;
+
+    // The amount of requests that had to wait for the stash to shrink
+    protected AtomicLong mWaitCount;
+
     /**
-     * @brief Default constructor
+     * @brief Constructor for a stash without a capacity
+     * @param positionMap
      */
-    public TaoStash() {
+    public TaoStash(PositionMap positionMap) {
+        this(positionMap, 0);
+    }
+
+    /**
+     * @brief Constructor
+     * @param positionMap
+     * @param capacity the most blocks new requests let the stash hold, or 0 for no limit
+     */
+    public TaoStash(PositionMap positionMap, int capacity) {
         mStash = new ConcurrentHashMap<>();
+        mLeafIndex = new TreeMap<>();
+        mIndexedLeaves = new HashMap<>();
+        mFlushedBlocks = new HashSet<>();
+        mFlushedCount = new AtomicInteger();
+        mPositionMap = positionMap;
+        mCapacity = capacity;
+        mSizeHistogram = new AtomicLongArray(Integer.SIZE + 1);
+        mWaitCount = new AtomicLong();
     }
 
     @Override
     public List<Block> getAllBlocks() {
-        ArrayList<Block> allBlocks = new ArrayList<>();
-        for (Long key : mStash.keySet()) {
-            allBlocks.add(mStash.get(key));
-        }
-
-        return allBlocks;
+        return new ArrayList<>(mStash.values());
     }
 
     @Override
     public void addBlock(Block b) {
-        mStash.put(b.getBlockID(), b);
+        synchronized (mLeafIndex) {
+            mStash.put(b.getBlockID(), b);
+            index(b.getBlockID());
+            mHighWaterMark = Math.max(mHighWaterMark, getSize());
+        }
         TaoLogger.logBlock(b.getBlockID(), "Stash add");
     }
 
+    @Override
+    public void addFlushedBlock(Block b) {
+        synchronized (mLeafIndex) {
+            // A block that was already in the stash keeps counting towards its size
+            if (mStash.put(b.getBlockID(), b) == null && mFlushedBlocks.add(b.getBlockID())) {
+                mFlushedCount.incrementAndGet();
+            }
+            index(b.getBlockID());
+        }
+        TaoLogger.logBlock(b.getBlockID(), "Stash add flushed");
+    }
+
+    @Override
+    public void keepFlushedBlocks(List<Block> blocks) {
+        synchronized (mLeafIndex) {
+            for (Block b : blocks) {
+                if (mFlushedBlocks.remove(b.getBlockID())) {
+                    mFlushedCount.decrementAndGet();
+                }
+            }
+            mHighWaterMark = Math.max(mHighWaterMark, getSize());
+        }
+    }
+
     @Override
     public Block getBlock(long blockID) {
         return mStash.getOrDefault(blockID, null);
@@ -41,9 +125,167 @@ public class TaoStash implements Stash {
 
     @Override
     public void removeBlock(Block b) {
-        if (mStash.containsKey(b.getBlockID())) {
-            mStash.remove(b.getBlockID());
-            TaoLogger.logBlock(b.getBlockID(), "Stash remove");
+        synchronized (mLeafIndex) {
+            if (mStash.remove(b.getBlockID()) != null) {
+                unindex(b.getBlockID());
+                if (mFlushedBlocks.remove(b.getBlockID())) {
+                    mFlushedCount.decrementAndGet();
+                }
+                TaoLogger.logBlock(b.getBlockID(), "Stash remove");
+
+                // Wake up requests waiting for the stash to shrink
+                if (mCapacity > 0 && getSize() < mCapacity) {
+                    mLeafIndex.notifyAll();
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<Block> getBlocksForLevel(long pathID, int level, int max) {
+        // The paths that share at least level levels with pathID are those with the same leading level bits
+        int shift = TaoConfigs.TREE_HEIGHT - level;
+        long firstPath = (pathID >> shift) << shift;
+        long lastPath = firstPath + (1L << shift) - 1;
+
+        List<Block> blocks = new ArrayList<>();
+        synchronized (mLeafIndex) {
+            // Blocks whose path changed since they were indexed, to be moved once we are done going through the index
+            List<Long> moved = new ArrayList<>();
+
+            for (Map.Entry<Long, Set<Long>> entry : mLeafIndex.subMap(firstPath, true, lastPath, true).entrySet()) {
+                if (blocks.size() == max) {
+                    break;
+                }
+                for (Long blockID : entry.getValue()) {
+                    if (blocks.size() == max) {
+                        break;
+                    }
+
+                    // Only return blocks that are still assigned to the path they are indexed under
+                    if (mPositionMap.getBlockPosition(blockID) != entry.getKey()) {
+                        moved.add(blockID);
+                        continue;
+                    }
+                    blocks.add(mStash.get(blockID));
+                }
+            }
+
+            for (Long blockID : moved) {
+                index(blockID);
+            }
+        }
+
+        return blocks;
+    }
+
+    @Override
+    public void updateBlockPosition(long blockID) {
+        synchronized (mLeafIndex) {
+            if (mStash.containsKey(blockID)) {
+                index(blockID);
+            }
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return Math.max(0, mStash.size() - mFlushedCount.get());
+    }
+
+    @Override
+    public int getHighWaterMark() {
+        synchronized (mLeafIndex) {
+            return mHighWaterMark;
+        }
+    }
+
+    @Override
+    public void sampleSize() {
+        int size = getSize();
+        mSizeHistogram.incrementAndGet(Integer.SIZE - Integer.numberOfLeadingZeros(size));
+    }
+
+    @Override
+    public long[] getSizeHistogram() {
+        long[] histogram = new long[mSizeHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = mSizeHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public void awaitCapacity(BooleanSupplier mayProceed) {
+        if (mCapacity <= 0 || getSize() < mCapacity) {
+            return;
+        }
+
+        mWaitCount.incrementAndGet();
+        try {
+            synchronized (mLeafIndex) {
+                while (getSize() >= mCapacity && !mayProceed.getAsBoolean()) {
+                    mLeafIndex.wait(CAPACITY_CHECK_INTERVAL);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        // Only show the histogram up to the largest size seen
+        long[] histogram = getSizeHistogram();
+        int end = histogram.length;
+        while (end > 1 && histogram[end - 1] == 0) {
+            end--;
+        }
+        return "stash: size=" + getSize() + " highWaterMark=" + getHighWaterMark() + " capacity=" + mCapacity
+                + " waits=" + mWaitCount.get() + " histogram=" + Arrays.toString(Arrays.copyOf(histogram, end));
+    }
+
+    /**
+     * @brief Private helper method to index a block in the stash under its current path, moving it if it was indexed
+     * under another one. Must be called while holding the lock on mLeafIndex
+     * @param blockID
+     */
+    private void index(long blockID) {
+        long leaf = mPositionMap.getBlockPosition(blockID);
+        Long oldLeaf = mIndexedLeaves.put(blockID, leaf);
+        if (oldLeaf != null) {
+            if (oldLeaf == leaf) {
+                return;
+            }
+            removeFromLeaf(oldLeaf, blockID);
+        }
+        mLeafIndex.computeIfAbsent(leaf, l -> new LinkedHashSet<>()).add(blockID);
+    }
+
+    /**
+     * @brief Private helper method to remove a block from the index. Must be called while holding the lock on
+     * mLeafIndex
+     * @param blockID
+     */
+    private void unindex(long blockID) {
+        Long leaf = mIndexedLeaves.remove(blockID);
+        if (leaf != null) {
+            removeFromLeaf(leaf, blockID);
+        }
+    }
+
+    /**
+     * @brief Private helper method to remove a block from the set of blocks of a path, dropping the set once it is empty
+     * @param leaf
+     * @param blockID
+     */
+    private void removeFromLeaf(long leaf, long blockID) {
+        Set<Long> blocks = mLeafIndex.get(leaf);
+        if (blocks != null) {
+            blocks.remove(blockID);
+            if (blocks.isEmpty()) {
+                mLeafIndex.remove(leaf);
+            }
         }
     }
 }
@@ -0,0 +1,111 @@
+package TaoProxy;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * @brief CryptoUtil that encrypts buckets with AES in counter based mode, either CTR or GCM. Neither mode pads, so an
+ * encrypted bucket is only as large as the bucket plus its nonce, and with GCM an authentication tag that is checked
+ * when the bucket is decrypted. Each bucket is encrypted with a fresh random nonce, written in front of it
+ */
+public class TaoStreamCryptoUtil extends TaoCryptoUtil {
+    // The size of the nonce written in front of each encrypted bucket
+    public static final int NONCE_SIZE = 12;
+
+    // The size of the authentication tag GCM adds to the end of each encrypted bucket
+    public static final int TAG_SIZE = 16;
+
+    // Either CryptoUtil.MODE_CTR or CryptoUtil.MODE_GCM
+    private String mMode;
+
+    /**
+     * @brief Constructor
+     * @param mode
+     */
+    public TaoStreamCryptoUtil(String mode) {
+        super();
+        mMode = mode;
+    }
+
+    /**
+     * @brief Constructor that takes in a pre-made secret key
+     * @param key
+     * @param mode
+     */
+    public TaoStreamCryptoUtil(SecretKey key, String mode) {
+        super(key);
+        mMode = mode;
+    }
+
+    /**
+     * @brief Get the size data will be once it is encrypted with the given mode
+     * @param mode
+     * @param length
+     * @return the size of the nonce, encrypted data and tag
+     */
+    public static int getEncryptedSize(String mode, int length) {
+        if (mode.equals(MODE_GCM)) {
+            return NONCE_SIZE + length + TAG_SIZE;
+        }
+        return NONCE_SIZE + length;
+    }
+
+    @Override
+    protected String getTransformation() {
+        return mMode.equals(MODE_GCM) ? "AES/GCM/NoPadding" : "AES/CTR/NoPadding";
+    }
+
+    @Override
+    protected int getEncryptedSize(int length) {
+        return getEncryptedSize(mMode, length);
+    }
+
+    /**
+     * @brief Private helper method to make the cipher parameters for a nonce
+     * @param data
+     * @param offset
+     * @return the parameters to initialize a cipher with
+     */
+    private AlgorithmParameterSpec getParameters(byte[] data, int offset) {
+        if (mMode.equals(MODE_GCM)) {
+            return new GCMParameterSpec(TAG_SIZE * 8, data, offset, NONCE_SIZE);
+        }
+
+        // The counter block is the nonce followed by a block counter that starts at 0
+        byte[] counterBlock = new byte[16];
+        System.arraycopy(data, offset, counterBlock, 0, NONCE_SIZE);
+        return new IvParameterSpec(counterBlock);
+    }
+
+    @Override
+    protected int encrypt(byte[] data, int offset, int length, byte[] dest, int destOffset) throws Exception {
+        // Write a new nonce in front of the encrypted data
+        byte[] nonce = new byte[NONCE_SIZE];
+        getRandom().nextBytes(nonce);
+        System.arraycopy(nonce, 0, dest, destOffset, NONCE_SIZE);
+
+        // Encrypt the whole bucket in one call
+        Cipher c = acquireCipher();
+        try {
+            c.init(Cipher.ENCRYPT_MODE, mKeySpec, getParameters(nonce, 0));
+            return NONCE_SIZE + c.doFinal(data, offset, length, dest, destOffset + NONCE_SIZE);
+        } finally {
+            releaseCipher(c);
+        }
+    }
+
+    @Override
+    protected int decrypt(byte[] data, int offset, int length, byte[] dest, int destOffset) throws Exception {
+        // With GCM, this will throw an AEADBadTagException if the data was modified
+        Cipher c = acquireCipher();
+        try {
+            c.init(Cipher.DECRYPT_MODE, mKeySpec, getParameters(data, offset));
+            return c.doFinal(data, offset + NONCE_SIZE, length - NONCE_SIZE, dest, destOffset);
+        } finally {
+            releaseCipher(c);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package TaoProxy;
 import Configuration.TaoConfigs;
 import Configuration.Utility;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -471,6 +474,97 @@ public class TaoSubtree implements Subtree {
         currentBucket.clearBucket();
     }
 
+    @Override
+    public void writeCheckpoint(DataOutput out) throws IOException {
+        // Write whether there is a root, followed by every bucket in preorder
+        SubtreeBucket root = mRoot;
+        out.writeBoolean(root != null);
+        if (root != null) {
+            writeCheckpointBucket(out, root);
+        }
+    }
+
+    /**
+     * @brief Private helper method to write a bucket and its descendants to a checkpoint
+     * @param out
+     * @param bucket
+     */
+    private void writeCheckpointBucket(DataOutput out, SubtreeBucket bucket) throws IOException {
+        // Write which children the bucket has, followed by the bucket itself
+        SubtreeBucket left = bucket.getLeft();
+        SubtreeBucket right = bucket.getRight();
+        out.writeByte((left != null ? 1 : 0) | (right != null ? 2 : 0));
+        out.write(bucket.serialize());
+
+        if (left != null) {
+            writeCheckpointBucket(out, left);
+        }
+        if (right != null) {
+            writeCheckpointBucket(out, right);
+        }
+    }
+
+    @Override
+    public List<Long> readCheckpoint(DataInput in) throws IOException {
+        // Set up the top of the tree, then replace the tree with the one from the checkpoint
+        initRoot();
+        mBlockMap.clear();
+
+        List<Long> pathIDs = new ArrayList<>();
+        if (in.readBoolean()) {
+            int children = in.readByte();
+            SubtreeBucket root = new TaoSubtreeBucket(readCheckpointBucket(in), 0);
+            readCheckpointChildren(in, root, children, 0, 0, pathIDs);
+            mRoot = root;
+        }
+
+        return pathIDs;
+    }
+
+    /**
+     * @brief Private helper method to read a single bucket from a checkpoint
+     * @param in
+     * @return the bucket
+     */
+    private Bucket readCheckpointBucket(DataInput in) throws IOException {
+        byte[] serialized = new byte[TaoConfigs.BUCKET_SIZE];
+        in.readFully(serialized);
+        Bucket bucket = new TaoBucket();
+        bucket.initFromSerialized(serialized);
+        return bucket;
+    }
+
+    /**
+     * @brief Private helper method to map the blocks of a bucket read from a checkpoint, then read its descendants
+     * @param in
+     * @param bucket
+     * @param children which children the bucket has
+     * @param level
+     * @param pathID the ID of the path so far, where each level is one bit
+     * @param pathIDs the list that complete paths are added to
+     */
+    private void readCheckpointChildren(DataInput in, SubtreeBucket bucket, int children, int level, long pathID, List<Long> pathIDs) throws IOException {
+        for (Block b : bucket.getFilledBlocks()) {
+            mBlockMap.put(b.getBlockID(), bucket);
+        }
+
+        // A bucket at the bottom of the tree ends a complete path
+        if (level == TaoConfigs.TREE_HEIGHT) {
+            pathIDs.add(pathID);
+        }
+
+        if ((children & 1) != 0) {
+            int childChildren = in.readByte();
+            bucket.setLeft(readCheckpointBucket(in), level + 1);
+            readCheckpointChildren(in, bucket.getLeft(), childChildren, level + 1, pathID << 1, pathIDs);
+        }
+        if ((children & 2) != 0) {
+            int childChildren = in.readByte();
+            bucket.setRight(readCheckpointBucket(in), level + 1);
+            readCheckpointChildren(in, bucket.getRight(), childChildren, level + 1, (pathID << 1) | 1, pathIDs);
+        }
+    }
+
     @Override
     public void printSubtree() {
         // Print tree for debugging
@@ -0,0 +1,232 @@
+package TaoProxy;
+
+import Configuration.TaoConfigs;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief Executor that runs the tasks started while serving requests on a pool of reused threads, instead of a new
+ * thread per task. A pool either has a fixed amount of threads and a bounded queue, where a task that finds the queue
+ * full is run by the thread that submits it so that submitters are slowed down instead of tasks piling up, or has no
+ * bound and only reuses idle threads. The latter is for tasks that may block for a long time, such as waiting for the
+ * next message on a connection, where a bound could leave every thread waiting on an idle connection.
+ *
+ * If virtual threads are enabled and the JVM supports them, every executor instead runs each task on a new virtual
+ * thread, so tasks never wait in a queue and blocking in a task only holds up that task. Virtual threads are created
+ * through reflection, so this still builds and runs on JVMs without them, which fall back to platform threads.
+ *
+ * Every executor keeps track of how many tasks are queued and running, and the stats of every executor can be logged
+ * periodically, along with the stats of any other component that adds itself as a stats source
+ */
+public class TaskExecutor implements Executor {
+    // The ways tasks can be run
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    // The amount of seconds an idle thread is kept before it exits
+    private static final long KEEP_ALIVE_TIME = 60;
+
+    // Whether tasks are run on virtual threads, decided the first time it is needed
+    private static Boolean sUseVirtualThreads;
+
+    // Every executor that has been created, so their stats can be logged together
+    private static final List<TaskExecutor> sExecutors = new CopyOnWriteArrayList<>();
+
+    // Other components whose stats are logged along with those of the executors
+    private static final List<Object> sStatsSources = new CopyOnWriteArrayList<>();
+
+    // Logs the stats of every executor, created once stats are first enabled
+    private static ScheduledExecutorService sStatsLogger;
+
+    // The name of this executor, used to name its threads and in its stats
+    protected String mName;
+
+    // The pool that runs the tasks
+    protected ThreadPoolExecutor mPool;
+
+    // The largest amount of tasks that have been queued at once
+    protected AtomicInteger mMaxQueued;
+
+    // The amount of tasks that were run by their submitter because the queue was full
+    protected AtomicInteger mCallerRuns;
+
+    /**
+     * @brief Constructor
+     * @param name
+     * @param threads the amount of threads, or 0 for as many as are needed
+     * @param queueSize the most tasks that can be queued while every thread is busy, ignored if threads is 0
+     */
+    public TaskExecutor(String name, int threads, int queueSize) {
+        mName = name;
+        mMaxQueued = new AtomicInteger();
+        mCallerRuns = new AtomicInteger();
+
+        // Name each thread after the executor
+        ThreadFactory threadFactory = createThreadFactory(name);
+
+        if (useVirtualThreads()) {
+            // Start a new virtual thread for every task, as they are cheap enough not to be kept around
+            mPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+        } else if (threads > 0) {
+            // Run the task on the submitting thread if the queue is full
+            RejectedExecutionHandler onFull = (r, executor) -> {
+                if (!executor.isShutdown()) {
+                    mCallerRuns.incrementAndGet();
+                    r.run();
+                }
+            };
+            mPool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Math.max(1, queueSize)), threadFactory, onFull);
+            mPool.allowCoreThreadTimeOut(true);
+        } else {
+            // Hand each task straight to an idle thread, or start a new one if none are idle
+            mPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), threadFactory);
+        }
+
+        sExecutors.add(this);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        mPool.execute(task);
+
+        // Keep track of the longest the queue has been
+        int queued = mPool.getQueue().size();
+        if (queued > mMaxQueued.get()) {
+            mMaxQueued.accumulateAndGet(queued, Math::max);
+        }
+    }
+
+    /**
+     * @brief Method to get the amount of tasks waiting for a thread
+     * @return the amount of queued tasks
+     */
+    public int getQueued() {
+        return mPool.getQueue().size();
+    }
+
+    /**
+     * @brief Method to get the largest amount of tasks that have waited for a thread at once
+     * @return the largest amount of queued tasks
+     */
+    public int getMaxQueued() {
+        return mMaxQueued.get();
+    }
+
+    /**
+     * @brief Method to get the amount of tasks that are currently running
+     * @return the amount of running tasks
+     */
+    public int getActive() {
+        return mPool.getActiveCount();
+    }
+
+    /**
+     * @brief Method to get the amount of tasks that were run by their submitter because the queue was full
+     * @return the amount of tasks run by their submitter
+     */
+    public int getCallerRuns() {
+        return mCallerRuns.get();
+    }
+
+    /**
+     * @brief Method to stop the executor, letting tasks that were already submitted finish
+     */
+    public void shutdown() {
+        mPool.shutdown();
+        sExecutors.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": threads=" + mPool.getPoolSize() + " active=" + getActive() + " queued=" + getQueued()
+                + " maxQueued=" + getMaxQueued() + " completed=" + mPool.getCompletedTaskCount()
+                + " callerRuns=" + getCallerRuns();
+    }
+
+    /**
+     * @brief Method to check if tasks are run on virtual threads, which is the case if they are enabled in the
+     * configuration and the JVM supports them
+     * @return true if tasks are run on virtual threads
+     */
+    public static synchronized boolean useVirtualThreads() {
+        if (sUseVirtualThreads == null) {
+            sUseVirtualThreads = false;
+            if (MODE_VIRTUAL.equals(TaoConfigs.THREAD_MODE)) {
+                if (createVirtualThreadFactory("probe") != null) {
+                    sUseVirtualThreads = true;
+                } else {
+                    TaoLogger.logError("Virtual threads are not supported by this JVM, using platform threads");
+                }
+            }
+        }
+        return sUseVirtualThreads;
+    }
+
+    /**
+     * @brief Method to create a factory for the threads that run tasks, which creates virtual threads if they are used
+     * @param name the prefix of the name of each thread
+     * @return the thread factory
+     */
+    public static ThreadFactory createThreadFactory(String name) {
+        if (useVirtualThreads()) {
+            return createVirtualThreadFactory(name);
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        return r -> new Thread(r, name + "-" + threadNumber.incrementAndGet());
+    }
+
+    /**
+     * @brief Method to create a factory for virtual threads, done through reflection as virtual threads are not part
+     * of the Java version this is built for
+     * @param name the prefix of the name of each thread
+     * @return the thread factory, or null if the JVM does not support virtual threads
+     */
+    public static ThreadFactory createVirtualThreadFactory(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @brief Method to add a component whose stats, as given by its toString, are logged along with those of the
+     * executors
+     * @param source
+     */
+    public static void addStatsSource(Object source) {
+        sStatsSources.add(source);
+    }
+
+    /**
+     * @brief Method to start logging the stats of every executor periodically. Does nothing if already started
+     * @param intervalSeconds the amount of seconds between logs, or 0 to not log stats
+     */
+    public static synchronized void logStats(long intervalSeconds) {
+        if (intervalSeconds <= 0 || sStatsLogger != null) {
+            return;
+        }
+
+        sStatsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "executor-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sStatsLogger.scheduleAtFixedRate(() -> {
+            for (TaskExecutor executor : sExecutors) {
+                TaoLogger.logForce(executor.toString());
+            }
+            for (Object source : sStatsSources) {
+                TaoLogger.logForce(source.toString());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,60 @@
+package TaoProxyTest;
+
+import Messages.ClientRequest;
+import Messages.MessageTypes;
+import TaoProxy.PendingRequests;
+import TaoProxy.TaoClientRequest;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class PendingRequestsTest {
+    /**
+     * @brief Create a read request for a block
+     * @param requestID
+     * @param blockID
+     * @return the request
+     */
+    private ClientRequest createRequest(long requestID, long blockID) {
+        ClientRequest request = new TaoClientRequest();
+        request.setType(MessageTypes.CLIENT_READ_REQUEST);
+        request.setRequestID(requestID);
+        request.setBlockID(blockID);
+        request.setClientAddress(new InetSocketAddress("127.0.0.1", 12345));
+        return request;
+    }
+
+    @Test
+    public void testStates() {
+        PendingRequests pending = new PendingRequests();
+        ClientRequest first = createRequest(0, 7);
+        ClientRequest second = createRequest(1, 7);
+        ClientRequest other = createRequest(2, 8);
+
+        // The first request for an idle block does the real read, later ones do fake reads
+        assertTrue(pending.add(first));
+        assertFalse(pending.add(second));
+        assertTrue(pending.add(other));
+        assertEquals(2, pending.size());
+
+        // Requests are answered in order, and the first stays pending until it is removed
+        assertEquals(first, pending.peek(7));
+        assertEquals(second, pending.removeAndPeek(7));
+
+        // A request that arrives while the block is still being answered is a fake read that is answered with it
+        ClientRequest third = createRequest(3, 7);
+        assertFalse(pending.add(third));
+        assertEquals(third, pending.removeAndPeek(7));
+
+        // Once every request is answered the block is idle again and its entry is released
+        assertNull(pending.removeAndPeek(7));
+        assertNull(pending.peek(7));
+        assertEquals(1, pending.size());
+        assertTrue(pending.add(createRequest(4, 7)));
+    }
+}
@@ -0,0 +1,98 @@
+package TaoProxyTest;
+
+import TaoProxy.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ProxyCheckpointerTest {
+    /**
+     * @brief Delete a checkpoint directory
+     * @param directory
+     */
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * @brief Log positions through two checkpoints and some changes after the last one, then restore into a new
+     * position map
+     * @param compactSize
+     */
+    private void checkRestore(long compactSize) throws Exception {
+        File directory = Files.createTempDirectory("checkpoint").toFile();
+        try {
+            ProxyCheckpointer checkpointer = new ProxyCheckpointer(directory.getPath(), compactSize);
+            PositionMap positionMap = checkpointer.logPositions(new TaoPrimitivePositionMap(0, false));
+            assertFalse(checkpointer.hasCheckpoint());
+            checkpointer.reset();
+
+            // First checkpoint
+            for (long blockID = 0; blockID < 1000; blockID++) {
+                positionMap.setBlockPosition(blockID, blockID % 64);
+            }
+            checkpointer.commit(checkpointer.mark(), new byte[]{1});
+
+            // Second checkpoint, which moves some blocks
+            for (long blockID = 0; blockID < 1000; blockID += 2) {
+                positionMap.setBlockPosition(blockID, 63);
+            }
+            positionMap.setBlockPosition(5000, 7);
+            ProxyCheckpointer.Mark mark = checkpointer.mark();
+
+            // Changes after the mark do not belong to the checkpoint
+            positionMap.setBlockPosition(1, 0);
+            positionMap.setBlockPosition(6000, 0);
+            checkpointer.commit(mark, new byte[]{2, 3});
+            positionMap.setBlockPosition(3, 0);
+
+            // Restore into a new position map
+            ProxyCheckpointer restoredCheckpointer = new ProxyCheckpointer(directory.getPath(), compactSize);
+            PositionMap restoredMap = restoredCheckpointer.logPositions(new TaoPrimitivePositionMap(0, false));
+            assertTrue(restoredCheckpointer.hasCheckpoint());
+            assertTrue(Arrays.equals(new byte[]{2, 3}, restoredCheckpointer.restore()));
+
+            for (long blockID = 0; blockID < 1000; blockID++) {
+                assertEquals(blockID % 2 == 0 ? 63 : blockID % 64, restoredMap.getBlockPosition(blockID));
+            }
+            assertEquals(7, restoredMap.getBlockPosition(5000));
+            assertEquals(-1, restoredMap.getBlockPosition(6000));
+
+            // The restored checkpointer continues logging from the checkpoint
+            restoredMap.setBlockPosition(5000, 9);
+            restoredCheckpointer.commit(restoredCheckpointer.mark(), new byte[0]);
+            ProxyCheckpointer twiceRestoredCheckpointer = new ProxyCheckpointer(directory.getPath(), compactSize);
+            PositionMap twiceRestoredMap = twiceRestoredCheckpointer.logPositions(new TaoPositionMap());
+            twiceRestoredCheckpointer.restore();
+            assertEquals(9, twiceRestoredMap.getBlockPosition(5000));
+            assertEquals(1, twiceRestoredMap.getBlockPosition(1));
+            assertEquals(3, twiceRestoredMap.getBlockPosition(3));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testRestoreFromLog() throws Exception {
+        checkRestore(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testRestoreFromSnapshot() throws Exception {
+        // Compact at every checkpoint
+        checkRestore(0);
+    }
+}
@@ -0,0 +1,161 @@
+package TaoProxyTest;
+
+import Configuration.TaoConfigs;
+import Messages.MessageCreator;
+import Messages.MessageTypes;
+import Messages.ProxyRequest;
+import Messages.ServerResponse;
+import TaoProxy.MessageUtility;
+import TaoProxy.ServerConnectionPool;
+import TaoProxy.TaoMessageCreator;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ServerConnectionPoolTest {
+    @Test
+    public void testReadTimesOut() throws Exception {
+        TaoConfigs.initConfiguration();
+        AsynchronousChannelGroup threadGroup = AsynchronousChannelGroup.withFixedThreadPool(1, Executors.defaultThreadFactory());
+
+        // A server that accepts connections but never answers
+        try (ServerSocket server = new ServerSocket(0, 50, null)) {
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+            ServerConnectionPool pool = new ServerConnectionPool("test", new TaoMessageCreator(), threadGroup, 1, 100, 1);
+
+            // The read is sent again once on a new connection, then given up on
+            CompletableFuture<Throwable> failure = new CompletableFuture<>();
+            pool.readPath(serverAddress, 0, response -> fail("The server never answers"), failure::complete);
+
+            assertTrue(failure.get(5, TimeUnit.SECONDS) instanceof TimeoutException);
+            assertEquals(1, pool.getFailures());
+            assertEquals(2, pool.getTimeouts());
+            assertEquals(0, pool.getPending());
+        } finally {
+            threadGroup.shutdownNow();
+        }
+    }
+
+    /**
+     * @brief Serve a connection from the pool, answering every request except reads of path 1
+     * @param socket
+     * @param messageCreator
+     */
+    private void serve(Socket socket, MessageCreator messageCreator) {
+        try (DataInputStream in = new DataInputStream(socket.getInputStream())) {
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                in.readInt();
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                ProxyRequest request = messageCreator.parseProxyRequestBytes(body);
+                if (request.getPathID() == 1) {
+                    continue;
+                }
+
+                ServerResponse response = messageCreator.createServerResponse();
+                response.setIsWrite(true);
+                ByteBuffer message = MessageUtility.createMessageBuffer(MessageTypes.SERVER_TAGGED_RESPONSE, 8 + response.getSerializedSize());
+                message.putLong(request.getRequestID());
+                response.serialize(message);
+                out.write(message.array());
+                out.flush();
+            }
+        } catch (Exception e) {
+            // The pool closed the connection
+        }
+    }
+
+    @Test
+    public void testSlowRequestKeepsConnection() throws Exception {
+        TaoConfigs.initConfiguration();
+        AsynchronousChannelGroup threadGroup = AsynchronousChannelGroup.withFixedThreadPool(1, Executors.defaultThreadFactory());
+        MessageCreator messageCreator = new TaoMessageCreator();
+
+        // A server that answers every read except those of path 1, counting the connections made to it
+        AtomicInteger accepted = new AtomicInteger();
+        try (ServerSocket server = new ServerSocket(0, 50, null)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        accepted.incrementAndGet();
+                        new Thread(() -> serve(socket, messageCreator)).start();
+                    }
+                } catch (Exception e) {
+                    // The server was closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+            ServerConnectionPool pool = new ServerConnectionPool("test", messageCreator, threadGroup, 1, 100, 2);
+
+            // Keep other reads being answered on the connection while the read of path 1 goes unanswered
+            CompletableFuture<Throwable> failure = new CompletableFuture<>();
+            pool.readPath(serverAddress, 1, response -> fail("Path 1 is never answered"), failure::complete);
+            AtomicInteger answered = new AtomicInteger();
+            while (!failure.isDone()) {
+                pool.readPath(serverAddress, 0, response -> answered.incrementAndGet(), exc -> fail("Path 0 is always answered"));
+                Thread.sleep(20);
+            }
+
+            // Only the unanswered read was sent again, each time given twice as long, and the connection was kept
+            assertTrue(failure.get() instanceof TimeoutException);
+            assertEquals(3, pool.getTimeouts());
+            assertEquals(1, pool.getFailures());
+            assertEquals(0, pool.getReconnects());
+            assertEquals(1, accepted.get());
+            assertTrue(answered.get() >= 10);
+        } finally {
+            threadGroup.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUnreachableServerDoesNotBlock() throws Exception {
+        TaoConfigs.initConfiguration();
+        AsynchronousChannelGroup threadGroup = AsynchronousChannelGroup.withFixedThreadPool(1, Executors.defaultThreadFactory());
+
+        // Find a port that nothing is listening on
+        int port;
+        try (ServerSocket server = new ServerSocket(0, 50, null)) {
+            port = server.getLocalPort();
+        }
+
+        try {
+            InetSocketAddress serverAddress = new InetSocketAddress("127.0.0.1", port);
+            ServerConnectionPool pool = new ServerConnectionPool("test", new TaoMessageCreator(), threadGroup, 2, 100, 1);
+
+            // The read returns while the pool is still trying to connect, and its deadline runs while it waits
+            CompletableFuture<Throwable> failure = new CompletableFuture<>();
+            long start = System.currentTimeMillis();
+            pool.readPath(serverAddress, 0, response -> fail("The server can not be reached"), failure::complete);
+            assertTrue(System.currentTimeMillis() - start < 100);
+
+            assertTrue(failure.get(5, TimeUnit.SECONDS) instanceof TimeoutException);
+            assertEquals(1, pool.getFailures());
+            assertEquals(0, pool.getReconnects());
+            assertEquals(0, pool.getPending());
+        } finally {
+            threadGroup.shutdownNow();
+        }
+    }
+}
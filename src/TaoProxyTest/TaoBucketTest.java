@@ -49,4 +49,49 @@ public class TaoBucketTest {
             assertTrue(Arrays.equals(testBlocks[i].getData(), newBlocks[i].getData()));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBlocksInSlots() {
+        TaoConfigs.initConfiguration();
+
+        // Create a bucket with one block added, and a copy of it made from its serialization
+        TaoBucket testBucket = new TaoBucket();
+        Block added = new TaoBlock(5);
+        testBucket.addBlock(added, 1);
+        TaoBucket b = new TaoBucket();
+        b.initFromSerialized(testBucket.serialize());
+        assertEquals(1, b.getUpdateTime());
+        assertTrue(b.checkBlockFilled(0));
+        assertFalse(b.checkBlockFilled(1));
+
+        // A write to the added block after it was added is kept by the bucket it was added to
+        byte[] bytes = new byte[TaoConfigs.BLOCK_SIZE];
+        Arrays.fill(bytes, (byte) 7);
+        added.setData(bytes);
+        assertTrue(Arrays.equals(bytes, testBucket.getDataFromBlock(5)));
+        assertFalse(Arrays.equals(bytes, b.getDataFromBlock(5)));
+
+        // Blocks of the copy are read and modified in their slots
+        Block view = b.getFilledBlocks().get(0);
+        assertEquals(5, view.getBlockID());
+        assertTrue(b.modifyBlock(5, bytes));
+        assertTrue(Arrays.equals(bytes, view.getData()));
+        Arrays.fill(bytes, (byte) 8);
+        view.setData(bytes);
+        assertTrue(Arrays.equals(bytes, b.getDataFromBlock(5)));
+
+        // A bucket initialized from another bucket has copies of its blocks
+        TaoBucket copy = new TaoBucket();
+        copy.initFromBucket(b);
+        assertTrue(Arrays.equals(bytes, copy.getDataFromBlock(5)));
+        Arrays.fill(bytes, (byte) 9);
+        view.setData(bytes);
+        assertFalse(Arrays.equals(bytes, copy.getDataFromBlock(5)));
+        assertTrue(Arrays.equals(b.getDataFromBlock(5), b.getBlocks()[0].getData()));
+
+        // Clearing a bucket leaves none of its blocks filled
+        b.clearBucket();
+        assertTrue(b.getFilledBlocks().isEmpty());
+        assertNull(b.getDataFromBlock(5));
+    }
+}
@@ -0,0 +1,164 @@
+package TaoProxyTest;
+
+import Configuration.TaoConfigs;
+import TaoProxy.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+
+/**
+ * @brief Benchmark for bucket encryption and decryption. Compares creating a new cipher and key spec for every bucket
+ * against TaoCryptoUtil, which keeps a cipher per thread and works on paths in place, and against the CTR and GCM modes
+ * of TaoStreamCryptoUtil. The amount of seconds to run each case for and the amount of threads can be given as arguments
+ */
+public class TaoCryptoBenchmark {
+    // Key used by every case
+    private static SecretKey sKey;
+
+    /**
+     * @brief Interface for one case of the benchmark, which processes a single path
+     */
+    private interface Case {
+        void run(Path p, byte[] encryptedPath) throws Exception;
+    }
+
+    /**
+     * @brief Encrypt a bucket the way it was done before ciphers were cached
+     * @param data
+     * @return the IV followed by the encrypted data
+     */
+    private static byte[] uncachedEncrypt(byte[] data) throws Exception {
+        Cipher c = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+        SecretKeySpec k = new SecretKeySpec(sKey.getEncoded(), "AES");
+        c.init(Cipher.ENCRYPT_MODE, k);
+        byte[] encryptedData = c.doFinal(data);
+        byte[] result = Arrays.copyOf(c.getIV(), c.getIV().length + encryptedData.length);
+        System.arraycopy(encryptedData, 0, result, c.getIV().length, encryptedData.length);
+        return result;
+    }
+
+    /**
+     * @brief Decrypt a bucket the way it was done before ciphers were cached
+     * @param encryptedData
+     * @return the decrypted data
+     */
+    private static byte[] uncachedDecrypt(byte[] encryptedData) throws Exception {
+        byte[] iv = Arrays.copyOfRange(encryptedData, 0, TaoConfigs.IV_SIZE);
+        SecretKeySpec k = new SecretKeySpec(sKey.getEncoded(), "AES");
+        Cipher c = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+        c.init(Cipher.DECRYPT_MODE, k, new IvParameterSpec(iv));
+        return c.doFinal(Arrays.copyOfRange(encryptedData, TaoConfigs.IV_SIZE, encryptedData.length));
+    }
+
+    /**
+     * @brief Run a case on several threads for the given amount of time
+     * @param name the name to print the result under, or null to not print it
+     * @param seconds
+     * @param numThreads
+     * @param cryptoUtil
+     * @param benchmarkCase
+     */
+    private static void measure(String name, int seconds, int numThreads, CryptoUtil cryptoUtil, Case benchmarkCase) throws InterruptedException {
+        long[] pathsDone = new long[numThreads];
+        long end = System.nanoTime() + seconds * 1000000000L;
+
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    // Each thread works on its own path
+                    Path p = new TaoBlockCreator().createPath();
+                    p.setPathID(index);
+                    byte[] encryptedPath = cryptoUtil.encryptPath(p);
+                    while (System.nanoTime() < end) {
+                        benchmarkCase.run(p, encryptedPath);
+                        pathsDone[index]++;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long totalPaths = 0;
+        for (long done : pathsDone) {
+            totalPaths += done;
+        }
+        long buckets = totalPaths * (TaoConfigs.TREE_HEIGHT + 1);
+        if (name == null) {
+            return;
+        }
+        System.out.println(String.format("%s\t%.0f buckets/sec", name, buckets / (double) seconds));
+    }
+
+    public static void main(String[] args) throws Exception {
+        TaoConfigs.initConfiguration();
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(128);
+        sKey = keyGen.generateKey();
+        CryptoUtil cryptoUtil = new TaoCryptoUtil(sKey);
+        int bucketSize = TaoConfigs.BUCKET_SIZE;
+        int encryptedBucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+
+        System.out.println("Bucket size: " + bucketSize + " bytes, threads: " + numThreads);
+
+        String[] names = {"encrypt uncached", "encrypt cached", "decrypt uncached", "decrypt cached"};
+        Case[] cases = {
+                // Encrypt each bucket of a path with a new cipher
+                (p, encryptedPath) -> {
+                    byte[] bucketBytes = p.serializeBuckets();
+                    for (int i = 0; i < TaoConfigs.TREE_HEIGHT + 1; i++) {
+                        uncachedEncrypt(Arrays.copyOfRange(bucketBytes, bucketSize * i, bucketSize * (i + 1)));
+                    }
+                },
+                // Encrypt a path with the cached cipher, in place
+                (p, encryptedPath) -> cryptoUtil.encryptPath(p, encryptedPath, 0),
+                // Decrypt each bucket of a path with a new cipher
+                (p, encryptedPath) -> {
+                    for (int i = 0; i < TaoConfigs.TREE_HEIGHT + 1; i++) {
+                        int offset = 8 + encryptedBucketSize * i;
+                        byte[] encryptedBucket = Arrays.copyOfRange(encryptedPath, offset, offset + encryptedBucketSize);
+                        Bucket b = new TaoBucket();
+                        b.initFromSerialized(Arrays.copyOf(uncachedDecrypt(encryptedBucket), bucketSize));
+                    }
+                },
+                // Decrypt a path with the cached cipher, in place
+                (p, encryptedPath) -> cryptoUtil.decryptPath(encryptedPath)
+        };
+
+        // Warm up every case before measuring any of them
+        for (Case benchmarkCase : cases) {
+            measure(null, 1, numThreads, cryptoUtil, benchmarkCase);
+        }
+
+        for (int i = 0; i < cases.length; i++) {
+            measure(names[i], seconds, numThreads, cryptoUtil, cases[i]);
+        }
+
+        // Counter based modes, which use their own encrypted bucket size
+        String[] modes = {CryptoUtil.MODE_CTR, CryptoUtil.MODE_GCM};
+        for (String mode : modes) {
+            TaoConfigs.ENCRYPTED_BUCKET_SIZE = TaoStreamCryptoUtil.getEncryptedSize(mode, bucketSize);
+            CryptoUtil streamCryptoUtil = new TaoStreamCryptoUtil(sKey, mode);
+            Case encrypt = (p, encryptedPath) -> streamCryptoUtil.encryptPath(p, encryptedPath, 0);
+            Case decrypt = (p, encryptedPath) -> streamCryptoUtil.decryptPath(encryptedPath);
+
+            measure(null, 1, numThreads, streamCryptoUtil, encrypt);
+            measure(null, 1, numThreads, streamCryptoUtil, decrypt);
+            measure("encrypt " + mode, seconds, numThreads, streamCryptoUtil, encrypt);
+            measure("decrypt " + mode, seconds, numThreads, streamCryptoUtil, decrypt);
+        }
+    }
+}
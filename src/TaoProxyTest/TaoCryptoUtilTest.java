@@ -10,7 +10,9 @@ import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -49,4 +51,114 @@ public class TaoCryptoUtilTest {
 
         assertEquals(p.getPathID(), unencrypted.getPathID());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncryptPaths() {
+        TaoConfigs.initConfiguration();
+        TaoCryptoUtil cryptoUtil = new TaoCryptoUtil();
+
+        // Create paths that each hold a block with different data
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path p = new TaoPath(i);
+            for (int level = 0; level < TaoConfigs.TREE_HEIGHT + 1; level++) {
+                Bucket bucket = new TaoBucket();
+                Block block = new TaoBlock(i * 100 + level);
+                byte[] data = new byte[TaoConfigs.BLOCK_SIZE];
+                Arrays.fill(data, (byte) (i + level));
+                block.setData(data);
+                bucket.addBlock(block, 1);
+                p.addBucket(bucket);
+            }
+            paths.add(p);
+        }
+
+        // Encrypt all the paths together
+        byte[] encryption = cryptoUtil.encryptPaths(paths);
+        int pathSize = cryptoUtil.getEncryptedPathSize();
+        assertEquals(pathSize * paths.size(), encryption.length);
+
+        // Each slice should decrypt back to its path
+        for (int i = 0; i < paths.size(); i++) {
+            Path unencrypted = cryptoUtil.decryptPath(Arrays.copyOfRange(encryption, pathSize * i, pathSize * (i + 1)));
+            assertEquals(i, unencrypted.getPathID());
+
+            Bucket[] buckets = unencrypted.getBuckets();
+            for (int level = 0; level < buckets.length; level++) {
+                Block block = buckets[level].getBlocks()[0];
+                assertEquals(i * 100 + level, block.getBlockID());
+                assertEquals((byte) (i + level), block.getData()[0]);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamModes() {
+        TaoConfigs.initConfiguration();
+        long configuredBucketSize = TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+
+        String[] modes = {CryptoUtil.MODE_CTR, CryptoUtil.MODE_GCM};
+        for (String mode : modes) {
+            // Use the encrypted bucket size of this mode
+            TaoConfigs.ENCRYPTED_BUCKET_SIZE = TaoStreamCryptoUtil.getEncryptedSize(mode, TaoConfigs.BUCKET_SIZE);
+            CryptoUtil cryptoUtil = new TaoStreamCryptoUtil(mode);
+
+            // Create a path with a block in its root
+            Path p = new TaoBlockCreator().createPath();
+            p.setPathID(6);
+            Block block = new TaoBlock(11);
+            byte[] data = new byte[TaoConfigs.BLOCK_SIZE];
+            Arrays.fill(data, (byte) 9);
+            block.setData(data);
+            p.getBuckets()[0].addBlock(block, 1);
+
+            // Encrypting the same path twice should use different nonces
+            byte[] encryption = cryptoUtil.encryptPath(p);
+            assertEquals(cryptoUtil.getEncryptedPathSize(), encryption.length);
+            assertFalse(Arrays.equals(encryption, cryptoUtil.encryptPath(p)));
+
+            // Decrypt the path and check the block is there
+            Path unencrypted = cryptoUtil.decryptPath(encryption);
+            assertEquals(6, unencrypted.getPathID());
+            Block unencryptedBlock = unencrypted.getBuckets()[0].getBlocks()[0];
+            assertEquals(11, unencryptedBlock.getBlockID());
+            assertTrue(Arrays.equals(data, unencryptedBlock.getData()));
+
+            // GCM should refuse to decrypt data that was modified
+            if (mode.equals(CryptoUtil.MODE_GCM)) {
+                encryption[20] ^= 1;
+                assertNull(cryptoUtil.decryptPath(encryption));
+            }
+        }
+
+        TaoConfigs.ENCRYPTED_BUCKET_SIZE = configuredBucketSize;
+    }
+
+    @Test
+    public void testRandomPathID() throws Exception {
+        TaoConfigs.initConfiguration();
+        CryptoUtil cryptoUtil = new TaoCryptoUtil();
+        int numLeaves = 1 << TaoConfigs.TREE_HEIGHT;
+
+        // Pick paths from several threads at once
+        ConcurrentHashMultiset<Integer> picked = ConcurrentHashMultiset.create();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < numLeaves * 100; i++) {
+                    picked.add(cryptoUtil.getRandomPathID());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Every leaf should be picked, and nothing outside the tree
+        assertEquals(numLeaves, picked.elementSet().size());
+        for (int pathID : picked.elementSet()) {
+            assertTrue(pathID >= 0 && pathID < numLeaves);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package TaoProxyTest;
+
+import Configuration.TaoConfigs;
+import Configuration.Utility;
+import TaoProxy.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @brief Benchmark for choosing the blocks of the stash to place on a path during a flush, for increasing stash sizes.
+ * Compares building a heap of every block in the stash ordered by how deep each block can go on the path, the way
+ * flush used to, against asking a stash indexed by path for the blocks that can be placed at each level. Each flush
+ * puts the blocks that did not fit back into the stash, so the stash stays the same size. The stash sizes to run can be
+ * given as arguments
+ */
+public class TaoFlushBenchmark {
+    // Amount of flushes timed for each stash size
+    private static final int FLUSHES = 2000;
+
+    /**
+     * @brief Choose the blocks for a path the way flush used to, with a heap of the whole stash
+     * @param stash
+     * @param positionMap
+     * @param pathID
+     * @return the amount of blocks placed
+     */
+    private static int flushWithHeap(Map<Long, Block> stash, PositionMap positionMap, long pathID) {
+        // Copy the stash and remove duplicates
+        ArrayList<Block> blocksToFlush = new ArrayList<>(stash.values());
+        Set<Block> hs = new HashSet<>(blocksToFlush);
+        blocksToFlush.clear();
+        blocksToFlush.addAll(hs);
+
+        PriorityQueue<Block> blockHeap = new PriorityQueue<>(TaoConfigs.BUCKET_SIZE, new BlockPathComparator(pathID, positionMap));
+        blockHeap.addAll(blocksToFlush);
+
+        // Place blocks from the deepest level up, checking levels the same way flush used to
+        int placed = 0;
+        int inBucket = 0;
+        int level = TaoConfigs.TREE_HEIGHT;
+        List<Block> placedBlocks = new ArrayList<>();
+        while (!blockHeap.isEmpty() && level >= 0) {
+            Block currentBlock = blockHeap.peek();
+            long pid = positionMap.getBlockPosition(currentBlock.getBlockID());
+            if (Utility.getGreatestCommonLevel(pathID, pid) == level && inBucket < TaoConfigs.BLOCKS_IN_BUCKET) {
+                stash.remove(currentBlock.getBlockID());
+                placedBlocks.add(blockHeap.poll());
+                inBucket++;
+                placed++;
+                continue;
+            }
+            inBucket = 0;
+            level--;
+        }
+
+        // Put the blocks that did not fit back into the stash, then the placed ones to keep the stash the same size
+        while (!blockHeap.isEmpty()) {
+            Block b = blockHeap.poll();
+            stash.put(b.getBlockID(), b);
+        }
+        for (Block b : placedBlocks) {
+            stash.put(b.getBlockID(), b);
+        }
+        return placed;
+    }
+
+    /**
+     * @brief Choose the blocks for a path level by level from a stash indexed by path
+     * @param stash
+     * @param pathID
+     * @return the amount of blocks placed
+     */
+    private static int flushWithIndex(Stash stash, long pathID) {
+        int placed = 0;
+        List<Block> placedBlocks = new ArrayList<>();
+        for (int level = TaoConfigs.TREE_HEIGHT; level >= 0; level--) {
+            for (Block b : stash.getBlocksForLevel(pathID, level, TaoConfigs.BLOCKS_IN_BUCKET)) {
+                stash.removeBlock(b);
+                placedBlocks.add(b);
+                placed++;
+            }
+        }
+
+        // Put the placed blocks back to keep the stash the same size
+        for (Block b : placedBlocks) {
+            stash.addBlock(b);
+        }
+        return placed;
+    }
+
+    public static void main(String[] args) {
+        TaoConfigs.initConfiguration();
+
+        // Get the stash sizes to run
+        int[] stashSizes = {10, 100, 1000, 10000};
+        if (args.length > 0) {
+            stashSizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                stashSizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        long numPaths = 1L << TaoConfigs.TREE_HEIGHT;
+        System.out.println("Tree height: " + TaoConfigs.TREE_HEIGHT + ", blocks per bucket: " + TaoConfigs.BLOCKS_IN_BUCKET);
+        System.out.println("stash\theap us/flush\tplaced/flush\tindexed us/flush\tplaced/flush");
+
+        for (int stashSize : stashSizes) {
+            // Fill both stashes with the same blocks, each assigned a random path
+            PositionMap positionMap = new TaoPositionMap();
+            Map<Long, Block> plainStash = new ConcurrentHashMap<>();
+            Stash indexedStash = new TaoStash(positionMap);
+            for (long blockID = 0; blockID < stashSize; blockID++) {
+                positionMap.setBlockPosition(blockID, ThreadLocalRandom.current().nextLong(numPaths));
+                Block b = new TaoBlock(blockID);
+                plainStash.put(blockID, b);
+                indexedStash.addBlock(b);
+            }
+
+            // Flush the same random paths with both, after a warm up
+            long[] paths = new long[FLUSHES];
+            for (int i = 0; i < FLUSHES; i++) {
+                paths[i] = ThreadLocalRandom.current().nextLong(numPaths);
+            }
+            for (int i = 0; i < FLUSHES / 10; i++) {
+                flushWithHeap(plainStash, positionMap, paths[i]);
+                flushWithIndex(indexedStash, paths[i]);
+            }
+
+            long heapPlaced = 0;
+            long start = System.nanoTime();
+            for (long pathID : paths) {
+                heapPlaced += flushWithHeap(plainStash, positionMap, pathID);
+            }
+            double heap = (System.nanoTime() - start) / 1e3 / FLUSHES;
+
+            long indexedPlaced = 0;
+            start = System.nanoTime();
+            for (long pathID : paths) {
+                indexedPlaced += flushWithIndex(indexedStash, pathID);
+            }
+            double indexed = (System.nanoTime() - start) / 1e3 / FLUSHES;
+
+            System.out.println(String.format("%d\t%.1f\t%.1f\t%.1f\t%.1f", stashSize, heap, (double) heapPlaced / FLUSHES,
+                    indexed, (double) indexedPlaced / FLUSHES));
+        }
+    }
+}
@@ -5,10 +5,13 @@ import Messages.ClientRequest;
 import Messages.MessageCreator;
 import Messages.MessageTypes;
 import Messages.ProxyRequest;
+import Messages.ProxyResponse;
+import Messages.ServerResponse;
 import TaoProxy.*;
 import org.junit.Test;
 
 import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
@@ -91,15 +94,140 @@ public class TaoMessageCreatorTest {
         assertTrue(Arrays.equals(writebackRequest.getDataToWrite(), fromSerialized.getDataToWrite()));
     }
 
+    @Test
+    public void testProxyBatchReadRequest() {
+        MessageCreator messageCreator = new TaoMessageCreator();
+
+        // Create a batch read request
+        long[] pathIDs = {3, 0, 7, 3};
+        ProxyRequest batchRequest = messageCreator.createProxyRequest();
+        batchRequest.setType(MessageTypes.PROXY_BATCH_READ_REQUEST);
+        batchRequest.setPathIDs(pathIDs);
+
+        byte[] serialized = batchRequest.serialize();
+
+        ProxyRequest fromSerialized = messageCreator.parseProxyRequestBytes(serialized);
+        assertEquals(MessageTypes.PROXY_BATCH_READ_REQUEST, fromSerialized.getType());
+        assertTrue(Arrays.equals(pathIDs, fromSerialized.getPathIDs()));
+    }
+
+    @Test
+    public void testProxyTaggedReadRequest() {
+        MessageCreator messageCreator = new TaoMessageCreator();
+
+        // Create a tagged read request
+        ProxyRequest readRequest = messageCreator.createProxyRequest();
+        readRequest.setType(MessageTypes.PROXY_TAGGED_READ_REQUEST);
+        readRequest.setRequestID(1L << 40);
+        readRequest.setPathID(9);
+
+        byte[] serialized = readRequest.serialize();
+
+        ProxyRequest fromSerialized = messageCreator.parseProxyRequestBytes(serialized);
+        assertEquals(MessageTypes.PROXY_TAGGED_READ_REQUEST, fromSerialized.getType());
+        assertEquals(1L << 40, fromSerialized.getRequestID());
+        assertEquals(9, fromSerialized.getPathID());
+    }
+
+    @Test
+    public void testProxyTaggedWriteRequest() {
+        MessageCreator messageCreator = new TaoMessageCreator();
+
+        // Create a tagged write request
+        byte[] dataToWrite = new byte[64];
+        Arrays.fill(dataToWrite, (byte) 3);
+        ProxyRequest writeRequest = messageCreator.createProxyRequest();
+        writeRequest.setType(MessageTypes.PROXY_TAGGED_WRITE_REQUEST);
+        writeRequest.setRequestID(1L << 40);
+        writeRequest.setPathSize(32);
+        writeRequest.setTimestamp(17);
+        writeRequest.setDataToWrite(dataToWrite);
+
+        byte[] serialized = writeRequest.serialize();
+
+        ProxyRequest fromSerialized = messageCreator.parseProxyRequestBytes(serialized);
+        assertEquals(MessageTypes.PROXY_TAGGED_WRITE_REQUEST, fromSerialized.getType());
+        assertEquals(1L << 40, fromSerialized.getRequestID());
+        assertEquals(32, fromSerialized.getPathSize());
+        assertEquals(17, fromSerialized.getTimestamp());
+        assertTrue(Arrays.equals(dataToWrite, fromSerialized.getDataToWrite()));
+    }
+
+    @Test
+    public void testProxyFormatRequest() {
+        MessageCreator messageCreator = new TaoMessageCreator();
+
+        // Create a format request
+        byte[] dataToWrite = new byte[100];
+        Arrays.fill(dataToWrite, (byte) 7);
+        ProxyRequest formatRequest = messageCreator.createProxyRequest();
+        formatRequest.setType(MessageTypes.PROXY_FORMAT_REQUEST);
+        formatRequest.setFirstBucket(42);
+        formatRequest.setDataToWrite(dataToWrite);
+
+        byte[] serialized = formatRequest.serialize();
+
+        ProxyRequest fromSerialized = messageCreator.parseProxyRequestBytes(serialized);
+        assertEquals(MessageTypes.PROXY_FORMAT_REQUEST, fromSerialized.getType());
+        assertEquals(42, fromSerialized.getFirstBucket());
+        assertTrue(Arrays.equals(dataToWrite, fromSerialized.getDataToWrite()));
+    }
+
     @Test
     public void testProxyResponse() {
+        TaoConfigs.initConfiguration();
         MessageCreator messageCreator = new TaoMessageCreator();
 
+        // Create a proxy response
+        byte[] data = new byte[TaoConfigs.BLOCK_SIZE];
+        Arrays.fill(data, (byte) 5);
+        ProxyResponse response = messageCreator.createProxyResponse();
+        response.setClientRequestID(12);
+        response.setReturnData(data);
+        response.setWriteStatus(true);
+
+        // Serialize the response after a header, the way it is sent to a client
+        ByteBuffer message = MessageUtility.createMessageBuffer(MessageTypes.PROXY_RESPONSE, response.getSerializedSize());
+        response.serialize(message);
+        message.flip();
+        assertEquals(8 + response.getSerializedSize(), message.remaining());
+        assertTrue(Arrays.equals(response.serialize(), Arrays.copyOfRange(message.array(), 8, message.limit())));
+
+        // Parse the header and then the response in place
+        int[] typeAndLength = MessageUtility.parseTypeAndLength(message);
+        assertEquals(MessageTypes.PROXY_RESPONSE, typeAndLength[0]);
+        assertEquals(response.getSerializedSize(), typeAndLength[1]);
+        ProxyResponse fromSerialized = messageCreator.parseProxyResponseBytes(message);
+        assertEquals(12, fromSerialized.getClientRequestID());
+        assertTrue(fromSerialized.getWriteStatus());
+        assertTrue(Arrays.equals(data, fromSerialized.getReturnData()));
+        assertEquals(0, message.remaining());
     }
 
     @Test
     public void testServerResponse() {
         MessageCreator messageCreator = new TaoMessageCreator();
 
+        // Create a server response
+        byte[] pathBytes = new byte[100];
+        Arrays.fill(pathBytes, (byte) 3);
+        ServerResponse response = messageCreator.createServerResponse();
+        response.setPathID(4);
+        response.setPathBytes(pathBytes);
+        response.setProcessingTime(77);
+
+        // Serialize the response after a header, the way it is sent to a proxy
+        ByteBuffer message = MessageUtility.createMessageBuffer(MessageTypes.SERVER_RESPONSE, response.getSerializedSize());
+        response.serialize(message);
+        message.flip();
+        assertTrue(Arrays.equals(response.serialize(), Arrays.copyOfRange(message.array(), 8, message.limit())));
+
+        // Parse the header and then the response in place
+        int[] typeAndLength = MessageUtility.parseTypeAndLength(message);
+        assertEquals(MessageTypes.SERVER_RESPONSE, typeAndLength[0]);
+        ServerResponse fromSerialized = messageCreator.parseServerResponseBytes(message);
+        assertEquals(4, fromSerialized.getPathID());
+        assertEquals(77, fromSerialized.getProcessingTime());
+        assertTrue(Arrays.equals(pathBytes, fromSerialized.getPathBytes()));
     }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package TaoProxyTest;
+
+import Configuration.TaoConfigs;
+import TaoProxy.*;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TaoPositionMapTest {
+    /**
+     * @brief Set and check positions for a spread of block IDs, including ones far apart
+     * @param map
+     */
+    private void checkPositions(PositionMap map) {
+        // Blocks start without a position
+        assertEquals(-1, map.getBlockPosition(0));
+        assertEquals(-1, map.getBlockPosition(12345));
+
+        // Set positions for more blocks than the map was sized for
+        for (long blockID = 0; blockID < 5000; blockID++) {
+            map.setBlockPosition(blockID, blockID % 512);
+        }
+        map.setBlockPosition(Long.MAX_VALUE, 7);
+        map.setBlockPosition(1L << 40, 0);
+
+        for (long blockID = 0; blockID < 5000; blockID++) {
+            assertEquals(blockID % 512, map.getBlockPosition(blockID));
+        }
+        assertEquals(7, map.getBlockPosition(Long.MAX_VALUE));
+        assertEquals(0, map.getBlockPosition(1L << 40));
+        assertEquals(-1, map.getBlockPosition(5000));
+
+        // Move some blocks to new positions
+        for (long blockID = 0; blockID < 5000; blockID += 3) {
+            map.setBlockPosition(blockID, 511);
+        }
+        for (long blockID = 0; blockID < 5000; blockID++) {
+            assertEquals(blockID % 3 == 0 ? 511 : blockID % 512, map.getBlockPosition(blockID));
+        }
+    }
+
+    @Test
+    public void testPrimitivePositionMap() {
+        checkPositions(new TaoPrimitivePositionMap(100, false));
+        checkPositions(new TaoPrimitivePositionMap(100, true));
+    }
+
+    @Test
+    public void testDensePositionMap() {
+        checkPositions(new TaoDensePositionMap(1000, false));
+        checkPositions(new TaoDensePositionMap(1000, true));
+    }
+
+    @Test
+    public void testConcurrentPositions() throws Exception {
+        PositionMap map = new TaoPrimitivePositionMap(0, true);
+
+        // Each thread sets positions for its own blocks while the map grows
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long first = t * 100000;
+            Thread thread = new Thread(() -> {
+                for (long blockID = first; blockID < first + 100000; blockID++) {
+                    map.setBlockPosition(blockID, blockID & 1023);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (long blockID = 0; blockID < 400000; blockID++) {
+            assertEquals(blockID & 1023, map.getBlockPosition(blockID));
+        }
+    }
+
+    @Test
+    public void testServerForPosition() {
+        TaoConfigs.initConfiguration();
+        int numLeaves = 1 << TaoConfigs.TREE_HEIGHT;
+
+        // Split the leaves between four servers
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            servers.add(new InetSocketAddress("127.0.0.1", 10000 + i));
+        }
+        LeafRouter router = new TaoLeafRouter(servers);
+        PositionMap map = new TaoPrimitivePositionMap(router, 0, false);
+
+        // Each server should get a contiguous quarter of the leaves, numbered from 0 within the server
+        for (long leafID = 0; leafID < numLeaves; leafID++) {
+            int server = (int) (leafID / (numLeaves / 4));
+            assertEquals(server, router.getServerIndex(leafID));
+            assertEquals(servers.get(server), map.getServerForPosition(leafID));
+            assertEquals(leafID % (numLeaves / 4), router.getRelativeLeaf(leafID));
+        }
+
+        // A map without a router does not know about servers
+        assertNull(new TaoPositionMap().getServerForPosition(0));
+    }
+}
@@ -0,0 +1,296 @@
+package TaoProxyTest;
+
+import Configuration.TaoConfigs;
+import Messages.*;
+import TaoProxy.*;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TaoSequencerTest {
+    /**
+     * @brief Create a read request from a client
+     * @param requestID
+     * @param client the client the reply is sent to, or null if the reply goes back on the request's channel
+     * @return the request
+     */
+    private ClientRequest createRequest(long requestID, ServerSocket client) {
+        ClientRequest request = new TaoClientRequest();
+        request.setType(MessageTypes.CLIENT_READ_REQUEST);
+        request.setRequestID(requestID);
+        request.setBlockID(requestID);
+        if (client != null) {
+            request.setClientAddress(new InetSocketAddress("127.0.0.1", client.getLocalPort()));
+        }
+        return request;
+    }
+
+    /**
+     * @brief Read the next reply sent to a client
+     * @param input
+     * @return the request ID of the reply
+     */
+    private long readReply(DataInputStream input) throws Exception {
+        assertEquals(MessageTypes.PROXY_RESPONSE, input.readInt());
+        byte[] message = new byte[input.readInt()];
+        input.readFully(message);
+        return new TaoMessageCreator().parseProxyResponseBytes(message).getClientRequestID();
+    }
+
+    /**
+     * @brief Wait for a channel to be closed, as the sequencer closes it once the write of the last reply completes
+     * @param channel
+     */
+    private void waitForClose(AsynchronousSocketChannel channel) throws InterruptedException {
+        for (int i = 0; i < 100 && channel.isOpen(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testPerClientOrder() throws Exception {
+        TaoConfigs.initConfiguration();
+        MessageCreator messageCreator = new TaoMessageCreator();
+        Sequencer sequencer = new TaoSequencer(messageCreator, new TaoBlockCreator());
+        byte[] data = new byte[TaoConfigs.BLOCK_SIZE];
+        ServerResponse response = messageCreator.createServerResponse();
+
+        try (ServerSocket clientA = new ServerSocket(0); ServerSocket clientB = new ServerSocket(0)) {
+            // Client A sends three requests and client B sends two
+            ClientRequest[] requestsA = {createRequest(0, clientA), createRequest(1, clientA), createRequest(2, clientA)};
+            ClientRequest[] requestsB = {createRequest(10, clientB), createRequest(11, clientB)};
+            for (ClientRequest request : requestsA) {
+                sequencer.onReceiveRequest(request);
+            }
+            for (ClientRequest request : requestsB) {
+                sequencer.onReceiveRequest(request);
+            }
+
+            try (Socket socketA = clientA.accept(); Socket socketB = clientB.accept()) {
+                DataInputStream inputA = new DataInputStream(socketA.getInputStream());
+                DataInputStream inputB = new DataInputStream(socketB.getInputStream());
+
+                // Answer every request except the first of client A
+                sequencer.onReceiveResponse(requestsA[2], response, data);
+                sequencer.onReceiveResponse(requestsB[1], response, data);
+                sequencer.onReceiveResponse(requestsA[1], response, data);
+                sequencer.onReceiveResponse(requestsB[0], response, data);
+
+                // Client B is not held up by client A
+                assertEquals(10, readReply(inputB));
+                assertEquals(11, readReply(inputB));
+
+                // Client A gets nothing until its first request is answered
+                socketA.setSoTimeout(200);
+                try {
+                    readReply(inputA);
+                    fail("Client A was replied to before its first request was answered");
+                } catch (SocketTimeoutException e) {
+                }
+
+                // Then gets every reply in order
+                socketA.setSoTimeout(0);
+                sequencer.onReceiveResponse(requestsA[0], response, data);
+                assertEquals(0, readReply(inputA));
+                assertEquals(1, readReply(inputA));
+                assertEquals(2, readReply(inputA));
+            }
+        }
+    }
+
+    @Test
+    public void testReplyOnRequestChannel() throws Exception {
+        TaoConfigs.initConfiguration();
+        MessageCreator messageCreator = new TaoMessageCreator();
+        Sequencer sequencer = new TaoSequencer(messageCreator, new TaoBlockCreator());
+        byte[] data = new byte[TaoConfigs.BLOCK_SIZE];
+        ServerResponse response = messageCreator.createServerResponse();
+
+        try (AsynchronousServerSocketChannel proxy = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            // Two clients on the same host connect to the proxy
+            try (Socket socketA = new Socket("127.0.0.1", ((InetSocketAddress) proxy.getLocalAddress()).getPort());
+                 AsynchronousSocketChannel channelA = proxy.accept().get();
+                 Socket socketB = new Socket("127.0.0.1", ((InetSocketAddress) proxy.getLocalAddress()).getPort());
+                 AsynchronousSocketChannel channelB = proxy.accept().get()) {
+                // Both send a request with the same ID
+                ClientRequest requestA = createRequest(0, null);
+                ClientRequest requestB = createRequest(0, null);
+                requestB.setBlockID(1);
+                sequencer.onReceiveRequest(requestA, channelA);
+                sequencer.onReceiveRequest(requestB, channelB);
+                assertNotEquals(requestA, requestB);
+
+                // Each reply goes back on the channel its request arrived on
+                sequencer.onReceiveResponse(requestB, response, data);
+                sequencer.onReceiveResponse(requestA, response, data);
+                assertEquals(0, readReply(new DataInputStream(socketA.getInputStream())));
+                assertEquals(0, readReply(new DataInputStream(socketB.getInputStream())));
+            }
+        }
+    }
+
+    @Test
+    public void testDisconnectedClientsAreForgotten() throws Exception {
+        TaoConfigs.initConfiguration();
+        MessageCreator messageCreator = new TaoMessageCreator();
+        TaoSequencer sequencer = new TaoSequencer(messageCreator, new TaoBlockCreator());
+        byte[] data = new byte[TaoConfigs.BLOCK_SIZE];
+        ServerResponse response = messageCreator.createServerResponse();
+
+        try (AsynchronousServerSocketChannel proxy = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            int proxyPort = ((InetSocketAddress) proxy.getLocalAddress()).getPort();
+
+            // Many short lived clients each send a request, get their reply and disconnect
+            for (int i = 0; i < 200; i++) {
+                try (Socket socket = new Socket("127.0.0.1", proxyPort)) {
+                    AsynchronousSocketChannel channel = proxy.accept().get();
+                    ClientRequest request = createRequest(i, null);
+                    sequencer.onReceiveRequest(request, channel);
+                    sequencer.onReceiveResponse(request, response, data);
+                    assertEquals(i, readReply(new DataInputStream(socket.getInputStream())));
+
+                    // Once the proxy sees the client disconnect, the client is forgotten and its channel closed
+                    sequencer.onClientDisconnected(channel);
+                    waitForClose(channel);
+                    assertEquals(0, sequencer.getClientCount());
+                }
+            }
+
+            // A client that disconnects while a request is still being answered is kept until it has been replied to
+            try (Socket socket = new Socket("127.0.0.1", proxyPort)) {
+                AsynchronousSocketChannel channel = proxy.accept().get();
+                ClientRequest request = createRequest(1000, null);
+                sequencer.onReceiveRequest(request, channel);
+                socket.shutdownOutput();
+                sequencer.onClientDisconnected(channel);
+                assertEquals(1, sequencer.getClientCount());
+                assertTrue(channel.isOpen());
+
+                sequencer.onReceiveResponse(request, response, data);
+                assertEquals(1000, readReply(new DataInputStream(socket.getInputStream())));
+                waitForClose(channel);
+                assertEquals(0, sequencer.getClientCount());
+            }
+        }
+    }
+
+    @Test
+    public void testReconnectAfterWriteFails() throws Exception {
+        TaoConfigs.initConfiguration();
+        MessageCreator messageCreator = new TaoMessageCreator();
+        Sequencer sequencer = new TaoSequencer(messageCreator, new TaoBlockCreator());
+        byte[] data = new byte[TaoConfigs.BLOCK_SIZE];
+        ServerResponse response = messageCreator.createServerResponse();
+
+        try (ServerSocket client = new ServerSocket(0)) {
+            // The client gets its first reply, then its connection is reset
+            ClientRequest first = createRequest(0, client);
+            sequencer.onReceiveRequest(first);
+            sequencer.onReceiveResponse(first, response, data);
+            try (Socket socket = client.accept()) {
+                assertEquals(0, readReply(new DataInputStream(socket.getInputStream())));
+                socket.setSoLinger(true, 0);
+            }
+
+            // Keep answering requests until a write fails and the sequencer connects to the client again
+            client.setSoTimeout(100);
+            Socket socket = null;
+            long lastRequestID = 0;
+            while (socket == null && lastRequestID < 50) {
+                ClientRequest request = createRequest(++lastRequestID, client);
+                sequencer.onReceiveRequest(request);
+                sequencer.onReceiveResponse(request, response, data);
+                try {
+                    socket = client.accept();
+                } catch (SocketTimeoutException e) {
+                }
+            }
+            assertNotNull(socket);
+
+            // The replies that were not sent arrive on the new connection, in order
+            try {
+                DataInputStream input = new DataInputStream(socket.getInputStream());
+                long requestID = readReply(input);
+                while (requestID < lastRequestID) {
+                    assertEquals(requestID + 1, readReply(input));
+                    requestID++;
+                }
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testReconnectDuringWrite() throws Exception {
+        TaoConfigs.initConfiguration();
+        MessageCreator messageCreator = new TaoMessageCreator();
+        Sequencer sequencer = new TaoSequencer(messageCreator, new TaoBlockCreator());
+        byte[] data = new byte[TaoConfigs.BLOCK_SIZE];
+        ServerResponse response = messageCreator.createServerResponse();
+
+        try (ServerSocket client = new ServerSocket()) {
+            // Keep the client's receive buffer small, so writes to it stall while it is not reading
+            client.setReceiveBufferSize(4096);
+            client.bind(new InetSocketAddress("127.0.0.1", 0));
+
+            ClientRequest first = createRequest(0, client);
+            sequencer.onReceiveRequest(first);
+            sequencer.onReceiveResponse(first, response, data);
+            try (Socket oldSocket = client.accept()) {
+                DataInputStream oldInput = new DataInputStream(oldSocket.getInputStream());
+                assertEquals(0, readReply(oldInput));
+
+                // Queue more replies than the connection can hold, so a write is in progress when the client restarts
+                int numReplies = 4000;
+                for (int i = 1; i <= numReplies; i++) {
+                    ClientRequest request = createRequest(i, client);
+                    sequencer.onReceiveRequest(request);
+                    sequencer.onReceiveResponse(request, response, data);
+                }
+                Thread.sleep(200);
+
+                // The client restarts, which makes the sequencer close the channel the write is in progress on
+                ClientRequest restart = createRequest(0, client);
+                sequencer.onReceiveRequest(restart);
+                sequencer.onReceiveResponse(restart, response, data);
+
+                try (Socket newSocket = client.accept()) {
+                    // Get every reply that was written to the old channel before it was closed
+                    long lastOld = 0;
+                    try {
+                        while (true) {
+                            assertEquals(lastOld + 1, readReply(oldInput));
+                            lastOld++;
+                        }
+                    } catch (Exception e) {
+                        // The old channel was closed
+                    }
+                    assertTrue(lastOld < numReplies);
+
+                    // The rest arrive on the new channel without a gap, followed by the reply to the restart
+                    DataInputStream newInput = new DataInputStream(newSocket.getInputStream());
+                    long requestID = readReply(newInput);
+                    assertTrue(requestID <= lastOld + 1);
+                    while (requestID < numReplies) {
+                        assertEquals(requestID + 1, readReply(newInput));
+                        requestID++;
+                    }
+                    assertEquals(0, readReply(newInput));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package TaoProxyTest;
+
+import Configuration.TaoConfigs;
+import TaoProxy.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TaoStashTest {
+    /**
+     * @brief Get the IDs of the blocks the stash returns for a level of a path
+     * @param stash
+     * @param pathID
+     * @param level
+     * @return the block IDs
+     */
+    private Set<Long> blocksForLevel(Stash stash, long pathID, int level) {
+        Set<Long> blockIDs = new HashSet<>();
+        for (Block b : stash.getBlocksForLevel(pathID, level, Integer.MAX_VALUE)) {
+            blockIDs.add(b.getBlockID());
+        }
+        return blockIDs;
+    }
+
+    @Test
+    public void testBlocksForLevel() {
+        int treeHeight = TaoConfigs.TREE_HEIGHT;
+        TaoConfigs.TREE_HEIGHT = 4;
+        try {
+            checkBlocksForLevel();
+        } finally {
+            TaoConfigs.TREE_HEIGHT = treeHeight;
+        }
+    }
+
+    /**
+     * @brief Check which blocks the stash returns for each level of a path, for a tree of height 4
+     */
+    private void checkBlocksForLevel() {
+        PositionMap map = new TaoPositionMap();
+        Stash stash = new TaoStash(map);
+
+        // Put a block on each of the paths 0, 1, 2, 4 and 8
+        long[] paths = {0, 1, 2, 4, 8};
+        for (long path : paths) {
+            map.setBlockPosition(path, path);
+            stash.addBlock(new TaoBlock(path));
+        }
+
+        // Each level of path 0 can hold the blocks whose path shares at least that many levels with it
+        assertEquals(Set.of(0L), blocksForLevel(stash, 0, 4));
+        assertEquals(Set.of(0L, 1L), blocksForLevel(stash, 0, 3));
+        assertEquals(Set.of(0L, 1L, 2L), blocksForLevel(stash, 0, 2));
+        assertEquals(Set.of(0L, 1L, 2L, 4L), blocksForLevel(stash, 0, 1));
+        assertEquals(Set.of(0L, 1L, 2L, 4L, 8L), blocksForLevel(stash, 0, 0));
+        assertEquals(2, stash.getBlocksForLevel(0, 0, 2).size());
+
+        // A block that moves is found under its new path
+        map.setBlockPosition(8, 0);
+        stash.updateBlockPosition(8);
+        assertEquals(Set.of(0L, 8L), blocksForLevel(stash, 0, 4));
+        assertEquals(Set.of(), blocksForLevel(stash, 8, 1));
+
+        // A removed block is no longer returned
+        stash.removeBlock(stash.getBlock(0));
+        assertNull(stash.getBlock(0));
+        assertEquals(Set.of(8L), blocksForLevel(stash, 0, 4));
+    }
+
+    @Test
+    public void testOccupancy() throws Exception {
+        PositionMap map = new TaoPositionMap();
+        Stash stash = new TaoStash(map, 3);
+        stash.sampleSize();
+
+        // Fill the stash to its capacity
+        for (long blockID = 0; blockID < 3; blockID++) {
+            map.setBlockPosition(blockID, 0);
+            stash.addBlock(new TaoBlock(blockID));
+        }
+        stash.sampleSize();
+        stash.removeBlock(stash.getBlock(0));
+        stash.sampleSize();
+
+        assertEquals(2, stash.getSize());
+        assertEquals(3, stash.getHighWaterMark());
+        long[] histogram = stash.getSizeHistogram();
+        assertEquals(1, histogram[0]);
+        assertEquals(2, histogram[2]);
+
+        // A full stash holds back new requests until a block is removed
+        stash.addBlock(new TaoBlock(0));
+        Thread remover = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+            stash.removeBlock(stash.getBlock(1));
+        });
+        long start = System.currentTimeMillis();
+        remover.start();
+        stash.awaitCapacity(() -> false);
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        assertEquals(2, stash.getSize());
+
+        // Unless the request may proceed anyway
+        stash.addBlock(new TaoBlock(1));
+        stash.awaitCapacity(() -> true);
+        remover.join();
+    }
+
+    @Test
+    public void testFlushedBlocksNotCounted() throws Exception {
+        PositionMap map = new TaoPositionMap();
+        Stash stash = new TaoStash(map, 2);
+        map.setBlockPosition(0, 0);
+        stash.addBlock(new TaoBlock(0));
+
+        // The blocks of a path being flushed can be found and placed, but do not count towards the size of the stash
+        List<Block> pathBlocks = new ArrayList<>();
+        for (long blockID = 1; blockID < 5; blockID++) {
+            map.setBlockPosition(blockID, 0);
+            Block block = new TaoBlock(blockID);
+            stash.addFlushedBlock(block);
+            pathBlocks.add(block);
+        }
+        assertNotNull(stash.getBlock(4));
+        assertEquals(Set.of(0L, 1L, 2L, 3L, 4L), blocksForLevel(stash, 0, 0));
+        assertEquals(1, stash.getSize());
+        stash.sampleSize();
+        stash.awaitCapacity(() -> false);
+
+        // Once the flush is done, the blocks that were not placed count
+        stash.removeBlock(stash.getBlock(1));
+        stash.removeBlock(stash.getBlock(2));
+        stash.removeBlock(stash.getBlock(3));
+        assertEquals(1, stash.getSize());
+        stash.keepFlushedBlocks(pathBlocks);
+        assertEquals(2, stash.getSize());
+        assertEquals(2, stash.getHighWaterMark());
+        assertEquals(1, stash.getSizeHistogram()[1]);
+    }
+}
@@ -11,7 +11,12 @@ import TaoProxy.Bucket;
 import TaoProxy.Block;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -69,4 +74,48 @@ public class TaoSubtreeTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        TaoConfigs.initConfiguration();
+
+        Subtree testSubtree = new TaoSubtree();
+
+        // Add two full paths, each with one block per bucket
+        long[] pathIDs = {3, (1 << TaoConfigs.TREE_HEIGHT) - 1};
+        for (long pathID : pathIDs) {
+            Path testPath = new TaoPath(pathID);
+            for (int i = 0; i < TaoConfigs.TREE_HEIGHT + 1; i++) {
+                Bucket bucket = new TaoBucket();
+                Block block = new TaoBlock(pathID * 100 + i);
+                byte[] bytes = new byte[TaoConfigs.BLOCK_SIZE];
+                Arrays.fill(bytes, (byte) i);
+                block.setData(bytes);
+                bucket.addBlock(block, 1);
+                testPath.addBucket(bucket);
+            }
+            testSubtree.addPath(testPath);
+        }
+
+        // Write the subtree to a checkpoint and read it into a new subtree
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        testSubtree.writeCheckpoint(new DataOutputStream(bytes));
+        Subtree restored = new TaoSubtree();
+        List<Long> restoredPathIDs = restored.readCheckpoint(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        // Both paths should be complete, and every block should be found where it was
+        assertEquals(2, restoredPathIDs.size());
+        for (long pathID : pathIDs) {
+            assertTrue(restoredPathIDs.contains(pathID));
+
+            Bucket[] buckets = testSubtree.getPath(pathID).getBuckets();
+            Bucket[] restoredBuckets = restored.getPath(pathID).getBuckets();
+            for (int i = 0; i < buckets.length; i++) {
+                assertTrue(Arrays.equals(buckets[i].serialize(), restoredBuckets[i].serialize()));
+                for (Block b : restoredBuckets[i].getFilledBlocks()) {
+                    assertTrue(restored.getBucketWithBlock(b.getBlockID()) == restoredBuckets[i]);
+                }
+            }
+        }
+    }
+}
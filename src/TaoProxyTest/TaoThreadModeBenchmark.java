@@ -0,0 +1,383 @@
+package TaoProxyTest;
+
+import Configuration.TaoConfigs;
+import Messages.ClientRequest;
+import Messages.MessageCreator;
+import Messages.MessageTypes;
+import TaoProxy.*;
+import TaoServer.TaoServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @brief Benchmark for the thread modes of the proxy. Each run starts a storage server and a TaoProxy with thread_mode
+ * set to platform or virtual, so clients are served by serveClient or serveClientBlocking, then has each client keep
+ * one read of a random block outstanding on its own connection. Throughput and latencies are reported for increasing
+ * amounts of clients, which can be given as arguments. The thread mode is decided once per JVM, so each run is done in
+ * a JVM of its own, in a temporary directory holding its configuration and storage file. The configuration in the
+ * current directory is used as the base of each run, with the proxy and storage server moved to this host. Virtual
+ * threads are only run on JVMs that support them
+ */
+public class TaoThreadModeBenchmark {
+    // Argument that makes the JVM do a single run instead of starting runs
+    private static final String RUN_ARGUMENT = "--run";
+
+    // Prefix of the line a run prints its results on
+    private static final String RESULT_PREFIX = "result";
+
+    // The amount of distinct blocks the clients read
+    private static final int NUM_BLOCKS = 1000;
+
+    // How long each run warms up and is then measured for
+    private static final long WARMUP_MILLIS = 2000;
+    private static final long RUN_MILLIS = 5000;
+
+    // Amount of threads the clients use for I/O
+    private static final int CLIENT_THREADS = 4;
+
+    /**
+     * @brief The state of a single run, shared by its clients
+     */
+    private static class Run {
+        // Whether latencies are being recorded
+        volatile boolean mRecording;
+
+        // Whether clients should stop sending requests
+        volatile boolean mStopped;
+
+        // Counted down by each client once it stops
+        CountDownLatch mDone;
+
+        // Creates the requests, and the ID of the next one
+        MessageCreator mMessageCreator = new TaoMessageCreator();
+        AtomicLong mNextRequestID = new AtomicLong();
+
+        Run(int numClients) {
+            mDone = new CountDownLatch(numClients);
+        }
+    }
+
+    /**
+     * @brief A client that sends a read as soon as the response to its last one arrives
+     */
+    private static class Client {
+        AsynchronousSocketChannel mChannel;
+        Run mRun;
+        ByteBuffer mRequest;
+        ByteBuffer mHeader = MessageUtility.createTypeReceiveBuffer();
+        ByteBuffer mResponse;
+        long mStartTime;
+
+        // Latencies in nanoseconds of the requests sent while recording
+        long[] mLatencies = new long[64];
+        int mCount;
+
+        Client(AsynchronousSocketChannel channel, Run run) {
+            mChannel = channel;
+            mRun = run;
+        }
+
+        void sendNext() {
+            if (mRun.mStopped) {
+                mRun.mDone.countDown();
+                return;
+            }
+
+            // Read a random block. The proxy replaces the client address with that of the channel
+            ClientRequest request = mRun.mMessageCreator.createClientRequest();
+            request.setType(MessageTypes.CLIENT_READ_REQUEST);
+            request.setRequestID(mRun.mNextRequestID.getAndIncrement());
+            request.setBlockID(ThreadLocalRandom.current().nextInt(NUM_BLOCKS));
+            request.setData(new byte[TaoConfigs.BLOCK_SIZE]);
+            request.setClientAddress(new InetSocketAddress("127.0.0.1", TaoConfigs.CLIENT_PORT));
+            mRequest = MessageUtility.createMessageBuffer(request.getType(), request.getSerializedSize());
+            request.serialize(mRequest);
+            mRequest.flip();
+
+            mHeader.clear();
+            mStartTime = System.nanoTime();
+            mChannel.write(mRequest, null, mOnWrite);
+        }
+
+        CompletionHandler<Integer, Void> mOnWrite = new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                if (mRequest.remaining() > 0) {
+                    mChannel.write(mRequest, null, this);
+                    return;
+                }
+                mChannel.read(mHeader, null, mOnHeader);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                mRun.mDone.countDown();
+            }
+        };
+
+        CompletionHandler<Integer, Void> mOnHeader = new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                if (result < 0) {
+                    failed(new IOException("Connection closed"), null);
+                    return;
+                }
+                if (mHeader.remaining() > 0) {
+                    mChannel.read(mHeader, null, this);
+                    return;
+                }
+
+                mHeader.flip();
+                int length = MessageUtility.parseTypeAndLength(mHeader)[1];
+                if (mResponse == null || mResponse.capacity() < length) {
+                    mResponse = ByteBuffer.allocate(length);
+                }
+                mResponse.clear();
+                mResponse.limit(length);
+                mChannel.read(mResponse, null, mOnResponse);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                mRun.mDone.countDown();
+            }
+        };
+
+        CompletionHandler<Integer, Void> mOnResponse = new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                if (result < 0) {
+                    failed(new IOException("Connection closed"), null);
+                    return;
+                }
+                if (mResponse.remaining() > 0) {
+                    mChannel.read(mResponse, null, this);
+                    return;
+                }
+
+                if (mRun.mRecording) {
+                    if (mCount == mLatencies.length) {
+                        mLatencies = Arrays.copyOf(mLatencies, mCount * 2);
+                    }
+                    mLatencies[mCount++] = System.nanoTime() - mStartTime;
+                }
+                sendNext();
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                mRun.mDone.countDown();
+            }
+        };
+    }
+
+    /**
+     * @brief Close a channel, ignoring errors
+     * @param channel
+     */
+    private static void close(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * @brief Wait until something is listening on a port of this host
+     * @param port
+     */
+    private static void waitForPort(int port) throws InterruptedException {
+        while (true) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * @brief Start a storage server and a proxy, then run the clients against the proxy. Uses the configuration in the
+     * current directory
+     * @param numClients
+     * @return the throughput, median latency and p99 latency, or null if the clients could not connect
+     */
+    private static double[] run(int numClients) throws Exception {
+        TaoConfigs.initConfiguration();
+
+        // Start the storage server and the proxy, which writes an empty tree to the server
+        new TaoServer(new TaoMessageCreator()).run();
+        waitForPort(TaoConfigs.SERVER_PORT);
+        TaoProxy proxy = new TaoProxy(new TaoMessageCreator(), new TaoBlockCreator(), new TaoSubtree());
+        proxy.initializeServer();
+        proxy.run();
+        waitForPort(TaoConfigs.PROXY_PORT);
+
+        AsynchronousChannelGroup clientGroup = AsynchronousChannelGroup.withFixedThreadPool(CLIENT_THREADS, Executors.defaultThreadFactory());
+        List<Client> clients = new ArrayList<>();
+        try {
+            // Connect the clients
+            Run run = new Run(numClients);
+            try {
+                for (int i = 0; i < numClients; i++) {
+                    AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(clientGroup);
+                    channel.connect(new InetSocketAddress("127.0.0.1", TaoConfigs.PROXY_PORT)).get();
+                    clients.add(new Client(channel, run));
+                }
+            } catch (Exception e) {
+                System.out.println("Could only connect " + clients.size() + " of " + numClients + " clients: " + e);
+                return null;
+            }
+
+            // Warm up, then measure
+            for (Client client : clients) {
+                client.sendNext();
+            }
+            Thread.sleep(WARMUP_MILLIS);
+            run.mRecording = true;
+            Thread.sleep(RUN_MILLIS);
+            run.mRecording = false;
+            run.mStopped = true;
+            run.mDone.await(10, TimeUnit.SECONDS);
+
+            // Gather the latencies of every client
+            int total = 0;
+            for (Client client : clients) {
+                total += client.mCount;
+            }
+            long[] latencies = new long[total];
+            int offset = 0;
+            for (Client client : clients) {
+                System.arraycopy(client.mLatencies, 0, latencies, offset, client.mCount);
+                offset += client.mCount;
+            }
+            Arrays.sort(latencies);
+
+            double throughput = total / (RUN_MILLIS / 1000.0);
+            double median = total == 0 ? 0 : latencies[total / 2] / 1e3;
+            double p99 = total == 0 ? 0 : latencies[(int) (total * 0.99)] / 1e3;
+            return new double[]{throughput, median, p99};
+        } finally {
+            for (Client client : clients) {
+                close(client.mChannel);
+            }
+            clientGroup.shutdownNow();
+        }
+    }
+
+    /**
+     * @brief Do a run in a JVM of its own, with the thread mode set in a configuration made for it
+     * @param mode
+     * @param numClients
+     * @return the throughput, median latency and p99 latency, or null if the run failed
+     */
+    private static double[] runInNewJVM(String mode, int numClients) throws Exception {
+        // Base the configuration on the one in the current directory, with everything running on this host
+        Properties properties = new Properties();
+        File baseConfig = new File(TaoConfigs.USER_CONFIG_FILE);
+        if (baseConfig.exists()) {
+            try (InputStream input = new FileInputStream(baseConfig)) {
+                properties.load(input);
+            }
+        }
+        properties.setProperty("thread_mode", mode);
+        properties.setProperty("reply_on_request_channel", "true");
+        properties.setProperty("proxy_hostname", "127.0.0.1");
+        properties.setProperty("num_storage_servers", "1");
+        properties.setProperty("storage_hostname1", "127.0.0.1");
+
+        Path directory = Files.createTempDirectory("thread-mode-benchmark");
+        try {
+            try (OutputStream output = new FileOutputStream(directory.resolve(TaoConfigs.USER_CONFIG_FILE).toFile())) {
+                properties.store(output, null);
+            }
+
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    TaoThreadModeBenchmark.class.getName(), RUN_ARGUMENT, Integer.toString(numClients))
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .start();
+
+            // Only keep the line with the results, and anything printed about a failed connection
+            double[] result = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(RESULT_PREFIX)) {
+                        String[] fields = line.split("\t");
+                        result = new double[]{Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), Double.parseDouble(fields[3])};
+                    } else if (line.startsWith("Could only connect")) {
+                        System.out.println(line);
+                    }
+                }
+            }
+            process.waitFor();
+            return result;
+        } finally {
+            // Remove the configuration, storage file and logs of the run
+            File[] files = directory.toFile().listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Do a single run, in the JVM started for it
+        if (args.length == 2 && RUN_ARGUMENT.equals(args[0])) {
+            double[] result = run(Integer.parseInt(args[1]));
+            if (result != null) {
+                System.out.println(String.format("%s\t%f\t%f\t%f", RESULT_PREFIX, result[0], result[1], result[2]));
+            }
+            System.exit(0);
+        }
+
+        // Get the amounts of clients to run
+        int[] clientCounts = {1, 10, 100, 1000, 10000};
+        if (args.length > 0) {
+            clientCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                clientCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        // Only run virtual threads if the JVM supports them
+        List<String> modes = new ArrayList<>();
+        modes.add(TaskExecutor.MODE_PLATFORM);
+        if (TaskExecutor.createVirtualThreadFactory("probe") != null) {
+            modes.add(TaskExecutor.MODE_VIRTUAL);
+        } else {
+            System.out.println("Virtual threads are not supported by this JVM, only running platform");
+        }
+
+        System.out.println("mode\tclients\trequests/sec\tp50 us\tp99 us");
+        for (int numClients : clientCounts) {
+            for (String mode : modes) {
+                double[] result = runInNewJVM(mode, numClients);
+                if (result != null) {
+                    System.out.println(String.format("%s\t%d\t%.0f\t%.0f\t%.0f", mode, numClients, result[0], result[1], result[2]));
+                } else {
+                    System.out.println(mode + "\t" + numClients + "\tfailed");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package TaoProxyTest;
+
+import Configuration.TaoConfigs;
+import TaoProxy.*;
+import com.google.common.primitives.Bytes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @brief Benchmark for building the payload of a writeback request. Compares encrypting the paths into a single
+ * preallocated array against appending each encrypted path to the payload with Bytes.concat, for increasing writeback
+ * thresholds. The thresholds to run can be given as arguments
+ */
+public class TaoWriteBackBenchmark {
+    // Amount of times each threshold is timed
+    private static final int RUNS = 3;
+
+    /**
+     * @brief Create paths filled with blocks
+     * @param numPaths
+     * @return the paths
+     */
+    private static List<Path> createPaths(int numPaths) {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < numPaths; i++) {
+            Path p = new TaoPath(i);
+            for (int level = 0; level < TaoConfigs.TREE_HEIGHT + 1; level++) {
+                Bucket bucket = new TaoBucket();
+                for (int j = 0; j < TaoConfigs.BLOCKS_IN_BUCKET; j++) {
+                    Block block = new TaoBlock(i * TaoConfigs.BLOCKS_IN_BUCKET + j);
+                    block.setData(new byte[TaoConfigs.BLOCK_SIZE]);
+                    bucket.addBlock(block, 1);
+                }
+                p.addBucket(bucket);
+            }
+            paths.add(p);
+        }
+        return paths;
+    }
+
+    /**
+     * @brief Build the payload the way writeback used to, by concatenating each encrypted path onto the payload
+     * @param cryptoUtil
+     * @param paths
+     * @return the payload
+     */
+    private static byte[] concatPaths(CryptoUtil cryptoUtil, List<Path> paths) {
+        byte[] dataToWrite = null;
+        for (Path p : paths) {
+            if (dataToWrite == null) {
+                dataToWrite = cryptoUtil.encryptPath(p);
+            } else {
+                dataToWrite = Bytes.concat(dataToWrite, cryptoUtil.encryptPath(p));
+            }
+        }
+        return dataToWrite;
+    }
+
+    /**
+     * @brief Get the fastest time in milliseconds out of several runs
+     * @param run
+     * @return the fastest time
+     */
+    private static double time(Runnable run) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    public static void main(String[] args) {
+        TaoConfigs.initConfiguration();
+        CryptoUtil cryptoUtil = new TaoCryptoUtil();
+
+        // Get the thresholds to run
+        int[] thresholds = {10, 100, 250, 500, 1000};
+        if (args.length > 0) {
+            thresholds = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                thresholds[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("Encrypted path size: " + cryptoUtil.getEncryptedPathSize() + " bytes");
+        System.out.println("threshold\tpreallocated ms\tper path ms\tconcat ms\tper path ms");
+
+        // Warm up
+        List<Path> warmUp = createPaths(thresholds[0]);
+        cryptoUtil.encryptPaths(warmUp);
+        concatPaths(cryptoUtil, warmUp);
+
+        for (int threshold : thresholds) {
+            List<Path> paths = createPaths(threshold);
+
+            double preallocated = time(() -> cryptoUtil.encryptPaths(paths));
+            double concat = time(() -> concatPaths(cryptoUtil, paths));
+
+            System.out.println(String.format("%d\t%.1f\t%.3f\t%.1f\t%.3f", threshold, preallocated,
+                    preallocated / threshold, concat, concat / threshold));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package TaoServer;
+
+import java.io.IOException;
+
+/**
+ * @brief Interface for the storage engine that holds the buckets of a TaoStore server
+ */
+public interface Storage {
+    // Storage engine backed by RandomAccessFiles opened in synchronous mode
+    String ENGINE_FILE = "file";
+
+    // Storage engine backed by segments of the file mapped into memory
+    String ENGINE_MAPPED = "mapped";
+
+    // Never explicitly force writes to disk
+    String SYNC_NONE = "none";
+
+    // Force writes to disk on every commit
+    String SYNC_ALWAYS = "always";
+
+    // Force writes to disk on commit, sharing one force between all concurrent commits
+    String SYNC_GROUP = "group";
+
+    // Force writes to disk from a background thread at a fixed interval
+    String SYNC_PERIODIC = "periodic";
+
+    /**
+     * @brief Method to read bytes from storage into the given array
+     * @param offset
+     * @param destination
+     * @param destinationOffset
+     * @param length
+     */
+    void read(long offset, byte[] destination, int destinationOffset, int length) throws IOException;
+
+    /**
+     * @brief Method to write bytes from the given array into storage
+     * @param offset
+     * @param source
+     * @param sourceOffset
+     * @param length
+     */
+    void write(long offset, byte[] source, int sourceOffset, int length) throws IOException;
+
+    /**
+     * @brief Method to make all previous writes durable according to the sync policy of the storage engine
+     */
+    void commit() throws IOException;
+
+    /**
+     * @brief Method to release any resources held by the storage engine
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,62 @@
+package TaoServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @brief Storage engine backed by a RandomAccessFile opened in "rwd" mode, so every write is synchronously written to
+ * disk before returning. All reads and writes are positional, so any number of threads can use the file at once
+ */
+public class TaoFileStorage implements Storage {
+    // The file holding the tree
+    protected RandomAccessFile mFile;
+
+    // Channel used for positional reads and writes, shared by all threads
+    protected FileChannel mChannel;
+
+    /**
+     * @brief Constructor
+     * @param fileName
+     * @param size
+     */
+    public TaoFileStorage(String fileName, long size) throws IOException {
+        mFile = new RandomAccessFile(fileName, "rwd");
+        mFile.setLength(size);
+        mChannel = mFile.getChannel();
+    }
+
+    @Override
+    public void read(long offset, byte[] destination, int destinationOffset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(destination, destinationOffset, length);
+        while (buffer.hasRemaining()) {
+            // Positional reads do not touch the position of the channel, so they can run concurrently
+            int read = mChannel.read(buffer, offset + buffer.position() - destinationOffset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    @Override
+    public void write(long offset, byte[] source, int sourceOffset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(source, sourceOffset, length);
+        while (buffer.hasRemaining()) {
+            // Positional writes do not touch the position of the channel, so they can run concurrently
+            mChannel.write(buffer, offset + buffer.position() - sourceOffset);
+        }
+    }
+
+    @Override
+    public void commit() {
+        // The file is opened in "rwd" mode, so every write is already on disk
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+        mFile.close();
+    }
+}
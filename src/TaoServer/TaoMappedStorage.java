@@ -0,0 +1,241 @@
+package TaoServer;
+
+import TaoProxy.TaoLogger;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @brief Storage engine that maps the ORAM file into memory in fixed size segments. Reads and writes are plain memory
+ * copies, and writes are made durable with MappedByteBuffer.force() according to the sync policy
+ */
+public class TaoMappedStorage implements Storage {
+    // The file that is mapped
+    protected RandomAccessFile mFile;
+
+    // Channel used to map the file
+    protected FileChannel mChannel;
+
+    // The mapped segments of the file, in order
+    protected MappedByteBuffer[] mSegments;
+
+    // The size in bytes of each segment, except possibly the last one
+    protected long mSegmentSize;
+
+    // Marks which segments have been written to since they were last forced
+    protected AtomicIntegerArray mDirtySegments;
+
+    // Locks so that only one thread forces each segment at a time
+    protected Object[] mSegmentLocks;
+
+    // The sync policy, one of the SYNC_* values in Storage
+    protected String mSyncPolicy;
+
+    // For the periodic sync policy, the amount of milliseconds between forces
+    protected long mSyncInterval;
+
+    // Lock for the group commit state below
+    private final Object mCommitLock = new Object();
+
+    // The amount of commits that have been issued
+    protected long mCommitsIssued;
+
+    // The amount of commits that are known to be durable
+    protected long mCommitsDurable;
+
+    // Whether or not some committing thread is currently forcing segments on behalf of the others
+    protected boolean mForceInProgress;
+
+    // Whether or not the storage has been closed
+    protected volatile boolean mClosed;
+
+    /**
+     * @brief Constructor
+     * @param fileName
+     * @param size
+     * @param segmentSize
+     * @param syncPolicy
+     * @param syncInterval
+     */
+    public TaoMappedStorage(String fileName, long size, long segmentSize, String syncPolicy, long syncInterval) throws IOException {
+        // A single mapping can not be larger than Integer.MAX_VALUE
+        mSegmentSize = Math.min(segmentSize, Integer.MAX_VALUE);
+        mSyncPolicy = syncPolicy;
+        mSyncInterval = syncInterval;
+
+        // Create the file with the required size
+        mFile = new RandomAccessFile(fileName, "rw");
+        mFile.setLength(size);
+        mChannel = mFile.getChannel();
+
+        // Map each segment of the file
+        int numSegments = (int) ((size + mSegmentSize - 1) / mSegmentSize);
+        mSegments = new MappedByteBuffer[numSegments];
+        mDirtySegments = new AtomicIntegerArray(numSegments);
+        mSegmentLocks = new Object[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            long segmentStart = i * mSegmentSize;
+            long segmentLength = Math.min(mSegmentSize, size - segmentStart);
+            mSegments[i] = mChannel.map(FileChannel.MapMode.READ_WRITE, segmentStart, segmentLength);
+            mSegmentLocks[i] = new Object();
+        }
+
+        // Start up the background thread that forces segments for the periodic policy
+        if (mSyncPolicy.equals(SYNC_PERIODIC)) {
+            Runnable syncProcedure = () -> {
+                while (!mClosed) {
+                    try {
+                        Thread.sleep(mSyncInterval);
+                        force();
+                    } catch (InterruptedException e) {
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            Thread syncThread = new Thread(syncProcedure);
+            syncThread.setDaemon(true);
+            syncThread.start();
+        }
+    }
+
+    @Override
+    public void read(long offset, byte[] destination, int destinationOffset, int length) {
+        while (length > 0) {
+            // Find the segment that holds the offset, and how much of the request that segment can serve
+            int segment = (int) (offset / mSegmentSize);
+            int position = (int) (offset % mSegmentSize);
+            int amount = (int) Math.min(length, mSegmentSize - position);
+
+            // Use a duplicate so concurrent readers and writers do not share a position
+            ByteBuffer view = mSegments[segment].duplicate();
+            view.position(position);
+            view.get(destination, destinationOffset, amount);
+
+            offset += amount;
+            destinationOffset += amount;
+            length -= amount;
+        }
+    }
+
+    @Override
+    public void write(long offset, byte[] source, int sourceOffset, int length) {
+        while (length > 0) {
+            // Find the segment that holds the offset, and how much of the request that segment can serve
+            int segment = (int) (offset / mSegmentSize);
+            int position = (int) (offset % mSegmentSize);
+            int amount = (int) Math.min(length, mSegmentSize - position);
+
+            // Use a duplicate so concurrent readers and writers do not share a position
+            ByteBuffer view = mSegments[segment].duplicate();
+            view.position(position);
+            view.put(source, sourceOffset, amount);
+
+            // Mark the segment as needing to be forced only after the data is in it
+            mDirtySegments.set(segment, 1);
+
+            offset += amount;
+            sourceOffset += amount;
+            length -= amount;
+        }
+    }
+
+    @Override
+    public void commit() {
+        if (mSyncPolicy.equals(SYNC_ALWAYS)) {
+            force();
+        } else if (mSyncPolicy.equals(SYNC_GROUP)) {
+            groupCommit();
+        }
+    }
+
+    /**
+     * @brief Make all writes that happened before this call durable. Only one thread forces at a time, and a single
+     * force covers every commit that was issued before it started, so concurrent writers share the cost of a force
+     */
+    private void groupCommit() {
+        // Take a ticket, all of our writes have completed before this point
+        long ticket;
+        synchronized (mCommitLock) {
+            ticket = ++mCommitsIssued;
+        }
+
+        while (true) {
+            long covered;
+            synchronized (mCommitLock) {
+                // Wait for any force in progress, as it may cover us
+                while (mForceInProgress && mCommitsDurable < ticket) {
+                    try {
+                        mCommitLock.wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+
+                // Check if someone else has already made our writes durable
+                if (mCommitsDurable >= ticket) {
+                    return;
+                }
+
+                // Otherwise we become the thread that forces for everyone that has committed so far
+                mForceInProgress = true;
+                covered = mCommitsIssued;
+            }
+
+            boolean success = false;
+            try {
+                force();
+                success = true;
+            } finally {
+                synchronized (mCommitLock) {
+                    mForceInProgress = false;
+                    if (success && covered > mCommitsDurable) {
+                        mCommitsDurable = covered;
+                    }
+                    mCommitLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Force every segment that has been written to since it was last forced. A segment whose dirty flag was
+     * already cleared may still be in the middle of being forced by another thread, so each segment is forced under its
+     * own lock and a caller only returns once any force of the segment that was in progress has finished
+     */
+    private void force() {
+        for (int i = 0; i < mSegments.length; i++) {
+            synchronized (mSegmentLocks[i]) {
+                if (mDirtySegments.getAndSet(i, 0) == 1) {
+                    boolean success = false;
+                    try {
+                        mSegments[i].force();
+                        success = true;
+                    } finally {
+                        // Mark the segment dirty again if it could not be forced, so that the next force retries it
+                        if (!success) {
+                            mDirtySegments.set(i, 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+
+        // Make sure everything is on disk before closing, regardless of policy
+        try {
+            force();
+        } catch (Exception e) {
+            TaoLogger.logError("Could not force storage on close");
+        }
+        mChannel.close();
+        mFile.close();
+    }
+}
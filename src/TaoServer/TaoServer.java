@@ -8,8 +8,6 @@ import Messages.MessageTypes;
 import Messages.ProxyRequest;
 import Messages.ServerResponse;
 import TaoProxy.*;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 
 import java.io.*;
@@ -18,7 +16,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.Arrays;
 import java.util.Map;
-import java.util.Stack;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -42,22 +39,23 @@ public class TaoServer implements Server {
     protected ReentrantLock[] mBucketLocks;
 
     // Max threads for readPath tasks
-    public final int READ_PATH_THREADS = 1;
-    
+    protected int mReadPathThreads;
+
     // Max threads for writeBack or initialize tasks
-    public final int WRITE_BACK_THREADS = 1;
+    protected int mWriteBackThreads;
 
     // Executor for readPath tasks
-    protected ExecutorService mReadPathExecutor;
+    protected TaskExecutor mReadPathExecutor;
 
     // Executor for writeBack and initialize tasks
-    protected ExecutorService mWriteBackExecutor;
+    protected TaskExecutor mWriteBackExecutor;
+
+    // Executor that waits for the next request on each proxy connection, which may block for as long as the
+    // connection is idle, so it is not bounded
+    protected TaskExecutor mConnectionExecutor;
 
-    // read and write threads will take from a shared pool of file pointers
-    private final Semaphore mFilePointersSemaphore = new Semaphore(1);
-    
-    // shared stack of file pointers
-    protected Stack<RandomAccessFile> mFilePointers;
+    // The storage engine that holds the buckets of the tree
+    protected Storage mStorage;
 
     protected Map<ProxyRequest, Long> mReadStartTimes;
     protected Map<ProxyRequest, Long> mWriteStartTimes;
@@ -90,19 +88,20 @@ public class TaoServer implements Server {
                 mBucketLocks[i] = new ReentrantLock();
             }
 
-            mReadPathExecutor = Executors.newFixedThreadPool(READ_PATH_THREADS);
-            mWriteBackExecutor = Executors.newFixedThreadPool(WRITE_BACK_THREADS);
+            // Create the executors, using a thread per core if the amount of threads is not specified
+            int numCores = Runtime.getRuntime().availableProcessors();
+            mReadPathThreads = TaoConfigs.SERVER_READ_THREADS > 0 ? TaoConfigs.SERVER_READ_THREADS : numCores;
+            mWriteBackThreads = TaoConfigs.SERVER_WRITE_THREADS > 0 ? TaoConfigs.SERVER_WRITE_THREADS : numCores;
+            mReadPathExecutor = new TaskExecutor("server-read", mReadPathThreads, TaoConfigs.EXECUTOR_QUEUE_SIZE);
+            mWriteBackExecutor = new TaskExecutor("server-write", mWriteBackThreads, TaoConfigs.EXECUTOR_QUEUE_SIZE);
+            mConnectionExecutor = new TaskExecutor("server-connection", 0, 0);
+            TaskExecutor.logStats(TaoConfigs.EXECUTOR_STATS_INTERVAL);
 
             // Calculate the total amount of space the tree will use
             mServerSize = TaoConfigs.STORAGE_SERVER_SIZE;  //ServerUtility.calculateSize(mServerTreeHeight, TaoConfigs.ENCRYPTED_BUCKET_SIZE);
             
-            // Initialize file pointers
-            mFilePointers = new Stack<>();
-            for (int i = 0; i < WRITE_BACK_THREADS + READ_PATH_THREADS; i++) {
-                RandomAccessFile diskFile = new RandomAccessFile(TaoConfigs.ORAM_FILE, "rwd");
-                diskFile.setLength(mServerSize);
-                mFilePointers.push(diskFile);
-            }
+            // Initialize the storage engine
+            mStorage = createStorage();
 
             // Assign message creator
             mMessageCreator = messageCreator;
@@ -112,10 +111,32 @@ public class TaoServer implements Server {
         }
     }
 
+    /**
+     * @brief Method to create the storage engine specified by the configurations
+     * @return the storage engine for this server
+     */
+    protected Storage createStorage() throws IOException {
+        if (TaoConfigs.STORAGE_ENGINE.equals(Storage.ENGINE_MAPPED)) {
+            return new TaoMappedStorage(TaoConfigs.ORAM_FILE, mServerSize, TaoConfigs.STORAGE_SEGMENT_SIZE,
+                    TaoConfigs.STORAGE_SYNC_POLICY, TaoConfigs.STORAGE_SYNC_INTERVAL);
+        }
+
+        return new TaoFileStorage(TaoConfigs.ORAM_FILE, mServerSize);
+    }
+
     @Override
     public byte[] readPath(long pathID) {
-        // Array of byte arrays (buckets expressed as byte array)
-        byte[][] pathInBytes = new byte[mServerTreeHeight + 1][];
+        // Keep track of bucket size
+        int mBucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+
+        // The path ID followed by every bucket on the path, buckets are read directly into this array
+        byte[] returnData = new byte[8 + (mServerTreeHeight + 1) * mBucketSize];
+
+        // Keep track of the bucket we need to lock
+        int bucketLockIndex = 0;
+
+        // Lock the root bucket
+        mBucketLocks[bucketLockIndex].lock();
 
         try {
             // Get the directions for this path
@@ -127,44 +148,16 @@ public class TaoServer implements Server {
             // Index into logical array representing the ORAM tree
             long index = 0;
 
-            // The current bucket we are looking for
-            int currentBucket = 0;
-
-            // Keep track of bucket size
-            int mBucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
-
-            // Allocate byte array for this bucket
-            pathInBytes[currentBucket] = new byte[mBucketSize];
+            // Where the current bucket goes in the return array
+            int dataIndex = 0;
 
-            // Keep track of the bucket we need to lock
-            int bucketLockIndex = 0;
-            
-            // Grab a file pointer from shared pool
-            while (true) {
-                try {
-                    mFilePointersSemaphore.acquire();
-                    break;
-                } catch (InterruptedException e) {
-                }
-            }
-            
-            RandomAccessFile diskFile = null;
-            synchronized(mFilePointers) {
-                diskFile = mFilePointers.pop();
-            }
-            
-
-            // Lock appropriate bucket
-            mBucketLocks[bucketLockIndex].lock();
+            // Add the path ID to the front of the path
+            System.arraycopy(Longs.toByteArray(pathID), 0, returnData, dataIndex, 8);
+            dataIndex += 8;
 
-            // Seek into the file
-            diskFile.seek(offset);
-
-            // Read bytes from the disk file into the byte array for this bucket
-            diskFile.readFully(pathInBytes[currentBucket]);
-
-            // Increment the current bucket
-            currentBucket++;
+            // Read the root bucket
+            mStorage.read(offset, returnData, dataIndex, mBucketSize);
+            dataIndex += mBucketSize;
 
             // Visit the rest of the buckets
             for (Boolean right : pathDirection) {
@@ -173,65 +166,147 @@ public class TaoServer implements Server {
 
                 // Navigate the array representing the tree
                 if (right) {
-                    bucketLockIndex = 2 * bucketLockIndex + 2;
                     offset = (2 * index + 2) * mBucketSize;
                     index = offset / mBucketSize;
                 } else {
-                    bucketLockIndex = 2 * bucketLockIndex + 1;
                     offset = (2 * index + 1) * mBucketSize;
                     index = offset / mBucketSize;
                 }
 
-                // Allocate byte array for this bucket
-                pathInBytes[currentBucket] = new byte[mBucketSize];
-                
                 // Lock bucket
-                mBucketLocks[bucketLockIndex].lock();
+                mBucketLocks[(int) index].lock();
+                bucketLockIndex = (int) index;
 
                 // Unlock previous bucket
-                mBucketLocks[previousBucketLockIndex].unlock();               
-
-                // Seek into file
-                diskFile.seek(offset);
-
-                // Read bytes from the disk file into the byte array for this bucket
-                diskFile.readFully(pathInBytes[currentBucket]);
-
-                // Increment the current bucket
-                currentBucket++;
-            }
-            
-            // Unlock final bucket
-            mBucketLocks[bucketLockIndex].unlock();
-
-            // Release the file pointer lock
-            synchronized(mFilePointers) {
-                mFilePointers.push(diskFile);
-            }
-            mFilePointersSemaphore.release();
-
-
-            // Put first bucket into a new byte array representing the final return value
-            byte[] returnData = pathInBytes[0];
+                mBucketLocks[previousBucketLockIndex].unlock();
 
-            // Add every bucket into the new byte array
-            for (int i = 1; i < pathInBytes.length; i++) {
-                returnData = Bytes.concat(returnData, pathInBytes[i]);
+                // Read bytes for this bucket into the return array
+                mStorage.read(offset, returnData, dataIndex, mBucketSize);
+                dataIndex += mBucketSize;
             }
 
             // Return complete path
-            returnData = Bytes.concat(Longs.toByteArray(pathID), returnData);
             return returnData;
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            // Unlock final bucket
+            mBucketLocks[bucketLockIndex].unlock();
         }
 
         // Return null if there is an error
         return null;
     }
 
+    /**
+     * @brief Method to write a run of consecutive buckets straight to storage, in the order they are laid out on disk.
+     * Used to format the tree before it is used, so the bucket locks are not taken
+     * @param firstBucket the index of the first bucket to write, where the root is bucket 0
+     * @param data the encrypted buckets, one after the other
+     * @return if the write was successful or not
+     */
+    public boolean formatBuckets(long firstBucket, byte[] data) {
+        int bucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+        int numBuckets = data.length / bucketSize;
+
+        // Make sure the buckets are in the tree
+        long treeBuckets = (2L << mServerTreeHeight) - 1;
+        if (firstBucket < 0 || firstBucket + numBuckets > treeBuckets) {
+            return false;
+        }
+
+        try {
+            // The buckets have not been written by any write back yet
+            Arrays.fill(mMostRecentTimestamp, (int) firstBucket, (int) firstBucket + numBuckets, 0);
+
+            // Write every bucket with a single write
+            mStorage.write(firstBucket * bucketSize, data, 0, numBuckets * bucketSize);
+            mStorage.commit();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     @Override
     public boolean writePath(long pathID, byte[] data, long timestamp) {
+        return writePath(pathID, data, 0, timestamp);
+    }
+
+    /**
+     * @brief Method to write every path of a write request
+     * @param proxyReq
+     * @return if every write was successful or not
+     */
+    public boolean writePaths(ProxyRequest proxyReq) {
+        // If the write was successful
+        boolean success = true;
+
+        // Get the data to be written
+        byte[] dataToWrite = proxyReq.getDataToWrite();
+
+        // Get the size of each path
+        int pathSize = proxyReq.getPathSize();
+
+        // Where to start the current write
+        int startIndex = 0;
+
+        // Variables to be used while writing
+        long currentPathID;
+        long timestamp = proxyReq.getTimestamp();
+
+        // Write each path
+        while (startIndex < dataToWrite.length) {
+            // Get the current path id from the data to write, the encrypted path follows it
+            // TODO: Generalize this somehow, possibly add a method to ProxyRequest
+            currentPathID = Longs.fromByteArray(Arrays.copyOfRange(dataToWrite, startIndex, startIndex + 8));
+
+            // Write path straight from the request data
+            TaoLogger.logDebug("Going to writepath " + currentPathID + " with timestamp " + timestamp);
+            if (!writePath(currentPathID, dataToWrite, startIndex + 8, timestamp)) {
+                success = false;
+            }
+
+            // Increment start index
+            startIndex += pathSize;
+        }
+
+        return success;
+    }
+
+    /**
+     * @brief Method to write a path whose buckets start at the given offset of data
+     * @param pathID
+     * @param data
+     * @param dataOffset
+     * @param timestamp
+     * @return if the write was successful or not
+     */
+    public boolean writePath(long pathID, byte[] data, int dataOffset, long timestamp) {
+        return writePath(pathID, data, dataOffset, timestamp, 0);
+    }
+
+    /**
+     * @brief Method to write the buckets of a path from the given level down to the leaf. The buckets start at the
+     * given offset of data, beginning with the bucket at firstLevel
+     * @param pathID
+     * @param data
+     * @param dataOffset
+     * @param timestamp
+     * @param firstLevel the level of the first bucket to write, where the root is level 0
+     * @return if the write was successful or not
+     */
+    public boolean writePath(long pathID, byte[] data, int dataOffset, long timestamp, int firstLevel) {
+        // Keep track of bucket size
+        int mBucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+
+        // The current bucket we are looking for
+        int bucketLockIndex = 0;
+
+        // Lock the root bucket
+        mBucketLocks[bucketLockIndex].lock();
+
         try {
             // Get the directions for this path
             boolean[] pathDirection = Utility.getPathFromPID(pathID, mServerTreeHeight);
@@ -242,56 +317,29 @@ public class TaoServer implements Server {
             // Index into logical array representing the ORAM tree
             long indexIntoTree = 0;
 
-            // Indices into the data byte array
-            int dataIndexStart = 0;
-            int dataIndexStop = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
-
-            // The current bucket we are looking for
-            int bucketLockIndex = 0;
+            // Index into the data byte array
+            int dataIndexStart = dataOffset;
 
             // The current timestamp we are checking
             int timestampIndex = 0;
-            
-            // Grab a file pointer from shared pool
-            while (true) {
-                try {
-                    mFilePointersSemaphore.acquire();
-                    break;
-                } catch (InterruptedException e) {
-                }
-            }
-            
-            RandomAccessFile diskFile = null;
-            synchronized(mFilePointers) {
-                diskFile = mFilePointers.pop();
-            }
-            
-            // Lock bucket
-            mBucketLocks[bucketLockIndex].lock();
-
-            // Check to see what the timestamp is for the root
-            if (timestamp >= mMostRecentTimestamp[timestampIndex]) {
 
-                // Seek into file
-                diskFile.seek(offsetInDisk);
+            // The level of the current bucket
+            int level = 0;
 
-                // Write bucket to disk
-                diskFile.write(Arrays.copyOfRange(data, dataIndexStart, dataIndexStop));
+            // Check to see what the timestamp is for the root
+            if (level >= firstLevel) {
+                if (timestamp >= mMostRecentTimestamp[timestampIndex]) {
+                    // Write bucket to disk
+                    mStorage.write(offsetInDisk, data, dataIndexStart, mBucketSize);
 
-                // Update timestamp
-                mMostRecentTimestamp[timestampIndex] = timestamp;
+                    // Update timestamp
+                    mMostRecentTimestamp[timestampIndex] = timestamp;
+                }
 
+                // Increment index
+                dataIndexStart += mBucketSize;
             }
 
-            // Keep track of bucket size
-            int mBucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
-
-            // Increment indices
-            dataIndexStart += mBucketSize;
-            dataIndexStop += mBucketSize;
-
-            int level = 1;
-            
             // Write the rest of the buckets
             for (Boolean right : pathDirection) {
 
@@ -299,55 +347,51 @@ public class TaoServer implements Server {
 
                 // Navigate the array representing the tree
                 if (right) {
-                    bucketLockIndex = 2 * bucketLockIndex + 2;
                     timestampIndex = 2 * timestampIndex + 2;
                     offsetInDisk = (2 * indexIntoTree + 2) * mBucketSize;
                     indexIntoTree = offsetInDisk / mBucketSize;
                 } else {
-                    bucketLockIndex = 2 * bucketLockIndex + 1;
                     timestampIndex = 2 * timestampIndex + 1;
                     offsetInDisk = (2 * indexIntoTree + 1) * mBucketSize;
                     indexIntoTree = offsetInDisk / mBucketSize;
                 }
 
-                // Get the data for the current bucket to be writen
-                byte[] dataToWrite = Arrays.copyOfRange(data, dataIndexStart, dataIndexStop);
-
                 // Lock bucket
-                mBucketLocks[bucketLockIndex].lock();
-                
+                mBucketLocks[(int) indexIntoTree].lock();
+                bucketLockIndex = (int) indexIntoTree;
+
                 // Unlock previous bucket
                 mBucketLocks[previousBucketLockIndex].unlock();
 
+                // Buckets above the first level are not part of the data
+                level++;
+                if (level < firstLevel) {
+                    continue;
+                }
+
                 // Check to see that we have the newest version of bucket
                 if (timestamp >= mMostRecentTimestamp[timestampIndex]) {
-
-                    // Seek into disk
-                    diskFile.seek(offsetInDisk);
-
                     // Write bucket to disk
-                    diskFile.write(dataToWrite);
+                    mStorage.write(offsetInDisk, data, dataIndexStart, mBucketSize);
 
                     // Update timestamp
                     mMostRecentTimestamp[timestampIndex] = timestamp;
-
                 }
 
-                level++;
-
-                // Increment indices
+                // Increment index
                 dataIndexStart += mBucketSize;
-                dataIndexStop += mBucketSize;
             }
-            
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
             // Unlock final bucket
             mBucketLocks[bucketLockIndex].unlock();
-            
-            // Release the file pointer lock
-            synchronized(mFilePointers) {
-                mFilePointers.push(diskFile);
-            }
-            mFilePointersSemaphore.release();
+        }
+
+        try {
+            // Make the path durable, done after releasing the bucket locks so readers are not held up by the disk
+            mStorage.commit();
 
             // Return true, signaling that the write was successful
             return true;
@@ -377,9 +421,9 @@ public class TaoServer implements Server {
                     // Start listening for other connections
                     channel.accept(null, this);
 
-                    // Start up a new thread to serve this connection
+                    // Serve this connection on a thread of its own
                     Runnable serializeProcedure = () -> serveProxy(proxyChannel);
-                    new Thread(serializeProcedure).start();
+                    mConnectionExecutor.execute(serializeProcedure);
                 }
                 @Override
                 public void failed(Throwable exc, Void att) {
@@ -399,52 +443,48 @@ public class TaoServer implements Server {
         try {
 
             // Create byte buffer to use to read incoming message type and size
-            ByteBuffer messageTypeAndSize = ByteBuffer.allocate(4 + 4);
+            ByteBuffer messageTypeAndSize = MessageUtility.createTypeReceiveBuffer();
 
             // Read the initial header
-            Future initRead = channel.read(messageTypeAndSize);
-            initRead.get();
+            while (messageTypeAndSize.remaining() > 0) {
+                Future<Integer> initRead = channel.read(messageTypeAndSize);
+                if (initRead.get() < 0) {
+                    throw new IOException("Proxy closed the connection");
+                }
+            }
 
             // Flip buffer for reading
             messageTypeAndSize.flip();
 
             // Parse the message type and size from server
-            byte[] messageTypeBytes = new byte[4];
-            byte[] messageLengthBytes = new byte[4];
-            messageTypeAndSize.get(messageTypeBytes);
-            messageTypeAndSize.get(messageLengthBytes);
-            int messageType = Ints.fromByteArray(messageTypeBytes);
-            int messageLength = Ints.fromByteArray(messageLengthBytes);
-
-            // Clear buffer
-            messageTypeAndSize = null;
+            int[] typeAndLength = MessageUtility.parseTypeAndLength(messageTypeAndSize);
+            int messageType = typeAndLength[0];
+            int messageLength = typeAndLength[1];
 
             // Read rest of message
             ByteBuffer message = ByteBuffer.allocate(messageLength);
             while (message.remaining() > 0) {
-                Future entireRead = channel.read(message);
-                entireRead.get();
+                Future<Integer> entireRead = channel.read(message);
+                if (entireRead.get() < 0) {
+                    throw new IOException("Proxy closed the connection");
+                }
             }
 
             // Flip buffer for reading
             message.flip();
 
-            // Get bytes from message
-            byte[] requestBytes = new byte[messageLength];
-            message.get(requestBytes);
+            // Create proxy request directly from the received bytes
+            ProxyRequest proxyReq = mMessageCreator.parseProxyRequestBytes(message);
 
             // Clear buffer
             message = null;
 
-            // Create proxy read request from bytes
-            ProxyRequest proxyReq = mMessageCreator.parseProxyRequestBytes(requestBytes);
-
             // Check message type
             if (messageType == MessageTypes.PROXY_READ_REQUEST) {
                 // Profiling
                 mReadStartTimes.put(proxyReq, System.currentTimeMillis());
 
-                mReadPathExecutor.submit(() -> {
+                mReadPathExecutor.execute(() -> {
 
                     TaoLogger.logDebug("Serving a read request");
                     // Read the request path
@@ -460,23 +500,14 @@ public class TaoServer implements Server {
                     readResponse.setPathID(proxyReq.getPathID());
                     readResponse.setPathBytes(returnPathData);
 
-                    byte[] pathBytes = Longs.toByteArray(proxyReq.getPathID());
-                    pathBytes = Bytes.concat(pathBytes, returnPathData);
-
-                    // To be used for server response
-                    byte[] messageTypeAndLength = null;
-                    byte[] serializedResponse = null;
-
-                    // Create server response data and header
-                    serializedResponse = readResponse.serialize();
-                    messageTypeAndLength = Bytes.concat(Ints.toByteArray(MessageTypes.SERVER_RESPONSE), Ints.toByteArray(serializedResponse.length));
-
-                    // Create message to send to proxy
-                    ByteBuffer returnMessageBuffer = ByteBuffer.wrap(Bytes.concat(messageTypeAndLength, serializedResponse));
+                    // Create message to send to proxy, serializing the response directly after the header
+                    ByteBuffer returnMessageBuffer = MessageUtility.createMessageBuffer(MessageTypes.SERVER_RESPONSE, readResponse.getSerializedSize());
+                    readResponse.serialize(returnMessageBuffer);
+                    returnMessageBuffer.flip();
 
                     try {
                         // Write to proxy
-                        TaoLogger.logDebug("Going to send response of size " + serializedResponse.length);
+                        TaoLogger.logDebug("Going to send response of size " + returnMessageBuffer.remaining());
                         while (returnMessageBuffer.remaining() > 0) {
                             Future writeToProxy = channel.write(returnMessageBuffer);
                             writeToProxy.get();
@@ -494,60 +525,123 @@ public class TaoServer implements Server {
                     } finally {
                         // Serve the next proxy request
                         Runnable serializeProcedure = () -> serveProxy(channel);
-                        new Thread(serializeProcedure).start();
+                        mConnectionExecutor.execute(serializeProcedure);
                     }
 
                 });
 
-            } else if (messageType == MessageTypes.PROXY_WRITE_REQUEST) {
-                // Profiling
-                mWriteStartTimes.put(proxyReq, System.currentTimeMillis());
+            } else if (messageType == MessageTypes.PROXY_TAGGED_READ_REQUEST) {
+                // Tagged reads are answered with their request ID, so the proxy may have many of them outstanding on
+                // this channel and the next request can be served before this one is answered
+                Runnable serializeProcedure = () -> serveProxy(channel);
+                mConnectionExecutor.execute(serializeProcedure);
 
-                mWriteBackExecutor.submit(()-> {
+                long startTime = System.currentTimeMillis();
 
-                    TaoLogger.logDebug("Serving a write request");
+                mReadPathExecutor.execute(() -> {
+                    TaoLogger.logDebug("Serving a tagged read request " + proxyReq.getRequestID());
 
-                    // If the write was successful
-                    boolean success = true;
-                    //if (proxyReq.getTimestamp() >= mTimestamp) {
-                    //  mTimestamp = proxyReq.getTimestamp();
+                    // Read the request path
+                    byte[] returnPathData = readPath(proxyReq.getPathID());
 
-                    // Get the data to be written
-                    byte[] dataToWrite = proxyReq.getDataToWrite();
+                    // Create a server response
+                    ServerResponse readResponse = mMessageCreator.createServerResponse();
+                    readResponse.setProcessingTime(System.currentTimeMillis() - startTime);
+                    readResponse.setPathID(proxyReq.getPathID());
+                    readResponse.setPathBytes(returnPathData);
 
-                    // Get the size of each path
-                    int pathSize = proxyReq.getPathSize();
+                    // Create message to send to proxy, with the request ID in front of the response
+                    ByteBuffer returnMessageBuffer = MessageUtility.createMessageBuffer(MessageTypes.SERVER_TAGGED_RESPONSE, 8 + readResponse.getSerializedSize());
+                    returnMessageBuffer.putLong(proxyReq.getRequestID());
+                    readResponse.serialize(returnMessageBuffer);
+                    returnMessageBuffer.flip();
 
-                    // Where to start the current write
-                    int startIndex = 0;
+                    try {
+                        // Responses are written whole, one at a time, as other reads may be answered on this channel
+                        synchronized (channel) {
+                            while (returnMessageBuffer.remaining() > 0) {
+                                Future writeToProxy = channel.write(returnMessageBuffer);
+                                writeToProxy.get();
+                            }
+                        }
+                    } catch (Exception e) {
+                        try {
+                            channel.close();
+                        } catch (IOException e1) {
+                        }
+                    }
+                });
+            } else if (messageType == MessageTypes.PROXY_BATCH_READ_REQUEST) {
+                // Profiling
+                long batchStartTime = System.currentTimeMillis();
 
-                    // Where to end the current write
-                    int endIndex = pathSize;
+                mReadPathExecutor.execute(() -> {
 
-                    // Variables to be used while writing
-                    byte[] currentPath;
-                    long currentPathID;
-                    byte[] encryptedPath;
-                    long timestamp = proxyReq.getTimestamp();
-                    // Write each path
-                    while (startIndex < dataToWrite.length) {
-                        // Get the current path and path id from the data to write
-                        // TODO: Generalize this somehow, possibly add a method to ProxyRequest
-                        currentPath = Arrays.copyOfRange(dataToWrite, startIndex, endIndex);
+                    TaoLogger.logDebug("Serving a batch read request");
+                    long[] pathIDs = proxyReq.getPathIDs();
 
-                        currentPathID = Longs.fromByteArray(Arrays.copyOfRange(currentPath, 0, 8));
-                        encryptedPath = Arrays.copyOfRange(currentPath, 8, currentPath.length);
+                    // Every path on this server is the same size, so we know the size of the response before reading
+                    int pathLength = 8 + (mServerTreeHeight + 1) * (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+                    int entryLength = 4 + 8 + 8 + pathLength;
+                    int responseLength = 4 + pathIDs.length * (4 + entryLength);
 
-                        // Write path
-                        TaoLogger.logDebug("Going to writepath " + currentPathID + " with timestamp " + proxyReq.getTimestamp());
-                        if (!writePath(currentPathID, encryptedPath, timestamp)) {
-                            success = false;
+                    try {
+                        // Send the header along with the amount of paths that will follow
+                        ByteBuffer header = ByteBuffer.allocate(4 + 4 + 4);
+                        header.putInt(MessageTypes.SERVER_BATCH_RESPONSE);
+                        header.putInt(responseLength);
+                        header.putInt(pathIDs.length);
+                        header.flip();
+                        while (header.remaining() > 0) {
+                            channel.write(header).get();
+                        }
+
+                        // Stream each path back, in order, as soon as it has been read
+                        for (long pathID : pathIDs) {
+                            byte[] returnPathData = readPath(pathID);
+                            if (returnPathData == null) {
+                                throw new IOException("Could not read path " + pathID);
+                            }
+
+                            // Create a server response for this path
+                            ServerResponse readResponse = mMessageCreator.createServerResponse();
+                            readResponse.setProcessingTime(System.currentTimeMillis() - batchStartTime);
+                            readResponse.setPathID(pathID);
+                            readResponse.setPathBytes(returnPathData);
+
+                            // Each response is prefixed with its length
+                            ByteBuffer entry = ByteBuffer.allocate(4 + readResponse.getSerializedSize());
+                            entry.putInt(readResponse.getSerializedSize());
+                            readResponse.serialize(entry);
+                            entry.flip();
+                            while (entry.remaining() > 0) {
+                                channel.write(entry).get();
+                            }
                         }
+                        TaoLogger.logDebug("Sent batch response for " + pathIDs.length + " paths");
 
-                        // Increment start and end indexes
-                        startIndex += pathSize;
-                        endIndex += pathSize;
+                        // Serve the next proxy request
+                        Runnable serializeProcedure = () -> serveProxy(channel);
+                        mConnectionExecutor.execute(serializeProcedure);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        try {
+                            channel.close();
+                        } catch (IOException e1) {
+                        }
                     }
+                });
+
+            } else if (messageType == MessageTypes.PROXY_WRITE_REQUEST) {
+                // Profiling
+                mWriteStartTimes.put(proxyReq, System.currentTimeMillis());
+
+                mWriteBackExecutor.execute(()-> {
+
+                    TaoLogger.logDebug("Serving a write request");
+
+                    // Write each path in the request
+                    boolean success = writePaths(proxyReq);
 
                     long startTime = mWriteStartTimes.get(proxyReq);
                     mWriteStartTimes.remove(proxyReq);
@@ -558,19 +652,14 @@ public class TaoServer implements Server {
                     writeResponse.setProcessingTime(time);
                     writeResponse.setIsWrite(success);
 
-                    // To be used for server response
-                    byte[] messageTypeAndLength = null;
-                    byte[] serializedResponse = null;
-
-                    // Create server response data and header
-                    serializedResponse = writeResponse.serialize();
-                    messageTypeAndLength = Bytes.concat(Ints.toByteArray(MessageTypes.SERVER_RESPONSE), Ints.toByteArray(serializedResponse.length));
-                    // Create message to send to proxy
-                    ByteBuffer returnMessageBuffer = ByteBuffer.wrap(Bytes.concat(messageTypeAndLength, serializedResponse));
+                    // Create message to send to proxy, serializing the response directly after the header
+                    ByteBuffer returnMessageBuffer = MessageUtility.createMessageBuffer(MessageTypes.SERVER_RESPONSE, writeResponse.getSerializedSize());
+                    writeResponse.serialize(returnMessageBuffer);
+                    returnMessageBuffer.flip();
 
                     try {
                         // Write to proxy
-                        TaoLogger.logDebug("Going to send response of size " + serializedResponse.length);
+                        TaoLogger.logDebug("Going to send response of size " + returnMessageBuffer.remaining());
                         while (returnMessageBuffer.remaining() > 0) {
                             Future writeToProxy = channel.write(returnMessageBuffer);
                             writeToProxy.get();
@@ -588,12 +677,52 @@ public class TaoServer implements Server {
                     } finally {
                         // Serve the next proxy request
                         Runnable serializeProcedure = () -> serveProxy(channel);
-                        new Thread(serializeProcedure).start();
+                        mConnectionExecutor.execute(serializeProcedure);
+                    }
+                });
+            } else if (messageType == MessageTypes.PROXY_TAGGED_WRITE_REQUEST) {
+                // Tagged writes are answered with their request ID, so the proxy may send writebacks on this channel
+                // without waiting for earlier ones to be answered
+                Runnable serializeProcedure = () -> serveProxy(channel);
+                mConnectionExecutor.execute(serializeProcedure);
+
+                long startTime = System.currentTimeMillis();
+
+                mWriteBackExecutor.execute(() -> {
+                    TaoLogger.logDebug("Serving a tagged write request " + proxyReq.getRequestID());
+
+                    // Write each path in the request
+                    boolean success = writePaths(proxyReq);
+
+                    // Create a server response
+                    ServerResponse writeResponse = mMessageCreator.createServerResponse();
+                    writeResponse.setProcessingTime(System.currentTimeMillis() - startTime);
+                    writeResponse.setIsWrite(success);
+
+                    // Create message to send to proxy, with the request ID in front of the response
+                    ByteBuffer returnMessageBuffer = MessageUtility.createMessageBuffer(MessageTypes.SERVER_TAGGED_RESPONSE, 8 + writeResponse.getSerializedSize());
+                    returnMessageBuffer.putLong(proxyReq.getRequestID());
+                    writeResponse.serialize(returnMessageBuffer);
+                    returnMessageBuffer.flip();
+
+                    try {
+                        // Responses are written whole, one at a time, as other requests may be answered on this channel
+                        synchronized (channel) {
+                            while (returnMessageBuffer.remaining() > 0) {
+                                Future writeToProxy = channel.write(returnMessageBuffer);
+                                writeToProxy.get();
+                            }
+                        }
+                    } catch (Exception e) {
+                        try {
+                            channel.close();
+                        } catch (IOException e1) {
+                        }
                     }
                 });
             } else if (messageType == MessageTypes.PROXY_INITIALIZE_REQUEST) {
 
-                mWriteBackExecutor.submit(()-> {
+                mWriteBackExecutor.execute(()-> {
 
 
                     TaoLogger.logDebug("Serving an initialize request");
@@ -609,60 +738,41 @@ public class TaoServer implements Server {
                     // Get the data to be written
                     byte[] dataToWrite = proxyReq.getDataToWrite();
 
-                    // Get the size of each path
-                    int pathSize = proxyReq.getPathSize();
-
                     // Where to start the current write
                     int startIndex = 0;
 
-                    // Where to end the current write
-                    int endIndex = pathSize;
-
                     // Variables to be used while writing
-                    byte[] currentPath;
                     long currentPathID;
-                    byte[] encryptedPath;
 
-                    // Write each path
+                    // Write each path. Buckets that are shared with a path of a lower ID are left out of the request,
+                    // so each path only carries the buckets from its first unshared level down
                     while (startIndex < dataToWrite.length) {
-                        // Get the current path and path id from the data to write
-                        // TODO: Generalize this somehow, possibly add a method to ProxyRequest
-                        currentPath = Arrays.copyOfRange(dataToWrite, startIndex, endIndex);
-                        currentPathID = Longs.fromByteArray(Arrays.copyOfRange(currentPath, 0, 8));
-                        encryptedPath = Arrays.copyOfRange(currentPath, 8, currentPath.length);
-                        TaoPath path = new TaoPath(currentPathID);
-                        path.initFromSerialized(encryptedPath);
-                        //path.print();
-
-                        // Write path
-                        TaoLogger.logDebug("Going to writepath " + currentPathID + " with timestamp " + proxyReq.getTimestamp());
-                        if (!writePath(currentPathID, encryptedPath, 0)) {
+                        // Get the current path id from the data to write, the encrypted buckets follow it
+                        currentPathID = Longs.fromByteArray(Arrays.copyOfRange(dataToWrite, startIndex, startIndex + 8));
+                        int firstLevel = Utility.getFirstUnsharedLevel(currentPathID, mServerTreeHeight);
+
+                        // Write path straight from the request data
+                        TaoLogger.logDebug("Going to initialize path " + currentPathID + " from level " + firstLevel);
+                        if (!writePath(currentPathID, dataToWrite, startIndex + 8, 0, firstLevel)) {
                             success = false;
                         }
 
-                        // Increment start and end indexes
-                        startIndex += pathSize;
-                        endIndex += pathSize;
+                        // Increment start index
+                        startIndex += 8 + (mServerTreeHeight + 1 - firstLevel) * (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
                     }
 
-                    // To be used for server response
-                    byte[] messageTypeAndLength = null;
-                    byte[] serializedResponse = null;
-
                     // Create a server response
                     ServerResponse writeResponse = mMessageCreator.createServerResponse();
                     writeResponse.setIsWrite(success);
 
-                    // Create server response data and header
-                    serializedResponse = writeResponse.serialize();
-                    messageTypeAndLength = Bytes.concat(Ints.toByteArray(MessageTypes.SERVER_RESPONSE), Ints.toByteArray(serializedResponse.length));
-
-                    // Create message to send to proxy
-                    ByteBuffer returnMessageBuffer = ByteBuffer.wrap(Bytes.concat(messageTypeAndLength, serializedResponse));
+                    // Create message to send to proxy, serializing the response directly after the header
+                    ByteBuffer returnMessageBuffer = MessageUtility.createMessageBuffer(MessageTypes.SERVER_RESPONSE, writeResponse.getSerializedSize());
+                    writeResponse.serialize(returnMessageBuffer);
+                    returnMessageBuffer.flip();
 
                     try {
                         // Write to proxy
-                        TaoLogger.logDebug("Going to send response of size " + serializedResponse.length);
+                        TaoLogger.logDebug("Going to send response of size " + returnMessageBuffer.remaining());
                         while (returnMessageBuffer.remaining() > 0) {
                             Future writeToProxy = channel.write(returnMessageBuffer);
                             writeToProxy.get();
@@ -680,7 +790,41 @@ public class TaoServer implements Server {
                     } finally {
                         // Serve the next proxy request
                         Runnable serializeProcedure = () -> serveProxy(channel);
-                        new Thread(serializeProcedure).start();
+                        mConnectionExecutor.execute(serializeProcedure);
+                    }
+                });
+            } else if (messageType == MessageTypes.PROXY_FORMAT_REQUEST) {
+
+                mWriteBackExecutor.execute(()-> {
+                    TaoLogger.logDebug("Serving a format request starting at bucket " + proxyReq.getFirstBucket());
+
+                    // Write the buckets in one pass
+                    boolean success = formatBuckets(proxyReq.getFirstBucket(), proxyReq.getDataToWrite());
+
+                    // Create a server response
+                    ServerResponse writeResponse = mMessageCreator.createServerResponse();
+                    writeResponse.setIsWrite(success);
+
+                    // Create message to send to proxy, serializing the response directly after the header
+                    ByteBuffer returnMessageBuffer = MessageUtility.createMessageBuffer(MessageTypes.SERVER_RESPONSE, writeResponse.getSerializedSize());
+                    writeResponse.serialize(returnMessageBuffer);
+                    returnMessageBuffer.flip();
+
+                    try {
+                        // Write to proxy
+                        while (returnMessageBuffer.remaining() > 0) {
+                            Future writeToProxy = channel.write(returnMessageBuffer);
+                            writeToProxy.get();
+                        }
+                    } catch (Exception e) {
+                        try {
+                            channel.close();
+                        } catch (IOException e1) {
+                        }
+                    } finally {
+                        // Serve the next proxy request
+                        Runnable serializeProcedure = () -> serveProxy(channel);
+                        mConnectionExecutor.execute(serializeProcedure);
                     }
                 });
             }
@@ -1,6 +1,7 @@
 package TaoServerTest;
 
 import Configuration.TaoConfigs;
+import Configuration.Utility;
 import TaoProxy.*;
 
 import TaoServer.TaoServer;
@@ -84,4 +85,79 @@ public class TaoServerTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testInitializePath() {
+        // Create server
+        TaoServer server = new TaoServer(new TaoMessageCreator());
+        TaoCryptoUtil cryptoUtil = new TaoCryptoUtil();
+        int height = TaoConfigs.STORAGE_SERVER_TREE_HEIGHT;
+
+        // Path 0 holds every bucket on it, other paths hold the buckets below their lowest set bit
+        assertEquals(0, Utility.getFirstUnsharedLevel(0, height));
+        assertEquals(height, Utility.getFirstUnsharedLevel(1, height));
+        assertEquals(height - 1, Utility.getFirstUnsharedLevel(2, height));
+        assertEquals(1, Utility.getFirstUnsharedLevel(1L << (height - 1), height));
+
+        // Write all of path 0, with each bucket holding a block that has the level as its ID
+        TaoPath firstPath = new TaoPath(0);
+        for (int i = 0; i < TaoConfigs.TREE_HEIGHT + 1; i++) {
+            TaoBucket bucket = new TaoBucket();
+            bucket.addBlock(new TaoBlock(i), 0);
+            firstPath.addBucket(bucket);
+        }
+        byte[] encryptedPath = cryptoUtil.encryptPath(firstPath);
+        assertTrue(server.writePath(0, encryptedPath, 8, 0, 0));
+
+        // Write only the leaf of path 1, which holds a different block
+        TaoPath secondPath = new TaoPath(1);
+        for (int i = 0; i < TaoConfigs.TREE_HEIGHT + 1; i++) {
+            TaoBucket bucket = new TaoBucket();
+            bucket.addBlock(new TaoBlock(100 + i), 0);
+            secondPath.addBucket(bucket);
+        }
+        encryptedPath = cryptoUtil.encryptPath(secondPath);
+        int bucketOffset = 8 + height * (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+        assertTrue(server.writePath(1, encryptedPath, bucketOffset, 0, Utility.getFirstUnsharedLevel(1, height)));
+
+        // Path 1 should share every bucket but the leaf with path 0
+        Bucket[] buckets = cryptoUtil.decryptPath(server.readPath(1)).getBuckets();
+        for (int i = 0; i < height; i++) {
+            assertEquals(i, buckets[i].getBlocks()[0].getBlockID());
+        }
+        assertEquals(100 + height, buckets[height].getBlocks()[0].getBlockID());
+    }
+
+    @Test
+    public void testFormatBuckets() {
+        // Create server
+        TaoServer server = new TaoServer(new TaoMessageCreator());
+        TaoCryptoUtil cryptoUtil = new TaoCryptoUtil();
+        int height = TaoConfigs.STORAGE_SERVER_TREE_HEIGHT;
+        int bucketSize = (int) TaoConfigs.ENCRYPTED_BUCKET_SIZE;
+        int numBuckets = (2 << height) - 1;
+
+        // Format the whole tree, with each bucket holding a block that has the index of the bucket as its ID
+        byte[] data = new byte[numBuckets * bucketSize];
+        for (int i = 0; i < numBuckets; i++) {
+            TaoBucket bucket = new TaoBucket();
+            bucket.addBlock(new TaoBlock(i), 0);
+            System.arraycopy(cryptoUtil.encrypt(bucket.serialize()), 0, data, i * bucketSize, bucketSize);
+        }
+        assertTrue(server.formatBuckets(0, data));
+
+        // Buckets outside of the tree can not be formatted
+        assertFalse(server.formatBuckets(numBuckets - 1, Arrays.copyOf(data, 2 * bucketSize)));
+
+        // Each bucket of a path should be the bucket at its index in the tree
+        long pathID = 5;
+        Bucket[] buckets = cryptoUtil.decryptPath(server.readPath(pathID)).getBuckets();
+        boolean[] directions = Utility.getPathFromPID(pathID, height);
+        long index = 0;
+        assertEquals(index, buckets[0].getBlocks()[0].getBlockID());
+        for (int level = 1; level <= height; level++) {
+            index = 2 * index + (directions[level - 1] ? 2 : 1);
+            assertEquals(index, buckets[level].getBlocks()[0].getBlockID());
+        }
+    }
+}
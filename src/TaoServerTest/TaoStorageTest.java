@@ -0,0 +1,119 @@
+package TaoServerTest;
+
+import TaoServer.Storage;
+import TaoServer.TaoFileStorage;
+import TaoServer.TaoMappedStorage;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * @brief
+ */
+public class TaoStorageTest {
+    // Write a pattern that spans several small segments, then read it back
+    private void checkReadWrite(Storage storage) throws Exception {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        // Write at an offset that does not line up with a segment
+        storage.write(50, data, 0, data.length);
+        storage.commit();
+
+        // Read back into the middle of a larger array
+        byte[] read = new byte[data.length + 10];
+        storage.read(50, read, 10, data.length);
+        assertTrue(Arrays.equals(data, Arrays.copyOfRange(read, 10, read.length)));
+
+        // Overwrite part of the data and check only that part changed
+        byte[] overwrite = new byte[20];
+        Arrays.fill(overwrite, (byte) 7);
+        storage.write(120, overwrite, 0, overwrite.length);
+        storage.commit();
+        storage.read(50, read, 10, data.length);
+        for (int i = 0; i < data.length; i++) {
+            byte expected = (i >= 70 && i < 90) ? 7 : data[i];
+            assertEquals(expected, read[10 + i]);
+        }
+    }
+
+    @Test
+    public void testMappedStorage() throws Exception {
+        String[] policies = {Storage.SYNC_NONE, Storage.SYNC_ALWAYS, Storage.SYNC_GROUP, Storage.SYNC_PERIODIC};
+        for (String policy : policies) {
+            File file = File.createTempFile("oram", ".txt");
+            file.deleteOnExit();
+
+            // Use tiny segments so reads and writes cross segment boundaries
+            Storage storage = new TaoMappedStorage(file.getPath(), 1000, 64, policy, 10);
+            checkReadWrite(storage);
+            storage.close();
+
+            // Check that the data is in the file once closed
+            Storage reopened = new TaoMappedStorage(file.getPath(), 1000, 1000, Storage.SYNC_NONE, 10);
+            byte[] read = new byte[1];
+            reopened.read(51, read, 0, 1);
+            assertEquals(1, read[0]);
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testFileStorage() throws Exception {
+        File file = File.createTempFile("oram", ".txt");
+        file.deleteOnExit();
+
+        Storage storage = new TaoFileStorage(file.getPath(), 1000);
+        checkReadWrite(storage);
+        storage.close();
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        File fileA = File.createTempFile("oram", ".txt");
+        File fileB = File.createTempFile("oram", ".txt");
+        fileA.deleteOnExit();
+        fileB.deleteOnExit();
+        Storage[] engines = {new TaoFileStorage(fileA.getPath(), 8000),
+                new TaoMappedStorage(fileB.getPath(), 8000, 512, Storage.SYNC_GROUP, 10)};
+
+        for (Storage storage : engines) {
+            // Each thread repeatedly writes and reads back its own region
+            AtomicBoolean failed = new AtomicBoolean();
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                int region = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        byte[] data = new byte[1000];
+                        byte[] read = new byte[1000];
+                        for (int i = 0; i < 50; i++) {
+                            Arrays.fill(data, (byte) (region + i));
+                            storage.write(region * 1000, data, 0, data.length);
+                            storage.commit();
+                            storage.read(region * 1000, read, 0, read.length);
+                            if (!Arrays.equals(data, read)) {
+                                failed.set(true);
+                            }
+                        }
+                    } catch (Exception e) {
+                        failed.set(true);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertFalse(failed.get());
+            storage.close();
+        }
+    }
+}